@@ -10,6 +10,7 @@ import static java.util.Objects.requireNonNull;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Strings.padStart;
 import static org.dcache.util.ChecksumType.ADLER32;
+import static org.dcache.util.ChecksumType.CRC32C;
 
 public class Checksum  implements Serializable
 {
@@ -43,7 +44,7 @@ public class Checksum  implements Serializable
     /**
      * Creates a new instance of Checksum based on supplied type and a
      * string of the checksum value in hexadecimal.  If the type is ADLER32
-     * then the value may omit any leading zeros.
+     * or CRC32C then the value may omit any leading zeros.
      * @param type The checksum algorithm.
      * @param value The hexadecimal representation of the checksum value.
      * @throws NullPointerException if either argument is null
@@ -86,10 +87,11 @@ public class Checksum  implements Serializable
         String normalised = value.trim().toLowerCase();
         /**
          * Due to bug in checksum calculation module, some ADLER32
-         * sums are stored without leading zeros.
+         * sums are stored without leading zeros. Clients commonly drop
+         * leading zeros of CRC32C values too.
          */
 
-        if (type == ADLER32) {
+        if (type == ADLER32 || type == CRC32C) {
             normalised = padStart(normalised, type.getNibbles(), '0');
         }
 
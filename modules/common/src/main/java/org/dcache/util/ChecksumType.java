@@ -19,7 +19,13 @@ public enum ChecksumType
         }
     },
     MD5_TYPE(2,"MD5", 128),
-    MD4_TYPE(3,"MD4", 128);
+    MD4_TYPE(3,"MD4", 128),
+    CRC32C(4,"CRC32C", 32) {
+        @Override
+        public MessageDigest createMessageDigest() {
+            return new Crc32c();
+        }
+    };
 
     private final int type;
     private final String name;
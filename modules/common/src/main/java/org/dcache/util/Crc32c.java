@@ -0,0 +1,66 @@
+package org.dcache.util;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.zip.CRC32C;
+
+/**
+ * A {@link MessageDigest} implementation of the CRC32C (Castagnoli)
+ * checksum.
+ *
+ * The computation is delegated to {@link CRC32C}, which the JVM implements
+ * with hardware instructions where available. ByteBuffers are passed on
+ * without copying, so direct buffers are checksummed in place.
+ */
+public class Crc32c extends MessageDigest
+{
+    private final CRC32C _crc = new CRC32C();
+
+    public Crc32c()
+    {
+        super("CRC32C");
+    }
+
+    @Override
+    protected void engineUpdate(byte input)
+    {
+        _crc.update(input);
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len)
+    {
+        _crc.update(input, offset, len);
+    }
+
+    @Override
+    protected void engineUpdate(ByteBuffer input)
+    {
+        _crc.update(input);
+    }
+
+    @Override
+    protected byte[] engineDigest()
+    {
+        long value = _crc.getValue();
+        _crc.reset();
+        return new byte[] {
+                (byte) (value >>> 24),
+                (byte) (value >>> 16),
+                (byte) (value >>> 8),
+                (byte) value
+        };
+    }
+
+    @Override
+    protected void engineReset()
+    {
+        _crc.reset();
+    }
+
+    @Override
+    protected int engineGetDigestLength()
+    {
+        return 4;
+    }
+}
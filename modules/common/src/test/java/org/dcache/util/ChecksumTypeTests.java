@@ -6,6 +6,7 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 
 import static org.dcache.util.ChecksumType.ADLER32;
+import static org.dcache.util.ChecksumType.CRC32C;
 import static org.dcache.util.ChecksumType.MD5_TYPE;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
@@ -59,6 +60,17 @@ public class ChecksumTypeTests
         assertThat(digest.digest(), is(equalTo(bytes)));
     }
 
+    @Test
+    public void shouldCreateCrc32cMessageDigest() {
+        MessageDigest digest = CRC32C.createMessageDigest();
+        digest.update("123456789".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(digest.getAlgorithm(), is(equalTo("CRC32C")));
+        assertThat(digest.getDigestLength(), is(equalTo(4)));
+        byte[] bytes = {(byte)0xe3, 0x06, (byte)0x92, (byte)0x83};
+        assertThat(digest.digest(), is(equalTo(bytes)));
+    }
+
     @Test
     public void shouldCreateMD5MessageDigest() {
         MessageDigest digest = MD5_TYPE.createMessageDigest();
@@ -70,6 +82,13 @@ public class ChecksumTypeTests
         assertThat(digest.digest(), is(equalTo(bytes)));
     }
 
+    @Test
+    public void shouldCalculateCorrectCrc32cChecksum() {
+        Checksum checksum = CRC32C.calculate("The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8));
+        assertThat(checksum.getType(), is(CRC32C));
+        assertThat(checksum.getValue(), is(equalTo("22620404")));
+    }
+
     @Test
     public void shouldCalculateCorrectAdler32Checksum() {
         Checksum checksum = ADLER32.calculate("The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8));
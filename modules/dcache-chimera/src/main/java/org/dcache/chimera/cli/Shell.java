@@ -999,7 +999,7 @@ public class Shell extends ShellApplication
         @Argument(index = 0)
         File path;
 
-        @Argument(index = 1, valueSpec = "adler32|md5_type|md4_type")
+        @Argument(index = 1, valueSpec = "adler32|md5_type|md4_type|crc32c")
         ChecksumType type;
 
         @Override
@@ -1021,7 +1021,7 @@ public class Shell extends ShellApplication
         @Argument(index = 0)
         File path;
 
-        @Argument(index = 1, valueSpec = "adler32|md5_type|md4_type")
+        @Argument(index = 1, valueSpec = "adler32|md5_type|md4_type|crc32c")
         ChecksumType type;
 
         @Argument(index = 2)
@@ -1046,7 +1046,7 @@ public class Shell extends ShellApplication
         @Argument(index = 0)
         File path;
 
-        @Argument(index = 1, valueSpec = "adler32|md5_type|md4_type")
+        @Argument(index = 1, valueSpec = "adler32|md5_type|md4_type|crc32c")
         ChecksumType type;
 
         @Override
@@ -10,6 +10,7 @@ import diskCacheV111.vehicles.PoolManagerPoolUpMessage;
 
 import dmg.cells.nucleus.CellMessageReceiver;
 
+import org.dcache.poolmanager.PoolHeartbeatResolver;
 import org.dcache.util.Args;
 
 /**
@@ -33,6 +34,12 @@ public class PoolInformationBase implements CellMessageReceiver
     private final Map<String, PoolInformation> _pools =
         new HashMap<>();
 
+    /**
+     * Resolves delta heartbeats. Unresolvable deltas are ignored; the pool
+     * information is updated by the next full heartbeat.
+     */
+    private final PoolHeartbeatResolver _heartbeats = new PoolHeartbeatResolver();
+
     /**
      * Map from HSM instance name to the set of pools attached to that
      * HSM.
@@ -101,6 +108,11 @@ public class PoolInformationBase implements CellMessageReceiver
      * mechanism with which these messages arrive here.
      */
     public synchronized void messageArrived(PoolManagerPoolUpMessage message)
+    {
+        _heartbeats.resolve(message).ifPresent(this::poolUp);
+    }
+
+    private void poolUp(PoolManagerPoolUpMessage message)
     {
         String name = message.getPoolName();
 
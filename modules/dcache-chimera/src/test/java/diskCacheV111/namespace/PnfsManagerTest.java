@@ -17,6 +17,7 @@ import java.net.URI;
 import java.net.URL;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Properties;
@@ -54,6 +55,7 @@ import org.dcache.namespace.PosixPermissionHandler;
 import org.dcache.util.Checksum;
 import org.dcache.util.ChecksumType;
 import org.dcache.vehicles.FileAttributes;
+import org.dcache.vehicles.PnfsBatchMessage;
 import org.dcache.vehicles.PnfsGetFileAttributes;
 import org.dcache.vehicles.PnfsSetFileAttributes;
 
@@ -545,6 +547,31 @@ public class PnfsManagerTest
 
     }
 
+    @Test
+    public void testBatchReportsResultPerRequest() throws Exception {
+
+        PnfsCreateEntryMessage create = new PnfsCreateEntryMessage("/pnfs/testRoot/batchFile",
+                FileAttributes.ofFileType(REGULAR));
+        _pnfsManager.createEntry(create);
+        assertThat("Creating entry failed", create.getReturnCode(), is(0));
+
+        PnfsGetFileAttributes exists = new PnfsGetFileAttributes(create.getPnfsId(), EnumSet.of(SIZE));
+        PnfsSetFileAttributes missing = new PnfsSetFileAttributes(new PnfsId(FsInode.generateNewID()),
+                FileAttributes.ofChecksum(new Checksum(ChecksumType.ADLER32, "12345678")));
+        PnfsCreateEntryMessage notBatchable = new PnfsCreateEntryMessage("/pnfs/testRoot/batchFile2",
+                FileAttributes.ofFileType(REGULAR));
+        PnfsBatchMessage batch = new PnfsBatchMessage(Arrays.asList(exists, missing, notBatchable));
+        batch.setReplyRequired(false);
+
+        _pnfsManager.processPnfsMessage(null, batch);
+
+        assertThat(batch.getReturnCode(), is(0));
+        assertThat(exists.getReturnCode(), is(0));
+        assertThat(missing.getReturnCode(), is(CacheException.FILE_NOT_FOUND));
+        assertThat(notBatchable.getReturnCode(), is(CacheException.INVALID_ARGS));
+        assertNotExists("/pnfs/testRoot/batchFile2");
+    }
+
     @Test
     public void testGetCombinedAttributesNonExist() {
 
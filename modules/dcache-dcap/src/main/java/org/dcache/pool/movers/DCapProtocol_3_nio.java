@@ -57,6 +57,12 @@ public class DCapProtocol_3_nio implements MoverProtocol, ChecksumMover, CellArg
      */
     private static final long MAX_REQUEST_SIZE = MiB.toBytes(8);
 
+    /**
+     * Largest gap between two vectored read requests that are still
+     * coalesced into a single read from the file.
+     */
+    private static final int MAX_READV_GAP = KiB.toBytes(64);
+
     private final Map<String,Object> _context;
     private final CellEndpoint     _cell;
 
@@ -67,6 +73,9 @@ public class DCapProtocol_3_nio implements MoverProtocol, ChecksumMover, CellArg
     private long _lastTransferred    = System.currentTimeMillis();
 
     private ByteBuffer _bigBuffer;
+    private final ByteBuffer _chunkHeader = ByteBuffer.allocate(4);
+    private final ByteBuffer[] _chunk = new ByteBuffer[2];
+    private boolean _zeroCopy        = true;
     private String  _status          = "None";
     private boolean _io_ok           = true;
     private Exception ioException    = null;
@@ -98,13 +107,20 @@ public class DCapProtocol_3_nio implements MoverProtocol, ChecksumMover, CellArg
     private void initialiseBuffer(MoverIoBuffer bufferSize) {
         try {
             _bigBuffer = _bigBuffer
-                    == null ? ByteBuffer.allocate(bufferSize.getIoBufferSize()) :
+                    == null ? DirectBufferPool.getInstance().acquire(bufferSize.getIoBufferSize()) :
                         _bigBuffer;
         } catch (OutOfMemoryError om) {
             _bigBuffer = ByteBuffer.allocate(KiB.toBytes(32));
         }
     }
 
+    private void releaseBuffer() {
+        if (_bigBuffer != null && _bigBuffer.isDirect()) {
+            DirectBufferPool.getInstance().release(_bigBuffer);
+        }
+        _bigBuffer = null;
+    }
+
     private MoverIoBuffer prepareBufferSize(StorageInfo storage) {
         MoverIoBuffer bufferSize = new MoverIoBuffer(_defaultBufferSize);
         String tmp;
@@ -246,6 +262,8 @@ public class DCapProtocol_3_nio implements MoverProtocol, ChecksumMover, CellArg
         _log.info("Setup : Defaults Buffer Sizes  : {}", _defaultBufferSize);
         _log.info("Setup : Max Buffer Sizes       : {}", _maxBufferSize);
 
+        _zeroCopy = _args.getBooleanOption("dcapZeroCopy", true);
+
     }
     private synchronized int getParameterInt(String name, int defaultValue){
         String stringValue = (String)_context.get("dCap3-"+name);
@@ -741,6 +759,8 @@ public class DCapProtocol_3_nio implements MoverProtocol, ChecksumMover, CellArg
                 socketChannel.close();
             }catch(Exception xe){}
 
+            releaseBuffer();
+
             dcapProtocolInfo.setBytesTransferred(_bytesTransferred);
 
             _transferTime = System.currentTimeMillis() -
@@ -786,48 +806,136 @@ public class DCapProtocol_3_nio implements MoverProtocol, ChecksumMover, CellArg
 
         int blocks = requestBLock.nextInt();
         _log.debug("READV: {} to read", blocks);
-        final int maxBuffer = _bigBuffer.capacity() - 4;
+        long[] offsets = new long[blocks];
+        int[] counts = new int[blocks];
         for(int i = 0; i < blocks; i++) {
+            offsets[i] = requestBLock.nextLong();
+            counts[i] = requestBLock.nextInt();
+            _log.debug("READV: offset/len: {}/{}", offsets[i], counts[i]);
+        }
 
+        int i = 0;
+        while(i < blocks && _io_ok) {
+            //
+            // coalesce the following requests as long as their data
+            // fits into the buffer together with the data of this
+            // request, so that it is read from the file in one go.
+            // The replies are still sent in request order.
+            //
+            long start = offsets[i];
+            long end = offsets[i] + counts[i];
+            int next = i + 1;
+            while(next < blocks) {
+                long nextStart = offsets[next];
+                long nextEnd = offsets[next] + counts[next];
+                long gap = nextStart >= start ? nextStart - end : start - nextEnd;
+                if(gap > MAX_READV_GAP ||
+                        Math.max(end, nextEnd) - Math.min(start, nextStart) > _bigBuffer.capacity()) {
+                    break;
+                }
+                start = Math.min(start, nextStart);
+                end = Math.max(end, nextEnd);
+                next++;
+            }
 
-            long offset = requestBLock.nextLong();
-            int count = requestBLock.nextInt();
-            int len = count;
+            if(end - start > _bigBuffer.capacity()) {
+                readvBlock(fileChannel, socketChannel, offsets[i], counts[i]);
+            } else {
+                readvCoalesced(fileChannel, socketChannel, start, (int) (end - start),
+                        offsets, counts, i, next);
+            }
+            i = next;
+        }
 
-            _log.debug("READV: offset/len: {}/{}", offset, count);
+    }
 
-            while(count > 0) {
+    private void readvCoalesced(RepositoryChannel fileChannel, SocketChannel socketChannel,
+                                long start, int length, long[] offsets, int[] counts,
+                                int from, int to) throws Exception {
 
-                int bytesToRead = maxBuffer > count ? count : maxBuffer;
-                int rc;
-                try{
-                    _bigBuffer.clear().limit(bytesToRead+4);
-                    _bigBuffer.position(4);
-                    rc = fileChannel.read(_bigBuffer, offset + (len - count));
-                    if(rc <= 0) {
-                        break;
-                    }
-                }catch (ClosedByInterruptException ee) {
-                    // clear interrupted state
-                    Thread.interrupted();
-                    throw new InterruptedException(ee.getMessage());
-                }catch(IOException ee){
-                    _io_ok = false;
+        try{
+            _bigBuffer.clear().limit(length);
+            while(_bigBuffer.hasRemaining()) {
+                if(fileChannel.read(_bigBuffer, start + _bigBuffer.position()) <= 0) {
                     break;
                 }
+            }
+        }catch (ClosedByInterruptException ee) {
+            // clear interrupted state
+            Thread.interrupted();
+            throw new InterruptedException(ee.getMessage());
+        }catch(IOException ee){
+            _io_ok = false;
+            return;
+        }
+        int available = _bigBuffer.position();
 
-                _bigBuffer.flip();
-                _bigBuffer.putInt(rc).rewind();
-                _log.debug("READV: sending: {} bytes", _bigBuffer.limit());
-                socketChannel.write(_bigBuffer);
+        for(int i = from; i < to; i++) {
+            int position = (int) (offsets[i] - start);
+            int rc = Math.min(counts[i], available - position);
+            if(rc <= 0) {
+                continue;
+            }
+            ByteBuffer data = _bigBuffer.duplicate();
+            data.limit(position + rc).position(position);
+            _log.debug("READV: sending: {} bytes", rc + 4);
+            writeChunk(socketChannel, rc, data);
+            _bytesTransferred += rc;
+        }
+    }
 
-                count -= rc;
-                _bytesTransferred += rc;
+    private void readvBlock(RepositoryChannel fileChannel, SocketChannel socketChannel,
+                            long offset, int count) throws Exception {
 
+        final int maxBuffer = _bigBuffer.capacity() - 4;
+        int len = count;
+
+        while(count > 0) {
+
+            int bytesToRead = maxBuffer > count ? count : maxBuffer;
+            int rc;
+            try{
+                _bigBuffer.clear().limit(bytesToRead+4);
+                _bigBuffer.position(4);
+                rc = fileChannel.read(_bigBuffer, offset + (len - count));
+                if(rc <= 0) {
+                    break;
+                }
+            }catch (ClosedByInterruptException ee) {
+                // clear interrupted state
+                Thread.interrupted();
+                throw new InterruptedException(ee.getMessage());
+            }catch(IOException ee){
+                _io_ok = false;
+                break;
             }
+
+            _bigBuffer.flip();
+            _bigBuffer.putInt(rc).rewind();
+            _log.debug("READV: sending: {} bytes", _bigBuffer.limit());
+            socketChannel.write(_bigBuffer);
+
+            count -= rc;
+            _bytesTransferred += rc;
+
         }
+    }
 
+    /**
+     * Writes a data chunk, consisting of the chunk size followed by
+     * the data, with a single gathering write.
+     */
+    private void writeChunk(SocketChannel socketChannel, int size, ByteBuffer data)
+            throws IOException {
+        _chunkHeader.clear();
+        _chunkHeader.putInt(size).flip();
+        _chunk[0] = _chunkHeader;
+        _chunk[1] = data;
+        while(data.hasRemaining()) {
+            socketChannel.write(_chunk);
+        }
     }
+
     private void scanCloseBlock(RequestBlock requestBlock, StorageInfo storage) {
 
         //
@@ -1049,24 +1157,47 @@ public class DCapProtocol_3_nio implements MoverProtocol, ChecksumMover, CellArg
 
             size = maxBuffer > rest ? (int)rest : maxBuffer;
 
-            try{
-                _bigBuffer.clear().limit(size+4);
-                _bigBuffer.position(4);
-                rc = fileChannel.read(_bigBuffer);
+            if(_zeroCopy) {
+                //
+                // the chunk size is sent ahead of the data, so it is
+                // limited to what is available in the file.
+                //
+                long position;
+                try{
+                    position = fileChannel.position();
+                    rc = (int)Math.min(size, fileChannel.size() - position);
+                } catch (ClosedByInterruptException ee) {
+                    // clear interrupted state
+                    Thread.interrupted();
+                    throw new InterruptedException(ee.getMessage());
+                }catch(IOException ee){
+                    _io_ok = false;
+                    break;
+                }
                 if(rc <= 0) {
                     break;
                 }
-            } catch (ClosedByInterruptException ee) {
-                // clear interrupted state
-                Thread.interrupted();
-                throw new InterruptedException(ee.getMessage());
-            }catch(IOException ee){
-                _io_ok = false;
-                break;
+                transferChunk(fileChannel, socketChannel, position, rc);
+            } else {
+                try{
+                    _bigBuffer.clear().limit(size+4);
+                    _bigBuffer.position(4);
+                    rc = fileChannel.read(_bigBuffer);
+                    if(rc <= 0) {
+                        break;
+                    }
+                } catch (ClosedByInterruptException ee) {
+                    // clear interrupted state
+                    Thread.interrupted();
+                    throw new InterruptedException(ee.getMessage());
+                }catch(IOException ee){
+                    _io_ok = false;
+                    break;
+                }
+                _bigBuffer.flip();
+                _bigBuffer.putInt(rc).rewind();
+                socketChannel.write(_bigBuffer);
             }
-            _bigBuffer.flip();
-            _bigBuffer.putInt(rc).rewind();
-            socketChannel.write(_bigBuffer);
             rest -= rc;
             _bytesTransferred += rc;
             if((_ioError > 0L) && (_bytesTransferred > _ioError)){
@@ -1084,6 +1215,97 @@ public class DCapProtocol_3_nio implements MoverProtocol, ChecksumMover, CellArg
         socketChannel.write(cntOut.buffer());
 
     }
+    /**
+     * Sends a data chunk of count bytes starting at position in the
+     * file, using zero-copy transfer from the file to the socket, and
+     * advances the file position accordingly. Falls back to copying
+     * through the buffer if the file does not support zero-copy.
+     *
+     * The chunk length is announced before the data. Should reading the
+     * file fail before all of the chunk has been sent, the client cannot
+     * tell the remaining bytes from the next header. The transfer is then
+     * aborted by closing the socket, _io_ok is cleared and an IOException
+     * is thrown. Failures to write to the socket are propagated.
+     */
+    private void transferChunk(RepositoryChannel fileChannel, SocketChannel socketChannel,
+                               long position, int count) throws Exception {
+        _chunkHeader.clear();
+        _chunkHeader.putInt(count).flip();
+        while(_chunkHeader.hasRemaining()) {
+            socketChannel.write(_chunkHeader);
+        }
+
+        long sent = 0;
+        try{
+            while(sent < count) {
+                long n;
+                try{
+                    n = _zeroCopy
+                            ? fileChannel.transferTo(position + sent, count - sent, socketChannel)
+                            : copyToSocket(fileChannel, socketChannel, position + sent, (int)(count - sent));
+                }catch(UnsupportedOperationException ee){
+                    _log.debug("Zero-copy not supported: {}", ee.toString());
+                    _zeroCopy = false;
+                    continue;
+                }
+                if(n <= 0) {
+                    abortChunk(socketChannel, position, sent, count,
+                            new EOFException("Unexpected end of file at " + (position + sent)));
+                }
+                sent += n;
+            }
+        } catch (ClosedByInterruptException ee) {
+            // clear interrupted state
+            Thread.interrupted();
+            throw new InterruptedException(ee.getMessage());
+        }catch(IOException ee){
+            //
+            // transferTo does not tell whether reading the file or
+            // writing the socket failed. Only the former is a disk
+            // error. An already aborted transfer is passed on.
+            //
+            if(!_io_ok || isReadable(fileChannel, position + sent)) {
+                throw ee;
+            }
+            abortChunk(socketChannel, position, sent, count, ee);
+        }
+        fileChannel.position(position + count);
+    }
+
+    /**
+     * Aborts the transfer after a chunk could not be read in full.
+     */
+    private void abortChunk(SocketChannel socketChannel, long position, long sent, int count,
+                            IOException cause) throws IOException {
+        _log.error("Failed to read {} of {} bytes at {}, aborting transfer: {}",
+                count - sent, count, position, cause.getMessage());
+        _io_ok = false;
+        socketChannel.close();
+        throw new IOException("Transfer aborted after short chunk: " + cause.getMessage(), cause);
+    }
+
+    private int copyToSocket(RepositoryChannel fileChannel, SocketChannel socketChannel,
+                             long position, int count) throws IOException {
+        _bigBuffer.clear().limit(Math.min(count, _bigBuffer.capacity()));
+        int rc = fileChannel.read(_bigBuffer, position);
+        if(rc > 0) {
+            _bigBuffer.flip();
+            while(_bigBuffer.hasRemaining()) {
+                socketChannel.write(_bigBuffer);
+            }
+        }
+        return rc;
+    }
+
+    private boolean isReadable(RepositoryChannel fileChannel, long position) {
+        try{
+            fileChannel.read(ByteBuffer.allocate(1), position);
+            return true;
+        }catch(IOException e){
+            return false;
+        }
+    }
+
     @Override
     public long getLastTransferred() { return _lastTransferred; }
     @Override
@@ -24,6 +24,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import org.dcache.pool.movers.DirectBufferPool;
 import org.dcache.pool.repository.RepositoryChannel;
 import org.dcache.util.Strings;
 
@@ -53,8 +54,24 @@ public abstract class Mode extends AbstractMultiplexerListener
 
     protected   long              _fileSize;
 
-    /** Buffer for transferTo and transferFrom. */
-    private final ByteBuffer        _buffer = ByteBuffer.allocate(KiB.toBytes(8));
+    /** Default size of the transfer buffer. */
+    public static final int DEFAULT_TRANSFER_BUFFER_SIZE = KiB.toBytes(128);
+
+    /**
+     * Direct buffer for transferTo and transferFrom. Acquired from
+     * the DirectBufferPool on first use and returned to the pool by
+     * releaseBuffer.
+     */
+    private   ByteBuffer        _buffer;
+
+    /** Size of _buffer. */
+    private   int               _transferBufferSize = DEFAULT_TRANSFER_BUFFER_SIZE;
+
+    /** Scatter array used by transferFrom. */
+    private final ByteBuffer[]  _scatter = new ByteBuffer[2];
+
+    /** Whether transferTo may use zero-copy mode. */
+    private   boolean           _zeroCopy;
 
     /** The address to connect to for outgoing connections. */
     private   InetSocketAddress     _address;
@@ -164,6 +181,49 @@ public abstract class Mode extends AbstractMultiplexerListener
         _bufferSize = value;
     }
 
+    /**
+     * Sets the size of the buffer through which data is copied between
+     * sockets and the file.
+     */
+    public void setTransferBufferSize(int value)
+    {
+        if (value <= 0) {
+            throw new IllegalArgumentException("Transfer buffer size must be positive");
+        }
+        _transferBufferSize = value;
+    }
+
+    /**
+     * Enables zero-copy mode for sending data, in which case data is
+     * transferred from the file to the socket by the kernel without
+     * being copied through user space. Disabled unless set; the FTP
+     * mover enables it unless pool.mover.ftp.zero-copy is false.
+     */
+    public void setZeroCopy(boolean value)
+    {
+        _zeroCopy = value;
+    }
+
+    /**
+     * Returns the transfer buffer to the DirectBufferPool. Must be
+     * called once the transfer has ended.
+     */
+    public void releaseBuffer()
+    {
+        if (_buffer != null) {
+            DirectBufferPool.getInstance().release(_buffer);
+            _buffer = null;
+        }
+    }
+
+    private ByteBuffer buffer()
+    {
+        if (_buffer == null) {
+            _buffer = DirectBufferPool.getInstance().acquire(_transferBufferSize);
+        }
+        return _buffer;
+    }
+
     /**
      * Sets the number of concurrent connections to use. Only relevant
      * for outgoing connections. Parallelism is not supported by all
@@ -198,35 +258,51 @@ public abstract class Mode extends AbstractMultiplexerListener
     /**
      * Like calling _file.transferTo().
      *
-     * This method behaves similarly to FileChannel.transferTo, except
-     * that it never uses zero-copy mode. FileChannel.transferTo has
-     * been subject to a large number of bugs throughout the history
-     * of Java.
+     * In zero-copy mode, _file.transferTo() is used directly; should
+     * the file not support it, zero-copy mode is disabled for the rest
+     * of the transfer. Otherwise this method behaves similarly to
+     * FileChannel.transferTo, except that the data is copied through
+     * the transfer buffer. Disabling zero-copy mode is a workaround for
+     * platforms with a faulty sendfile implementation.
      */
     protected long transferTo(long position, long count, SocketChannel socket)
         throws IOException
     {
+        if (_zeroCopy) {
+            try {
+                long nw = _file.transferTo(position, count, socket);
+                if (nw == 0 && position >= _file.size()) {
+                    return -1;
+                }
+                return nw;
+            } catch (UnsupportedOperationException e) {
+                LOGGER.debug("Zero-copy not supported by {}: {}", _file, e.toString());
+                _zeroCopy = false;
+            }
+        }
+
+        ByteBuffer buffer = buffer();
         long tr = 0;                        // Total bytes read
         long pos = position;
-        _buffer.clear();
+        buffer.clear();
         while (tr < count) {
-            _buffer.limit((int)Math.min((count - tr),
-                                        (long)_buffer.capacity()));
-            int nr = _file.read(_buffer, pos);
+            buffer.limit((int)Math.min((count - tr),
+                                       (long)buffer.capacity()));
+            int nr = _file.read(buffer, pos);
             if (nr < 0 && tr == 0) {
                 return -1;
             }
             if (nr <= 0) {
                 break;
             }
-            _buffer.flip();
-            int nw = socket.write(_buffer);
+            buffer.flip();
+            int nw = socket.write(buffer);
             tr += nw;
             if (nw != nr) {
                 break;
             }
             pos += nw;
-            _buffer.clear();
+            buffer.clear();
         }
         return tr;
     }
@@ -242,10 +318,12 @@ public abstract class Mode extends AbstractMultiplexerListener
      * selector claimed data was ready and a normal read returned
      * data).
      *
-     * The current implementation copies data into memory and writes
-     * it do disk. This should be no slower than using
-     * FileChannel.transferFrom() from JDK 6, since that does exactly
-     * the same when copying from a SocketChannel.
+     * The current implementation copies data into a direct buffer and
+     * writes it do disk. This should be no slower than using
+     * FileChannel.transferFrom(), since that does exactly the same
+     * when copying from a SocketChannel. Since the buffer is direct,
+     * the JDK does not copy the data a second time through a
+     * temporary buffer.
      *
      * An alternative would be to map the file into memory and read
      * from the socket directly into the mapped file. That however
@@ -255,28 +333,56 @@ public abstract class Mode extends AbstractMultiplexerListener
     protected long transferFrom(SocketChannel socket, long position, long count)
         throws IOException
     {
+        return transferFrom(socket, position, count, null);
+    }
+
+    /**
+     * Like transferFrom(SocketChannel, long, long), but when the
+     * remainder of the count fits into the transfer buffer, the bytes
+     * following the count are read into next with the same scatter
+     * read. This allows a block oriented mode to receive the header of
+     * the next block together with the tail of the current block.
+     * Once bytes have been read into next, no further data is read.
+     */
+    protected long transferFrom(SocketChannel socket, long position, long count,
+                                ByteBuffer next)
+        throws IOException
+    {
+        ByteBuffer buffer = buffer();
         long tw = 0;                    // Total bytes written
         long pos = position;
+        int nextPosition = (next == null) ? 0 : next.position();
         try {
-            _buffer.clear();
+            buffer.clear();
             while (tw < count) {
-                _buffer.limit((int)Math.min((count - tw),
-                                            (long)_buffer.capacity()));
-                int nr = socket.read(_buffer);
+                buffer.limit((int)Math.min((count - tw),
+                                           (long)buffer.capacity()));
+                long nr;
+                if (next != null && count - tw <= buffer.capacity()) {
+                    _scatter[0] = buffer;
+                    _scatter[1] = next;
+                    nr = socket.read(_scatter);
+                } else {
+                    nr = socket.read(buffer);
+                }
                 if (nr < 0 && tw == 0) {
                     return -1;
                 }
                 if (nr <= 0) {
                     break;
                 }
-                _buffer.flip();
-                int nw = _file.write(_buffer, pos);
+                buffer.flip();
+                int nd = buffer.remaining();
+                int nw = _file.write(buffer, pos);
                 tw += nw;
-                if (nw != nr) {
+                if (nw != nd) {
                     break;
                 }
                 pos += nw;
-                _buffer.clear();
+                buffer.clear();
+                if (next != null && next.position() > nextPosition) {
+                    break;
+                }
             }
             return tw;
         } catch (IOException x) {
@@ -273,13 +273,32 @@ public class ModeE extends Mode
 
         private void doRead(Multiplexer multiplexer, SelectionKey key)
                 throws IOException, FTPException
+        {
+            /* The header of the next block may already have been
+             * received together with the tail of the previous block,
+             * in which case we loop to process it: the socket may not
+             * become readable again if that was the last header.
+             */
+            do {
+                if (!readBlock(multiplexer, key)) {
+                    return;
+                }
+            } while (_count == 0 && !_header.hasRemaining());
+        }
+
+        /**
+         * Reads the header and data of the current block. Returns false
+         * if the channel was closed.
+         */
+        private boolean readBlock(Multiplexer multiplexer, SelectionKey key)
+                throws IOException, FTPException
         {
             /* _count is zero when we have received all of the
              * previous block. We expect to read the header of the
              * next block.
              */
             if (_count == 0) {
-                long nbytes = _socket.read(_header);
+                long nbytes = _header.hasRemaining() ? _socket.read(_header) : 0;
                 if (nbytes == -1) {
                     /* Stream was closed. The GridFTP 1 spec states
                      * that the sender must send EOD when no more data
@@ -295,7 +314,7 @@ public class ModeE extends Mode
                     }
                     close(multiplexer, key, _opened == _eodc);
                     _activeDataChannels.decrementAndGet();
-                    return;
+                    return false;
                 }
 
                 _used = true;
@@ -303,7 +322,7 @@ public class ModeE extends Mode
                 if (_header.position() < _header.limit()) {
                     /* Incomplete header.
                      */
-                    return;
+                    return true;
                 }
 
                 _header.rewind();
@@ -364,15 +383,19 @@ public class ModeE extends Mode
                     if ((_flags & EOD_DESCRIPTOR) != 0) {
                         close(multiplexer, key, _opened == _eodc);
                         _activeDataChannels.decrementAndGet();
+                        return false;
                     }
-                    return;
+                    return true;
                 }
 
             }
 
-            /* Receive data.
+            /* Receive data. Unless this is the last block on this
+             * channel, the header of the next block is received with
+             * the same scatter read as the tail of this block.
              */
-            long nbytes = transferFrom(_socket, _position, _count);
+            ByteBuffer next = (_flags & EOD_DESCRIPTOR) == 0 ? _header : null;
+            long nbytes = transferFrom(_socket, _position, _count, next);
             if (nbytes == -1) {
                 throw new FTPException("Stream was closed in the middle of a block");
             }
@@ -385,7 +408,9 @@ public class ModeE extends Mode
             if (_count == 0 && (_flags & EOD_DESCRIPTOR) != 0) {
                 close(multiplexer, key, _opened == _eodc);
                 _activeDataChannels.decrementAndGet();
+                return false;
             }
+            return true;
         }
     }
 
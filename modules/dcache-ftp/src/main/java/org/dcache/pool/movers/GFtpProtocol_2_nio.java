@@ -167,6 +167,18 @@ public class GFtpProtocol_2_nio implements ConnectionMonitor,
      */
     protected Integer _blockSize;
 
+    /**
+     * Size of the buffer through which data is copied between the
+     * sockets and the file. Mode default is used when null.
+     */
+    protected Integer _transferBufferSize;
+
+    /**
+     * Whether data is sent from the file to the sockets in zero-copy
+     * mode.
+     */
+    protected boolean _zeroCopy;
+
     /**
      * Whether true passive mode is allowed, i.e. whether clients are
      * allowed to connect directly to the pool. Do not enable this if
@@ -202,23 +214,32 @@ public class GFtpProtocol_2_nio implements ConnectionMonitor,
     protected Mode createMode(String mode, Role role, RepositoryChannel fileChannel)
             throws IOException
     {
+        Mode result;
         int blockSize;
         switch (Character.toUpperCase(mode.charAt(0))) {
         case 'S':
             blockSize =
                     (_blockSize == null) ? MODE_S_DEFAULT_BLOCK_SIZE : _blockSize;
-            return new ModeS(role, fileChannel, this, blockSize);
+            result = new ModeS(role, fileChannel, this, blockSize);
+            break;
         case 'E':
             blockSize =
                     (_blockSize == null) ? MODE_E_DEFAULT_BLOCK_SIZE : _blockSize;
-            return new ModeE(role, fileChannel, this, blockSize);
+            result = new ModeE(role, fileChannel, this, blockSize);
+            break;
         case 'X':
             blockSize =
                     (_blockSize == null) ? MODE_X_DEFAULT_BLOCK_SIZE : _blockSize;
-            return new ModeX(role, fileChannel, this, blockSize);
+            result = new ModeX(role, fileChannel, this, blockSize);
+            break;
         default:
             throw new IllegalArgumentException("Unknown mode");
         }
+        if (_transferBufferSize != null) {
+            result.setTransferBufferSize(_transferBufferSize);
+        }
+        result.setZeroCopy(_zeroCopy);
+        return result;
     }
 
     @Override
@@ -279,6 +300,7 @@ public class GFtpProtocol_2_nio implements ConnectionMonitor,
              */
             _log.trace("Left event loop and closing channels");
             _multiplexer.close();
+            mode.releaseBuffer();
 
             /* Log some useful information about the transfer.
              */
@@ -718,5 +740,11 @@ public class GFtpProtocol_2_nio implements ConnectionMonitor,
         if (args.hasOption("gsiftpBlockSize")) {
             _blockSize = args.getIntOption("gsiftpBlockSize");
         }
+
+        if (args.hasOption("ftpTransferBufferSize")) {
+            _transferBufferSize = args.getIntOption("ftpTransferBufferSize");
+        }
+
+        _zeroCopy = args.getBooleanOption("ftpZeroCopy", true);
     }
 }
@@ -0,0 +1,233 @@
+package org.dcache.ftp.data;
+
+import com.google.common.primitives.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.dcache.pool.repository.FileRepositoryChannel;
+import org.dcache.pool.repository.RepositoryChannel;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.dcache.ftp.data.ModeE.EOD_DESCRIPTOR;
+import static org.dcache.ftp.data.ModeE.EOF_DESCRIPTOR;
+import static org.dcache.ftp.data.ModeE.HEADER_LENGTH;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class ModeETest
+{
+    private static final byte[] HELLO = "Hello, ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] WORLD = "world!".getBytes(StandardCharsets.US_ASCII);
+
+    /** End of file and data on a single data channel. */
+    private static final byte[] EOF = header(EOF_DESCRIPTOR | EOD_DESCRIPTOR, 0, 1);
+
+    private final ExecutorService _executor = Executors.newSingleThreadExecutor();
+
+    private Path _path;
+    private RepositoryChannel _file;
+    private ServerSocketChannel _server;
+    private Multiplexer _multiplexer;
+    private ModeE _mode;
+    private Future<?> _loop;
+    private SocketChannel _client;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        _path = Files.createTempFile("mode-e", null);
+        _file = new FileRepositoryChannel(_path, EnumSet.of(CREATE, READ, WRITE));
+        _server = ServerSocketChannel.open();
+        _server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        _mode = new ModeE(Role.Receiver, _file, mock(ConnectionMonitor.class), 1024);
+        _mode.setPassive(_server);
+        _mode.setTransferBufferSize(4);
+        _multiplexer = new Multiplexer();
+        _multiplexer.add(_mode);
+        _loop = _executor.submit(() -> {
+            _multiplexer.loop();
+            return null;
+        });
+
+        _client = SocketChannel.open(_server.getLocalAddress());
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        _executor.shutdownNow();
+        _executor.awaitTermination(10, TimeUnit.SECONDS);
+        _client.close();
+        _multiplexer.close();
+        _server.close();
+        _mode.releaseBuffer();
+        _file.close();
+        Files.delete(_path);
+    }
+
+    private static byte[] header(int flags, long count, long position)
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.put((byte) flags).putLong(count).putLong(position);
+        return header.array();
+    }
+
+    private static byte[] block(long position, byte[] data)
+    {
+        return Bytes.concat(header(0, data.length, position), data);
+    }
+
+    /**
+     * Sends each part separately, giving the receiver the chance to read
+     * each on its own.
+     */
+    private void send(byte[]... parts) throws IOException, InterruptedException
+    {
+        for (byte[] part : parts) {
+            ByteBuffer buffer = ByteBuffer.wrap(part);
+            while (buffer.hasRemaining()) {
+                _client.write(buffer);
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    private void awaitTransfer() throws Exception
+    {
+        _loop.get(10, TimeUnit.SECONDS);
+    }
+
+    private byte[] received() throws IOException
+    {
+        return Files.readAllBytes(_path);
+    }
+
+    @Test
+    public void shouldReceiveHeaderSplitAcrossReads() throws Exception
+    {
+        byte[] block = block(0, HELLO);
+
+        send(Arrays.copyOfRange(block, 0, 5),
+             Arrays.copyOfRange(block, 5, HEADER_LENGTH - 1),
+             Arrays.copyOfRange(block, HEADER_LENGTH - 1, block.length),
+             Arrays.copyOfRange(EOF, 0, 9),
+             Arrays.copyOfRange(EOF, 9, EOF.length));
+        awaitTransfer();
+
+        assertArrayEquals(HELLO, received());
+        assertTrue(_mode.hasCompletedSuccessfully());
+    }
+
+    @Test
+    public void shouldReceiveSeveralBlocksInSingleRead() throws Exception
+    {
+        send(Bytes.concat(block(HELLO.length, WORLD), block(0, HELLO), EOF));
+        awaitTransfer();
+
+        assertArrayEquals(Bytes.concat(HELLO, WORLD), received());
+        assertTrue(_mode.hasCompletedSuccessfully());
+    }
+
+    @Test
+    public void shouldSkipZeroLengthBlocks() throws Exception
+    {
+        send(header(0, 0, 0), block(0, HELLO), Bytes.concat(header(0, 0, 100), block(HELLO.length, WORLD)), EOF);
+        awaitTransfer();
+
+        assertArrayEquals(Bytes.concat(HELLO, WORLD), received());
+        assertTrue(_mode.hasCompletedSuccessfully());
+    }
+
+    @Test
+    public void shouldReceiveDataOfBlockMarkedWithEod() throws Exception
+    {
+        send(header(EOF_DESCRIPTOR, 0, 1),
+             Bytes.concat(header(EOD_DESCRIPTOR, HELLO.length, 0), HELLO));
+        awaitTransfer();
+
+        assertArrayEquals(HELLO, received());
+        assertTrue(_mode.hasCompletedSuccessfully());
+    }
+
+    @Test
+    public void shouldWaitForAllChannelsAnnouncedByEof() throws Exception
+    {
+        send(block(0, HELLO), header(EOF_DESCRIPTOR | EOD_DESCRIPTOR, 0, 2));
+
+        try (SocketChannel second = SocketChannel.open(_server.getLocalAddress())) {
+            Thread.sleep(50);
+            assertFalse(_loop.isDone());
+
+            second.write(ByteBuffer.wrap(Bytes.concat(block(HELLO.length, WORLD), header(EOD_DESCRIPTOR, 0, 0))));
+            awaitTransfer();
+        }
+
+        assertArrayEquals(Bytes.concat(HELLO, WORLD), received());
+        assertTrue(_mode.hasCompletedSuccessfully());
+    }
+
+    @Test
+    public void shouldFailIfStreamEndsBeforeEod() throws Exception
+    {
+        send(block(0, HELLO));
+        _client.close();
+
+        try {
+            awaitTransfer();
+            fail("Transfer succeeded without EOD");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(FTPException.class)));
+        }
+        assertFalse(_mode.hasCompletedSuccessfully());
+    }
+
+    @Test
+    public void shouldFailIfStreamEndsInMiddleOfBlock() throws Exception
+    {
+        byte[] block = block(0, HELLO);
+        send(Arrays.copyOf(block, block.length - 1));
+        _client.close();
+
+        try {
+            awaitTransfer();
+            fail("Transfer succeeded despite truncated block");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(FTPException.class)));
+        }
+    }
+
+    @Test
+    public void shouldRejectUnknownDescriptor() throws Exception
+    {
+        send(header(ModeE.RESTART_MARKER_DESCRIPTOR, 0, 0));
+
+        try {
+            awaitTransfer();
+            fail("Transfer accepted unknown descriptor");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(FTPException.class)));
+        }
+    }
+}
@@ -3,6 +3,7 @@ package org.dcache.chimera.nfsv41.mover;
 import java.io.IOException;
 import org.dcache.nfs.ChimeraNFSException;
 import org.dcache.nfs.nfsstat;
+import org.dcache.nfs.status.NoSpcException;
 import org.dcache.nfs.v4.AbstractNFSv4Operation;
 import org.dcache.nfs.v4.CompoundContext;
 import org.dcache.nfs.v4.xdr.COMMIT4res;
@@ -11,6 +12,7 @@ import org.dcache.nfs.v4.xdr.nfs_argop4;
 import org.dcache.nfs.v4.xdr.nfs_opnum4;
 import org.dcache.nfs.v4.xdr.nfs_resop4;
 import org.dcache.nfs.vfs.Inode;
+import org.dcache.pool.repository.OutOfDiskException;
 import org.dcache.pool.repository.RepositoryChannel;
 
 public class EDSOperationCOMMIT extends AbstractNFSv4Operation {
@@ -34,12 +36,18 @@ public class EDSOperationCOMMIT extends AbstractNFSv4Operation {
          */
         NfsMover mover = _moverHandler.getPnfsIdByHandle(inode.toNfsHandle());
 
+        WriteGatherer gatherer = mover.getWriteGatherer();
         RepositoryChannel fc = mover.getMoverChannel();
+        try {
+            gatherer.flush();
+        } catch (OutOfDiskException e) {
+            throw new NoSpcException("No allocatable space left on the pool");
+        }
         fc.sync();
         mover.commitFileSize(fc.size());
 
         res.status = nfsstat.NFS_OK;
         res.resok4 = new COMMIT4resok();
-        res.resok4.writeverf = cc.getRebootVerifier();
+        res.resok4.writeverf = gatherer.getVerifier(cc.getRebootVerifier());
     }
 }
@@ -62,6 +62,11 @@ public class EDSOperationREAD extends AbstractNFSv4Operation {
             bb.clear().limit(count);
             RepositoryChannel fc = mover.getMoverChannel();
 
+            WriteGatherer gatherer = mover.getWriteGatherer();
+            if (gatherer.isDirty()) {
+                gatherer.flush();
+            }
+
             bb.rewind();
             int bytesRead = fc.read(bb, offset);
 
@@ -20,7 +20,6 @@ import org.dcache.nfs.v4.xdr.nfs_opnum4;
 import org.dcache.nfs.v4.xdr.nfs_resop4;
 import org.dcache.nfs.v4.xdr.stable_how4;
 import org.dcache.pool.repository.OutOfDiskException;
-import org.dcache.pool.repository.RepositoryChannel;
 
 
 public class EDSOperationWRITE extends AbstractNFSv4Operation {
@@ -55,22 +54,25 @@ public class EDSOperationWRITE extends AbstractNFSv4Operation {
 
             long offset = _args.opwrite.offset.value;
 
-            RepositoryChannel fc = mover.getMoverChannel();
+            WriteGatherer gatherer = mover.getWriteGatherer();
 
             _args.opwrite.data.rewind();
-            int bytesWritten = fc.write(_args.opwrite.data, offset);
+            int bytesWritten = _args.opwrite.data.remaining();
+            boolean gathered = gatherer.write(_args.opwrite.data, offset,
+                    _args.opwrite.stable == stable_how4.UNSTABLE4);
 
             res.status = nfsstat.NFS_OK;
             res.resok4 = new WRITE4resok();
             res.resok4.count = new count4(bytesWritten);
-            res.resok4.writeverf = context.getRebootVerifier();
+            res.resok4.writeverf = gatherer.getVerifier(context.getRebootVerifier());
 
             /*
-             * The pool holds only the data. If client wants to sync metadata
+             * Gathered data must be committed by the client. Otherwise, the
+             * pool holds only the data. If client wants to sync metadata
              * as well (FILE_SYNC-like behavior), the it must send an explicit
              * LAYOUT_COMMIT to the door.
              */
-            res.resok4.committed = stable_how4.DATA_SYNC4;
+            res.resok4.committed = gathered ? stable_how4.UNSTABLE4 : stable_how4.DATA_SYNC4;
 
             _log.debug("MOVER: {}@{} written, {} requested.", bytesWritten, offset, bytesWritten);
 
@@ -49,6 +49,8 @@ public class NfsMover extends MoverChannelMover<NFS4ProtocolInfo, NfsMover> {
     private final NFSv4MoverHandler _nfsIO;
     private final NFS4State _state;
     private final PnfsHandler _namespace;
+    private final WriteGatheringPolicy _writeGatheringPolicy;
+    private volatile WriteGatherer _writeGatherer;
     private volatile CompletionHandler<Void, Void> _completionHandler;
 
     public NfsMover(ReplicaDescriptor handle, PoolIoFileMessage message, CellPath pathToDoor,
@@ -58,6 +60,7 @@ public class NfsMover extends MoverChannelMover<NFS4ProtocolInfo, NfsMover> {
         org.dcache.chimera.nfs.v4.xdr.stateid4 legacyStateid =  getProtocolInfo().stateId();
         _state = new MoverState(null, new stateid4(legacyStateid.other, legacyStateid.seqid.value));
         _namespace = pnfsHandler;
+        _writeGatheringPolicy = nfsTransferService.getWriteGatheringPolicy();
     }
 
     public stateid4 getStateId() {
@@ -88,7 +91,7 @@ public class NfsMover extends MoverChannelMover<NFS4ProtocolInfo, NfsMover> {
      */
     public Cancellable enable(final CompletionHandler<Void,Void> completionHandler) throws DiskErrorCacheException, InterruptedIOException {
 
-        open();
+        _writeGatherer = new WriteGatherer(open(), _writeGatheringPolicy);
         _completionHandler = completionHandler;
         _nfsIO.add(this);
         return (e) -> disable(null);
@@ -103,6 +106,14 @@ public class NfsMover extends MoverChannelMover<NFS4ProtocolInfo, NfsMover> {
     void disable(Throwable error) {
         _nfsIO.remove(NfsMover.this);
         detachSession();
+        try {
+            _writeGatherer.flush();
+        } catch (IOException e) {
+            _log.error("failed to write gathered data: {}", e.toString());
+            if (error == null) {
+                error = new DiskErrorCacheException("Failed to write gathered data: " + e.getMessage(), e);
+            }
+        }
         try {
             getMoverChannel().close();
         } catch (IOException e) {
@@ -151,6 +162,13 @@ public class NfsMover extends MoverChannelMover<NFS4ProtocolInfo, NfsMover> {
         }
     }
 
+    /**
+     * Returns the gatherer for unstable writes of this mover.
+     */
+    WriteGatherer getWriteGatherer() {
+        return _writeGatherer;
+    }
+
     public void commitFileSize(long size) throws ChimeraNFSException {
         try {
             _namespace.setFileAttributes(getFileAttributes().getPnfsId(),
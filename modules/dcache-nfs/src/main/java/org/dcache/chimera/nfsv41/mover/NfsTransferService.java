@@ -9,6 +9,7 @@ import org.springframework.beans.factory.annotation.Required;
 import java.io.File;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.io.PrintWriter;
 import java.net.BindException;
 import java.net.Inet4Address;
 import java.net.InetAddress;
@@ -75,6 +76,7 @@ public class NfsTransferService
     private int _minTcpPort;
     private int _maxTcpPort;
     private IoStrategy _ioStrategy;
+    private final WriteGatheringPolicy _writeGatheringPolicy = new WriteGatheringPolicy();
 
     /**
      * file to store TCP port number used by pool.
@@ -178,6 +180,30 @@ public class NfsTransferService
         return _ioStrategy;
     }
 
+    public void setWriteGatheringEnabled(boolean enabled) {
+        _writeGatheringPolicy.setEnabled(enabled);
+    }
+
+    public void setWriteGatheringMaxWriteSize(int size) {
+        _writeGatheringPolicy.setMaxWriteSize(size);
+    }
+
+    public void setWriteGatheringWindowSize(int size) {
+        _writeGatheringPolicy.setWindowSize(size);
+    }
+
+    public void setWriteGatheringMaxFileSize(long size) {
+        _writeGatheringPolicy.setMaxFileSize(size);
+    }
+
+    public void setWriteGatheringMaxTotalSize(long size) {
+        _writeGatheringPolicy.setMaxTotalSize(size);
+    }
+
+    public WriteGatheringPolicy getWriteGatheringPolicy() {
+        return _writeGatheringPolicy;
+    }
+
     public void setTcpPortFile(File path) {
         _tcpPortFile = path;
     }
@@ -235,6 +261,11 @@ public class NfsTransferService
         _withGss = withGss;
     }
 
+    @Override
+    public void getInfo(PrintWriter pw) {
+        _writeGatheringPolicy.getInfo(pw);
+    }
+
     private InetSocketAddress[] localSocketAddresses(Collection<InetAddress> addresses, int port) {
         return addresses.stream().map(address -> new InetSocketAddress(address, port)).toArray(InetSocketAddress[]::new);
     }
@@ -0,0 +1,298 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2026 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.chimera.nfsv41.mover;
+
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.dcache.nfs.v4.xdr.verifier4;
+import org.dcache.pool.movers.DirectBufferPool;
+import org.dcache.pool.repository.RepositoryChannel;
+
+/**
+ * Gathers small UNSTABLE4 writes of a single NFS mover and writes them to
+ * the {@link RepositoryChannel} in large, aligned blocks.
+ * <p>
+ * The file is divided into windows of {@link WriteGatheringPolicy#getWindowSize}
+ * bytes. For each window, a single contiguous extent of gathered data is
+ * kept in a direct buffer; writes adjacent to or overlapping with the extent
+ * extend it. A write that would leave a hole in the extent causes the
+ * extent to be written first. Gathered data is written when the client
+ * commits, before data is read, when the mover is closed, and whenever the
+ * per-file or pool wide memory limit of the policy is reached.
+ * <p>
+ * Gathered writes are acknowledged as UNSTABLE4 with the verifier returned
+ * by {@link #getVerifier}. The verifier is unique for every gatherer and
+ * changes whenever gathered data could not be written, so that clients
+ * resend any uncommitted data rather than silently lose it.
+ */
+public class WriteGatherer
+{
+    private final RepositoryChannel _channel;
+    private final WriteGatheringPolicy _policy;
+    private final int _windowSize;
+
+    /** Gathered extents by window index. */
+    private final NavigableMap<Long, Extent> _extents = new TreeMap<>();
+
+    private volatile boolean _dirty;
+    private volatile long _generation;
+
+    public WriteGatherer(RepositoryChannel channel, WriteGatheringPolicy policy)
+    {
+        _channel = channel;
+        _policy = policy;
+        _windowSize = policy.getWindowSize();
+        _generation = policy.nextGeneration();
+    }
+
+    /**
+     * Returns the write verifier of this gatherer.
+     *
+     * @param rebootVerifier the verifier of the NFS server
+     */
+    public verifier4 getVerifier(verifier4 rebootVerifier)
+    {
+        long value = Hashing.sipHash24().newHasher()
+                .putBytes(rebootVerifier.value)
+                .putLong(_generation)
+                .hash().asLong();
+        return new verifier4(Longs.toByteArray(value));
+    }
+
+    /**
+     * Returns true if gathered data has not yet been written.
+     */
+    public boolean isDirty()
+    {
+        return _dirty;
+    }
+
+    /**
+     * Writes the content of {@code src} at the given offset. Small unstable
+     * writes are gathered if the memory limits permit; other writes are
+     * written to the channel directly once any gathered data they overlap
+     * with has been written.
+     *
+     * @return true if the data was gathered and must be committed, false
+     * if it was written to the channel
+     */
+    public boolean write(ByteBuffer src, long offset, boolean unstable) throws IOException
+    {
+        int count = src.remaining();
+        if (unstable && _policy.isEnabled() && count > 0 &&
+                count <= _policy.getMaxWriteSize() && count <= _windowSize) {
+            synchronized (this) {
+                if (gather(src, offset)) {
+                    _policy.gathered();
+                    return true;
+                }
+                flush(offset, count);
+            }
+            _policy.rejected();
+        } else if (_dirty) {
+            synchronized (this) {
+                flush(offset, count);
+            }
+        }
+        _policy.direct();
+        writeFully(src, offset);
+        return false;
+    }
+
+    /**
+     * Writes all gathered data to the channel.
+     */
+    public synchronized void flush() throws IOException
+    {
+        if (!_extents.isEmpty()) {
+            for (Extent extent : _extents.values()) {
+                write(extent);
+            }
+            release(_extents.values().iterator());
+        }
+    }
+
+    /**
+     * Drops all gathered data without writing it.
+     */
+    public synchronized void discard()
+    {
+        if (!_extents.isEmpty()) {
+            _generation = _policy.nextGeneration();
+            _policy.lost();
+            release(_extents.values().iterator());
+        }
+    }
+
+    private boolean gather(ByteBuffer src, long offset) throws IOException
+    {
+        long end = offset + src.remaining();
+        long first = offset / _windowSize;
+        long last = (end - 1) / _windowSize;
+
+        int missing = 0;
+        for (long window = first; window <= last; window++) {
+            Extent extent = _extents.get(window);
+            if (extent == null) {
+                missing++;
+            } else if (!extent.accepts(offset, end)) {
+                write(extent);
+            }
+        }
+
+        if (missing > 0 && !reserve(missing)) {
+            if (_extents.isEmpty()) {
+                return false;
+            }
+            _policy.pressureFlush();
+            flush();
+            if (!reserve((int) (last - first + 1))) {
+                return false;
+            }
+        }
+
+        for (long window = first; window <= last; window++) {
+            Extent extent = _extents.computeIfAbsent(window,
+                    w -> new Extent(w * _windowSize, DirectBufferPool.getInstance().acquire(_windowSize)));
+            extent.put(src, offset, end);
+        }
+        _dirty = true;
+        return true;
+    }
+
+    private boolean reserve(int windows)
+    {
+        long maxWindows = _policy.getMaxFileSize() / _windowSize;
+        return _extents.size() + windows <= maxWindows &&
+                _policy.reserve((long) windows * _windowSize);
+    }
+
+    /**
+     * Writes and releases the extents of the windows overlapping with the
+     * given range.
+     */
+    private void flush(long offset, int count) throws IOException
+    {
+        if (!_extents.isEmpty() && count > 0) {
+            NavigableMap<Long, Extent> overlapping =
+                    _extents.subMap(offset / _windowSize, true, (offset + count - 1) / _windowSize, true);
+            for (Extent extent : overlapping.values()) {
+                write(extent);
+            }
+            release(overlapping.values().iterator());
+        }
+    }
+
+    private void write(Extent extent) throws IOException
+    {
+        if (!extent.isEmpty()) {
+            ByteBuffer data = extent.buffer.duplicate();
+            data.limit(extent.hi).position(extent.lo);
+            try {
+                writeFully(data, extent.base + extent.lo);
+            } catch (IOException | RuntimeException e) {
+                discard();
+                throw e;
+            }
+            _policy.flushed(extent.hi - extent.lo);
+            extent.lo = extent.hi = 0;
+        }
+    }
+
+    private void release(Iterator<Extent> extents)
+    {
+        while (extents.hasNext()) {
+            DirectBufferPool.getInstance().release(extents.next().buffer);
+            _policy.release(_windowSize);
+            extents.remove();
+        }
+        _dirty = !_extents.isEmpty();
+    }
+
+    private void writeFully(ByteBuffer src, long offset) throws IOException
+    {
+        long position = offset;
+        while (src.hasRemaining()) {
+            position += _channel.write(src, position);
+        }
+    }
+
+    /**
+     * The gathered, contiguous data of a single window. The extent covers
+     * the bytes {@code lo} (inclusive) to {@code hi} (exclusive) of the
+     * window; it is empty if both are equal.
+     */
+    private class Extent
+    {
+        final long base;
+        final ByteBuffer buffer;
+        int lo;
+        int hi;
+
+        Extent(long base, ByteBuffer buffer)
+        {
+            this.base = base;
+            this.buffer = buffer;
+        }
+
+        boolean isEmpty()
+        {
+            return lo == hi;
+        }
+
+        /**
+         * Returns whether the part of the given range falling into this
+         * window can be added without leaving a hole in the extent.
+         */
+        boolean accepts(long offset, long end)
+        {
+            int from = (int) (Math.max(offset, base) - base);
+            int to = (int) (Math.min(end, base + _windowSize) - base);
+            return isEmpty() || (from <= hi && to >= lo);
+        }
+
+        /**
+         * Copies the part of the given range falling into this window from
+         * {@code src}, advancing its position accordingly.
+         */
+        void put(ByteBuffer src, long offset, long end)
+        {
+            int from = (int) (Math.max(offset, base) - base);
+            int to = (int) (Math.min(end, base + _windowSize) - base);
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + to - from);
+            buffer.limit(to).position(from);
+            buffer.put(part);
+            src.position(part.position());
+            if (isEmpty()) {
+                lo = from;
+                hi = to;
+            } else {
+                lo = Math.min(lo, from);
+                hi = Math.max(hi, to);
+            }
+        }
+    }
+}
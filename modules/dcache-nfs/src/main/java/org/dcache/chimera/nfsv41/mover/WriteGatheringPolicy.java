@@ -0,0 +1,196 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2026 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.chimera.nfsv41.mover;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Pool wide settings, memory budget and statistics of NFS write gathering.
+ * <p>
+ * A single instance is shared by the {@link WriteGatherer}s of all NFS movers
+ * of a pool. Gathered data is held in direct buffers of {@code windowSize}
+ * bytes; the total number of bytes held by all gatherers never exceeds
+ * {@code maxTotalSize}.
+ */
+public class WriteGatheringPolicy
+{
+    private volatile boolean _enabled = true;
+    private volatile int _maxWriteSize = 64 * 1024;
+    private volatile int _windowSize = 1024 * 1024;
+    private volatile long _maxFileSize = 4 * 1024 * 1024;
+    private volatile long _maxTotalSize = 64 * 1024 * 1024;
+
+    /** Source of verifier generations; unique for the life time of the pool. */
+    private final AtomicLong _generations = new AtomicLong();
+
+    private final AtomicLong _reserved = new AtomicLong();
+
+    private final LongAdder _gatheredWrites = new LongAdder();
+    private final LongAdder _directWrites = new LongAdder();
+    private final LongAdder _flushedWrites = new LongAdder();
+    private final LongAdder _flushedBytes = new LongAdder();
+    private final LongAdder _pressureFlushes = new LongAdder();
+    private final LongAdder _rejectedWrites = new LongAdder();
+    private final LongAdder _lostGenerations = new LongAdder();
+
+    public boolean isEnabled()
+    {
+        return _enabled;
+    }
+
+    public void setEnabled(boolean enabled)
+    {
+        _enabled = enabled;
+    }
+
+    public int getMaxWriteSize()
+    {
+        return _maxWriteSize;
+    }
+
+    /**
+     * Unstable writes larger than this are not gathered.
+     */
+    public void setMaxWriteSize(int size)
+    {
+        checkArgument(size > 0, "Max write size must be positive");
+        _maxWriteSize = size;
+    }
+
+    public int getWindowSize()
+    {
+        return _windowSize;
+    }
+
+    /**
+     * Gathered data is written in aligned blocks of this size.
+     */
+    public void setWindowSize(int size)
+    {
+        checkArgument(size > 0, "Window size must be positive");
+        _windowSize = size;
+    }
+
+    public long getMaxFileSize()
+    {
+        return _maxFileSize;
+    }
+
+    /**
+     * Maximum number of bytes gathered for a single mover before all of
+     * them are flushed.
+     */
+    public void setMaxFileSize(long size)
+    {
+        checkArgument(size >= 0, "Max file size must not be negative");
+        _maxFileSize = size;
+    }
+
+    public long getMaxTotalSize()
+    {
+        return _maxTotalSize;
+    }
+
+    /**
+     * Maximum number of bytes gathered by all movers of the pool.
+     */
+    public void setMaxTotalSize(long size)
+    {
+        checkArgument(size >= 0, "Max total size must not be negative");
+        _maxTotalSize = size;
+    }
+
+    long nextGeneration()
+    {
+        return _generations.incrementAndGet();
+    }
+
+    boolean reserve(long bytes)
+    {
+        long max = _maxTotalSize;
+        long current;
+        do {
+            current = _reserved.get();
+            if (current + bytes > max) {
+                return false;
+            }
+        } while (!_reserved.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    void release(long bytes)
+    {
+        _reserved.addAndGet(-bytes);
+    }
+
+    void gathered()
+    {
+        _gatheredWrites.increment();
+    }
+
+    void direct()
+    {
+        _directWrites.increment();
+    }
+
+    void flushed(long bytes)
+    {
+        _flushedWrites.increment();
+        _flushedBytes.add(bytes);
+    }
+
+    void pressureFlush()
+    {
+        _pressureFlushes.increment();
+    }
+
+    void rejected()
+    {
+        _rejectedWrites.increment();
+    }
+
+    void lost()
+    {
+        _lostGenerations.increment();
+    }
+
+    public void getInfo(PrintWriter pw)
+    {
+        long gathered = _gatheredWrites.sum();
+        long flushed = _flushedWrites.sum();
+        pw.println("Write gathering:");
+        pw.println("    Enabled          : " + _enabled);
+        pw.println("    Max write size   : " + _maxWriteSize);
+        pw.println("    Window size      : " + _windowSize);
+        pw.println("    Max per file     : " + _maxFileSize);
+        pw.println("    Buffered         : " + _reserved.get() + " of " + _maxTotalSize);
+        pw.println("    Gathered writes  : " + gathered);
+        pw.println("    Direct writes    : " + _directWrites.sum());
+        pw.println("    Disk writes      : " + flushed + " (" + _flushedBytes.sum() + " bytes)");
+        pw.println("    Pressure flushes : " + _pressureFlushes.sum());
+        pw.println("    Not gathered     : " + _rejectedWrites.sum());
+        pw.println("    Lost generations : " + _lostGenerations.sum());
+        if (flushed > 0) {
+            pw.printf("    Merge ratio      : %.1f%n", (double) gathered / flushed);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.dcache.chimera.nfsv41.mover;
+
+import com.google.common.collect.Sets;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.dcache.nfs.v4.xdr.verifier4;
+import org.dcache.pool.repository.FileRepositoryChannel;
+import org.dcache.pool.repository.RepositoryChannel;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class WriteGathererTest
+{
+    private static final int WINDOW = 64 * 1024;
+    private static final verifier4 REBOOT_VERIFIER = new verifier4(new byte[8]);
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    private Path file;
+    private RepositoryChannel channel;
+    private WriteGatheringPolicy policy;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        file = tempDir.newFile().toPath();
+        channel = spy(new FileRepositoryChannel(file, Sets.newHashSet(CREATE, READ, WRITE)));
+        policy = new WriteGatheringPolicy();
+        policy.setWindowSize(WINDOW);
+        policy.setMaxFileSize(4 * WINDOW);
+        policy.setMaxTotalSize(4 * WINDOW);
+    }
+
+    @Test
+    public void shouldMergeSmallUnstableWritesIntoSingleWrite() throws IOException
+    {
+        WriteGatherer gatherer = new WriteGatherer(channel, policy);
+        byte[] data = randomBytes(WINDOW);
+
+        for (int offset = 0; offset < WINDOW; offset += 4096) {
+            assertThat(gatherer.write(ByteBuffer.wrap(data, offset, 4096), offset, true), is(true));
+        }
+        verify(channel, never()).write(any(ByteBuffer.class), anyLong());
+
+        gatherer.flush();
+
+        verify(channel, times(1)).write(any(ByteBuffer.class), eq(0L));
+        assertThat(gatherer.isDirty(), is(false));
+        assertThat(Files.readAllBytes(file), equalTo(data));
+    }
+
+    @Test
+    public void shouldWriteStableWritesAfterOverlappingGatheredData() throws IOException
+    {
+        WriteGatherer gatherer = new WriteGatherer(channel, policy);
+        byte[] first = randomBytes(4096);
+        byte[] second = randomBytes(4096);
+
+        assertThat(gatherer.write(ByteBuffer.wrap(first), 0, true), is(true));
+        assertThat(gatherer.write(ByteBuffer.wrap(second), 0, false), is(false));
+        gatherer.flush();
+
+        assertThat(Files.readAllBytes(file), equalTo(second));
+    }
+
+    @Test
+    public void shouldFlushWhenFileLimitIsReached() throws IOException
+    {
+        policy.setMaxFileSize(WINDOW);
+        WriteGatherer gatherer = new WriteGatherer(channel, policy);
+
+        gatherer.write(ByteBuffer.wrap(randomBytes(4096)), 0, true);
+        gatherer.write(ByteBuffer.wrap(randomBytes(4096)), WINDOW, true);
+
+        verify(channel, times(1)).write(any(ByteBuffer.class), eq(0L));
+        assertThat(gatherer.isDirty(), is(true));
+    }
+
+    @Test
+    public void shouldWriteDirectlyWhenPoolLimitIsReached() throws IOException
+    {
+        policy.setMaxTotalSize(WINDOW);
+        WriteGatherer first = new WriteGatherer(channel, policy);
+        WriteGatherer second = new WriteGatherer(channel, policy);
+
+        assertThat(first.write(ByteBuffer.wrap(randomBytes(4096)), 0, true), is(true));
+        assertThat(second.write(ByteBuffer.wrap(randomBytes(4096)), WINDOW, true), is(false));
+
+        verify(channel, times(1)).write(any(ByteBuffer.class), eq((long) WINDOW));
+    }
+
+    @Test
+    public void shouldChangeVerifierWhenGatheredDataIsLost() throws IOException
+    {
+        RepositoryChannel failing = mock(RepositoryChannel.class);
+        when(failing.write(any(ByteBuffer.class), anyLong())).thenThrow(new IOException("disk failure"));
+        WriteGatherer gatherer = new WriteGatherer(failing, policy);
+        gatherer.write(ByteBuffer.wrap(randomBytes(4096)), 0, true);
+        verifier4 before = gatherer.getVerifier(REBOOT_VERIFIER);
+
+        try {
+            gatherer.flush();
+        } catch (IOException expected) {
+        }
+
+        assertThat(gatherer.isDirty(), is(false));
+        assertThat(gatherer.getVerifier(REBOOT_VERIFIER).value, not(equalTo(before.value)));
+    }
+
+    @Test
+    public void shouldUseDistinctVerifiersForDistinctGatherers()
+    {
+        WriteGatherer first = new WriteGatherer(channel, policy);
+        WriteGatherer second = new WriteGatherer(channel, policy);
+
+        assertThat(Arrays.equals(first.getVerifier(REBOOT_VERIFIER).value,
+                second.getVerifier(REBOOT_VERIFIER).value), is(false));
+    }
+
+    private static byte[] randomBytes(int size)
+    {
+        byte[] data = new byte[size];
+        new Random().nextBytes(data);
+        return data;
+    }
+}
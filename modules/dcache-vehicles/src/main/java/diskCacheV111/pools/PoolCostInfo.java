@@ -5,7 +5,10 @@ import javax.annotation.Nonnull;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.dcache.pool.assumption.Assumption;
@@ -55,6 +58,156 @@ public class PoolCostInfo implements Serializable
         _moverCostFactor = info.moverCostFactor();
     }
 
+    /**
+     * Creates a deep copy of {@code info}, so that the copy may be modified
+     * independently.
+     */
+    public PoolCostInfo(PoolCostInfo info)
+    {
+        _poolName = info._poolName;
+        _defaultQueueName = info._defaultQueueName;
+        _space = new PoolSpaceInfo(info._space);
+        _extendedMoverHash = info._extendedMoverHash.values().stream()
+                .collect(Collectors.toMap(q -> q.getName(), NamedPoolQueueInfo::new));
+        _p2pClient = copyOf(info._p2pClient);
+        _p2p = copyOf(info._p2p);
+        _restore = copyOf(info._restore);
+        _store = copyOf(info._store);
+        _moverCostFactor = info._moverCostFactor;
+    }
+
+    /**
+     * Creates a copy of {@code base} with the changes of {@code delta}
+     * applied.
+     */
+    public PoolCostInfo(PoolCostInfo base, Delta delta)
+    {
+        this(base);
+        if (delta._space != null) {
+            _space = new PoolSpaceInfo(delta._space);
+        }
+        if (delta._store != null) {
+            _store = new PoolQueueInfo(delta._store);
+        }
+        if (delta._restore != null) {
+            _restore = new PoolQueueInfo(delta._restore);
+        }
+        if (delta._p2p != null) {
+            _p2p = new PoolQueueInfo(delta._p2p);
+        }
+        if (delta._p2pClient != null) {
+            _p2pClient = new PoolQueueInfo(delta._p2pClient);
+        }
+        delta._removedMovers.forEach(_extendedMoverHash::remove);
+        delta._movers.values().forEach(q -> _extendedMoverHash.put(q.getName(), new NamedPoolQueueInfo(q)));
+        if (delta._moverCostFactor != null) {
+            _moverCostFactor = delta._moverCostFactor;
+        }
+    }
+
+    private static PoolQueueInfo copyOf(PoolQueueInfo info)
+    {
+        return info == null ? null : new PoolQueueInfo(info);
+    }
+
+    /**
+     * Returns the parts of this cost info that differ from {@code base}, or
+     * null if the difference cannot be expressed as a delta, e.g. because
+     * the two describe different pools.
+     */
+    public Delta deltaFrom(PoolCostInfo base)
+    {
+        if (!Objects.equals(_poolName, base._poolName) || !_defaultQueueName.equals(base._defaultQueueName)
+                || (_store == null && base._store != null) || (_restore == null && base._restore != null)
+                || (_p2p == null && base._p2p != null) || (_p2pClient == null && base._p2pClient != null)) {
+            return null;
+        }
+
+        Delta delta = new Delta();
+        if (!_space.equals(base._space)) {
+            delta._space = new PoolSpaceInfo(_space);
+        }
+        if (!Objects.equals(_store, base._store)) {
+            delta._store = new PoolQueueInfo(_store);
+        }
+        if (!Objects.equals(_restore, base._restore)) {
+            delta._restore = new PoolQueueInfo(_restore);
+        }
+        if (!Objects.equals(_p2p, base._p2p)) {
+            delta._p2p = new PoolQueueInfo(_p2p);
+        }
+        if (!Objects.equals(_p2pClient, base._p2pClient)) {
+            delta._p2pClient = new PoolQueueInfo(_p2pClient);
+        }
+        for (NamedPoolQueueInfo queue : _extendedMoverHash.values()) {
+            if (!queue.equals(base._extendedMoverHash.get(queue.getName()))) {
+                delta._movers.put(queue.getName(), new NamedPoolQueueInfo(queue));
+            }
+        }
+        for (String name : base._extendedMoverHash.keySet()) {
+            if (!_extendedMoverHash.containsKey(name)) {
+                delta._removedMovers.add(name);
+            }
+        }
+        if (Double.compare(_moverCostFactor, base._moverCostFactor) != 0) {
+            delta._moverCostFactor = _moverCostFactor;
+        }
+        return delta;
+    }
+
+    /**
+     * The parts of a PoolCostInfo that changed relative to an earlier cost
+     * info of the same pool. Space info, queue infos and the mover cost
+     * factor are null if unchanged; only changed mover queues are included.
+     */
+    public static class Delta implements Serializable
+    {
+        private static final long serialVersionUID = -2862148253360582710L;
+
+        private PoolSpaceInfo _space;
+        private PoolQueueInfo _store;
+        private PoolQueueInfo _restore;
+        private PoolQueueInfo _p2p;
+        private PoolQueueInfo _p2pClient;
+        private final Map<String, NamedPoolQueueInfo> _movers = new HashMap<>();
+        private final Set<String> _removedMovers = new HashSet<>();
+        private Double _moverCostFactor;
+
+        public boolean isEmpty()
+        {
+            return _space == null && _store == null && _restore == null && _p2p == null && _p2pClient == null
+                   && _movers.isEmpty() && _removedMovers.isEmpty() && _moverCostFactor == null;
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder("{");
+            if (_restore != null) {
+                sb.append("R={").append(_restore).append("};");
+            }
+            if (_store != null) {
+                sb.append("S={").append(_store).append("};");
+            }
+            if (_p2p != null) {
+                sb.append("PS={").append(_p2p).append("};");
+            }
+            if (_p2pClient != null) {
+                sb.append("PC={").append(_p2pClient).append("};");
+            }
+            if (_space != null) {
+                sb.append("SP={").append(_space).append("};");
+            }
+            if (!_movers.isEmpty() || !_removedMovers.isEmpty()) {
+                sb.append("XM={");
+                _movers.values().forEach(q -> sb.append(q).append(';'));
+                _removedMovers.forEach(name -> sb.append('-').append(name).append(';'));
+                sb.append("};");
+            }
+            return sb.append('}').toString();
+        }
+    }
+
     public String getPoolName()
     {
         return _poolName;
@@ -75,6 +228,12 @@ public class PoolCostInfo implements Serializable
             _name = name;
         }
 
+        public NamedPoolQueueInfo(NamedPoolQueueInfo info)
+        {
+            super(info);
+            _name = info._name;
+        }
+
         public String getName()
         {
             return _name;
@@ -85,6 +244,18 @@ public class PoolCostInfo implements Serializable
         {
             return _name + "={" + super.toString() + '}';
         }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return super.equals(o) && _name.equals(((NamedPoolQueueInfo) o)._name);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * super.hashCode() + _name.hashCode();
+        }
     }
 
     public static class PoolQueueInfo implements Serializable
@@ -111,12 +282,37 @@ public class PoolCostInfo implements Serializable
             _writers = writers;
         }
 
+        public PoolQueueInfo(PoolQueueInfo info)
+        {
+            this(info._active, info._maxActive, info._queued, info._readers, info._writers);
+        }
+
         @Override
         public String toString()
         {
             return "a=" + _active + ";m=" + _maxActive + ";q=" + _queued + ";r=" + _readers + ";w=" + _writers;
         }
 
+        @Override
+        public boolean equals(Object o)
+        {
+            if (o == this) {
+                return true;
+            }
+            if (o == null || o.getClass() != getClass()) {
+                return false;
+            }
+            PoolQueueInfo other = (PoolQueueInfo) o;
+            return _active == other._active && _maxActive == other._maxActive && _queued == other._queued
+                   && _readers == other._readers && _writers == other._writers;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(_active, _maxActive, _queued, _readers, _writers);
+        }
+
         public int getActive()
         {
             return _active;
@@ -244,6 +440,11 @@ public class PoolCostInfo implements Serializable
             _gap = gap;
         }
 
+        public PoolSpaceInfo(PoolSpaceInfo info)
+        {
+            this(info._total, info._free, info._precious, info._removable, info._lru, info._breakEven, info._gap);
+        }
+
         public void setParameter(double breakEven, long gap)
         {
             _breakEven = breakEven;
@@ -261,6 +462,27 @@ public class PoolCostInfo implements Serializable
                    ";{g=" + _gap + ";b=" + _breakEven + '}';
         }
 
+        @Override
+        public boolean equals(Object o)
+        {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof PoolSpaceInfo)) {
+                return false;
+            }
+            PoolSpaceInfo other = (PoolSpaceInfo) o;
+            return _total == other._total && _free == other._free && _precious == other._precious
+                   && _removable == other._removable && _lru == other._lru && _gap == other._gap
+                   && Double.compare(_breakEven, other._breakEven) == 0;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(_total, _free, _precious, _removable, _lru);
+        }
+
         public long getFreeSpace()
         {
             return _free;
@@ -403,6 +625,33 @@ public class PoolCostInfo implements Serializable
         return sb.toString();
     }
 
+    @Override
+    public boolean equals(Object o)
+    {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof PoolCostInfo)) {
+            return false;
+        }
+        PoolCostInfo other = (PoolCostInfo) o;
+        return Objects.equals(_poolName, other._poolName)
+               && _defaultQueueName.equals(other._defaultQueueName)
+               && Double.compare(_moverCostFactor, other._moverCostFactor) == 0
+               && _space.equals(other._space)
+               && Objects.equals(_store, other._store)
+               && Objects.equals(_restore, other._restore)
+               && Objects.equals(_p2p, other._p2p)
+               && Objects.equals(_p2pClient, other._p2pClient)
+               && _extendedMoverHash.equals(other._extendedMoverHash);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(_poolName, _space, _extendedMoverHash);
+    }
+
     public double getPerformanceCost()
     {
         return getPerformanceCost(_store, _extendedMoverHash.values());
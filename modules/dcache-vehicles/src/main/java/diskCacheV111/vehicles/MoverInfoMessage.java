@@ -1,6 +1,7 @@
 package diskCacheV111.vehicles;
 
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.Optional;
 
 import diskCacheV111.util.PnfsId;
@@ -22,6 +23,10 @@ public class MoverInfoMessage extends PnfsFileInfoMessage
     private Duration _readIdle;
     private Duration _writeActive;
     private Duration _writeIdle;
+    private long[] _readLatencyHistogram;
+    private long[] _readSizeHistogram;
+    private long[] _writeLatencyHistogram;
+    private long[] _writeSizeHistogram;
 
     private static final long serialVersionUID = -7013160118909496211L;
     private String _transferPath;
@@ -156,6 +161,63 @@ public class MoverInfoMessage extends PnfsFileInfoMessage
         return Optional.ofNullable(_writeActive);
     }
 
+    /**
+     * Sets the distribution of read request latencies, in nanoseconds, as
+     * counts of power-of-two buckets: bucket 0 counts zero and bucket i
+     * counts values in [2^(i-1), 2^i).
+     */
+    public void setReadLatencyHistogram(long[] value)
+    {
+        _readLatencyHistogram = value;
+    }
+
+    public Optional<long[]> getReadLatencyHistogram()
+    {
+        return Optional.ofNullable(_readLatencyHistogram);
+    }
+
+    /**
+     * Sets the distribution of read request sizes, in bytes, as counts of
+     * power-of-two buckets.
+     */
+    public void setReadSizeHistogram(long[] value)
+    {
+        _readSizeHistogram = value;
+    }
+
+    public Optional<long[]> getReadSizeHistogram()
+    {
+        return Optional.ofNullable(_readSizeHistogram);
+    }
+
+    /**
+     * Sets the distribution of write request latencies, in nanoseconds, as
+     * counts of power-of-two buckets.
+     */
+    public void setWriteLatencyHistogram(long[] value)
+    {
+        _writeLatencyHistogram = value;
+    }
+
+    public Optional<long[]> getWriteLatencyHistogram()
+    {
+        return Optional.ofNullable(_writeLatencyHistogram);
+    }
+
+    /**
+     * Sets the distribution of write request sizes, in bytes, as counts of
+     * power-of-two buckets.
+     */
+    public void setWriteSizeHistogram(long[] value)
+    {
+        _writeSizeHistogram = value;
+    }
+
+    public Optional<long[]> getWriteSizeHistogram()
+    {
+        return Optional.ofNullable(_writeSizeHistogram);
+    }
+
     @Override
     public String toString()
     {
@@ -173,6 +235,10 @@ public class MoverInfoMessage extends PnfsFileInfoMessage
                ", readActive='" + _readActive + '\'' +
                ", writeIdle='" + _writeIdle + '\'' +
                ", writeActive='" + _writeActive + '\'' +
+               ", readLatency=" + Arrays.toString(_readLatencyHistogram) +
+               ", readSize=" + Arrays.toString(_readSizeHistogram) +
+               ", writeLatency=" + Arrays.toString(_writeLatencyHistogram) +
+               ", writeSize=" + Arrays.toString(_writeSizeHistogram) +
                "} " + super.toString();
     }
 
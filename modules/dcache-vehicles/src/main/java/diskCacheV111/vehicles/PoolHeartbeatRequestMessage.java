@@ -0,0 +1,16 @@
+package diskCacheV111.vehicles;
+
+/**
+ * Asks a pool to send a full heartbeat, e.g. because the receiver got a
+ * delta heartbeat without having seen the full heartbeat it refers to.
+ */
+public class PoolHeartbeatRequestMessage extends PoolMessage
+{
+    private static final long serialVersionUID = -3903436413652813764L;
+
+    public PoolHeartbeatRequestMessage(String poolName)
+    {
+        super(poolName);
+        setReplyRequired(false);
+    }
+}
@@ -7,6 +7,19 @@ import java.util.Set;
 import diskCacheV111.pools.PoolCostInfo;
 import diskCacheV111.pools.PoolV2Mode;
 
+/**
+ * Heartbeat of a pool.
+ *
+ * A heartbeat is either full or a delta. A full heartbeat describes the
+ * complete state of the pool. A delta is relative to the most recent full
+ * heartbeat of the same pool instance, identified by its sequence number:
+ * the pool mode, status message and status code are always included, while
+ * the tags, HSM instances and host name are null unless they differ from
+ * the full heartbeat. The cost info of a delta is usually null and the
+ * parts of it that changed are given by a {@link PoolCostInfo.Delta}. Since deltas do not depend on each other,
+ * a lost delta does no harm; a receiver that has not seen the full heartbeat
+ * a delta refers to has to ignore the delta.
+ */
 public class PoolManagerPoolUpMessage extends PoolManagerMessage {
 
     private static final long serialVersionUID = -8421133630068493665L;
@@ -20,6 +33,10 @@ public class PoolManagerPoolUpMessage extends PoolManagerMessage {
     private Set<String> _hsmInstances;
     private String    _message                 = "";
     private int       _code;
+    private long      _sequence;
+    private boolean   _isDelta;
+    private long      _baseSequence;
+    private PoolCostInfo.Delta _poolCostInfoDelta;
 
     public PoolManagerPoolUpMessage(String poolName, long serialId,
                                     PoolV2Mode mode)
@@ -97,6 +114,64 @@ public class PoolManagerPoolUpMessage extends PoolManagerMessage {
         return _mode;
     }
 
+    /**
+     * Sets the sequence number of this heartbeat. Sequence numbers increase
+     * with every heartbeat of a pool instance.
+     */
+    public void setSequence(long sequence)
+    {
+        _sequence = sequence;
+    }
+
+    public long getSequence()
+    {
+        return _sequence;
+    }
+
+    /**
+     * Marks this heartbeat as a delta relative to the full heartbeat with
+     * sequence number {@code baseSequence}.
+     */
+    public void setDelta(long baseSequence)
+    {
+        _isDelta = true;
+        _baseSequence = baseSequence;
+    }
+
+    /**
+     * Returns true if this heartbeat only contains fields that changed
+     * since the full heartbeat returned by {@link #getBaseSequence}.
+     * Heartbeats of pools not supporting deltas are always full.
+     */
+    public boolean isDelta()
+    {
+        return _isDelta;
+    }
+
+    public long getBaseSequence()
+    {
+        return _baseSequence;
+    }
+
+    /**
+     * Sets the changes of the cost info relative to the full heartbeat
+     * this delta refers to.
+     */
+    public void setPoolCostInfoDelta(PoolCostInfo.Delta delta)
+    {
+        _poolCostInfoDelta = delta;
+    }
+
+    /**
+     * Returns the changes of the cost info relative to the full heartbeat
+     * this delta refers to, or null if neither the cost info changed nor
+     * the complete cost info is included.
+     */
+    public PoolCostInfo.Delta getPoolCostInfoDelta()
+    {
+        return _poolCostInfoDelta;
+    }
+
     /** Returns the names of attached HSM instances. */
     public Set<String> getHsmInstances()
     {
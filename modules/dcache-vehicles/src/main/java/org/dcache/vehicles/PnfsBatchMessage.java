@@ -0,0 +1,44 @@
+package org.dcache.vehicles;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+import diskCacheV111.vehicles.Message;
+import diskCacheV111.vehicles.PnfsMessage;
+
+/**
+ * Carries several independent name space requests in a single message.
+ *
+ * PnfsManager processes the requests in order and, if possible, in a single
+ * transaction. Each request carries its own result: the return code of the
+ * batch only reflects whether the batch as a whole could be processed.
+ */
+public class PnfsBatchMessage extends PnfsMessage
+{
+    private static final long serialVersionUID = -2093575387405947311L;
+
+    private final List<PnfsMessage> _messages;
+
+    public PnfsBatchMessage(List<? extends PnfsMessage> messages)
+    {
+        _messages = ImmutableList.copyOf(messages);
+    }
+
+    public List<PnfsMessage> getMessages()
+    {
+        return _messages;
+    }
+
+    @Override
+    public boolean invalidates(Message message)
+    {
+        return true;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Batch=" + _messages.size();
+    }
+}
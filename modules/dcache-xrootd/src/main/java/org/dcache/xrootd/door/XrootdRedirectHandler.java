@@ -893,7 +893,7 @@ public class XrootdRedirectHandler extends ConcurrentXrootdRequestHandler
                      * https://github.com/xrootd/xrootd/issues/459
                      * TODO: revert to upper case then above issue is addressed
                      */
-                    s.append("1:adler32,2:md5");
+                    s.append("1:adler32,2:md5,3:crc32c");
                     break;
                 case "tpc":
                     /**
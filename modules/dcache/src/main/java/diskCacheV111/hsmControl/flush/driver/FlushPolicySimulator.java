@@ -0,0 +1,395 @@
+package diskCacheV111.hsmControl.flush.driver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import org.dcache.util.Args;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.dcache.util.ByteUnit.GiB;
+import static org.dcache.util.ByteUnit.MiB;
+
+/**
+ * Compares flush policies offline.
+ *
+ * The tool simulates pools receiving client writes for a number of storage
+ * classes and a tape system with a fixed number of drives per storage class.
+ * Client writes follow a daily cycle common to all pools with random bursts
+ * on individual pools. A drive is mounted when flushes are queued for its
+ * storage class and dismounted once it has been idle for a minute.
+ *
+ * Every policy is run against the same client load. The threshold policy
+ * flushes all storage classes of a pool once the pool holds more than a
+ * fixed amount of precious data or its oldest file exceeds the maximum age,
+ * like {@link AlternatingFlushSchedulerV1}. The predictive policy uses
+ * {@link PredictiveFlushModel} as {@link PredictiveFlushSchedulerV1} does.
+ */
+public class FlushPolicySimulator
+{
+    private static final long STEP = SECONDS.toMillis(10);
+    private static final long ROUND = SECONDS.toMillis(60);
+    private static final long DISMOUNT_DELAY = SECONDS.toMillis(60);
+
+    private interface Policy
+    {
+        void round(Simulation simulation, long now);
+
+        void flushDone(Queue queue, long now);
+    }
+
+    private static class Pool
+    {
+        private final String name;
+        private final double phase;
+        private final List<Queue> queues = new ArrayList<>();
+        private long precious;
+        private double rate;
+        private long burstUntil;
+
+        private Pool(String name, double phase)
+        {
+            this.name = name;
+            this.phase = phase;
+        }
+    }
+
+    private static class Queue
+    {
+        private final Pool pool;
+        private final String storageClass;
+        private final double share;
+        private final Deque<long[]> segments = new ArrayDeque<>();
+        private long pending;
+        private boolean flushing;
+
+        private Queue(Pool pool, String storageClass, double share)
+        {
+            this.pool = pool;
+            this.storageClass = storageClass;
+            this.share = share;
+        }
+
+        private long getOldest(long now)
+        {
+            long[] segment = segments.peekFirst();
+            return segment == null ? now : segment[0];
+        }
+    }
+
+    private static class Job
+    {
+        private final Queue queue;
+        private long remaining;
+
+        private Job(Queue queue)
+        {
+            this.queue = queue;
+            this.remaining = queue.pending;
+        }
+    }
+
+    private static class Drive
+    {
+        private boolean mounted;
+        private long mountDone;
+        private long idleSince;
+        private Job job;
+    }
+
+    private static class Simulation
+    {
+        private final Args args;
+        private final Random random;
+        private final List<Pool> pools = new ArrayList<>();
+        private final List<String> storageClasses = new ArrayList<>();
+        private final List<Deque<Job>> jobs = new ArrayList<>();
+        private final List<List<Drive>> drives = new ArrayList<>();
+        private final double bandwidth;
+        private final long mountTime;
+        private final double meanRate;
+        private final double writeRateLimit;
+        private final long poolSize;
+
+        private long mounts;
+        private long flushes;
+        private long written;
+        private long interfering;
+        private double streaming;
+        private long driveTime;
+        private long maxAge;
+        private double maxPrecious;
+
+        private Simulation(Args args)
+        {
+            this.args = args;
+            random = new Random(args.getLongOption("seed", 1L));
+            bandwidth = MiB.toBytes(args.getDoubleOption("bandwidth", 300));
+            mountTime = SECONDS.toMillis(args.getLongOption("mount", 90L));
+            meanRate = MiB.toBytes(args.getDoubleOption("rate", 20));
+            writeRateLimit = MiB.toBytes(args.getDoubleOption("write-limit", 60));
+            poolSize = GiB.toBytes(args.getLongOption("pool-size", 20480L));
+
+            int classCount = args.getIntOption("classes", 3);
+            int driveCount = args.getIntOption("drives", 2);
+            for (int i = 0; i < classCount; i++) {
+                storageClasses.add("class-" + i + ":tape@osm");
+                jobs.add(new ArrayDeque<>());
+                List<Drive> list = new ArrayList<>();
+                for (int j = 0; j < driveCount; j++) {
+                    list.add(new Drive());
+                }
+                drives.add(list);
+            }
+
+            int poolCount = args.getIntOption("pools", 20);
+            for (int i = 0; i < poolCount; i++) {
+                Pool pool = new Pool("pool-" + i, random.nextDouble() * 0.5);
+                /* Storage classes receive decreasing shares of the data. */
+                double total = 0;
+                for (int j = 0; j < classCount; j++) {
+                    total += 1.0 / (j + 1);
+                }
+                for (int j = 0; j < classCount; j++) {
+                    pool.queues.add(new Queue(pool, storageClasses.get(j), 1.0 / (j + 1) / total));
+                }
+                pools.add(pool);
+            }
+        }
+
+        private void startFlush(Queue queue)
+        {
+            if (queue.flushing || queue.pending == 0) {
+                return;
+            }
+            queue.flushing = true;
+            flushes++;
+            jobs.get(storageClasses.indexOf(queue.storageClass)).add(new Job(queue));
+        }
+
+        private void ingest(long now)
+        {
+            double day = 2 * Math.PI * now / HOURS.toMillis(24);
+            for (Pool pool : pools) {
+                if (now >= pool.burstUntil && random.nextDouble() < (double) STEP / HOURS.toMillis(4)) {
+                    pool.burstUntil = now + MINUTES.toMillis(10 + random.nextInt(50));
+                }
+                pool.rate = meanRate * (1 + 0.8 * Math.sin(day + pool.phase)) * (now < pool.burstUntil ? 5 : 1);
+                for (Queue queue : pool.queues) {
+                    long bytes = (long) (pool.rate * queue.share * STEP / 1000.0);
+                    queue.segments.addLast(new long[] { now, bytes });
+                    queue.pending += bytes;
+                    pool.precious += bytes;
+                }
+                maxPrecious = Math.max(maxPrecious, (double) pool.precious / poolSize);
+            }
+        }
+
+        private void drain(Queue queue, long bytes, long now)
+        {
+            if (queue.pool.rate > writeRateLimit) {
+                interfering += bytes;
+            }
+            written += bytes;
+            queue.pending -= bytes;
+            queue.pool.precious -= bytes;
+            while (bytes > 0) {
+                long[] segment = queue.segments.peekFirst();
+                long n = Math.min(bytes, segment[1]);
+                segment[1] -= n;
+                bytes -= n;
+                if (segment[1] == 0) {
+                    maxAge = Math.max(maxAge, now - segment[0]);
+                    queue.segments.removeFirst();
+                }
+            }
+        }
+
+        private void runDrives(Policy policy, long now)
+        {
+            for (int i = 0; i < storageClasses.size(); i++) {
+                Deque<Job> queue = jobs.get(i);
+                for (Drive drive : drives.get(i)) {
+                    if (!drive.mounted) {
+                        if (!queue.isEmpty()) {
+                            drive.mounted = true;
+                            drive.mountDone = now + mountTime;
+                            drive.idleSince = drive.mountDone;
+                            mounts++;
+                        }
+                        continue;
+                    }
+                    driveTime += STEP;
+                    if (now < drive.mountDone) {
+                        continue;
+                    }
+                    if (drive.job == null) {
+                        drive.job = queue.poll();
+                        if (drive.job == null) {
+                            if (now - drive.idleSince >= DISMOUNT_DELAY) {
+                                drive.mounted = false;
+                            }
+                            continue;
+                        }
+                    }
+                    Job job = drive.job;
+                    long bytes = Math.min(job.remaining, (long) (bandwidth * STEP / 1000.0));
+                    drain(job.queue, bytes, now);
+                    streaming += bytes / bandwidth * 1000.0;
+                    job.remaining -= bytes;
+                    if (job.remaining == 0) {
+                        job.queue.flushing = false;
+                        drive.job = null;
+                        drive.idleSince = now;
+                        policy.flushDone(job.queue, now);
+                    }
+                }
+            }
+        }
+
+        private void run(Policy policy)
+        {
+            long duration = HOURS.toMillis(args.getLongOption("hours", 72L));
+            for (long now = STEP; now <= duration; now += STEP) {
+                ingest(now);
+                runDrives(policy, now);
+                if (now % ROUND == 0) {
+                    policy.round(this, now);
+                }
+            }
+        }
+
+        private void print(String name)
+        {
+            long backlog = pools.stream().mapToLong(p -> p.precious).sum();
+            System.out.format("%-12s %8d %8d %10.1f %9.1f%% %9.1f%% %8d %9.1f%% %10.1f\n",
+                              name, flushes, mounts,
+                              mounts == 0 ? 0.0 : (double) written / mounts / GiB.toBytes(1L),
+                              driveTime == 0 ? 0.0 : 100.0 * streaming / driveTime,
+                              written == 0 ? 0.0 : 100.0 * interfering / written,
+                              MILLISECONDS.toMinutes(maxAge),
+                              100.0 * maxPrecious,
+                              (double) backlog / GiB.toBytes(1L));
+        }
+    }
+
+    private static class ThresholdPolicy implements Policy
+    {
+        private final long maxPrecious;
+        private final long maxAge;
+
+        private ThresholdPolicy(long maxPrecious, long maxAge)
+        {
+            this.maxPrecious = maxPrecious;
+            this.maxAge = maxAge;
+        }
+
+        @Override
+        public void round(Simulation simulation, long now)
+        {
+            for (Pool pool : simulation.pools) {
+                if (pool.queues.stream().anyMatch(q -> q.flushing)) {
+                    continue;
+                }
+                long oldest = pool.queues.stream().mapToLong(q -> q.getOldest(now)).min().orElse(now);
+                if (pool.precious > maxPrecious || now - oldest > maxAge) {
+                    pool.queues.forEach(simulation::startFlush);
+                }
+            }
+        }
+
+        @Override
+        public void flushDone(Queue queue, long now)
+        {
+        }
+    }
+
+    private static class PredictivePolicy implements Policy
+    {
+        private final PredictiveFlushModel model = new PredictiveFlushModel();
+
+        private PredictivePolicy(Simulation simulation, Args args)
+        {
+            model.setDrives(args.getIntOption("drives", 2));
+            model.setInitialBandwidth(simulation.bandwidth);
+            model.setMountTime(simulation.mountTime);
+            model.setStreamTime(MINUTES.toMillis(args.getLongOption("stream", 30L)));
+            model.setMaxAge(MINUTES.toMillis(args.getLongOption("max-age", 240L)));
+            model.setWriteRateLimit(simulation.writeRateLimit);
+            model.setMaxStartsPerRound(args.getIntOption("max-starts", 2));
+        }
+
+        @Override
+        public void round(Simulation simulation, long now)
+        {
+            for (Pool pool : simulation.pools) {
+                model.updatePool(pool.name, simulation.poolSize, pool.precious);
+                for (Queue queue : pool.queues) {
+                    model.updateQueue(pool.name, queue.storageClass, now, queue.pending, queue.getOldest(now));
+                }
+            }
+            for (PredictiveFlushModel.Flush flush : model.schedule(now)) {
+                for (Pool pool : simulation.pools) {
+                    if (pool.name.equals(flush.getPool())) {
+                        for (Queue queue : pool.queues) {
+                            if (queue.storageClass.equals(flush.getStorageClass())) {
+                                model.flushStarted(pool.name, queue.storageClass, now);
+                                simulation.startFlush(queue);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void flushDone(Queue queue, long now)
+        {
+            model.flushDone(queue.pool.name, queue.storageClass, now);
+        }
+    }
+
+    public static void main(String[] arguments)
+    {
+        Args args = new Args(arguments);
+        if (args.hasOption("h") || args.hasOption("help")) {
+            System.err.println("Synopsis: FlushPolicySimulator [OPTION]...");
+            System.err.println();
+            System.err.println("  -pools=N           number of pools (20)");
+            System.err.println("  -classes=N         number of storage classes (3)");
+            System.err.println("  -drives=N          drives per storage class (2)");
+            System.err.println("  -bandwidth=MIB/S   drive bandwidth (300)");
+            System.err.println("  -mount=SECONDS     time to mount and position a tape (90)");
+            System.err.println("  -rate=MIB/S        mean client write rate per pool (20)");
+            System.err.println("  -write-limit=MIB/S client write rate above which a pool is busy (60)");
+            System.err.println("  -pool-size=GIB     pool size (20480)");
+            System.err.println("  -hours=N           simulated time (72)");
+            System.err.println("  -seed=N            random seed (1)");
+            System.err.println("  -threshold=GIB     precious data triggering a flush in the threshold policy (20)");
+            System.err.println("  -max-age=MINUTES   maximum age of unflushed data (240)");
+            System.err.println("  -stream=MINUTES    minimum streaming time per mount of the predictive policy (30)");
+            System.err.println("  -max-starts=N      flushes started per round by the predictive policy (2)");
+            System.exit(1);
+        }
+
+        long maxAge = MINUTES.toMillis(args.getLongOption("max-age", 240L));
+        long threshold = GiB.toBytes(args.getLongOption("threshold", 20L));
+
+        System.out.format("%-12s %8s %8s %10s %10s %10s %8s %10s %10s\n",
+                          "POLICY", "FLUSHES", "MOUNTS", "GIB/MOUNT", "STREAMING",
+                          "INTERFERE", "MAX AGE", "PRECIOUS", "BACKLOG");
+
+        Simulation simulation = new Simulation(args);
+        simulation.run(new ThresholdPolicy(threshold, maxAge));
+        simulation.print("threshold");
+
+        simulation = new Simulation(args);
+        simulation.run(new PredictivePolicy(simulation, args));
+        simulation.print("predictive");
+    }
+}
@@ -0,0 +1,526 @@
+package diskCacheV111.hsmControl.flush.driver;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.dcache.util.ByteUnit.MiB;
+
+/**
+ * Load model behind the predictive flush scheduler.
+ *
+ * The model tracks, for every pool and storage class, the amount of data
+ * waiting to be flushed and the rate at which clients add to it.  For every
+ * storage class it learns the effective bandwidth a flush achieves, that is
+ * the tape drive bandwidth including mount and positioning overhead.
+ *
+ * From these estimates {@link #schedule} derives which flushes to start:
+ *
+ * <ul>
+ *     <li>A storage class without flushes in progress is only flushed once
+ *     the data expected to be available by the time a drive is mounted
+ *     keeps the drive streaming for at least the stream time.</li>
+ *     <li>A storage class with flushes in progress is topped up before the
+ *     queue in front of its drives runs dry, so drives are not dismounted
+ *     between flushes of different pools.</li>
+ *     <li>Pools with a high client write rate are only flushed when they are
+ *     needed to fill a mount or when their data becomes urgent.</li>
+ *     <li>Data older than the maximum age and pools running out of space are
+ *     flushed regardless of the above.</li>
+ *     <li>No more than a fixed number of flushes is started per round, which
+ *     spreads flushes of many pools over time.</li>
+ * </ul>
+ *
+ * The model is not thread safe and has no dependencies on the cell
+ * environment, which allows it to be driven by a simulator.
+ */
+public class PredictiveFlushModel
+{
+    /**
+     * Weight of a new sample in the exponentially weighted moving averages.
+     */
+    private static final double ALPHA = 0.3;
+
+    /**
+     * A flush the model wants to be started.
+     */
+    public static class Flush
+    {
+        private final String pool;
+        private final String storageClass;
+        private final boolean urgent;
+
+        private Flush(String pool, String storageClass, boolean urgent)
+        {
+            this.pool = pool;
+            this.storageClass = storageClass;
+            this.urgent = urgent;
+        }
+
+        public String getPool()
+        {
+            return pool;
+        }
+
+        public String getStorageClass()
+        {
+            return storageClass;
+        }
+
+        public boolean isUrgent()
+        {
+            return urgent;
+        }
+
+        @Override
+        public String toString()
+        {
+            return storageClass + "@" + pool + (urgent ? " (urgent)" : "");
+        }
+    }
+
+    private class Queue
+    {
+        private final Pool pool;
+        private final String storageClass;
+        private long pending;
+        private long oldest;
+        private long lastUpdate;
+        private double ingestRate;
+        private boolean flushing;
+        private long flushStarted;
+        private long flushBytes;
+
+        private Queue(Pool pool, String storageClass)
+        {
+            this.pool = pool;
+            this.storageClass = storageClass;
+        }
+
+        private void update(long now, long pending, long oldest)
+        {
+            if (lastUpdate > 0 && now > lastUpdate) {
+                long delta = pending - this.pending;
+                /* While flushing, the pending size shrinks by an unknown
+                 * amount; growth is then a lower bound of the ingest rate. */
+                if (!flushing || delta > 0) {
+                    double rate = Math.max(0, delta) / ((now - lastUpdate) / 1000.0);
+                    ingestRate = ALPHA * rate + (1 - ALPHA) * ingestRate;
+                }
+            }
+            this.pending = pending;
+            this.oldest = pending > 0 ? oldest : now;
+            lastUpdate = now;
+        }
+
+        /**
+         * Whether the queue must be flushed now to write its oldest file
+         * within the maximum age, given the expected time for data queued
+         * now to reach tape, or to relieve the pool.
+         */
+        private boolean isUrgent(long now, long toTape)
+        {
+            return pending > 0 && (now - oldest + toTape >= maxAge || pool.isFull());
+        }
+
+        /**
+         * Estimated bytes of the current flush not yet written to tape.
+         */
+        private long remaining(long now)
+        {
+            double written = getStorageClass(storageClass).bandwidth * (now - flushStarted) / 1000.0;
+            return Math.max(0, flushBytes - (long) written);
+        }
+    }
+
+    private class Pool
+    {
+        private final String name;
+        private final Map<String, Queue> queues = new HashMap<>();
+        private long totalSpace;
+        private long preciousSpace;
+        private boolean available = true;
+
+        private Pool(String name)
+        {
+            this.name = name;
+        }
+
+        private Queue getQueue(String storageClass)
+        {
+            return queues.computeIfAbsent(storageClass, sc -> new Queue(this, sc));
+        }
+
+        private double getWriteRate()
+        {
+            return queues.values().stream().mapToDouble(q -> q.ingestRate).sum();
+        }
+
+        private boolean isBusy()
+        {
+            return getWriteRate() > writeRateLimit;
+        }
+
+        private boolean isFull()
+        {
+            return totalSpace > 0 && preciousSpace >= maxPreciousFraction * totalSpace;
+        }
+    }
+
+    private static class StorageClass
+    {
+        private final String name;
+        private double bandwidth;
+        private int samples;
+        private int active;
+        private int peak;
+        private long busySince;
+        private long busyBytes;
+        private int drives;
+
+        private StorageClass(String name, double bandwidth, int drives)
+        {
+            this.name = name;
+            this.bandwidth = bandwidth;
+            this.drives = drives;
+        }
+    }
+
+    private final Map<String, Pool> pools = new TreeMap<>();
+    private final Map<String, StorageClass> storageClasses = new TreeMap<>();
+    private final Map<String, Integer> drivesByClass = new HashMap<>();
+
+    private int drives = 1;
+    private double initialBandwidth = MiB.toBytes(200L);
+    private long mountTime = SECONDS.toMillis(120);
+    private long streamTime = MINUTES.toMillis(30);
+    private long maxAge = MINUTES.toMillis(240);
+    private double maxPreciousFraction = 0.8;
+    private double writeRateLimit = MiB.toBytes(100L);
+    private int maxStartsPerRound = 2;
+
+    public int getDrives()
+    {
+        return drives;
+    }
+
+    /**
+     * Sets the number of drives assumed for storage classes without an
+     * explicit drive count.
+     */
+    public void setDrives(int drives)
+    {
+        this.drives = drives;
+        storageClasses.values().forEach(sc -> sc.drives = drivesByClass.getOrDefault(sc.name, drives));
+    }
+
+    public void setDrives(String storageClass, int drives)
+    {
+        drivesByClass.put(storageClass, drives);
+        getStorageClass(storageClass).drives = drives;
+    }
+
+    public Map<String, Integer> getDrivesByClass()
+    {
+        return drivesByClass;
+    }
+
+    public double getInitialBandwidth()
+    {
+        return initialBandwidth;
+    }
+
+    /**
+     * Bandwidth in bytes per second assumed for a storage class until the
+     * first flush has completed.
+     */
+    public void setInitialBandwidth(double bytesPerSecond)
+    {
+        initialBandwidth = bytesPerSecond;
+    }
+
+    public long getMountTime()
+    {
+        return mountTime;
+    }
+
+    public void setMountTime(long millis)
+    {
+        mountTime = millis;
+    }
+
+    public long getStreamTime()
+    {
+        return streamTime;
+    }
+
+    /**
+     * Minimum time a drive should stream after being mounted for a storage
+     * class without flushes in progress.
+     */
+    public void setStreamTime(long millis)
+    {
+        streamTime = millis;
+    }
+
+    public long getMaxAge()
+    {
+        return maxAge;
+    }
+
+    public void setMaxAge(long millis)
+    {
+        maxAge = millis;
+    }
+
+    public double getMaxPreciousFraction()
+    {
+        return maxPreciousFraction;
+    }
+
+    public void setMaxPreciousFraction(double fraction)
+    {
+        maxPreciousFraction = fraction;
+    }
+
+    public double getWriteRateLimit()
+    {
+        return writeRateLimit;
+    }
+
+    /**
+     * Client write rate in bytes per second above which a pool is only
+     * flushed when needed.
+     */
+    public void setWriteRateLimit(double bytesPerSecond)
+    {
+        writeRateLimit = bytesPerSecond;
+    }
+
+    public int getMaxStartsPerRound()
+    {
+        return maxStartsPerRound;
+    }
+
+    public void setMaxStartsPerRound(int count)
+    {
+        maxStartsPerRound = count;
+    }
+
+    private Pool getPool(String name)
+    {
+        return pools.computeIfAbsent(name, Pool::new);
+    }
+
+    private StorageClass getStorageClass(String name)
+    {
+        return storageClasses.computeIfAbsent(name,
+                n -> new StorageClass(n, initialBandwidth, drivesByClass.getOrDefault(n, drives)));
+    }
+
+    public void removePool(String name)
+    {
+        Pool pool = pools.remove(name);
+        if (pool != null) {
+            pool.queues.values().stream().filter(q -> q.flushing)
+                    .forEach(q -> getStorageClass(q.storageClass).active--);
+        }
+    }
+
+    public void setPoolAvailable(String name, boolean available)
+    {
+        getPool(name).available = available;
+    }
+
+    public void updatePool(String name, long totalSpace, long preciousSpace)
+    {
+        Pool pool = getPool(name);
+        pool.totalSpace = totalSpace;
+        pool.preciousSpace = preciousSpace;
+    }
+
+    public void updateQueue(String pool, String storageClass, long now, long pendingBytes, long oldestFile)
+    {
+        getStorageClass(storageClass);
+        getPool(pool).getQueue(storageClass).update(now, pendingBytes, oldestFile);
+    }
+
+    /**
+     * Records that a flush of all pending files of a storage class on a pool
+     * was started.
+     */
+    public void flushStarted(String pool, String storageClass, long now)
+    {
+        Queue queue = getPool(pool).getQueue(storageClass);
+        if (queue.flushing) {
+            return;
+        }
+        queue.flushing = true;
+        queue.flushStarted = now;
+        queue.flushBytes = queue.pending;
+
+        StorageClass sc = getStorageClass(storageClass);
+        if (sc.active == 0) {
+            sc.busySince = now;
+            sc.busyBytes = 0;
+            sc.peak = 0;
+        }
+        sc.active++;
+        sc.peak = Math.max(sc.peak, sc.active);
+    }
+
+    /**
+     * Records the completion of a flush.
+     *
+     * The bandwidth estimate of a storage class is updated from the data
+     * written during a period in which flushes of the class were in
+     * progress, divided by the number of drives that could have been used.
+     * The estimate thus includes mount time. Long periods are split after
+     * the stream time to follow changes in bandwidth.
+     */
+    public void flushDone(String pool, String storageClass, long now)
+    {
+        Queue queue = getPool(pool).getQueue(storageClass);
+        if (!queue.flushing) {
+            return;
+        }
+        queue.flushing = false;
+
+        StorageClass sc = getStorageClass(storageClass);
+        sc.active--;
+        sc.busyBytes += queue.flushBytes;
+        long duration = now - sc.busySince;
+        if (sc.active == 0 || duration >= streamTime) {
+            if (sc.busyBytes > 0 && duration > 0) {
+                double rate = sc.busyBytes / (duration / 1000.0) / Math.max(1, Math.min(sc.drives, sc.peak));
+                sc.bandwidth = sc.samples == 0 ? rate : ALPHA * rate + (1 - ALPHA) * sc.bandwidth;
+                sc.samples++;
+            }
+            sc.busySince = now;
+            sc.busyBytes = 0;
+            sc.peak = sc.active;
+        }
+    }
+
+    /**
+     * Records that a flush ended without completing, e.g. because it failed
+     * or the pool restarted. The bandwidth estimate is not updated.
+     */
+    public void flushAborted(String pool, String storageClass)
+    {
+        Queue queue = getPool(pool).getQueue(storageClass);
+        if (queue.flushing) {
+            queue.flushing = false;
+            getStorageClass(storageClass).active--;
+        }
+    }
+
+    public boolean isFlushing(String pool, String storageClass)
+    {
+        Pool p = pools.get(pool);
+        Queue queue = p == null ? null : p.queues.get(storageClass);
+        return queue != null && queue.flushing;
+    }
+
+    /**
+     * Returns the flushes to start now, in the order in which they should
+     * be started. Urgent flushes are not subject to the per round limit.
+     */
+    public List<Flush> schedule(long now)
+    {
+        List<Flush> flushes = new ArrayList<>();
+        for (StorageClass sc : storageClasses.values()) {
+            scheduleStorageClass(sc, now, flushes);
+        }
+        flushes.sort(Comparator.comparing((Flush f) -> !f.urgent));
+        int limit = (int) flushes.stream().filter(Flush::isUrgent).count() + maxStartsPerRound;
+        return flushes.size() > limit ? flushes.subList(0, limit) : flushes;
+    }
+
+    private void scheduleStorageClass(StorageClass sc, long now, List<Flush> flushes)
+    {
+        long bytesPerMount = (long) (sc.bandwidth * streamTime / 1000.0);
+        long capacity = sc.drives * bytesPerMount;
+
+        long inFlight = 0;
+        List<Queue> candidates = new ArrayList<>();
+        for (Pool pool : pools.values()) {
+            Queue queue = pool.queues.get(sc.name);
+            if (queue == null) {
+                continue;
+            }
+            if (queue.flushing) {
+                inFlight += queue.remaining(now);
+            } else if (pool.available && queue.pending > 0) {
+                candidates.add(queue);
+            }
+        }
+
+        boolean mounted = inFlight > 0;
+        long backlog = inFlight + candidates.stream().mapToLong(q -> q.pending).sum();
+        long toTape = (mounted ? 0 : mountTime) + (long) (backlog / (sc.drives * sc.bandwidth) * 1000);
+
+        /* Urgent data first, then pools least disturbed by a flush, then
+         * the largest queues to reduce the number of flushes per mount. */
+        candidates.sort(Comparator.comparing((Queue q) -> !q.isUrgent(now, toTape))
+                                .thenComparing(q -> q.pool.isBusy())
+                                .thenComparing(q -> -q.pending));
+
+        if (!mounted) {
+            double predicted = 0;
+            for (Queue queue : candidates) {
+                predicted += queue.pending + queue.ingestRate * mountTime / 1000.0;
+            }
+            boolean urgent = !candidates.isEmpty() && candidates.get(0).isUrgent(now, toTape);
+            if (predicted < bytesPerMount && !urgent) {
+                return;
+            }
+        }
+
+        for (Queue queue : candidates) {
+            boolean urgent = queue.isUrgent(now, toTape);
+            if (!urgent && inFlight >= capacity) {
+                break;
+            }
+            if (!urgent && queue.pool.isBusy() && inFlight >= bytesPerMount) {
+                /* Enough is queued to keep a drive streaming without this
+                 * pool; don't compete with its clients. */
+                continue;
+            }
+            flushes.add(new Flush(queue.pool.name, sc.name, urgent));
+            inFlight += queue.pending;
+        }
+    }
+
+    /**
+     * Returns a human readable description of the model state at time {@code now}.
+     */
+    public String describe(long now)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (StorageClass sc : storageClasses.values()) {
+            sb.append(String.format("%-30s drives=%d bandwidth=%.1f MiB/s samples=%d%n",
+                                    sc.name, sc.drives, sc.bandwidth / MiB.toBytes(1L), sc.samples));
+        }
+        for (Pool pool : pools.values()) {
+            sb.append(String.format("%-30s precious=%d/%d write=%.1f MiB/s%s%n",
+                                    pool.name, pool.preciousSpace, pool.totalSpace,
+                                    pool.getWriteRate() / MiB.toBytes(1L),
+                                    pool.available ? "" : " (unavailable)"));
+            for (Queue queue : pool.queues.values()) {
+                sb.append(String.format("    %-26s pending=%d age=%ds write=%.1f MiB/s%s%n",
+                                        queue.storageClass, queue.pending,
+                                        MILLISECONDS.toSeconds(now - queue.oldest),
+                                        queue.ingestRate / MiB.toBytes(1L),
+                                        queue.flushing ? " flushing" : ""));
+            }
+        }
+        return sb.toString();
+    }
+}
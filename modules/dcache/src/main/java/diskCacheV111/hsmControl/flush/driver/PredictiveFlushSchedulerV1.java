@@ -0,0 +1,319 @@
+package diskCacheV111.hsmControl.flush.driver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import diskCacheV111.hsmControl.flush.HsmFlushControlCore;
+import diskCacheV111.hsmControl.flush.HsmFlushSchedulable;
+import diskCacheV111.pools.PoolCellInfo;
+import diskCacheV111.pools.PoolCostInfo;
+import diskCacheV111.pools.StorageClassFlushInfo;
+
+import dmg.cells.nucleus.CellAdapter;
+import dmg.util.CommandInterpreter;
+
+import org.dcache.util.Args;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.dcache.util.ByteUnit.MiB;
+
+/**
+ * Flush driver scheduling flushes from a model of the client write load of
+ * each pool and of the tape bandwidth available to each storage class.
+ *
+ * Unlike {@link AlternatingFlushSchedulerV1}, which flushes pools once fixed
+ * thresholds are exceeded, this driver starts flushes such that each tape
+ * mount has enough data queued to stream for a while, tops up the queue of
+ * mounted drives before it runs dry, prefers pools with little client write
+ * activity and limits the number of flushes started at a time. See
+ * {@link PredictiveFlushModel} for details and {@link FlushPolicySimulator}
+ * to compare the policies offline.
+ *
+ * Load with
+ *
+ * <pre>
+ *     load driver diskCacheV111.hsmControl.flush.driver.PredictiveFlushSchedulerV1 -drives=2
+ * </pre>
+ *
+ * All properties may be given as driver options and changed at runtime
+ * with 'driver properties'. The number of drives of individual storage
+ * classes is set with the property drives.&lt;storageClass&gt;@&lt;hsm&gt;.
+ */
+public class PredictiveFlushSchedulerV1 implements HsmFlushSchedulable {
+
+    private static final Logger _log =
+        LoggerFactory.getLogger(PredictiveFlushSchedulerV1.class);
+
+    private static final String PARAMETER_DRIVES            = "drives";
+    private static final String PARAMETER_DRIVES_PREFIX     = "drives.";
+    private static final String PARAMETER_BANDWIDTH         = "drive.bandwidth";
+    private static final String PARAMETER_MOUNT_SECONDS     = "mount.seconds";
+    private static final String PARAMETER_STREAM_MINUTES    = "stream.minutes";
+    private static final String PARAMETER_MAX_MINUTES       = "max.minutes";
+    private static final String PARAMETER_PRECIOUS_FRACTION = "max.precious.fraction";
+    private static final String PARAMETER_WRITE_LIMIT       = "write.limit";
+    private static final String PARAMETER_MAX_STARTS        = "max.starts";
+    private static final String PARAMETER_PRINT_EVENTS      = "print.events";
+    private static final String PARAMETER_PRINT_RULES       = "print.rules";
+
+    private final HsmFlushControlCore _core;
+    private final CommandInterpreter _interpreter;
+    private final PredictiveFlushModel _model = new PredictiveFlushModel();
+    private boolean _suspendFlushing;
+    private boolean _p_events;
+    private boolean _p_rules;
+
+    public PredictiveFlushSchedulerV1(CellAdapter cell, HsmFlushControlCore core) {
+        _log.info("PredictiveFlushSchedulerV1 started");
+        _core = core;
+        _interpreter = new CommandInterpreter(this);
+    }
+
+    @Override
+    public void init() {
+        Args args = _core.getDriverArgs();
+        Map<String, Object> properties = new HashMap<>(args.optionsAsMap());
+        propertiesUpdated(properties);
+        _log.info("init : {}", properties);
+
+        for (HsmFlushControlCore.Pool pool : _core.getConfiguredPools()) {
+            update(pool);
+        }
+    }
+
+    @Override
+    public void prepareUnload() {
+        if (_p_events) {
+            _log.info("EVENT : Preparing unload");
+        }
+    }
+
+    @Override
+    public void flushingDone(String poolName, String storageClassName, HsmFlushControlCore.FlushInfo flushInfo) {
+        if (_p_events) {
+            _log.info("EVENT : flushingDone : pool={};class={}", poolName, storageClassName);
+        }
+        long now = System.currentTimeMillis();
+        StorageClassFlushInfo info = flushInfo.getStorageClassFlushInfo();
+        _model.flushDone(poolName, storageClassName, now);
+        _model.updateQueue(poolName, storageClassName, now,
+                           info.getTotalPendingFileSize(), info.getOldestFileTimestamp());
+    }
+
+    @Override
+    public void poolFlushInfoUpdated(String poolName, HsmFlushControlCore.Pool pool) {
+        if (_p_events) {
+            _log.info("EVENT : poolFlushInfoUpdated : {}", poolName);
+        }
+        update(pool);
+    }
+
+    @Override
+    public void command(Args args) {
+        if (_p_events) {
+            _log.info("EVENT : command : {}", args);
+        }
+        if (args.argc() == 0) {
+            return;
+        }
+        try {
+            Object reply = _interpreter.command(args);
+            _log.info("Command returns : {}", reply);
+        } catch (Exception ee) {
+            _log.warn("Command returns an exception ({}) : {}", ee.getClass().getName(), ee.toString());
+        }
+    }
+
+    @Override
+    public void poolSetupUpdated() {
+        if (_p_events) {
+            _log.info("EVENT : Pool Setup updated");
+        }
+    }
+
+    @Override
+    public void timer() {
+        if (_p_events) {
+            _log.info("EVENT : timer");
+        }
+        for (HsmFlushControlCore.Pool pool : _core.getConfiguredPools()) {
+            update(pool);
+        }
+        if (_suspendFlushing) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (PredictiveFlushModel.Flush flush : _model.schedule(now)) {
+            HsmFlushControlCore.Pool pool = _core.getPoolByName(flush.getPool());
+            HsmFlushControlCore.FlushInfo info =
+                    pool == null ? null : pool.getFlushInfoByStorageClass(flush.getStorageClass());
+            if (info == null || info.isFlushing()) {
+                continue;
+            }
+            if (_p_rules) {
+                _log.info("RULES : flushing {}", flush);
+            }
+            try {
+                info.flush(0);
+                _model.flushStarted(flush.getPool(), flush.getStorageClass(), now);
+            } catch (Exception ee) {
+                _log.warn("Problem flushing {} : {}", flush, ee.toString());
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        if (_p_events) {
+            _log.info("EVENT : reset");
+        }
+        for (String poolName : _core.getConfiguredPoolNames()) {
+            _model.removePool(poolName);
+        }
+    }
+
+    @Override
+    public void configuredPoolAdded(String poolName) {
+        if (_p_events) {
+            _log.info("EVENT : Configured pool added : {}", poolName);
+        }
+        HsmFlushControlCore.Pool pool = _core.getPoolByName(poolName);
+        if (pool != null) {
+            update(pool);
+        }
+    }
+
+    @Override
+    public void configuredPoolRemoved(String poolName) {
+        if (_p_events) {
+            _log.info("EVENT : Configured pool removed : {}", poolName);
+        }
+        _model.removePool(poolName);
+    }
+
+    @Override
+    public void poolIoModeUpdated(String poolName, HsmFlushControlCore.Pool pool) {
+        if (_p_events) {
+            _log.info("EVENT : poolIoModeUpdated : {}", pool);
+        }
+    }
+
+    /**
+     * Feeds the latest information of a pool into the model.
+     */
+    private void update(HsmFlushControlCore.Pool pool) {
+        String poolName = pool.getName();
+        PoolCellInfo cellInfo = pool.getCellInfo();
+        _model.setPoolAvailable(poolName, pool.isActive() && cellInfo != null);
+        if (!pool.isActive() || cellInfo == null) {
+            return;
+        }
+
+        PoolCostInfo.PoolSpaceInfo spaceInfo = cellInfo.getPoolCostInfo().getSpaceInfo();
+        _model.updatePool(poolName, spaceInfo.getTotalSpace(), spaceInfo.getPreciousSpace());
+
+        long now = System.currentTimeMillis();
+        for (String storageClass : pool.getStorageClassNames()) {
+            HsmFlushControlCore.FlushInfo info = pool.getFlushInfoByStorageClass(storageClass);
+            if (info == null) {
+                continue;
+            }
+            /* Failed flushes are not reported through flushingDone. */
+            if (!info.isFlushing() && _model.isFlushing(poolName, storageClass)) {
+                _model.flushAborted(poolName, storageClass);
+            }
+            StorageClassFlushInfo flush = info.getStorageClassFlushInfo();
+            _model.updateQueue(poolName, storageClass, now,
+                               flush.getTotalPendingFileSize(), flush.getOldestFileTimestamp());
+        }
+    }
+
+    @Override
+    public void propertiesUpdated(Map<String, Object> properties) {
+        if (_p_events) {
+            _log.info("EVENT : propertiesUpdated : {}", properties);
+        }
+        Set<String> keys = new HashSet<>(properties.keySet());
+        for (String key : keys) {
+            String value = String.valueOf(properties.get(key));
+            try {
+                if (key.equals(PARAMETER_DRIVES)) {
+                    _model.setDrives(Integer.parseInt(value));
+                } else if (key.startsWith(PARAMETER_DRIVES_PREFIX)) {
+                    _model.setDrives(key.substring(PARAMETER_DRIVES_PREFIX.length()), Integer.parseInt(value));
+                } else if (key.equals(PARAMETER_BANDWIDTH)) {
+                    _model.setInitialBandwidth(MiB.toBytes(Double.parseDouble(value)));
+                } else if (key.equals(PARAMETER_MOUNT_SECONDS)) {
+                    _model.setMountTime(SECONDS.toMillis(Long.parseLong(value)));
+                } else if (key.equals(PARAMETER_STREAM_MINUTES)) {
+                    _model.setStreamTime(MINUTES.toMillis(Long.parseLong(value)));
+                } else if (key.equals(PARAMETER_MAX_MINUTES)) {
+                    _model.setMaxAge(MINUTES.toMillis(Long.parseLong(value)));
+                } else if (key.equals(PARAMETER_PRECIOUS_FRACTION)) {
+                    _model.setMaxPreciousFraction(Double.parseDouble(value));
+                } else if (key.equals(PARAMETER_WRITE_LIMIT)) {
+                    _model.setWriteRateLimit(MiB.toBytes(Double.parseDouble(value)));
+                } else if (key.equals(PARAMETER_MAX_STARTS)) {
+                    _model.setMaxStartsPerRound(Integer.parseInt(value));
+                } else if (key.equals(PARAMETER_PRINT_EVENTS)) {
+                    _p_events = Boolean.parseBoolean(value);
+                } else if (key.equals(PARAMETER_PRINT_RULES)) {
+                    _p_rules = Boolean.parseBoolean(value);
+                } else {
+                    //
+                    // remove the key to inform the requestor that we don't
+                    // support this property.
+                    //
+                    properties.remove(key);
+                }
+            } catch (NumberFormatException ee) {
+                _log.warn("Exception while setting {} {}", key, ee.toString());
+            }
+        }
+        //
+        // do as it would have been a query
+        //
+        properties.put(PARAMETER_DRIVES, String.valueOf(_model.getDrives()));
+        _model.getDrivesByClass().forEach((sc, n) -> properties.put(PARAMETER_DRIVES_PREFIX + sc, String.valueOf(n)));
+        properties.put(PARAMETER_BANDWIDTH, String.valueOf(_model.getInitialBandwidth() / MiB.toBytes(1L)));
+        properties.put(PARAMETER_MOUNT_SECONDS, String.valueOf(MILLISECONDS.toSeconds(_model.getMountTime())));
+        properties.put(PARAMETER_STREAM_MINUTES, String.valueOf(MILLISECONDS.toMinutes(_model.getStreamTime())));
+        properties.put(PARAMETER_MAX_MINUTES, String.valueOf(MILLISECONDS.toMinutes(_model.getMaxAge())));
+        properties.put(PARAMETER_PRECIOUS_FRACTION, String.valueOf(_model.getMaxPreciousFraction()));
+        properties.put(PARAMETER_WRITE_LIMIT, String.valueOf(_model.getWriteRateLimit() / MiB.toBytes(1L)));
+        properties.put(PARAMETER_MAX_STARTS, String.valueOf(_model.getMaxStartsPerRound()));
+        properties.put(PARAMETER_PRINT_EVENTS, String.valueOf(_p_events));
+        properties.put(PARAMETER_PRINT_RULES, String.valueOf(_p_rules));
+    }
+
+    //-------------------------------------------------------------------------------------------
+    //
+    //              C O M M A N D S
+    //
+    public static final String hh_suspend = "# suspend starting new flushes";
+    public String ac_suspend(Args args) {
+        _suspendFlushing = true;
+        return "";
+    }
+
+    public static final String hh_resume = "# resume starting new flushes";
+    public String ac_resume(Args args) {
+        _suspendFlushing = false;
+        return "";
+    }
+
+    public static final String hh_show_model = "# log the estimates of the flush model";
+    public String ac_show_model(Args args) {
+        String model = _model.describe(System.currentTimeMillis());
+        _log.info("Flush model :\n{}", model);
+        return model;
+    }
+}
@@ -3,10 +3,12 @@ package diskCacheV111.namespace;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,6 +29,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -38,6 +41,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import diskCacheV111.util.AccessLatency;
@@ -109,6 +113,7 @@ import org.dcache.util.ColumnWriter;
 import org.dcache.util.ColumnWriter.TabulatedRow;
 import org.dcache.util.TimeUtils;
 import org.dcache.vehicles.FileAttributes;
+import org.dcache.vehicles.PnfsBatchMessage;
 import org.dcache.vehicles.PnfsCreateSymLinkMessage;
 import org.dcache.vehicles.PnfsGetFileAttributes;
 import org.dcache.vehicles.PnfsListDirectoryMessage;
@@ -156,6 +161,17 @@ public class PnfsManagerV3
         PnfsListDirectoryMessage.class
     };
 
+    /**
+     * Requests accepted as part of a PnfsBatchMessage.
+     */
+    private static final Set<Class<?>> BATCHABLE = ImmutableSet.of(
+        PnfsAddCacheLocationMessage.class,
+        PnfsClearCacheLocationMessage.class,
+        PoolFileFlushedMessage.class,
+        PnfsGetFileAttributes.class,
+        PnfsSetFileAttributes.class
+    );
+
     private int _threads;
     private int _directoryListLimit;
     private int _queueMaxSize;
@@ -848,7 +864,7 @@ public class PnfsManagerV3
 
         @Argument(index = 1,
                   usage = "The checksums type of the file. The following checksums " +
-                          "are supported: adler32, md5 and md4.")
+                          "are supported: adler32, md5, md4 and crc32c.")
         ChecksumType type;
 
         @Argument(index = 2,
@@ -877,7 +893,7 @@ public class PnfsManagerV3
 
         @Argument(index = 1,
                   usage = "The checksums type of the file. These following checksums " +
-                          "are supported: adler32, md5 and md4.")
+                          "are supported: adler32, md5, md4 and crc32c.")
         ChecksumType type;
 
         @Override
@@ -900,7 +916,7 @@ public class PnfsManagerV3
 
         @Argument(index = 1,
                   usage = "The checksums type of the file. These following checksums " +
-                          "are supported: adler32, md5 and md4.")
+                          "are supported: adler32, md5, md4 and crc32c.")
         String typeArg;
 
         @Override
@@ -1895,6 +1911,52 @@ public class PnfsManagerV3
 
     public void messageArrived(CellMessage envelope, PnfsMessage message)
         throws CacheException
+    {
+        int index = fifoIndex(message);
+
+        /*
+         * try to add a message into queue.
+         * tell requester, that queue is full
+         */
+        if (!_fifos[index].offer(envelope)) {
+            throw new MissingResourceCacheException("PnfsManager queue limit exceeded");
+        }
+    }
+
+    /**
+     * Queues the requests of a batch with the threads owning their files,
+     * so that they are ordered with other requests for the same files. If
+     * the requests belong to several threads, each thread processes its
+     * part of the batch and the reply is sent once all parts are done.
+     */
+    public void messageArrived(CellMessage envelope, PnfsBatchMessage message)
+        throws CacheException
+    {
+        Map<Integer, List<PnfsMessage>> parts = message.getMessages().stream()
+                .collect(Collectors.groupingBy(this::fifoIndex, LinkedHashMap::new, Collectors.toList()));
+        if (parts.size() <= 1) {
+            int index = parts.isEmpty() ? _random.nextInt(_fifos.length) : parts.keySet().iterator().next();
+            if (!_fifos[index].offer(envelope)) {
+                throw new MissingResourceCacheException("PnfsManager queue limit exceeded");
+            }
+            return;
+        }
+
+        _log.info("Splitting batch into {} parts", parts.size());
+        AtomicInteger remaining = new AtomicInteger(parts.size());
+        for (Map.Entry<Integer, List<PnfsMessage>> part : parts.entrySet()) {
+            CellMessage partEnvelope = envelope.clone();
+            partEnvelope.setMessageObject(new BatchPart(part.getValue(), envelope, remaining));
+            if (!_fifos[part.getKey()].offer(partEnvelope)) {
+                for (PnfsMessage request : part.getValue()) {
+                    request.setFailed(CacheException.RESOURCE, "PnfsManager queue limit exceeded");
+                }
+                replyToBatch(partEnvelope, (BatchPart) partEnvelope.getMessageObject());
+            }
+        }
+    }
+
+    private int fifoIndex(PnfsMessage message)
     {
         PnfsId pnfsId = message.getPnfsId();
         String path = message.getPnfsPath();
@@ -1910,14 +1972,7 @@ public class PnfsManagerV3
             index = _random.nextInt(_fifos.length);
             _log.info("Using random thread {}", index);
         }
-
-        /*
-         * try to add a message into queue.
-         * tell requester, that queue is full
-         */
-        if (!_fifos[index].offer(envelope)) {
-            throw new MissingResourceCacheException("PnfsManager queue limit exceeded");
-        }
+        return index;
     }
 
     @VisibleForTesting
@@ -1929,7 +1984,11 @@ public class PnfsManagerV3
                 return;
             }
         } catch (TransactionException e) {
-            if (pnfsMessage.getReturnCode() == 0) {
+            if (pnfsMessage instanceof PnfsBatchMessage) {
+                _log.warn("Name space transaction for batch failed, processing requests individually: {}",
+                          e.getMessage());
+                processBatchIndividually(message, (PnfsBatchMessage) pnfsMessage);
+            } else if (pnfsMessage.getReturnCode() == 0) {
                 _log.error("Name space transaction failed: {}", e.getMessage());
                 pnfsMessage.setFailed(CacheException.UNEXPECTED_SYSTEM_EXCEPTION, "Name space transaction failed.");
             }
@@ -1996,6 +2055,8 @@ public class PnfsManagerV3
             writeExtendedAttributes((PnfsWriteExtendedAttributesMessage) pnfsMessage);
         } else if (pnfsMessage instanceof PnfsRemoveExtendedAttributesMessage) {
             removeExtendedAttributes((PnfsRemoveExtendedAttributesMessage) pnfsMessage);
+        } else if (pnfsMessage instanceof PnfsBatchMessage) {
+            processBatch(message, (PnfsBatchMessage) pnfsMessage);
         } else {
             _log.warn("Unexpected message class [{}] from source [{}]",
                       pnfsMessage.getClass(), message.getSourcePath());
@@ -2004,8 +2065,131 @@ public class PnfsManagerV3
         return true;
     }
 
+    /**
+     * Processes the requests of a batch within the current transaction.
+     * Each request records its own result.
+     */
+    private void processBatch(CellMessage envelope, PnfsBatchMessage batch)
+    {
+        for (PnfsMessage message : batch.getMessages()) {
+            if (!BATCHABLE.contains(message.getClass())) {
+                message.setFailed(CacheException.INVALID_ARGS,
+                                  message.getClass().getSimpleName() + " is not allowed in a batch");
+            } else {
+                processMessageTransactionally(envelope, message);
+            }
+        }
+    }
+
+    /**
+     * Processes the requests of a batch each in its own transaction. Used if
+     * the transaction covering the whole batch failed.
+     */
+    private void processBatchIndividually(CellMessage envelope, PnfsBatchMessage batch)
+    {
+        for (PnfsMessage message : batch.getMessages()) {
+            message.setSucceeded();
+            if (!BATCHABLE.contains(message.getClass())) {
+                message.setFailed(CacheException.INVALID_ARGS,
+                                  message.getClass().getSimpleName() + " is not allowed in a batch");
+                continue;
+            }
+            try {
+                processMessageTransactionally(envelope, message);
+            } catch (TransactionException e) {
+                if (message.getReturnCode() == 0) {
+                    _log.error("Name space transaction failed: {}", e.getMessage());
+                    message.setFailed(CacheException.UNEXPECTED_SYSTEM_EXCEPTION, "Name space transaction failed.");
+                }
+            }
+        }
+    }
+
+    private void postProcessBatch(CellMessage envelope, PnfsBatchMessage batch)
+    {
+        List<ListenableFuture<Void>> notifications = new ArrayList<>();
+        for (PnfsMessage message : batch.getMessages()) {
+            if (message.getReturnCode() != 0) {
+                continue;
+            }
+            if (_attributesRelay != null && message instanceof PnfsSetFileAttributes) {
+                postProcessSetFileAttributes((PnfsSetFileAttributes) message);
+            }
+            if (message instanceof PoolFileFlushedMessage) {
+                notifications.add(notifyFlush(envelope.getAdjustedTtl() - envelope.getLocalAge(),
+                                              (PoolFileFlushedMessage) message));
+            } else if (_cacheModificationRelay != null) {
+                relayLocationModification(message);
+            }
+        }
+
+        /* The reply is sent once all flush notifications completed. */
+        Futures.whenAllComplete(notifications).call(() -> {
+            replyToBatch(envelope, batch);
+            return null;
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Replies to a processed batch. For a part of a batch, the reply to
+     * the whole batch is sent once its last part has been processed.
+     */
+    private void replyToBatch(CellMessage envelope, PnfsBatchMessage batch)
+    {
+        if (batch instanceof BatchPart) {
+            BatchPart part = (BatchPart) batch;
+            if (!part.complete()) {
+                return;
+            }
+            envelope = part.getBatchEnvelope();
+            batch = (PnfsBatchMessage) envelope.getMessageObject();
+        }
+        if (batch.getReplyRequired()) {
+            envelope.revertDirection();
+            sendMessage(envelope);
+        }
+    }
+
+    /**
+     * The requests of a batch belonging to a single thread. The requests
+     * are shared with the batch, thus their results are part of the reply
+     * to the batch.
+     */
+    private static class BatchPart extends PnfsBatchMessage
+    {
+        private static final long serialVersionUID = 4540329385306458113L;
+
+        private final CellMessage _batchEnvelope;
+        private final AtomicInteger _remaining;
+
+        BatchPart(List<PnfsMessage> messages, CellMessage batchEnvelope, AtomicInteger remaining)
+        {
+            super(messages);
+            _batchEnvelope = batchEnvelope;
+            _remaining = remaining;
+        }
+
+        CellMessage getBatchEnvelope()
+        {
+            return _batchEnvelope;
+        }
+
+        /**
+         * Returns whether this was the last part of the batch to complete.
+         */
+        boolean complete()
+        {
+            return _remaining.decrementAndGet() == 0;
+        }
+    }
+
     private void postProcessMessage(CellMessage envelope, PnfsMessage message)
     {
+        if (message instanceof PnfsBatchMessage) {
+            postProcessBatch(envelope, (PnfsBatchMessage) message);
+            return;
+        }
+
         if (_attributesRelay != null &&
                         message instanceof PnfsSetFileAttributes &&
                         message.getReturnCode() == 0) {
@@ -2041,8 +2225,20 @@ public class PnfsManagerV3
     private void postProcessFlush(CellMessage envelope, PoolFileFlushedMessage pnfsMessage)
     {
         long timeout = envelope.getAdjustedTtl() - envelope.getLocalAge();
+        notifyFlush(timeout, pnfsMessage).addListener(() -> {
+            envelope.revertDirection();
+            sendMessage(envelope);
+        }, MoreExecutors.directExecutor());
+    }
 
-        /* Asynchronously notify flush notification targets about the flush. */
+    /**
+     * Asynchronously notifies flush notification targets about the flush.
+     * The returned future completes once all targets replied, with the
+     * result recorded in {@code pnfsMessage}: only if all notifications
+     * succeeded is the flush reported as successful.
+     */
+    private ListenableFuture<Void> notifyFlush(long timeout, PoolFileFlushedMessage pnfsMessage)
+    {
         PoolFileFlushedMessage notification =
                 new PoolFileFlushedMessage(pnfsMessage.getPoolName(), pnfsMessage.getPnfsId(),
                                            pnfsMessage.getFileAttributes());
@@ -2051,7 +2247,7 @@ public class PnfsManagerV3
             futures.add(_stub.send(new CellPath(address), notification, timeout));
         }
 
-        /* Only generate positive reply if all notifications succeeded. */
+        SettableFuture<Void> done = SettableFuture.create();
         Futures.addCallback(Futures.allAsList(futures),
                             new FutureCallback<List<PoolFileFlushedMessage>>()
                             {
@@ -2059,7 +2255,7 @@ public class PnfsManagerV3
                                 public void onSuccess(List<PoolFileFlushedMessage> result)
                                 {
                                     pnfsMessage.setSucceeded();
-                                    reply();
+                                    done.set(null);
                                 }
 
                                 @Override
@@ -2068,15 +2264,10 @@ public class PnfsManagerV3
                                     pnfsMessage.setFailed(CacheException.DEFAULT_ERROR_CODE,
                                                           "PNFS manager failed while notifying other " +
                                                           "components about the flush: " + t.getMessage());
-                                    reply();
-                                }
-
-                                private void reply()
-                                {
-                                    envelope.revertDirection();
-                                    sendMessage(envelope);
+                                    done.set(null);
                                 }
                             });
+        return done;
     }
 
     public void processFlushMessage(PoolFileFlushedMessage pnfsMessage)
@@ -2104,6 +2295,11 @@ public class PnfsManagerV3
             sendMessage(envelope);
         }
 
+        relayLocationModification(message);
+    }
+
+    private void relayLocationModification(PnfsMessage message)
+    {
         if (message instanceof PnfsAddCacheLocationMessage) {
             PnfsMessage msg = new PnfsAddCacheLocationMessage(message.getPnfsId(),
                             ((PnfsAddCacheLocationMessage) message).getPoolName());
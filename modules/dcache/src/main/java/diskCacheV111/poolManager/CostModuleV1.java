@@ -30,6 +30,7 @@ import dmg.cells.nucleus.CellSetupProvider;
 import dmg.util.command.Argument;
 import dmg.util.command.Command;
 
+import org.dcache.poolmanager.PoolHeartbeatResolver;
 import org.dcache.poolmanager.PoolInfo;
 import org.dcache.util.Args;
 
@@ -46,6 +47,7 @@ public class CostModuleV1
     private static final long serialVersionUID = -267023006449629909L;
 
     private final Map<String, Entry> _hash = new HashMap<>() ;
+    private final transient PoolHeartbeatResolver _heartbeats = new PoolHeartbeatResolver();
     private boolean _cachedPercentileCostCutIsValid;
     private double _cachedPercentileCostCut;
     private double _cachedPercentileFraction;
@@ -95,7 +97,12 @@ public class CostModuleV1
        }
    }
 
-    public synchronized void messageArrived(CellMessage envelope, PoolManagerPoolUpMessage msg)
+    public synchronized void messageArrived(CellMessage envelope, PoolManagerPoolUpMessage message)
+    {
+        _heartbeats.resolve(message).ifPresent(msg -> poolUp(envelope, msg));
+    }
+
+    private void poolUp(CellMessage envelope, PoolManagerPoolUpMessage msg)
     {
         CellAddressCore poolAddress = envelope.getSourceAddress();
         String poolName = msg.getPoolName();
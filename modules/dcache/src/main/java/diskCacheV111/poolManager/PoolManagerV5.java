@@ -17,6 +17,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Optional;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.concurrent.ExecutorService;
@@ -32,6 +33,7 @@ import diskCacheV111.util.PnfsHandler;
 import diskCacheV111.util.PnfsId;
 import diskCacheV111.vehicles.GenericStorageInfo;
 import diskCacheV111.vehicles.IpProtocolInfo;
+import diskCacheV111.vehicles.PoolHeartbeatRequestMessage;
 import diskCacheV111.vehicles.PoolManagerGetPoolListMessage;
 import diskCacheV111.vehicles.PoolManagerGetPoolMonitor;
 import diskCacheV111.vehicles.PoolManagerGetPoolsByHsmMessage;
@@ -55,12 +57,14 @@ import dmg.cells.nucleus.CellInfoProvider;
 import dmg.cells.nucleus.CellLifeCycleAware;
 import dmg.cells.nucleus.CellMessage;
 import dmg.cells.nucleus.CellMessageReceiver;
+import dmg.cells.nucleus.CellPath;
 import dmg.cells.nucleus.CellVersion;
 import dmg.cells.nucleus.DelayedReply;
 
 import org.dcache.alarms.AlarmMarkerFactory;
 import org.dcache.alarms.PredefinedAlarm;
 import org.dcache.cells.CellStub;
+import org.dcache.poolmanager.PoolHeartbeatResolver;
 import org.dcache.poolmanager.PoolInfo;
 import org.dcache.poolmanager.PoolLinkGroupInfo;
 import org.dcache.poolmanager.PoolSelector;
@@ -80,6 +84,8 @@ public class PoolManagerV5
     private int  _readThreads;
 
     private final LongAdder _counterPoolUp = new LongAdder();
+    private final LongAdder _poolUpNanos = new LongAdder();
+    private final PoolHeartbeatResolver _heartbeats = new PoolHeartbeatResolver();
     private int _counterSelectWritePool;
     private int _counterSelectReadPool;
 
@@ -89,6 +95,7 @@ public class PoolManagerV5
     private CostModule   _costModule  ;
     private CellStub _poolStatusTopic;
     private CellStub _poolMonitorTopic;
+    private CellStub _poolStub;
     private PnfsHandler _pnfsHandler;
 
     private RequestContainerV5 _requestContainer ;
@@ -156,6 +163,12 @@ public class PoolManagerV5
         _poolMonitorTopic = stub;
     }
 
+    @Required
+    public void setPoolStub(CellStub stub)
+    {
+        _poolStub = stub;
+    }
+
     @Required
     public void setPoolMonitorUpdatePeriod(long period)
     {
@@ -385,6 +398,12 @@ public class PoolManagerV5
         pw.println(" Read  Threads : "+_readThreads) ;
         pw.println("Message counts") ;
         pw.println("           PoolUp : "+_counterPoolUp ) ;
+        _heartbeats.getInfo(pw);
+        long poolUp = _counterPoolUp.sum();
+        if (poolUp > 0) {
+            pw.println(String.format("  PoolUp CPU time : %.1f \u00B5s/message",
+                                     _poolUpNanos.sum() / 1000.0 / poolUp));
+        }
         pw.println("   SelectReadPool : "+_counterSelectReadPool ) ;
         pw.println("  SelectWritePool : "+_counterSelectWritePool ) ;
         pw.println("         Watchdog : "+_watchdog ) ;
@@ -412,11 +431,29 @@ public class PoolManagerV5
        return sb.toString();
     }
 
-    public void messageArrived(CellMessage envelope, PoolManagerPoolUpMessage poolMessage)
+    public void messageArrived(CellMessage envelope, PoolManagerPoolUpMessage message)
     {
         _log.debug("PoolUp message from {} with mode {} and serialId {}",
-                   poolMessage.getPoolName(), poolMessage.getPoolMode(), poolMessage.getSerialId());
+                   message.getPoolName(), message.getPoolMode(), message.getSerialId());
+
+        long start = System.nanoTime();
+        _counterPoolUp.increment();
+        try {
+            Optional<PoolManagerPoolUpMessage> resolved = _heartbeats.resolve(message);
+            if (resolved.isPresent()) {
+                poolUp(envelope, resolved.get());
+            } else if (_heartbeats.shouldRequestFull(message.getPoolName())) {
+                _log.debug("Requesting full heartbeat from {}", message.getPoolName());
+                _poolStub.notify(new CellPath(envelope.getSourceAddress()),
+                                 new PoolHeartbeatRequestMessage(message.getPoolName()));
+            }
+        } finally {
+            _poolUpNanos.add(System.nanoTime() - start);
+        }
+    }
 
+    private void poolUp(CellMessage envelope, PoolManagerPoolUpMessage poolMessage)
+    {
         String poolName = poolMessage.getPoolName();
         PoolV2Mode poolMode = poolMessage.getPoolMode();
         Set<String> poolHsmInstances = poolMessage.getHsmInstances();
@@ -425,8 +462,6 @@ public class PoolManagerV5
         Map<String,String> tags = poolMessage.getTagMap();
         String hostName = poolMessage.getHostName();
 
-        _counterPoolUp.increment();
-
         boolean changed = _selectionUnit.updatePool(poolName, poolAddress, hostName,
                 poolSerialId, poolMode, poolHsmInstances, tags);
 
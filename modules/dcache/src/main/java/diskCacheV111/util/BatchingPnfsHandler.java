@@ -0,0 +1,285 @@
+package diskCacheV111.util;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.vehicles.PnfsAddCacheLocationMessage;
+import diskCacheV111.vehicles.PnfsClearCacheLocationMessage;
+import diskCacheV111.vehicles.PnfsMessage;
+import diskCacheV111.vehicles.PoolFileFlushedMessage;
+
+import org.dcache.cells.CellStub;
+import org.dcache.vehicles.PnfsBatchMessage;
+import org.dcache.vehicles.PnfsGetFileAttributes;
+import org.dcache.vehicles.PnfsSetFileAttributes;
+
+import static org.dcache.util.CacheExceptionFactory.exceptionOf;
+
+/**
+ * A PnfsHandler that combines the per-file name space updates of a pool
+ * into PnfsBatchMessages.
+ *
+ * Cache location updates, flush notifications and attribute requests by
+ * PNFS ID are queued. If no batch is outstanding, queued requests are sent
+ * right away; otherwise they are collected until the outstanding batch has
+ * been answered, the batch is full, or the oldest request has waited for
+ * the maximum delay. A sequential caller thus does not wait for the delay,
+ * while concurrent callers share messages and name space transactions.
+ *
+ * Requests for a file of which a request is part of an unanswered batch are
+ * held back until that batch has been answered, preserving the order of
+ * requests per file.
+ *
+ * The batching applies to the pool's own identity only; copies created with
+ * the copy constructors of PnfsHandler do not batch.
+ */
+public class BatchingPnfsHandler extends PnfsHandler
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchingPnfsHandler.class);
+
+    private final ScheduledExecutorService _executor =
+            Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("pnfs-batch").build());
+
+    private int _maxBatchSize = 1;
+    private long _maxDelay = 100;
+    private TimeUnit _maxDelayUnit = TimeUnit.MILLISECONDS;
+
+    /** Requests not yet sent, in submission order. */
+    private final List<Request<?>> _queue = new ArrayList<>();
+
+    /** Files with a request in an unanswered batch. */
+    private final Set<PnfsId> _inFlight = new HashSet<>();
+
+    private int _outstandingBatches;
+
+    private ScheduledFuture<?> _timer;
+
+    public BatchingPnfsHandler(CellStub stub, String poolName)
+    {
+        super(stub, poolName);
+    }
+
+    /**
+     * Sets the maximum number of requests in a batch. A value of one
+     * disables batching, which is the default.
+     */
+    public void setMaxBatchSize(int size)
+    {
+        _maxBatchSize = size;
+    }
+
+    /**
+     * Sets how long a request may wait for other requests to share a batch
+     * with, while another batch is outstanding.
+     */
+    public void setMaxDelay(long delay)
+    {
+        _maxDelay = delay;
+    }
+
+    public void setMaxDelayUnit(TimeUnit unit)
+    {
+        _maxDelayUnit = unit;
+    }
+
+    public void shutdown()
+    {
+        _executor.shutdown();
+    }
+
+    @Override
+    public <T extends PnfsMessage> ListenableFuture<T> requestAsync(T msg)
+    {
+        if (!isBatchable(msg)) {
+            return super.requestAsync(msg);
+        }
+        msg.setReplyRequired(true);
+        return submit(msg);
+    }
+
+    @Override
+    public void notify(PnfsMessage msg)
+    {
+        if (!isBatchable(msg)) {
+            super.notify(msg);
+            return;
+        }
+        msg.setReplyRequired(false);
+        Futures.addCallback(submit(msg), new FutureCallback<PnfsMessage>()
+        {
+            @Override
+            public void onSuccess(PnfsMessage reply)
+            {
+                if (reply.getReturnCode() != 0) {
+                    LOGGER.debug("{} failed: {}", reply, reply.getErrorObject());
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t)
+            {
+                LOGGER.debug("{} failed: {}", msg, t.toString());
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private boolean isBatchable(PnfsMessage msg)
+    {
+        if (_maxBatchSize <= 1 || msg.getPnfsId() == null || msg.getPnfsPath() != null) {
+            return false;
+        }
+        return msg instanceof PnfsAddCacheLocationMessage
+                || msg instanceof PnfsClearCacheLocationMessage
+                || msg instanceof PoolFileFlushedMessage
+                || msg instanceof PnfsGetFileAttributes
+                || msg instanceof PnfsSetFileAttributes;
+    }
+
+    private <T extends PnfsMessage> ListenableFuture<T> submit(T msg)
+    {
+        Request<T> request = new Request<>(msg);
+        List<Request<?>> batch;
+        synchronized (this) {
+            _queue.add(request);
+            if (_outstandingBatches == 0 || _queue.size() >= _maxBatchSize) {
+                batch = takeBatch();
+            } else {
+                batch = null;
+                if (_timer == null) {
+                    _timer = _executor.schedule(this::expire, _maxDelay, _maxDelayUnit);
+                }
+            }
+        }
+        send(batch);
+        return request.future;
+    }
+
+    private void expire()
+    {
+        List<Request<?>> batch;
+        synchronized (this) {
+            _timer = null;
+            batch = takeBatch();
+        }
+        send(batch);
+    }
+
+    /**
+     * Removes up to one batch worth of requests from the queue, skipping
+     * requests for files that are part of an outstanding batch.
+     */
+    private synchronized List<Request<?>> takeBatch()
+    {
+        List<Request<?>> batch = new ArrayList<>();
+        Iterator<Request<?>> i = _queue.iterator();
+        while (i.hasNext() && batch.size() < _maxBatchSize) {
+            Request<?> request = i.next();
+            if (!_inFlight.contains(request.message.getPnfsId())) {
+                batch.add(request);
+                i.remove();
+            }
+        }
+        if (batch.isEmpty()) {
+            return null;
+        }
+        for (Request<?> request : batch) {
+            _inFlight.add(request.message.getPnfsId());
+        }
+        _outstandingBatches++;
+        if (_queue.isEmpty() && _timer != null) {
+            _timer.cancel(false);
+            _timer = null;
+        }
+        return batch;
+    }
+
+    private void send(List<Request<?>> batch)
+    {
+        if (batch == null) {
+            return;
+        }
+        List<PnfsMessage> messages = new ArrayList<>(batch.size());
+        for (Request<?> request : batch) {
+            messages.add(request.message);
+        }
+        Futures.addCallback(super.requestAsync(new PnfsBatchMessage(messages)),
+                            new FutureCallback<PnfsBatchMessage>()
+                            {
+                                @Override
+                                public void onSuccess(PnfsBatchMessage reply)
+                                {
+                                    if (reply.getReturnCode() != 0) {
+                                        onFailure(exceptionOf(reply));
+                                        return;
+                                    }
+                                    List<PnfsMessage> replies = reply.getMessages();
+                                    if (replies.size() != batch.size()) {
+                                        onFailure(new CacheException(CacheException.UNEXPECTED_SYSTEM_EXCEPTION,
+                                                                     "Batch of " + batch.size() + " requests answered with "
+                                                                     + replies.size() + " replies"));
+                                        return;
+                                    }
+                                    for (int i = 0; i < batch.size(); i++) {
+                                        batch.get(i).complete(replies.get(i));
+                                    }
+                                    done(batch);
+                                }
+
+                                @Override
+                                public void onFailure(Throwable t)
+                                {
+                                    for (Request<?> request : batch) {
+                                        request.future.setException(t);
+                                    }
+                                    done(batch);
+                                }
+                            }, MoreExecutors.directExecutor());
+    }
+
+    private void done(List<Request<?>> batch)
+    {
+        List<Request<?>> next;
+        synchronized (this) {
+            for (Request<?> request : batch) {
+                _inFlight.remove(request.message.getPnfsId());
+            }
+            _outstandingBatches--;
+            next = takeBatch();
+        }
+        send(next);
+    }
+
+    private static class Request<T extends PnfsMessage>
+    {
+        final T message;
+        final SettableFuture<T> future = SettableFuture.create();
+
+        Request(T message)
+        {
+            this.message = message;
+        }
+
+        @SuppressWarnings("unchecked")
+        void complete(PnfsMessage reply)
+        {
+            future.set((T) reply);
+        }
+    }
+}
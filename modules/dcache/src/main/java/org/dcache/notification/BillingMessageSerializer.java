@@ -41,6 +41,10 @@ public class BillingMessageSerializer implements Serializer<MoverInfoMessage> {
         data.getWriteIdle().ifPresent(d -> o.put("writeIdle", d.toString()));
         data.getReadActive().ifPresent(d -> o.put("readActive", d.toString()));
         data.getWriteActive().ifPresent(d -> o.put("writeActive", d.toString()));
+        data.getReadLatencyHistogram().ifPresent(h -> o.put("readLatencyHistogram", toJson(h)));
+        data.getReadSizeHistogram().ifPresent(h -> o.put("readSizeHistogram", toJson(h)));
+        data.getWriteLatencyHistogram().ifPresent(h -> o.put("writeLatencyHistogram", toJson(h)));
+        data.getWriteSizeHistogram().ifPresent(h -> o.put("writeSizeHistogram", toJson(h)));
 
         JSONObject status = new JSONObject();
         status.put("code", data.getResultCode());
@@ -77,6 +81,14 @@ public class BillingMessageSerializer implements Serializer<MoverInfoMessage> {
         return o;
     }
 
+    private static JSONArray toJson(long[] histogram) {
+        JSONArray array = new JSONArray();
+        for (long count : histogram) {
+            array.put(count);
+        }
+        return array;
+    }
+
     @Override
     public byte[] serialize(String topic, MoverInfoMessage data) {
         return transform(data).toString().getBytes(UTF_8);
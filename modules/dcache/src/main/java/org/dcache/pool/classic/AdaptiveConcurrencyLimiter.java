@@ -0,0 +1,197 @@
+package org.dcache.pool.classic;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.dcache.pool.classic.MoverRequestScheduler.PrioritizedRequest;
+import org.dcache.pool.statistics.IoStatistics;
+import org.dcache.pool.statistics.IoStatisticsChannel;
+import org.dcache.pool.statistics.SnapshotStatistics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.dcache.util.Strings.describeBandwidth;
+
+/**
+ * Adjusts the maximum number of active movers of a queue to the observed
+ * disk latency.
+ *
+ * The limiter follows additive increase, multiplicative decrease. Each
+ * period it compares the mean latency of the IO requests issued by the
+ * running movers with a baseline, the lowest latency observed recently.
+ * If latency exceeds the baseline by more than the tolerance factor, the
+ * disk is considered congested and the limit is reduced by a quarter. If
+ * latency is within tolerance while all job slots are in use and movers
+ * are queued, the limit is raised by one. The limit stays between a
+ * minimum and a maximum.
+ *
+ * The baseline drifts up by one percent per period, so that it follows
+ * lasting changes in the workload, e.g. from small to large requests.
+ */
+class AdaptiveConcurrencyLimiter
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    private static final double DECREASE_FACTOR = 0.75;
+    private static final double BASELINE_DRIFT = 1.01;
+    private static final int HISTORY_SIZE = 10;
+
+    private static class Sample
+    {
+        final long operations;
+        final double ioTime;
+        final long bytes;
+
+        Sample(long operations, double ioTime, long bytes)
+        {
+            this.operations = operations;
+            this.ioTime = ioTime;
+            this.bytes = bytes;
+        }
+    }
+
+    private final int _min;
+    private final int _max;
+    private final double _tolerance;
+
+    /* The following fields are guarded by this. */
+    private Map<Integer, Sample> _samples = new HashMap<>();
+    private long _lastUpdate;
+    private double _baseline = Double.NaN;
+    private double _latency = Double.NaN;
+    private double _throughput = Double.NaN;
+    private final Deque<String> _history = new ArrayDeque<>();
+
+    AdaptiveConcurrencyLimiter(int min, int max, double tolerance)
+    {
+        checkArgument(min > 0, "Minimum must be positive.");
+        checkArgument(max >= min, "Maximum must not be less than the minimum.");
+        checkArgument(tolerance > 1, "Tolerance must be larger than 1.");
+        _min = min;
+        _max = max;
+        _tolerance = tolerance;
+    }
+
+    int getMin()
+    {
+        return _min;
+    }
+
+    int getMax()
+    {
+        return _max;
+    }
+
+    double getTolerance()
+    {
+        return _tolerance;
+    }
+
+    /**
+     * Samples the running movers of {@code queue} and adjusts its limit.
+     */
+    synchronized void update(MoverRequestScheduler queue)
+    {
+        long now = System.nanoTime();
+        Map<Integer, Sample> samples = new HashMap<>();
+        long operations = 0;
+        double ioTime = 0;
+        long bytes = 0;
+        int running = 0;
+        for (PrioritizedRequest request : (Iterable<PrioritizedRequest>) queue.getJobs()::iterator) {
+            IoStatistics statistics = request.getMover().getChannel()
+                    .flatMap(c -> c.optionallyAs(IoStatisticsChannel.class))
+                    .map(IoStatisticsChannel::getStatistics)
+                    .orElse(null);
+            if (statistics == null) {
+                continue;
+            }
+            running++;
+            SnapshotStatistics reads = statistics.reads().statistics();
+            SnapshotStatistics writes = statistics.writes().statistics();
+            Sample sample = new Sample(reads.IOTime().getN() + writes.IOTime().getN(),
+                                       sum(reads) + sum(writes),
+                                       request.getMover().getBytesTransferred());
+            samples.put(request.getId(), sample);
+            Sample previous = _samples.get(request.getId());
+            if (previous != null) {
+                operations += sample.operations - previous.operations;
+                ioTime += sample.ioTime - previous.ioTime;
+                bytes += sample.bytes - previous.bytes;
+            }
+        }
+        long elapsed = now - _lastUpdate;
+        _samples = samples;
+        _lastUpdate = now;
+
+        int limit = queue.getMaxActiveJobs();
+        if (limit < _min || limit > _max) {
+            adjust(queue, limit, Math.max(_min, Math.min(_max, limit)), "limit outside of configured range");
+            return;
+        }
+
+        if (operations == 0) {
+            _latency = Double.NaN;
+            _throughput = Double.NaN;
+            return;
+        }
+
+        _latency = ioTime / operations;
+        _throughput = bytes * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+        _baseline = Double.isNaN(_baseline) ? _latency : Math.min(_latency, _baseline * BASELINE_DRIFT);
+
+        if (_latency > _tolerance * _baseline) {
+            int newLimit = Math.max(_min, (int) (limit * DECREASE_FACTOR));
+            adjust(queue, limit, newLimit,
+                   String.format("latency %s exceeds %.1f times baseline %s at %s",
+                                 describeLatency(_latency), _tolerance, describeLatency(_baseline),
+                                 describeBandwidth(_throughput)));
+        } else if (running >= limit && queue.getQueueSize() > 0) {
+            adjust(queue, limit, Math.min(_max, limit + 1),
+                   String.format("all slots busy, movers queued and latency %s within tolerance at %s",
+                                 describeLatency(_latency), describeBandwidth(_throughput)));
+        }
+    }
+
+    private static double sum(SnapshotStatistics statistics)
+    {
+        return statistics.IOTime().getN() == 0 ? 0 : statistics.IOTime().getSum();
+    }
+
+    private static String describeLatency(double nanos)
+    {
+        return String.format("%.2f ms", nanos / TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    private void adjust(MoverRequestScheduler queue, int oldLimit, int newLimit, String reason)
+    {
+        if (oldLimit != newLimit) {
+            queue.setMaxActiveJobs(newLimit);
+            String change = Instant.now() + " " + oldLimit + " -> " + newLimit + ": " + reason;
+            LOGGER.info("Mover queue {} limit changed from {} to {}: {}", queue.getName(), oldLimit, newLimit, reason);
+            if (_history.size() == HISTORY_SIZE) {
+                _history.removeFirst();
+            }
+            _history.addLast(change);
+        }
+    }
+
+    synchronized void getInfo(PrintWriter pw, MoverRequestScheduler queue)
+    {
+        pw.println("Queue           : " + queue.getName());
+        pw.println("Limit           : " + queue.getMaxActiveJobs() + " (min " + _min + ", max " + _max + ")");
+        pw.println("Tolerance       : " + _tolerance);
+        pw.println("Latency         : " + (Double.isNaN(_latency) ? "idle" : describeLatency(_latency)));
+        pw.println("Baseline latency: " + (Double.isNaN(_baseline) ? "unknown" : describeLatency(_baseline)));
+        pw.println("Throughput      : " + (Double.isNaN(_throughput) ? "idle" : describeBandwidth(_throughput)));
+        pw.println("Recent changes  :");
+        _history.descendingIterator().forEachRemaining(s -> pw.println("    " + s));
+    }
+}
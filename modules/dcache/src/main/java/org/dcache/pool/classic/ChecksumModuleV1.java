@@ -22,10 +22,12 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.RateLimiter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
 import java.io.IOException;
@@ -73,6 +75,7 @@ import static com.google.common.collect.Iterables.isEmpty;
 import static org.dcache.pool.classic.ChecksumModuleV1.PolicyFlag.*;
 import static org.dcache.util.ByteUnit.*;
 import static org.dcache.util.ChecksumType.ADLER32;
+import static org.dcache.util.ChecksumType.CRC32C;
 import static org.dcache.util.ChecksumType.MD5_TYPE;
 
 public class ChecksumModuleV1
@@ -80,7 +83,7 @@ public class ChecksumModuleV1
                 PoolDataBeanProvider<ChecksumModuleData>
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(ChecksumModuleV1.class);
-    private static final Map<ChecksumType,String> CHECKSUM_NAMES = ImmutableMap.of(ADLER32, "adler32", MD5_TYPE, "md5");
+    private static final Map<ChecksumType,String> CHECKSUM_NAMES = ImmutableMap.of(ADLER32, "adler32", MD5_TYPE, "md5", CRC32C, "crc32c");
     private static final long MILLISECONDS_IN_SECOND = 1000;
 
     /**
@@ -245,7 +248,8 @@ public class ChecksumModuleV1
 
         @Option(name = "limit",
                 category = "Scrubber options",
-                usage = "Checksum computation throughput limit.",
+                usage = "Checksum computation throughput limit. The limit " +
+                        "applies to the aggregate throughput of all scrubber threads.",
                 valueSpec = "<MiB/s>|off")
         String limit;
 
@@ -384,7 +388,7 @@ public class ChecksumModuleV1
                     "will also be stored in the namespace.")
     public class SetChecksumTypeCommand implements Callable<String>
     {
-        @Argument(valueSpec = "adler32|md5")
+        @Argument(valueSpec = "adler32|md5|crc32c")
         String[] arguments;
 
         @Override
@@ -508,19 +512,25 @@ public class ChecksumModuleV1
             throws NoSuchAlgorithmException, IOException, InterruptedException, CacheException
     {
         try (RepositoryChannel channel = handle.createChannel()) {
-            return verifyChecksum(channel, handle.getChecksums(), Double.POSITIVE_INFINITY);
+            return verifyChecksum(channel, handle.getChecksums(), null);
         }
     }
 
-    public Iterable<Checksum> verifyChecksumWithThroughputLimit(ReplicaDescriptor handle)
+    /**
+     * Verify the checksum of a replica with the read rate governed by
+     * {@code limiter}. One permit corresponds to one byte. Sharing the
+     * limiter between several callers limits their aggregate throughput.
+     */
+    public Iterable<Checksum> verifyChecksum(ReplicaDescriptor handle, RateLimiter limiter)
             throws IOException, InterruptedException, NoSuchAlgorithmException, CacheException
     {
         try (RepositoryChannel channel = handle.createChannel()) {
-            return verifyChecksum(channel, handle.getChecksums(), getThroughputLimit());
+            return verifyChecksum(channel, handle.getChecksums(), limiter);
         }
     }
 
-    private Iterable<Checksum> verifyChecksum(RepositoryChannel channel, Iterable<Checksum> expectedChecksums, double throughputLimit)
+    private Iterable<Checksum> verifyChecksum(RepositoryChannel channel, Iterable<Checksum> expectedChecksums,
+                                              @Nullable RateLimiter limiter)
             throws NoSuchAlgorithmException, IOException, InterruptedException, CacheException
     {
         checkArgument(!Iterables.isEmpty(expectedChecksums), "No expected checksums");
@@ -530,7 +540,7 @@ public class ChecksumModuleV1
                 .map(ChecksumType::createMessageDigest)
                 .collect(Collectors.toList());
 
-        Set<Checksum> actualChecksums = computeChecksums(channel, digests, throughputLimit);
+        Set<Checksum> actualChecksums = computeChecksums(channel, digests, limiter);
         compareChecksums(expectedChecksums, actualChecksums);
         return actualChecksums;
     }
@@ -550,21 +560,23 @@ public class ChecksumModuleV1
     private Set<Checksum> computeChecksums(RepositoryChannel channel, Collection<MessageDigest> digests) throws IOException,
         InterruptedException
     {
-        return computeChecksums(channel, digests, Double.POSITIVE_INFINITY);
+        return computeChecksums(channel, digests, null);
     }
 
     /**
      * Compute the checksum for a file with a limit on how many bytes/second to
      * checksum.
-     * @param file              the file to compute a checksum for.
+     * @param channel           the file to compute a checksum for.
      * @param digests           the digests to update with the file's content
-     * @param throughputLimit   a limit on how many bytes/second that may be
+     * @param limiter           an optional rate limiter from which one permit
+     *                          per byte is acquired before the data is
      *                          checksummed.
      * @return                  the computed checksum.
      * @throws IOException
      * @throws InterruptedException
      */
-    private Set<Checksum> computeChecksums(RepositoryChannel channel, Collection<MessageDigest> digests, double throughputLimit)
+    private Set<Checksum> computeChecksums(RepositoryChannel channel, Collection<MessageDigest> digests,
+                                           @Nullable RateLimiter limiter)
         throws IOException, InterruptedException
     {
         long start = System.currentTimeMillis();
@@ -573,6 +585,9 @@ public class ChecksumModuleV1
 
         int rc;
         while ((rc = channel.read(buffer, pos)) > 0) {
+            if (limiter != null) {
+                limiter.acquire(rc);
+            }
             pos += rc;
             buffer.flip();
             digests.forEach(d -> d.update(buffer.asReadOnlyBuffer()));
@@ -580,13 +595,6 @@ public class ChecksumModuleV1
             if (Thread.interrupted()) {
                 throw new InterruptedException();
             }
-            long adjust
-                    = throughputAdjustment(throughputLimit,
-                                           pos,
-                                           System.currentTimeMillis() - start);
-            if (adjust > 0) {
-                Thread.sleep(adjust);
-            }
         }
 
         Set<Checksum> checksums = digests.stream()
@@ -598,45 +606,12 @@ public class ChecksumModuleV1
                             : ", throughput " +
                               throughputAsString(pos, System.currentTimeMillis() - start) +
                               " MiB/s" +
-                              (Double.isInfinite(throughputLimit)
+                              (limiter == null || Double.isInfinite(limiter.getRate())
                                ? ""
-                               : " (limit " + BYTES.toMiB(throughputLimit) + " MiB/s)"));
+                               : " (limit " + BYTES.toMiB(limiter.getRate()) + " MiB/s)"));
         return checksums;
     }
 
-    /**
-     * Compute how much to sleep for current throughput not to exceed
-     * <code>throughputLimit</code> given how many bytes read/written for a
-     * certain amount of time.
-     * <h3>Formula</h3>
-     * <p><code>throughputLimit = numBytes/(elapsedTime + adjust)</code>
-     * <p>gives:<p>
-     * <code>adjust = numBytes/throughputLimit - elapsedTime</code>
-     *
-     * @param throughputLimit  max throughput (bytes/second). Must not be <= 0.
-     * @param numBytes         no. of bytes read/written for <code>elapsedTime
-     *                         </code> milliseconds. If 0, adjust will be 0.
-     * @param elapsedTime      elapsed time (milliseconds) when <code>numBytes
-     *                         </code> bytes were read/written.
-     * @return                 how much to sleep (milliseconds) for throughput
-     *                         not to exceed <code>throughputLimit</code>.
-     *                         Guaranteed to be >= 0.
-     */
-    private long throughputAdjustment(double throughputLimit, long numBytes,
-                                      long elapsedTime)
-    {
-        assert throughputLimit > 0 && numBytes >= 0 && elapsedTime >= 0;
-        /**
-         * Adjust is < 0 when numBytes/elapsedTime < throughputLimit
-         * (-elapsedTime when throughputLimit is ∞). Adjust is 0 when numBytes
-         * is 0.
-         */
-        long desiredDuration = (long) Math.ceil(MILLISECONDS_IN_SECOND *
-                                                (numBytes / throughputLimit));
-        long adjust = desiredDuration - elapsedTime;
-        return Math.max(0, adjust);
-    }
-
     /**
      * Return the string representation of throughput given the amount of bytes
      * read/written over a certain time period.
@@ -1,6 +1,9 @@
 package org.dcache.pool.classic;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,7 +20,13 @@ import java.util.EnumSet;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import diskCacheV111.util.CacheException;
 import diskCacheV111.util.FileCorruptedCacheException;
@@ -38,8 +47,10 @@ import org.dcache.pool.repository.Repository;
 import org.dcache.pool.repository.Repository.OpenFlags;
 import org.dcache.util.Checksum;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 import static dmg.util.CommandException.checkCommand;
+import static org.dcache.util.ByteUnit.BYTES;
 import static org.dcache.util.Exceptions.messageOrClassName;
 
 public class ChecksumScanner
@@ -56,7 +67,13 @@ public class ChecksumScanner
     private ChecksumModuleV1 _csm;
     private String poolName;
 
+    private IoQueueManager _ioQueueManager;
     private File _scrubberStateFile;
+    private int _scrubberThreads = 1;
+    private boolean _scrubberYieldsToMovers = true;
+
+    /** Limits the aggregate read rate of all scrubber threads. One permit is one byte. */
+    private final RateLimiter _scrubberLimiter = RateLimiter.create(Double.POSITIVE_INFINITY);
 
     /** Errors found while running 'csm check'.
      */
@@ -67,6 +84,7 @@ public class ChecksumScanner
 
     private void onConfigChange()
     {
+        _scrubberLimiter.setRate(_csm.getThroughputLimit());
         if (_csm.isScrubEnabled()) {
             startScrubber();
         } else {
@@ -99,6 +117,31 @@ public class ChecksumScanner
         _scrubberStateFile = path;
     }
 
+    public void setIoQueueManager(IoQueueManager ioQueueManager)
+    {
+        _ioQueueManager = ioQueueManager;
+    }
+
+    public void setScrubberThreads(int threads)
+    {
+        checkArgument(threads > 0, "Scrubber needs at least one thread");
+        _scrubberThreads = threads;
+    }
+
+    public void setScrubberYieldsToMovers(boolean yieldsToMovers)
+    {
+        _scrubberYieldsToMovers = yieldsToMovers;
+    }
+
+    /**
+     * Returns true if any mover queue has movers waiting for a free slot.
+     */
+    private boolean hasQueuedMovers()
+    {
+        return _ioQueueManager != null &&
+               _ioQueueManager.queues().stream().anyMatch(q -> q.getQueueSize() > 0);
+    }
+
     public void setPoolName(String poolName) {
         this.poolName = poolName;
     }
@@ -233,13 +276,27 @@ public class ChecksumScanner
         private final long CHECKPOINT_INTERVAL = TimeUnit.MINUTES.toMillis(1);
         private final long FAILURE_RATELIMIT_DELAY =
             TimeUnit.SECONDS.toMillis(10);
+        private final long YIELD_DELAY = TimeUnit.SECONDS.toMillis(1);
 
-        private volatile int _badCount;
+        private final AtomicInteger _badCount = new AtomicInteger();
+        private final AtomicInteger _totalCount = new AtomicInteger();
+        private final AtomicInteger _unableCount = new AtomicInteger();
+        private final AtomicLong _bytesChecked = new AtomicLong();
         private volatile int _numFiles;
-        private volatile int _totalCount;
-        private volatile int _unableCount;
+        private volatile long _scanStart;
+        private volatile boolean _isYielding;
+
+        /**
+         * Files of the current run in the order they are scanned, and which
+         * of them have been checked. Files are verified in parallel, so
+         * {@code _lastFileChecked} is the last file before which all files
+         * have been checked.
+         */
+        private PnfsId[] _toScan;
+        private boolean[] _isChecked;
+        private int _nextUnchecked;
 
-        private PnfsId _lastFileChecked;
+        private volatile PnfsId _lastFileChecked;
         private long _lastCheckpoint;
         private long _lastStart;
 
@@ -255,7 +312,7 @@ public class ChecksumScanner
          * (<code>_lastFileChecked</code>). If there's no last checked file,
          * write a dash instead.
          */
-        private void saveState()
+        private synchronized void saveState()
         {
             String line = _lastStart + " " +
                           ((_lastFileChecked == null) ? "-" : _lastFileChecked);
@@ -368,11 +425,13 @@ public class ChecksumScanner
                     try {
                         PnfsId[] toScan = getFilesToVerify();
                         _numFiles = toScan.length;
-                        _badCount = 0;
-                        _totalCount = 0;
-                        _unableCount = 0;
+                        _badCount.set(0);
+                        _totalCount.set(0);
+                        _unableCount.set(0);
+                        _bytesChecked.set(0);
+                        _scanStart = System.currentTimeMillis();
                         scanFiles(toScan);
-                        if (_badCount > 0) {
+                        if (_badCount.get() > 0) {
                             _log.warn("Finished scrubbing. Found {} bad files of {}",
                                        _badCount, _numFiles);
                         }
@@ -432,7 +491,7 @@ public class ChecksumScanner
          * Save state information only every <code>CHECKPOINT_INTERVAL</code>
          * period.
          */
-        private void checkpointIfNeeded()
+        private synchronized void checkpointIfNeeded()
         {
             if (System.currentTimeMillis() - _lastCheckpoint > CHECKPOINT_INTERVAL) {
                 saveState();
@@ -440,60 +499,145 @@ public class ChecksumScanner
             }
         }
 
+        /**
+         * Marks the file at position {@code index} as checked and advances
+         * {@code _lastFileChecked} past all files checked so far.
+         */
+        private synchronized void checked(int index)
+        {
+            _isChecked[index] = true;
+            while (_nextUnchecked < _isChecked.length && _isChecked[_nextUnchecked]) {
+                _lastFileChecked = _toScan[_nextUnchecked];
+                _nextUnchecked++;
+            }
+            checkpointIfNeeded();
+        }
+
+        /**
+         * Blocks while mover queues have waiting movers. The scrubber has
+         * no deadline, so it leaves the disk to clients whenever they
+         * compete for it.
+         */
+        private void yieldToMovers() throws InterruptedException
+        {
+            if (_scrubberYieldsToMovers) {
+                try {
+                    while (hasQueuedMovers()) {
+                        _isYielding = true;
+                        Thread.sleep(YIELD_DELAY);
+                    }
+                } finally {
+                    _isYielding = false;
+                }
+            }
+        }
+
         private void scanFiles(PnfsId[] repository)
                 throws InterruptedException, NoSuchAlgorithmException, IOException
         {
-            for (PnfsId id : repository) {
-                try {
-                    if (_repository.getState(id) == ReplicaState.CACHED ||
-                        _repository.getState(id) == ReplicaState.PRECIOUS) {
-                        ReplicaDescriptor handle =
-                            _repository.openEntry(id, EnumSet.of(OpenFlags.NOATIME));
+            synchronized (this) {
+                _toScan = repository;
+                _isChecked = new boolean[repository.length];
+                _nextUnchecked = 0;
+            }
+
+            int threads = _scrubberThreads;
+            Semaphore slots = new Semaphore(threads);
+            AtomicReference<Exception> failure = new AtomicReference<>();
+            ExecutorService workers = Executors.newFixedThreadPool(threads,
+                    new ThreadFactoryBuilder().setNameFormat("scrubber-%d").build());
+            try {
+                for (int i = 0; i < repository.length && failure.get() == null; i++) {
+                    yieldToMovers();
+                    slots.acquire();
+                    int index = i;
+                    workers.execute(() -> {
                         try {
-                            _csm.verifyChecksumWithThroughputLimit(handle);
+                            scanFile(repository[index]);
+                            checked(index);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } catch (IOException | NoSuchAlgorithmException | RuntimeException e) {
+                            failure.compareAndSet(null, e);
                         } finally {
-                            handle.close();
+                            slots.release();
                         }
-                    }
-                } catch (FileCorruptedCacheException e) {
-                    _badCount++;
-                    _log.error(AlarmMarkerFactory.getMarker(PredefinedAlarm.CHECKSUM,
-                                                            id.toString(),
-                                                            poolName),
-                                    "Marking {} on {} as BROKEN: {}",
-                                    id,
-                                    poolName,
-                                    e.getMessage());
+                    });
+                }
+                slots.acquire(threads);
+            } finally {
+                workers.shutdownNow();
+                workers.awaitTermination(1, TimeUnit.MINUTES);
+            }
+
+            Exception e = failure.get();
+            if (e != null) {
+                Throwables.throwIfInstanceOf(e, IOException.class);
+                Throwables.throwIfInstanceOf(e, NoSuchAlgorithmException.class);
+                Throwables.throwIfUnchecked(e);
+            }
+            _lastFileChecked = null;
+        }
+
+        private void scanFile(PnfsId id)
+                throws InterruptedException, NoSuchAlgorithmException, IOException
+        {
+            try {
+                if (_repository.getState(id) == ReplicaState.CACHED ||
+                    _repository.getState(id) == ReplicaState.PRECIOUS) {
+                    ReplicaDescriptor handle =
+                        _repository.openEntry(id, EnumSet.of(OpenFlags.NOATIME));
                     try {
-                        _repository.setState(id, ReplicaState.BROKEN,
-                                "scrubber found checksum inconsistency");
-                    } catch (CacheException f) {
-                        _log.warn("Failed to mark {} as BROKEN: {}", id, f.getMessage());
+                        _csm.verifyChecksum(handle, _scrubberLimiter);
+                        _bytesChecked.addAndGet(handle.getReplicaSize());
+                    } finally {
+                        handle.close();
                     }
-                } catch (IOException e) {
-                    _unableCount++;
-                    throw new IOException("Unable to read " + id + ": " + messageOrClassName(e), e);
-                } catch (FileNotInCacheException e) {
-                    /* It was removed before we could get it. No problem.
-                     */
-                } catch (CacheException e) {
-                    _log.warn("Scrubber unable to verify {}: {}", id, e.getMessage());
-                    _unableCount++;
                 }
-                _lastFileChecked = id;
-                _totalCount++;
-                checkpointIfNeeded();
+            } catch (FileCorruptedCacheException e) {
+                _badCount.incrementAndGet();
+                _log.error(AlarmMarkerFactory.getMarker(PredefinedAlarm.CHECKSUM,
+                                                        id.toString(),
+                                                        poolName),
+                                "Marking {} on {} as BROKEN: {}",
+                                id,
+                                poolName,
+                                e.getMessage());
+                try {
+                    _repository.setState(id, ReplicaState.BROKEN,
+                            "scrubber found checksum inconsistency");
+                } catch (CacheException f) {
+                    _log.warn("Failed to mark {} as BROKEN: {}", id, f.getMessage());
+                }
+            } catch (IOException e) {
+                _unableCount.incrementAndGet();
+                throw new IOException("Unable to read " + id + ": " + messageOrClassName(e), e);
+            } catch (FileNotInCacheException e) {
+                /* It was removed before we could get it. No problem.
+                 */
+            } catch (CacheException e) {
+                _log.warn("Scrubber unable to verify {}: {}", id, e.getMessage());
+                _unableCount.incrementAndGet();
             }
-            _lastFileChecked = null;
+            _totalCount.incrementAndGet();
         }
 
         @Override
         public String toString()
         {
+            int total = _totalCount.get();
+            int numFiles = _numFiles;
+            long bytes = _bytesChecked.get();
+            long elapsed = Math.max(1, System.currentTimeMillis() - _scanStart);
             return super.toString() + " processed "
-                + _totalCount + " of " + _numFiles + " files: "
-                + _badCount + " corrupt, "
-                + _unableCount + " unable to check";
+                + total + " of " + numFiles + " files"
+                + (numFiles == 0 ? "" : String.format(" (%.1f%%)", 100.0 * total / numFiles)) + ": "
+                + _badCount.get() + " corrupt, "
+                + _unableCount.get() + " unable to check, "
+                + String.format("%.1f MiB at %.1f MiB/s",
+                                BYTES.toMiB((double) bytes),
+                                BYTES.toMiB((double) bytes) * 1000 / elapsed)
+                + (_isYielding ? ", yielding to movers" : "");
         }
     }
 
@@ -651,6 +795,7 @@ public class ChecksumScanner
     @Override
     public void afterStart()
     {
+        _scrubberLimiter.setRate(_csm.getThroughputLimit());
         _csm.addListener(listener);
         startScrubber();
     }
@@ -29,6 +29,7 @@ import org.springframework.kafka.core.KafkaTemplate;
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.io.PrintWriter;
 import java.nio.channels.CompletionHandler;
 import java.nio.file.StandardOpenOption;
 import java.util.Collections;
@@ -41,6 +42,7 @@ import java.util.function.Consumer;
 import diskCacheV111.util.CacheException;
 import diskCacheV111.vehicles.DoorTransferFinishedMessage;
 import diskCacheV111.vehicles.MoverInfoMessage;
+import diskCacheV111.vehicles.ProtocolInfo;
 
 import dmg.cells.nucleus.AbstractCellComponent;
 import dmg.cells.nucleus.CellInfoProvider;
@@ -49,6 +51,7 @@ import org.dcache.cells.CellStub;
 import org.dcache.pool.movers.Mover;
 import org.dcache.pool.repository.ReplicaDescriptor;
 import org.dcache.pool.statistics.DirectedIoStatistics;
+import org.dcache.pool.statistics.IoHistograms;
 import org.dcache.pool.statistics.IoStatistics;
 import org.dcache.pool.statistics.IoStatisticsChannel;
 import org.dcache.pool.statistics.SnapshotStatistics;
@@ -73,6 +76,8 @@ public class DefaultPostTransferService extends AbstractCellComponent implements
 
     private Consumer<MoverInfoMessage> _kafkaSender = (s) -> {};
 
+    private final IoHistograms _ioHistograms = new IoHistograms();
+
     @Required
     public void setBillingStub(CellStub billing) {
         _billing = billing;
@@ -184,7 +189,7 @@ public class DefaultPostTransferService extends AbstractCellComponent implements
     }
 
 
-    private static MoverInfoMessage updateIoStatistics(MoverInfoMessage info, IoStatistics statistics)
+    private MoverInfoMessage updateIoStatistics(MoverInfoMessage info, IoStatistics statistics)
     {
         DirectedIoStatistics reads = statistics.reads();
         DirectedIoStatistics writes = statistics.writes();
@@ -195,17 +200,30 @@ public class DefaultPostTransferService extends AbstractCellComponent implements
             info.setMeanReadBandwidth(readStats.instantaneousBandwidth().getMean());
             info.setReadActive(reads.active());
             info.setReadIdle(reads.idle());
+            info.setReadLatencyHistogram(readStats.latencyHistogram());
+            info.setReadSizeHistogram(readStats.sizeHistogram());
         }
 
         if (writeStats.requestedBytes().getN() > 0) {
             info.setMeanWriteBandwidth(writeStats.instantaneousBandwidth().getMean());
             info.setWriteActive(writes.active());
             info.setWriteIdle(writes.idle());
+            info.setWriteLatencyHistogram(writeStats.latencyHistogram());
+            info.setWriteSizeHistogram(writeStats.sizeHistogram());
         }
 
+        ProtocolInfo protocolInfo = info.getProtocolInfo();
+        _ioHistograms.add(protocolInfo.getProtocol() + "-" + protocolInfo.getMajorVersion(), statistics);
+
         return info;
      }
 
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        _ioHistograms.getInfo(pw);
+    }
+
     public void sendFinished(Mover<?> mover, MoverInfoMessage moverInfoMessage) {
         DoorTransferFinishedMessage finished =
                 new DoorTransferFinishedMessage(mover.getClientId(),
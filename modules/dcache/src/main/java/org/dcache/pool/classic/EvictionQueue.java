@@ -0,0 +1,53 @@
+package org.dcache.pool.classic;
+
+import java.util.List;
+import java.util.OptionalLong;
+
+/**
+ * Order in which the space sweeper removes replicas.
+ *
+ * The queue holds the removable replicas of a pool. Implementations
+ * must be thread-safe.
+ */
+interface EvictionQueue<T>
+{
+    /**
+     * Adds {@code key} to the queue unless it is already on the queue.
+     *
+     * @return true if {@code key} was added
+     */
+    boolean add(T key, long lastAccessTime);
+
+    /**
+     * Removes {@code key} from the queue.
+     *
+     * @return true if {@code key} was on the queue
+     */
+    boolean remove(T key);
+
+    /**
+     * Records an access of {@code key}. The key does not have to be on the
+     * queue; implementations may remember accesses of keys that become
+     * removable later.
+     */
+    void accessed(T key, long lastAccessTime);
+
+    /**
+     * Returns the keys on the queue in the order in which they should be
+     * removed.
+     */
+    List<T> values();
+
+    /**
+     * Returns the last access time of the least recently used key, or 0 if
+     * the queue is empty.
+     */
+    long getTimeOfLeastRecentlyUsedElement();
+
+    /**
+     * Returns the last access time of {@code key} if it is on the queue.
+     */
+    OptionalLong getLastAccessTime(T key);
+
+    int size();
+}
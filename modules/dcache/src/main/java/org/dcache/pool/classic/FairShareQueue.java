@@ -0,0 +1,214 @@
+package org.dcache.pool.classic;
+
+import com.google.common.collect.Iterators;
+
+import java.util.AbstractQueue;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Queue that shares its output between keys in proportion to per key
+ * weights.
+ *
+ * Elements are grouped into flows by a key function, e.g. the owner of a
+ * transfer. Within a flow, elements are ordered by a comparator. Flows
+ * are served by stride scheduling: every flow has a virtual time that
+ * advances by the inverse of its weight each time an element is taken
+ * from it, and {@link #poll} takes from the flow with the least virtual
+ * time. A flow that becomes active starts at the least virtual time of
+ * the active flows, so idle flows do not accumulate credit.
+ *
+ * Adding elements does not take any lock shared between flows: the element
+ * is added to its flow and, if the flow was empty, the flow is handed to
+ * the thread polling the queue. Only {@code poll} and {@code peek} are
+ * serialized. Adding and polling are logarithmic in the number of queued
+ * elements and active flows.
+ *
+ * The queue does not permit null elements. Iterators are weakly
+ * consistent.
+ */
+class FairShareQueue<E> extends AbstractQueue<E>
+{
+    /**
+     * Virtual time a flow of weight one advances per element.
+     */
+    private static final long STRIDE = 1 << 20;
+
+    private class Flow
+    {
+        final String key;
+        final Queue<E> elements = new PriorityBlockingQueue<>(16, _comparator);
+
+        /**
+         * Number of elements in the flow. May briefly lag behind the
+         * content of {@code elements}.
+         */
+        final AtomicInteger size = new AtomicInteger();
+
+        /* The following fields are guarded by _lock. */
+        boolean isActive;
+        long pass;
+
+        Flow(String key)
+        {
+            this.key = key;
+        }
+    }
+
+    private final Comparator<? super E> _comparator;
+    private final Function<? super E, String> _key;
+    private final ToIntFunction<String> _weight;
+
+    private final ConcurrentMap<String, Flow> _flows = new ConcurrentHashMap<>();
+    private final Queue<Flow> _activated = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger _size = new AtomicInteger();
+
+    private final ReentrantLock _lock = new ReentrantLock();
+
+    /* The following fields are guarded by _lock. */
+    private final TreeSet<Flow> _active =
+            new TreeSet<>(Comparator.<Flow>comparingLong(f -> f.pass).thenComparing(f -> f.key));
+    private long _virtualTime;
+
+    /**
+     * @param comparator order of elements within a flow
+     * @param key maps elements to the key of their flow
+     * @param weight maps keys to weights; weights less than one are treated as one
+     */
+    FairShareQueue(Comparator<? super E> comparator, Function<? super E, String> key,
+                   ToIntFunction<String> weight)
+    {
+        _comparator = comparator;
+        _key = key;
+        _weight = weight;
+    }
+
+    @Override
+    public boolean offer(E e)
+    {
+        Flow flow = _flows.computeIfAbsent(_key.apply(e), Flow::new);
+        flow.elements.add(e);
+        if (flow.size.getAndIncrement() == 0) {
+            _activated.add(flow);
+        }
+        /* Incremented last, so that a non-empty queue always has an
+         * active or activated flow. */
+        _size.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public E poll()
+    {
+        _lock.lock();
+        try {
+            activateFlows();
+
+            Flow flow;
+            while ((flow = _active.pollFirst()) != null) {
+                E e = flow.elements.poll();
+                if (e == null) {
+                    /* Emptied by remove; the next offer re-activates it. */
+                    flow.isActive = false;
+                    continue;
+                }
+                _size.decrementAndGet();
+                flow.pass += STRIDE / Math.max(1, _weight.applyAsInt(flow.key));
+                if (flow.size.decrementAndGet() > 0) {
+                    _active.add(flow);
+                } else {
+                    flow.isActive = false;
+                }
+                _virtualTime = _active.isEmpty() ? flow.pass : _active.first().pass;
+                return e;
+            }
+            return null;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the element {@link #poll} would take next without removing it.
+     */
+    @Override
+    public E peek()
+    {
+        _lock.lock();
+        try {
+            activateFlows();
+
+            Flow flow;
+            while ((flow = _active.pollFirst()) != null) {
+                E e = flow.elements.peek();
+                if (e != null) {
+                    _active.add(flow);
+                    return e;
+                }
+                /* Emptied by remove; the next offer re-activates it. */
+                flow.isActive = false;
+            }
+            return null;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the flows that became non-empty since the last call to the
+     * active flows. Must be called with {@code _lock} held.
+     */
+    private void activateFlows()
+    {
+        Flow flow;
+        while ((flow = _activated.poll()) != null) {
+            if (!flow.isActive) {
+                flow.isActive = true;
+                flow.pass = Math.max(flow.pass, _virtualTime);
+                _active.add(flow);
+            }
+        }
+    }
+
+    @Override
+    public boolean remove(Object o)
+    {
+        @SuppressWarnings("unchecked")
+        Flow flow = _flows.get(_key.apply((E) o));
+        if (flow != null && flow.elements.remove(o)) {
+            _size.decrementAndGet();
+            flow.size.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Iterator<E> iterator()
+    {
+        return Iterators.unmodifiableIterator(
+                Iterators.concat(Iterators.transform(_flows.values().iterator(), f -> f.elements.iterator())));
+    }
+
+    @Override
+    public int size()
+    {
+        return Math.max(0, _size.get());
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return _size.get() <= 0;
+    }
+}
@@ -0,0 +1,121 @@
+package org.dcache.pool.classic;
+
+/**
+ * Approximate access frequency of keys.
+ *
+ * A count-min sketch with four 4-bit counters per key. The counters of a
+ * key share a single long, so an update touches four words of the table.
+ * Once the number of increments reaches ten times the table size, all
+ * counters are halved so that the sketch reflects recent popularity
+ * rather than the all-time access count.
+ *
+ * The sketch uses eight bytes per table slot, and the table is capped at
+ * {@link #MAXIMUM_TABLE_SIZE} slots regardless of the number of keys. The
+ * class is not thread-safe.
+ */
+class FrequencySketch
+{
+    static final int MAXIMUM_TABLE_SIZE = 1 << 22;
+
+    private static final long[] SEED = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private long[] _table = new long[0];
+    private int _sampleSize;
+    private int _size;
+
+    /**
+     * Grows the table to fit {@code expectedKeys} keys. As the table length
+     * is a power of two, a key hashes to the same slot modulo the old
+     * length, so the old table is copied into every part of the new one and
+     * frequencies survive growth.
+     */
+    void ensureCapacity(long expectedKeys)
+    {
+        int length = (int) Math.min(MAXIMUM_TABLE_SIZE, Long.highestOneBit(Math.max(16, expectedKeys - 1)) << 1);
+        if (length > _table.length) {
+            long[] table = new long[length];
+            if (_table.length > 0) {
+                for (int i = 0; i < length; i += _table.length) {
+                    System.arraycopy(_table, 0, table, i, _table.length);
+                }
+            }
+            _table = table;
+            _sampleSize = 10 * length;
+        }
+    }
+
+    /**
+     * Returns the estimated number of recent accesses of {@code key}, at
+     * most 15.
+     */
+    int frequency(Object key)
+    {
+        if (_table.length == 0) {
+            return 0;
+        }
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((_table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Records an access of {@code key}.
+     */
+    void increment(Object key)
+    {
+        if (_table.length == 0) {
+            return;
+        }
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++_size >= _sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int counter)
+    {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        if ((_table[index] & mask) != mask) {
+            _table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    private void reset()
+    {
+        for (int i = 0; i < _table.length; i++) {
+            _table[i] = (_table[i] >>> 1) & RESET_MASK;
+        }
+        _size /= 2;
+    }
+
+    private int indexOf(int hash, int i)
+    {
+        long h = (hash + SEED[i]) * SEED[i];
+        h += h >>> 32;
+        return ((int) h) & (_table.length - 1);
+    }
+
+    private static int spread(int x)
+    {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -1,5 +1,6 @@
 package org.dcache.pool.classic;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -7,6 +8,7 @@ import javax.annotation.Nonnull;
 
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.io.StringWriter;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -16,6 +18,9 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
@@ -33,6 +38,10 @@ import dmg.util.command.Option;
 import org.dcache.pool.FaultEvent;
 import org.dcache.pool.FaultListener;
 import org.dcache.pool.classic.MoverRequestScheduler.Order;
+import org.dcache.pool.classic.MoverRequestScheduler.Share;
+import org.dcache.util.Args;
+import org.dcache.util.CDCScheduledExecutorServiceDecorator;
+import org.dcache.util.FireAndForgetTask;
 import org.dcache.util.IoPriority;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -90,6 +99,16 @@ public class IoQueueManager
      */
     private String[] propertyQueues = new String[0];
 
+    /**
+     * Periodically updates the limits of queues with adaptive limits.
+     */
+    private ScheduledExecutorService limitUpdater;
+
+    /**
+     * Period in seconds between updates of adaptive limits.
+     */
+    private long adaptiveLimitPeriod = 5;
+
 
     public IoQueueManager()
     {
@@ -134,6 +153,22 @@ public class IoQueueManager
         }
     }
 
+    public void setAdaptiveLimitPeriod(long seconds)
+    {
+        checkArgument(seconds > 0, "Period must be positive.");
+        adaptiveLimitPeriod = seconds;
+    }
+
+    public void start()
+    {
+        limitUpdater = new CDCScheduledExecutorServiceDecorator<>(
+                Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder().setNameFormat("adaptive-mover-limit").build()));
+        limitUpdater.scheduleWithFixedDelay(
+                new FireAndForgetTask(() -> queues().forEach(MoverRequestScheduler::updateAdaptiveLimit)),
+                adaptiveLimitPeriod, adaptiveLimitPeriod, TimeUnit.SECONDS);
+    }
+
     public Collection<MoverRequestScheduler> queues()
     {
         return queuesById.values();
@@ -165,8 +200,18 @@ public class IoQueueManager
     @Override
     public void printSetup(PrintWriter pw)
     {
-        queues().forEach(q -> pw.println("mover queue create " + q.getName() + " -order=" + q.getOrder()));
+        queues().forEach(q -> pw.println("mover queue create " + q.getName() + " -order=" + q.getOrder()
+                                         + (q.getShare() == Share.NONE ? "" : " -share=" + q.getShare())));
+        queues().forEach(q -> q.getWeights().forEach((key, weight) ->
+                pw.println("mover queue set weight -queue=" + q.getName() + " " + Args.quote(key) + " " + weight)));
         queues().forEach(q -> pw.println("mover set max active -queue=" + q.getName() + " " + q.getMaxActiveJobs()));
+        queues().stream()
+                .filter(q -> q.getAdaptiveLimiter() != null)
+                .forEach(q -> {
+                    AdaptiveConcurrencyLimiter limiter = q.getAdaptiveLimiter();
+                    pw.println("mover set adaptive -queue=" + q.getName() + " -min=" + limiter.getMin()
+                               + " -max=" + limiter.getMax() + " -tolerance=" + limiter.getTolerance() + " on");
+                });
         queues().stream()
                 .filter(q -> q.hasNonDefaultLastAccessed() || q.hasNonDefaultTotal())
                 .forEach(q -> pw.println("jtm set timeout -queue=" + q.getName()
@@ -176,6 +221,9 @@ public class IoQueueManager
 
     public synchronized void shutdown() throws InterruptedException
     {
+        if (limitUpdater != null) {
+            limitUpdater.shutdown();
+        }
         for (MoverRequestScheduler queue : queuesById.values()) {
             queue.shutdown();
         }
@@ -183,16 +231,28 @@ public class IoQueueManager
         queuesByName.clear();
     }
 
+    /**
+     * Creates a queue with the given order, or changes the order of an
+     * existing queue. The share of an existing queue is kept.
+     */
     private synchronized MoverRequestScheduler createQueue(String name, Order order)
+    {
+        MoverRequestScheduler queue = queuesByName.get(name);
+        return createQueue(name, order, (queue == null) ? Share.NONE : queue.getShare());
+    }
+
+    private synchronized MoverRequestScheduler createQueue(String name, Order order, Share share)
     {
         MoverRequestScheduler queue = queuesByName.get(name);
         if (queue != null) {
             queue.setOrder(order);
+            queue.setShare(share);
         } else {
             LOGGER.info("Creating queue: {}", name);
 
             int id = counter.getAndIncrement();
             queue = new MoverRequestScheduler(name, id, order);
+            queue.setShare(share);
             queue.addFaultListener(this);
             queuesById.put(id, queue);
             queuesByName.put(name, queue);
@@ -261,6 +321,83 @@ public class IoQueueManager
         }
     }
 
+    @AffectsSetup
+    @Command(name = "mover set adaptive",
+            hint = "adapt the maximum number of active transfers to disk latency",
+            description = "Lets the maximum number of active movers of a queue follow the " +
+                          "latency of the disk IO of its running movers. While latency stays " +
+                          "within the tolerance factor of the lowest recently observed latency " +
+                          "and movers are queued, the limit grows by one every few seconds. When " +
+                          "latency exceeds the tolerance, the limit shrinks by a quarter. The " +
+                          "limit stays between the minimum and maximum.\n\n" +
+                          "While enabled, the limit set with 'mover set max active' is only the " +
+                          "starting point. Use 'mover adaptive ls' to see the current limit and " +
+                          "the reasons for recent changes.")
+    public class MoverSetAdaptiveCommand implements Callable<String>
+    {
+        @Argument(valueSpec = "on|off")
+        String enable;
+
+        @Option(name = "queue", metaVar = "queueName",
+                usage = "Specify the mover queue name to operate on. If unspecified, " +
+                        "the default mover queue is assumed.")
+        String queueName;
+
+        @Option(name = "min", usage = "Minimum number of active movers.")
+        int min = 1;
+
+        @Option(name = "max", usage = "Maximum number of active movers.")
+        int max = 1000;
+
+        @Option(name = "tolerance",
+                usage = "Factor by which latency may exceed the baseline before the limit is reduced.")
+        double tolerance = 2.0;
+
+        @Override
+        public String call() throws CommandException
+        {
+            MoverRequestScheduler queue = (queueName == null) ? defaultQueue : queuesByName.get(queueName);
+            checkCommand(queue != null, "Not found : %s", queueName);
+            switch (enable) {
+            case "on":
+                checkCommand(min > 0, "-min must be positive.");
+                checkCommand(max >= min, "-max must not be less than -min.");
+                checkCommand(tolerance > 1, "-tolerance must be larger than 1.");
+                queue.setAdaptiveLimit(min, max, tolerance);
+                return "";
+            case "off":
+                queue.clearAdaptiveLimit();
+                return "Max active movers fixed at " + queue.getMaxActiveJobs();
+            default:
+                throw new CommandException("Argument must be on or off.");
+            }
+        }
+    }
+
+    @Command(name = "mover adaptive ls",
+            hint = "show adaptive mover limits",
+            description = "Shows the current limit, observed latency and throughput, and the " +
+                          "most recent limit changes with their reasons for all queues with " +
+                          "adaptive limits.")
+    public class MoverAdaptiveLsCommand implements Callable<String>
+    {
+        @Override
+        public String call()
+        {
+            StringWriter out = new StringWriter();
+            PrintWriter pw = new PrintWriter(out);
+            for (MoverRequestScheduler queue : queues()) {
+                AdaptiveConcurrencyLimiter limiter = queue.getAdaptiveLimiter();
+                if (limiter != null) {
+                    limiter.getInfo(pw, queue);
+                    pw.println();
+                }
+            }
+            pw.flush();
+            return out.toString();
+        }
+    }
+
     @AffectsSetup
     @Command(name = "p2p set max active",
             hint = "set maximum number of active pool-to-pool transfers",
@@ -283,7 +420,11 @@ public class IoQueueManager
     @AffectsSetup
     @Command(name = "mover queue create", hint = "create mover queue",
             description= "Creates a new mover queue. If the queue already exists, the command changes " +
-                         "the queue order if it differs from the current value.\n\n" +
+                         "the queue order and share if they differ from the current values.\n\n" +
+                         "With a share other than NONE, queued movers are grouped by the owner, the " +
+                         "primary VO group, the storage class or the door of the transfer. Groups are " +
+                         "served in proportion to their weights, so a single group with many queued " +
+                         "movers cannot starve the others. Within a group the queue order applies.\n\n" +
                          "Doors have to be explicitly configured to submit to a particular queue. The " +
                          "queue called 'regular' is the default queue. The queue called 'p2p' is used for " +
                          "the source movers of pool to pool transfers.")
@@ -297,10 +438,47 @@ public class IoQueueManager
                         "unfair, it tends to be more robust in overload situations.")
         Order order = Order.LIFO;
 
+        @Option(name = "share",
+                usage = "Group queued movers by this key and share the job slots between the " +
+                        "groups in proportion to their weights.")
+        Share share = Share.NONE;
+
         @Override
         public String execute() throws InterruptedException
         {
-            createQueue(name, order);
+            createQueue(name, order, share);
+            return "";
+        }
+    }
+
+    @AffectsSetup
+    @Command(name = "mover queue set weight", hint = "set fair share weight",
+            description = "Sets the weight of a group of movers in a queue with a share other " +
+                          "than NONE. The key is the owner, VO group, storage class (as " +
+                          "class@hsm) or door cell name, depending on the share of the queue. " +
+                          "Groups without an explicit weight have weight 1. A group with weight " +
+                          "n is given n job slots for each one given to a group of weight 1, " +
+                          "while both have queued movers.")
+    public class MoverQueueSetWeightCommand implements Callable<String>
+    {
+        @Argument(index = 0, usage = "Key identifying the group.")
+        String key;
+
+        @Argument(index = 1, usage = "Positive weight.")
+        int weight;
+
+        @Option(name = "queue", metaVar = "queueName",
+                usage = "Specify the mover queue name to operate on. If unspecified, " +
+                        "the default mover queue is assumed.")
+        String queueName;
+
+        @Override
+        public String call() throws CommandException
+        {
+            checkCommand(weight > 0, "Weight must be positive.");
+            MoverRequestScheduler queue = (queueName == null) ? defaultQueue : queuesByName.get(queueName);
+            checkCommand(queue != null, "Not found : %s", queueName);
+            queue.setWeight(key, weight);
             return "";
         }
     }
@@ -343,7 +521,8 @@ public class IoQueueManager
         {
             Function<MoverRequestScheduler, String> f;
             if (verbose) {
-                f = q -> q.getName() + " " + q.getActiveJobs() + " " + q.getMaxActiveJobs() + " " + q.getQueueSize() + " " + q.getOrder();
+                f = q -> q.getName() + " " + q.getActiveJobs() + " " + q.getMaxActiveJobs() + " " + q.getQueueSize() + " " + q.getOrder() + " " + q.getShare()
+                         + (q.getAdaptiveLimiter() == null ? "" : " adaptive");
             } else {
                 f = MoverRequestScheduler::getName;
             }
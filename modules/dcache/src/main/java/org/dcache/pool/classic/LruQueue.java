@@ -0,0 +1,92 @@
+package org.dcache.pool.classic;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static java.util.Comparator.naturalOrder;
+
+/**
+ * Queue of keys ordered by a timestamp.
+ */
+class LruQueue<T extends Comparable<T>> implements EvictionQueue<T>
+{
+    /**
+     * Tracks the time stamp of each element in the queue.
+     */
+    private final Map<T, Long> timeStamps = new HashMap<>();
+
+    /**
+     * Elements sorted by access time and value.
+     * <p>
+     * The comparator uses {@code timeStamps} to look up the time of keys. A compound comparator is used
+     * to ensure consistency with equals (otherwise two keys with the same time would be collapsed to
+     * a single element in the set).
+     * <p>
+     * Any element inserted into this set must have its access time recorded in {@code timeStamps}
+     * before being inserted into the set. The time must not change while the key is in the set.
+     */
+    private final SortedSet<T> queue =
+            new TreeSet<>(Comparator.<T, Long>comparing(k -> timeStamps.getOrDefault(k, 0L)).thenComparing(naturalOrder()));
+
+    @Override
+    public synchronized boolean add(T key, long time)
+    {
+        if (timeStamps.putIfAbsent(key, time) == null) {
+            queue.add(key);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized boolean remove(T key)
+    {
+        if (queue.remove(key)) {
+            timeStamps.remove(key);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void accessed(T key, long time)
+    {
+        if (remove(key)) {
+            add(key, time);
+        }
+    }
+
+    @Override
+    public synchronized long getTimeOfLeastRecentlyUsedElement()
+    {
+        if (queue.isEmpty()) {
+            return 0;
+        }
+        return timeStamps.get(queue.first());
+    }
+
+    @Override
+    public synchronized OptionalLong getLastAccessTime(T key)
+    {
+        Long time = timeStamps.get(key);
+        return time == null ? OptionalLong.empty() : OptionalLong.of(time);
+    }
+
+    @Override
+    public synchronized List<T> values()
+    {
+        return new ArrayList<>(queue);
+    }
+
+    @Override
+    public synchronized int size()
+    {
+        return queue.size();
+    }
+}
@@ -13,16 +13,19 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
-import java.util.concurrent.BlockingQueue;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import javax.annotation.Nullable;
+import javax.security.auth.Subject;
 
 import java.net.InetSocketAddress;
 
@@ -34,6 +37,9 @@ import diskCacheV111.vehicles.IoJobInfo;
 import diskCacheV111.vehicles.JobInfo;
 import diskCacheV111.vehicles.ProtocolInfo;
 
+import org.dcache.auth.FQAN;
+import org.dcache.auth.Subjects;
+import org.dcache.namespace.FileAttribute;
 import org.dcache.pool.FaultAction;
 import org.dcache.pool.FaultEvent;
 import org.dcache.pool.FaultListener;
@@ -42,6 +48,7 @@ import org.dcache.pool.movers.json.MoverData;
 import org.dcache.util.AdjustableSemaphore;
 import org.dcache.util.IoPrioritizable;
 import org.dcache.util.IoPriority;
+import org.dcache.vehicles.FileAttributes;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
@@ -119,9 +126,25 @@ public class MoverRequestScheduler
     private Order _order;
 
     /**
-     * Queued movers.
+     * Current fair share key.
      */
-    private BlockingQueue<PrioritizedRequest> _queue;
+    private Share _share = Share.NONE;
+
+    /**
+     * Fair share weights by key. Keys without an entry have weight 1.
+     */
+    private final Map<String, Integer> _weights = new ConcurrentHashMap<>();
+
+    /**
+     * Queued movers. Replaced when the order or share changes; submitters
+     * that added to a replaced queue move their request to the current one.
+     */
+    private volatile Queue<PrioritizedRequest> _queue;
+
+    /**
+     * Adjusts the number of job slots to the disk latency, if set.
+     */
+    private volatile AdaptiveConcurrencyLimiter _limiter;
 
     /**
      * Job id generator
@@ -133,19 +156,68 @@ public class MoverRequestScheduler
      */
     private volatile boolean _isShutdown;
 
-    private boolean _loggedQueuingMovers;
+    private final AtomicBoolean _loggedQueuingMovers = new AtomicBoolean();
 
     public enum Order
     {
         FIFO, LIFO
     }
 
+    /**
+     * Key by which queued movers are grouped for weighted fair sharing.
+     */
+    public enum Share
+    {
+        /** All movers share a single queue. */
+        NONE(mover -> ""),
+
+        /** Movers are grouped by the user on whose behalf they transfer. */
+        OWNER(mover -> {
+            Subject subject = mover.getSubject();
+            String name = Subjects.getUserName(subject);
+            return name != null ? name : Subjects.getDisplayName(subject);
+        }),
+
+        /** Movers are grouped by the primary FQAN group of the user. */
+        VO(mover -> {
+            FQAN fqan = Subjects.getPrimaryFqan(mover.getSubject());
+            return fqan == null ? "" : fqan.getGroup();
+        }),
+
+        /** Movers are grouped by the storage class of the file. */
+        STORAGE(mover -> {
+            FileAttributes attributes = mover.getFileAttributes();
+            return attributes.isDefined(FileAttribute.STORAGECLASS) && attributes.isDefined(FileAttribute.HSM)
+                   ? attributes.getStorageClass() + "@" + attributes.getHsm()
+                   : "";
+        }),
+
+        /** Movers are grouped by the door that requested them. */
+        DOOR(mover -> mover.getPathToDoor().getDestinationAddress().getCellName());
+
+        private final Function<Mover<?>, String> _key;
+
+        Share(Function<Mover<?>, String> key)
+        {
+            _key = key;
+        }
+
+        String keyOf(Mover<?> mover)
+        {
+            try {
+                return _key.apply(mover);
+            } catch (IllegalArgumentException e) {
+                return "";
+            }
+        }
+    }
+
     public MoverRequestScheduler(String name, int queueId, Order order)
     {
         _name = name;
         _queueId = queueId;
         _order = order;
-        _queue = createQueue(order);
+        _queue = createQueue(order, _share);
         _semaphore.setMaxPermits(2);
     }
 
@@ -159,7 +231,7 @@ public class MoverRequestScheduler
         _faultListeners.remove(listener);
     }
 
-    private PriorityBlockingQueue<PrioritizedRequest> createQueue(Order order)
+    private Queue<PrioritizedRequest> createQueue(Order order, Share share)
     {
         /* PriorityBlockingQueue returns the least elements first, that is, the
          * the highest priority requests have to be first in the ordering.
@@ -175,10 +247,14 @@ public class MoverRequestScheduler
                         .thenComparingLong(IoPrioritizable::getCreateTime)
                         .reversed();
 
-        return new PriorityBlockingQueue<>(16, comparator);
+        if (share == Share.NONE) {
+            return new PriorityBlockingQueue<>(16, comparator);
+        }
+        return new FairShareQueue<>(comparator, r -> share.keyOf(r.getMover()),
+                                    key -> _weights.getOrDefault(key, 1));
     }
 
-    public Order getOrder()
+    public synchronized Order getOrder()
     {
         return _order;
     }
@@ -186,10 +262,60 @@ public class MoverRequestScheduler
     public synchronized void setOrder(Order order)
     {
         if (order != _order) {
-            PriorityBlockingQueue<PrioritizedRequest> queue = createQueue(order);
-            _queue.drainTo(queue);
-            _queue = queue;
             _order = order;
+            replaceQueue(createQueue(order, _share));
+        }
+    }
+
+    public synchronized Share getShare()
+    {
+        return _share;
+    }
+
+    /**
+     * Sets the key by which queued movers are grouped. If not {@link
+     * Share#NONE}, queued movers are started in proportion to the weights
+     * of their keys rather than strictly by queue order; within a key the
+     * queue order applies.
+     */
+    public synchronized void setShare(Share share)
+    {
+        if (share != _share) {
+            _share = share;
+            replaceQueue(createQueue(_order, share));
+        }
+    }
+
+    /**
+     * Sets the fair share weight of a key. A weight of 1 is the default.
+     */
+    public void setWeight(String key, int weight)
+    {
+        checkArgument(weight > 0, "Weight must be positive.");
+        if (weight == 1) {
+            _weights.remove(key);
+        } else {
+            _weights.put(key, weight);
+        }
+    }
+
+    public Map<String, Integer> getWeights()
+    {
+        return Collections.unmodifiableMap(_weights);
+    }
+
+    private void replaceQueue(Queue<PrioritizedRequest> queue)
+    {
+        Queue<PrioritizedRequest> old = _queue;
+        _queue = queue;
+        transfer(old, queue);
+    }
+
+    private static void transfer(Queue<PrioritizedRequest> from, Collection<PrioritizedRequest> to)
+    {
+        PrioritizedRequest request;
+        while ((request = from.poll()) != null) {
+            to.add(request);
         }
     }
 
@@ -226,11 +352,8 @@ public class MoverRequestScheduler
             /* If not already queued, submit it.
              */
             if (request.queue()) {
-                if (submit(request)) {
-                    /* There was a free slot in the queue so we submit directly to execution.
-                     */
-                    sendToExecution(request);
-                } else if (_semaphore.getMaxPermits() <= 0) {
+                submit(request);
+                if (_semaphore.getMaxPermits() <= 0) {
                     LOGGER.warn("A task was added to queue '{}', however the queue is not " +
                                 "configured to execute any tasks.", _name);
                 }
@@ -253,53 +376,65 @@ public class MoverRequestScheduler
     }
 
     /**
-     * Add a request to the scheduler.
+     * Add a request to the scheduler and start as many queued jobs as there
+     * are free job slots.
      * <p>
-     * Returns true if the caller acquired a job slot and must send the job to execution.
+     * Does not synchronize on the scheduler: the request is added to the
+     * queue before trying to acquire a job slot, and a job slot is released
+     * before polling the queue, so either the submitter or the releasing
+     * thread sees both.
      *
      * @param request
-     * @return
      */
-    private synchronized boolean submit(PrioritizedRequest request)
+    private void submit(PrioritizedRequest request)
     {
         if (_jobs.put(request.getId(), request) != null) {
             throw new RuntimeException("Duplicate mover id detected. Please report to support@dcache.org.");
         }
 
-        if (_semaphore.tryAcquire()) {
-            return true;
-        } else {
-            _queue.add(request);
-            if (!_loggedQueuingMovers) {
-                LOGGER.warn("Mover queue \"{}\" is now queuing movers", _name);
-                _loggedQueuingMovers = true;
+        Queue<PrioritizedRequest> queue = _queue;
+        queue.add(request);
+        if (queue != _queue) {
+            /* The queue was replaced concurrently. */
+            transfer(queue, _queue);
+        }
+
+        dispatch();
+
+        if (!_queue.isEmpty() && _loggedQueuingMovers.compareAndSet(false, true)) {
+            LOGGER.warn("Mover queue \"{}\" is now queuing movers", _name);
+        }
+    }
+
+    /**
+     * Sends queued jobs to execution while there are free job slots.
+     */
+    private void dispatch()
+    {
+        while (!_queue.isEmpty() && _semaphore.tryAcquire()) {
+            PrioritizedRequest request = _queue.poll();
+            if (request == null) {
+                _semaphore.release();
+            } else {
+                sendToExecution(request);
             }
-            return false;
         }
     }
 
     /**
-     * Returns the next job or releases a job slot. If a non-null value is returned, the caller
-     * must submit the job to execution. Should only be caller by a caller than currently holds
-     * a job slot.
-     *
-     * @return
+     * Releases the job slot held by the caller and starts the next job.
      */
-    private synchronized PrioritizedRequest nextOrRelease()
+    private void releaseAndDispatch()
     {
-        PrioritizedRequest request = _queue.poll();
-        if (request == null) {
-            _semaphore.release();
+        _semaphore.release();
+        dispatch();
 
-            /* We now have (at least) one "mover slot" free.  Therefore, the
-             * pool will accept the next mover (for this queue) without queuing.
-             */
-            if (_loggedQueuingMovers) {
-                LOGGER.warn("Next mover on mover queue \"{}\" will not be queued", _name);
-                _loggedQueuingMovers = false;
-            }
+        /* We now have (at least) one "mover slot" free.  Therefore, the
+         * pool will accept the next mover (for this queue) without queuing.
+         */
+        if (_queue.isEmpty() && _loggedQueuingMovers.compareAndSet(true, false)) {
+            LOGGER.warn("Next mover on mover queue \"{}\" will not be queued", _name);
         }
-        return request;
     }
 
     private synchronized int nextId()
@@ -317,7 +452,7 @@ public class MoverRequestScheduler
      *
      * @return number of running jobs.
      */
-    public synchronized int getActiveJobs()
+    public int getActiveJobs()
     {
         return _jobs.size() - _queue.size();
     }
@@ -388,9 +523,44 @@ public class MoverRequestScheduler
     public void setMaxActiveJobs(int maxJobs)
     {
         _semaphore.setMaxPermits(maxJobs);
-        PrioritizedRequest request;
-        while (_semaphore.tryAcquire() && (request = nextOrRelease()) != null) {
-            sendToExecution(request);
+        dispatch();
+    }
+
+    /**
+     * Returns the adaptive limiter of this queue, or null if the maximum
+     * number of active jobs is fixed.
+     */
+    @Nullable
+    AdaptiveConcurrencyLimiter getAdaptiveLimiter()
+    {
+        return _limiter;
+    }
+
+    /**
+     * Lets the maximum number of active jobs follow the disk latency
+     * between {@code min} and {@code max}.
+     */
+    public void setAdaptiveLimit(int min, int max, double tolerance)
+    {
+        _limiter = new AdaptiveConcurrencyLimiter(min, max, tolerance);
+    }
+
+    /**
+     * Fixes the maximum number of active jobs at its current value.
+     */
+    public void clearAdaptiveLimit()
+    {
+        _limiter = null;
+    }
+
+    /**
+     * Adjusts the maximum number of active jobs if an adaptive limit is set.
+     */
+    void updateAdaptiveLimit()
+    {
+        AdaptiveConcurrencyLimiter limiter = _limiter;
+        if (limiter != null) {
+            limiter.update(this);
         }
     }
 
@@ -401,11 +571,7 @@ public class MoverRequestScheduler
      */
     public int getQueueSize()
     {
-        BlockingQueue<PrioritizedRequest> queue;
-        synchronized (this) {
-            queue = _queue;
-        }
-        return queue.size();
+        return _queue.size();
     }
 
     /**
@@ -413,11 +579,7 @@ public class MoverRequestScheduler
      */
     public int getCountByPriority(IoPriority priority)
     {
-        BlockingQueue<PrioritizedRequest> queue;
-        synchronized (this) {
-            queue = _queue;
-        }
-        return (int) queue.stream()
+        return (int) _queue.stream()
                 .filter(r -> r.getPriority() == priority)
                 .count();
     }
@@ -499,7 +661,7 @@ public class MoverRequestScheduler
          * the freed job slot.
          */
         Collection<PrioritizedRequest> toBeCancelled = new ArrayList<>();
-        _queue.drainTo(toBeCancelled);
+        transfer(_queue, toBeCancelled);
 
         /* Kill both the jobs that were queued and which are running. */
         _jobs.values().forEach(j -> j.kill("shutdown"));
@@ -577,10 +739,7 @@ public class MoverRequestScheduler
                                                 request.done();
                                                 _jobs.remove(request.getId());
                                                 _moverByRequests.remove(request.getDoorUniqueId());
-                                                PrioritizedRequest nextRequest = nextOrRelease();
-                                                if (nextRequest != null) {
-                                                    sendToExecution(nextRequest);
-                                                }
+                                                releaseAndDispatch();
                                             }
                                         });
                             }
@@ -30,6 +30,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -64,6 +65,7 @@ import diskCacheV111.vehicles.PoolAcceptFileMessage;
 import diskCacheV111.vehicles.PoolCheckFreeSpaceMessage;
 import diskCacheV111.vehicles.PoolDeliverFileMessage;
 import diskCacheV111.vehicles.PoolFetchFileMessage;
+import diskCacheV111.vehicles.PoolHeartbeatRequestMessage;
 import diskCacheV111.vehicles.PoolIoFileMessage;
 import diskCacheV111.vehicles.PoolManagerPoolUpMessage;
 import diskCacheV111.vehicles.PoolMgrReplicateFileMsg;
@@ -130,6 +132,7 @@ import org.dcache.vehicles.FileAttributes;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static java.util.stream.Collectors.toList;
 
 public class PoolV4
@@ -193,6 +196,9 @@ public class PoolV4
     private boolean _hybridInventoryActive;
     private int _hybridCurrent;
 
+    private volatile long _directIoMinimumSize = -1;
+    private volatile Set<String> _directIoProtocols = ImmutableSet.of();
+
     private final ReplicationHandler _replicationHandler = new ReplicationHandler();
 
     private ReplicaStatePolicy _replicaStatePolicy;
@@ -318,6 +324,17 @@ public class PoolV4
         _poolupDestination = name;
     }
 
+    /**
+     * Sets the number of heartbeats after which a full heartbeat is sent.
+     * Heartbeats in between only contain what changed since the last full
+     * heartbeat. One disables delta heartbeats.
+     */
+    public void setFullHeartbeatInterval(int interval)
+    {
+        checkArgument(interval > 0, "The full heartbeat interval must be positive.");
+        _pingThread.setFullHeartbeatInterval(interval);
+    }
+
     @Required
     public void setBillingStub(CellStub stub)
     {
@@ -437,6 +454,53 @@ public class PoolV4
         _enableHsmFlag = enable;
     }
 
+    /**
+     * Sets the minimum file size for which transfers bypass the page
+     * cache. A negative value disables direct I/O.
+     */
+    public void setDirectIoMinimumSize(long size)
+    {
+        _directIoMinimumSize = size;
+    }
+
+    /**
+     * Sets the comma separated list of protocols for which direct I/O may
+     * be used. An empty list allows all protocols.
+     */
+    public void setDirectIoProtocols(String protocols)
+    {
+        _directIoProtocols = Splitter.on(',')
+                .omitEmptyStrings()
+                .trimResults()
+                .splitToList(protocols).stream()
+                .map(String::toLowerCase)
+                .collect(toImmutableSet());
+    }
+
+    /**
+     * Returns whether the mover for {@code message} should bypass the page
+     * cache. The size of an upload is usually not known before the transfer
+     * completes; such uploads use buffered I/O unless the maximum size of the
+     * upload is known and reaches the threshold.
+     */
+    private boolean isDirectIo(PoolIoFileMessage message)
+    {
+        long threshold = _directIoMinimumSize;
+        if (threshold < 0 || !_directIoProtocols.isEmpty()
+                && !_directIoProtocols.contains(message.getProtocolInfo().getProtocol().toLowerCase())) {
+            return false;
+        }
+        Optional<Long> size = message.getFileAttributes().getSizeIfPresent();
+        if (size.isPresent()) {
+            return size.get() >= threshold;
+        }
+        if (message instanceof PoolAcceptFileMessage) {
+            OptionalLong maximumSize = ((PoolAcceptFileMessage) message).getMaximumSize();
+            return maximumSize.isPresent() && maximumSize.getAsLong() >= threshold;
+        }
+        return false;
+    }
+
     @Override
     public void setZone(Optional<String> zone)
     {
@@ -740,9 +804,14 @@ public class PoolV4
         ProtocolInfo pi = message.getProtocolInfo();
 
         MoverFactory moverFactory = _transferServices.getMoverFactory(pi);
+        boolean isDirectIo = isDirectIo(message);
         ReplicaDescriptor handle;
         try {
             if (message instanceof PoolAcceptFileMessage) {
+                Set<OpenOption> createFlags = new HashSet<>(moverFactory.getChannelCreateOptions());
+                if (isDirectIo) {
+                    createFlags.add(Repository.OpenFlags.DIRECT_IO);
+                }
                 OptionalLong maximumSize = ((PoolAcceptFileMessage)message).getMaximumSize();
                 List<StickyRecord> stickyRecords =
                         _replicaStatePolicy.getStickyRecords(attributes);
@@ -752,13 +821,16 @@ public class PoolV4
                                                  ReplicaState.FROM_CLIENT,
                                                  targetState,
                                                  stickyRecords,
-                                                 moverFactory.getChannelCreateOptions(),
+                                                 createFlags,
                                                  maximumSize);
             } else {
-                Set<? extends OpenOption> openFlags =
+                Set<Repository.OpenFlags> openFlags =
                         message.isPool2Pool()
                                 ? EnumSet.of(Repository.OpenFlags.NOATIME)
                                 : EnumSet.noneOf(Repository.OpenFlags.class);
+                if (isDirectIo) {
+                    openFlags.add(Repository.OpenFlags.DIRECT_IO);
+                }
                 handle = _repository.openEntry(pnfsId, openFlags);
             }
         } catch (FileNotInCacheException e) {
@@ -1257,6 +1329,13 @@ public class PoolV4
         return msg;
     }
 
+    public void messageArrived(PoolHeartbeatRequestMessage msg)
+    {
+        if (_pingLimiter.tryAcquire()) {
+            _pingThread.sendFullPoolManagerMessage();
+        }
+    }
+
     public PoolSetStickyMessage messageArrived(PoolSetStickyMessage msg)
         throws CacheException, InterruptedException
     {
@@ -1341,10 +1420,26 @@ public class PoolV4
         LOGGER.warn("Pool mode changed to {}", _poolMode);
     }
 
+    /**
+     * Sends heartbeats to pool managers and other interested services.
+     *
+     * Every full heartbeat interval, and whenever the pool mode changes or
+     * the pool is disabled, a full heartbeat is sent. Other heartbeats are
+     * deltas relative to the last full heartbeat, containing only the parts
+     * that differ from it.
+     */
     private class PoolManagerPingThread implements Runnable
     {
         private final Thread _worker;
         private int _heartbeat = HEARTBEAT;
+        private volatile int _fullHeartbeatInterval = 1;
+
+        /* The following fields are guarded by this. */
+        private long _sequence;
+        private int _sinceFull;
+        private PoolManagerPoolUpMessage _lastFull;
+        private int _lastFullMode;
+        private Map<String, String> _lastFullTags;
 
         private PoolManagerPingThread()
         {
@@ -1387,12 +1482,27 @@ public class PoolV4
             return _heartbeat;
         }
 
+        public void setFullHeartbeatInterval(int interval)
+        {
+            _fullHeartbeatInterval = interval;
+        }
+
+        public int getFullHeartbeatInterval()
+        {
+            return _fullHeartbeatInterval;
+        }
+
         public synchronized void sendPoolManagerMessage()
         {
-            send(getPoolManagerMessage());
+            send(getPoolManagerMessage(false));
+        }
+
+        public synchronized void sendFullPoolManagerMessage()
+        {
+            send(getPoolManagerMessage(true));
         }
 
-        private CellMessage getPoolManagerMessage()
+        private CellMessage getPoolManagerMessage(boolean isFull)
         {
             boolean disabled =
                 _poolMode.getMode() == PoolV2Mode.DISABLED ||
@@ -1411,11 +1521,50 @@ public class PoolV4
             }
             poolManagerMessage.setMessage(_poolStatusMessage);
             poolManagerMessage.setCode(_poolStatusCode);
+            poolManagerMessage.setSequence(++_sequence);
+
+            if (isFull || info == null || _lastFull == null
+                    || _lastFullMode != _poolMode.getMode()
+                    || ++_sinceFull >= _fullHeartbeatInterval) {
+                _lastFull = poolManagerMessage;
+                _lastFullMode = _poolMode.getMode();
+                _lastFullTags = new HashMap<>(_tags);
+                _sinceFull = 0;
+            } else {
+                poolManagerMessage = toDelta(poolManagerMessage);
+            }
 
             return new CellMessage(new CellPath(_poolupDestination),
                                    poolManagerMessage);
         }
 
+        private PoolManagerPoolUpMessage toDelta(PoolManagerPoolUpMessage message)
+        {
+            PoolCostInfo info = message.getPoolCostInfo();
+            PoolCostInfo lastInfo = _lastFull.getPoolCostInfo();
+            PoolCostInfo.Delta costDelta = lastInfo == null ? null : info.deltaFrom(lastInfo);
+            PoolManagerPoolUpMessage delta =
+                    new PoolManagerPoolUpMessage(_poolName, _serialId, _poolMode, costDelta == null ? info : null);
+            if (costDelta != null && !costDelta.isEmpty()) {
+                delta.setPoolCostInfoDelta(costDelta);
+            }
+            delta.setSequence(message.getSequence());
+            delta.setDelta(_lastFull.getSequence());
+            if (!Objects.equals(message.getHostName(), _lastFull.getHostName())) {
+                delta.setHostName(message.getHostName());
+            }
+            if (!message.getTagMap().equals(_lastFullTags)) {
+                delta.setTagMap(message.getTagMap());
+            }
+            if (message.getHsmInstances() != null
+                    && !message.getHsmInstances().equals(_lastFull.getHsmInstances())) {
+                delta.setHsmInstances(message.getHsmInstances());
+            }
+            delta.setMessage(message.getMessage());
+            delta.setCode(message.getCode());
+            return delta;
+        }
+
         private void send(CellMessage msg)
         {
             sendMessage(msg);
@@ -10,13 +10,11 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.OptionalLong;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import diskCacheV111.util.CacheException;
 import diskCacheV111.util.FileNotInCacheException;
@@ -47,8 +45,6 @@ import org.dcache.pool.repository.StickyChangeEvent;
 import org.dcache.util.histograms.CountingHistogram;
 import org.dcache.vehicles.FileAttributes;
 
-import static java.util.Comparator.naturalOrder;
-
 public class SpaceSweeper2
     implements Runnable, CellCommandListener, StateChangeListener, CellSetupProvider,
                 SpaceSweeperPolicy, PoolDataBeanProvider<SweeperData>
@@ -58,12 +54,12 @@ public class SpaceSweeper2
     private static final DateTimeFormatter ISO8601_FORMAT =
             DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss").withZone(ZoneId.systemDefault());
 
-    private final LruQueue<PnfsId> _queue = new LruQueue<>();
+    private volatile EvictionQueue<PnfsId> _queue = new LruQueue<>();
 
     private Repository _repository;
 
     private Account _account;
-    private Thread _thread;
+    private volatile Thread _thread;
     private double _margin = 0.0;
 
     public SpaceSweeper2()
@@ -88,6 +84,29 @@ public class SpaceSweeper2
         _account = account;
     }
 
+    /**
+     * Selects the order in which removable replicas are evicted. Must be
+     * called before the repository is loaded.
+     *
+     * @param policy either {@code lru} or {@code w-tinylfu}
+     */
+    public void setEvictionPolicy(String policy)
+    {
+        _queue = createQueue(policy);
+    }
+
+    static EvictionQueue<PnfsId> createQueue(String policy)
+    {
+        switch (policy) {
+        case "lru":
+            return new LruQueue<>();
+        case "w-tinylfu":
+            return new TinyLfuQueue<>();
+        default:
+            throw new IllegalArgumentException("Unknown eviction policy: " + policy);
+        }
+    }
+
     @Required
     public synchronized void setMargin(double margin)
     {
@@ -127,14 +146,6 @@ public class SpaceSweeper2
         return _margin;
     }
 
-    /**
-     * Returns the pnfsid of the eldest removable entry.
-     */
-    private synchronized PnfsId getEldest()
-    {
-        return _queue.getLeastRecentlyUsedElement();
-    }
-
     /**
      * Returns the last access time of the eldest removable entry.
      */
@@ -149,7 +160,7 @@ public class SpaceSweeper2
      *
      * @throws IllegalArgumentException if entry is precious or not cached
      */
-    private synchronized void add(CacheEntry entry)
+    private void add(CacheEntry entry)
     {
         if (!isRemovable(entry)) {
             throw new IllegalArgumentException("Cannot add a precious or un-cached file to the sweeper queue.");
@@ -161,13 +172,16 @@ public class SpaceSweeper2
             /* The sweeper thread may be waiting for more files to
              * delete.
              */
-            notifyAll();
+            Thread thread = _thread;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
         }
     }
 
     /** Remove entry from the queue.
      */
-    private synchronized boolean remove(CacheEntry entry)
+    private boolean remove(CacheEntry entry)
     {
         PnfsId id = entry.getPnfsId();
         if (_queue.remove(id)) {
@@ -178,7 +192,7 @@ public class SpaceSweeper2
     }
 
     @Override
-    public synchronized void stateChanged(StateChangeEvent event)
+    public void stateChanged(StateChangeEvent event)
     {
         CacheEntry entry = event.getNewEntry();
         switch (event.getNewState()) {
@@ -198,7 +212,7 @@ public class SpaceSweeper2
     }
 
     @Override
-    public synchronized void stickyChanged(StickyChangeEvent event)
+    public void stickyChanged(StickyChangeEvent event)
     {
         CacheEntry entry = event.getNewEntry();
         if (isRemovable(entry)) {
@@ -209,12 +223,10 @@ public class SpaceSweeper2
     }
 
     @Override
-    public synchronized void accessTimeChanged(EntryChangeEvent event)
+    public void accessTimeChanged(EntryChangeEvent event)
     {
         CacheEntry entry = event.getNewEntry();
-        if (remove(entry)) {
-            add(entry);
-        }
+        _queue.accessed(entry.getPnfsId(), entry.getLastAccessTime());
     }
 
     @AffectsSetup
@@ -303,10 +315,7 @@ public class SpaceSweeper2
                 throws CacheException, InterruptedException
         {
             StringBuilder sb = new StringBuilder();
-            List<PnfsId> list;
-            synchronized (SpaceSweeper2.this) {
-                list = _queue.values();
-            }
+            List<PnfsId> list = _queue.values();
             int i = 0;
             for (PnfsId id : list) {
                 try {
@@ -348,22 +357,20 @@ public class SpaceSweeper2
         info.setLabel("Space Sweeper v2");
         info.setMargin(_margin);
 
-        List<PnfsId> list;
-
-        synchronized (this) {
-            list = _queue.values();
-            info.setLruQueueSize(_queue.values().size());
-            info.setLruTimestamp(System.currentTimeMillis() - getLru());
-        }
+        EvictionQueue<PnfsId> queue = _queue;
+        List<PnfsId> list = queue.values();
+        info.setLruQueueSize(list.size());
+        info.setLruTimestamp(System.currentTimeMillis() - queue.getTimeOfLeastRecentlyUsedElement());
 
         List<Double> fileLifetime = new ArrayList<>();
         long now = System.currentTimeMillis();
 
         for (PnfsId id : list) {
-            Long lastAccess = _queue.timeStamps.get(id);
-            if (lastAccess == null) {
+            OptionalLong time = queue.getLastAccessTime(id);
+            if (!time.isPresent()) {
                 continue;
             }
+            long lastAccess = time.getAsLong();
             long lvalue = now - lastAccess;
             if (lvalue < 0L) {
                 now = System.currentTimeMillis();
@@ -510,11 +517,12 @@ public class SpaceSweeper2
                      * excessive CPU consumption we sleep for 10
                      * seconds after each iteration.
                      */
-                    synchronized(this) {
-                        /*
-                         * will be waked up if new entry added into list
-                         */
-                        wait(10000);
+                    /*
+                     * will be waked up if new entry added into list
+                     */
+                    LockSupport.parkNanos(this, TimeUnit.SECONDS.toNanos(10));
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
                     }
                 }
             }
@@ -525,67 +533,4 @@ public class SpaceSweeper2
             _repository.removeListener(this);
         }
     }
-
-    /**
-     * Queue of keys ordered by a timestamp.
-     */
-    private static class LruQueue<T extends Comparable<T>>
-    {
-        /**
-         * Tracks the time stamp of each element in the queue.
-         */
-        private final Map<T, Long> timeStamps = new HashMap<>();
-
-        /**
-         * Elements sorted by access time and value.
-         * <p>
-         * The comparator uses {@code timeStamps} to look up the time of keys. A compound comparator is used
-         * to ensure consistency with equals (otherwise two keys with the same time would be collapsed to
-         * a single element in the set).
-         * <p>
-         * Any element inserted into this set must have its access time recorded in {@code timeStamps}
-         * before being inserted into the set. The time must not change while the key is in the set.
-         */
-        private final SortedSet<T> queue =
-                new TreeSet<>(Comparator.<T, Long>comparing(k -> timeStamps.getOrDefault(k, 0L)).thenComparing(naturalOrder()));
-
-        public synchronized boolean add(T key, long time)
-        {
-            if (timeStamps.putIfAbsent(key, time) == null) {
-                queue.add(key);
-                return true;
-            }
-            return false;
-        }
-
-        public synchronized boolean remove(T key)
-        {
-            if (queue.remove(key)) {
-                timeStamps.remove(key);
-                return true;
-            }
-            return false;
-        }
-
-        public synchronized T getLeastRecentlyUsedElement()
-        {
-            if (queue.isEmpty()) {
-                return null;
-            }
-            return queue.first();
-        }
-
-        public synchronized long getTimeOfLeastRecentlyUsedElement()
-        {
-            if (queue.isEmpty()) {
-                return 0;
-            }
-            return timeStamps.get(queue.first());
-        }
-
-        public synchronized List<T> values()
-        {
-            return new ArrayList<>(queue);
-        }
-    }
 }
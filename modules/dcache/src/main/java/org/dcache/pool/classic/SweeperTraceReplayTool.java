@@ -0,0 +1,163 @@
+package org.dcache.pool.classic;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import diskCacheV111.util.PnfsId;
+
+import org.dcache.util.ByteSizeParser;
+import org.dcache.util.ByteUnits;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Replays the transfers of a pool recorded in billing files against the
+ * eviction policies of the space sweeper.
+ *
+ * The tool simulates a pool of a given size. Uploads add the file to the
+ * simulated pool. A read of a file that is on the simulated pool is a hit;
+ * otherwise the file is added as if it had been staged or copied from
+ * another pool. Whenever the pool is full, files are evicted in the order
+ * of the policy until enough space is free for the next file and one
+ * percent of the pool size.
+ *
+ * Only successful transfers logged with the default format of mover info
+ * messages are considered.
+ */
+public class SweeperTraceReplayTool
+{
+    private static final String[] POLICIES = { "lru", "w-tinylfu" };
+
+    private static final Pattern TRANSFER = Pattern.compile(
+            "\\[pool:([^:\\]]+):transfer\\] \\[([0-9A-Fa-f]+),(-?\\d+)\\] \\[.*?\\] \\S+ -?\\d+ -?\\d+ (true|false) \\{[^}]*\\} \\[.*\\] \\{(-?\\d+):");
+
+    private static class Simulation
+    {
+        private final String policy;
+        private final EvictionQueue<PnfsId> queue;
+        private final Map<PnfsId, Long> sizes = new HashMap<>();
+        private final long capacity;
+        private final long margin;
+        private long used;
+
+        private long reads;
+        private long hits;
+        private long bytesRead;
+        private long bytesHit;
+
+        Simulation(String policy, long capacity)
+        {
+            this.policy = policy;
+            this.queue = SpaceSweeper2.createQueue(policy);
+            this.capacity = capacity;
+            this.margin = capacity / 100;
+        }
+
+        void transfer(PnfsId id, long size, boolean isWrite, long time)
+        {
+            if (isWrite) {
+                add(id, size, time);
+            } else {
+                reads++;
+                bytesRead += size;
+                if (sizes.containsKey(id)) {
+                    hits++;
+                    bytesHit += size;
+                    queue.accessed(id, time);
+                } else {
+                    queue.accessed(id, time);
+                    add(id, size, time);
+                }
+            }
+        }
+
+        private void add(PnfsId id, long size, long time)
+        {
+            if (sizes.containsKey(id) || size > capacity) {
+                return;
+            }
+            if (used + size > capacity) {
+                long target = capacity - size - margin;
+                for (PnfsId victim : queue.values()) {
+                    if (used <= target) {
+                        break;
+                    }
+                    queue.remove(victim);
+                    used -= sizes.remove(victim);
+                }
+            }
+            sizes.put(id, size);
+            used += size;
+            queue.add(id, time);
+        }
+
+        void print()
+        {
+            System.out.format("%-10s %10d %10d %7.2f%% %7.2f%%\n", policy, reads, hits,
+                              reads == 0 ? 0.0 : 100.0 * hits / reads,
+                              bytesRead == 0 ? 0.0 : 100.0 * bytesHit / bytesRead);
+        }
+    }
+
+    private static InputStream open(String file) throws IOException
+    {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        return file.endsWith(".bz2") ? new BZip2CompressorInputStream(in) : in;
+    }
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        if (args.length < 3) {
+            System.err.println("Synopsis: SweeperTraceReplayTool POOL SIZE FILE...");
+            System.err.println();
+            System.err.println("Where POOL is the pool name, SIZE is the simulated pool size in bytes, optionally");
+            System.err.println("with a k, M, G or T suffix, and FILE are billing files, optionally bzip2 compressed,");
+            System.err.println("in chronological order.");
+            System.exit(1);
+        }
+
+        String pool = args[0];
+        long capacity = ByteSizeParser.using(ByteUnits.jedecPrefix()).parse(args[1]);
+
+        Simulation[] simulations = new Simulation[POLICIES.length];
+        for (int i = 0; i < POLICIES.length; i++) {
+            simulations[i] = new Simulation(POLICIES[i], capacity);
+        }
+
+        long time = 0;
+        for (int i = 2; i < args.length; i++) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(open(args[i]), UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Matcher matcher = TRANSFER.matcher(line);
+                    if (!matcher.find() || !matcher.group(1).equals(pool) || !matcher.group(5).equals("0")) {
+                        continue;
+                    }
+                    PnfsId id = new PnfsId(matcher.group(2));
+                    long size = Long.parseLong(matcher.group(3));
+                    boolean isWrite = Boolean.parseBoolean(matcher.group(4));
+                    time++;
+                    for (Simulation simulation : simulations) {
+                        simulation.transfer(id, size, isWrite, time);
+                    }
+                }
+            }
+        }
+
+        System.out.format("%-10s %10s %10s %8s %8s\n", "POLICY", "READS", "HITS", "HIT", "BYTE HIT");
+        for (Simulation simulation : simulations) {
+            simulation.print();
+        }
+    }
+}
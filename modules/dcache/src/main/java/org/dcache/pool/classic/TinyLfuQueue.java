@@ -0,0 +1,369 @@
+package org.dcache.pool.classic;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.Comparator.naturalOrder;
+
+/**
+ * Frequency aware, scan resistant eviction queue following the W-TinyLFU
+ * design.
+ *
+ * Keys are kept in four segments, each ordered by last access time:
+ *
+ * <ul>
+ * <li>The <i>window</i> holds the most recently added keys, about one
+ *     percent of the queue.</li>
+ * <li><i>Probation</i> holds keys that have not been accessed since
+ *     being admitted from the window. An access promotes a key to the
+ *     protected segment.</li>
+ * <li>The <i>protected</i> segment holds keys accessed repeatedly. It is
+ *     limited to eighty percent of the keys outside the window; the
+ *     least recently used protected keys are demoted to probation.</li>
+ * <li>The <i>rejected</i> segment holds keys that lost the admission
+ *     test. An access moves a key back to probation.</li>
+ * </ul>
+ *
+ * A key leaving the window is compared with the main victim, which is
+ * the least recently used key on probation or, if probation is empty, in
+ * the protected segment. If the key was accessed more often than the
+ * victim, as estimated by a {@link FrequencySketch}, it is admitted to
+ * probation and the victim is rejected; otherwise the key itself is
+ * rejected. W-TinyLFU would evict rejected keys right away. A pool cannot
+ * refuse to store a file, so rejected keys are instead the first to be
+ * evicted, followed by the window and the main segments, again favouring
+ * the more frequently accessed key. Files read once by a scan thus go
+ * before files that are read regularly, even if the latter were accessed
+ * less recently.
+ *
+ * The sketch also counts accesses of keys that are not on the queue, e.g.
+ * sticky replicas, so their history is known once they become removable.
+ *
+ * Membership is tracked in a concurrent map. Changes to the segments are
+ * buffered and applied by whichever thread acquires the lock, so callers
+ * recording accesses never wait for a thread computing the eviction order.
+ * Access records are dropped if the buffer is full.
+ */
+class TinyLfuQueue<T extends Comparable<T>> implements EvictionQueue<T>
+{
+    private static final int ACCESS_BUFFER_SIZE = 4096;
+    private static final double WINDOW_FRACTION = 0.01;
+    private static final double PROTECTED_FRACTION = 0.8;
+
+    private enum Segment
+    {
+        NONE, WINDOW, PROBATION, PROTECTED, REJECTED
+    }
+
+    private static class Node<T>
+    {
+        final T key;
+
+        /** Position in the segment. Only modified by the thread holding the lock while unlinked. */
+        long order;
+
+        /** Last access time as reported to the queue. */
+        volatile long lastAccessTime;
+
+        Segment segment = Segment.NONE;
+
+        Node(T key, long lastAccessTime)
+        {
+            this.key = key;
+            this.order = lastAccessTime;
+            this.lastAccessTime = lastAccessTime;
+        }
+    }
+
+    private final ConcurrentMap<T, Node<T>> _nodes = new ConcurrentHashMap<>();
+    private final Queue<Runnable> _writeBuffer = new ConcurrentLinkedQueue<>();
+    private final Queue<T> _accessBuffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger _accessBufferSize = new AtomicInteger();
+
+    private final ReentrantLock _lock = new ReentrantLock();
+
+    private final Comparator<Node<T>> _order =
+            Comparator.<Node<T>>comparingLong(n -> n.order).thenComparing(n -> n.key, naturalOrder());
+
+    /* The following fields are guarded by _lock. */
+    private final TreeSet<Node<T>> _window = new TreeSet<>(_order);
+    private final TreeSet<Node<T>> _probation = new TreeSet<>(_order);
+    private final TreeSet<Node<T>> _protected = new TreeSet<>(_order);
+    private final TreeSet<Node<T>> _rejected = new TreeSet<>(_order);
+    private final FrequencySketch _sketch = new FrequencySketch();
+
+    TinyLfuQueue()
+    {
+        _sketch.ensureCapacity(0);
+    }
+
+    @Override
+    public boolean add(T key, long lastAccessTime)
+    {
+        Node<T> node = new Node<>(key, lastAccessTime);
+        if (_nodes.putIfAbsent(key, node) != null) {
+            return false;
+        }
+        _writeBuffer.add(() -> onAdd(node));
+        tryDrain();
+        return true;
+    }
+
+    @Override
+    public boolean remove(T key)
+    {
+        Node<T> node = _nodes.remove(key);
+        if (node == null) {
+            return false;
+        }
+        _writeBuffer.add(() -> onRemove(node));
+        tryDrain();
+        return true;
+    }
+
+    @Override
+    public void accessed(T key, long lastAccessTime)
+    {
+        Node<T> node = _nodes.get(key);
+        if (node != null) {
+            node.lastAccessTime = lastAccessTime;
+        }
+        if (_accessBufferSize.get() < ACCESS_BUFFER_SIZE) {
+            _accessBufferSize.incrementAndGet();
+            _accessBuffer.add(key);
+        }
+        tryDrain();
+    }
+
+    @Override
+    public List<T> values()
+    {
+        _lock.lock();
+        try {
+            drain();
+            List<T> values = new ArrayList<>(_nodes.size());
+            for (Node<T> node : _rejected) {
+                values.add(node.key);
+            }
+            Iterator<Node<T>> window = _window.iterator();
+            Iterator<Node<T>> main = new MainIterator();
+            Node<T> candidate = next(window);
+            Node<T> victim = next(main);
+            while (candidate != null || victim != null) {
+                if (victim == null ||
+                    candidate != null && _sketch.frequency(candidate.key) <= _sketch.frequency(victim.key)) {
+                    values.add(candidate.key);
+                    candidate = next(window);
+                } else {
+                    values.add(victim.key);
+                    victim = next(main);
+                }
+            }
+            return values;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public long getTimeOfLeastRecentlyUsedElement()
+    {
+        _lock.lock();
+        try {
+            drain();
+            long time = Long.MAX_VALUE;
+            for (TreeSet<Node<T>> segment : segments()) {
+                if (!segment.isEmpty()) {
+                    time = Math.min(time, segment.first().order);
+                }
+            }
+            return time == Long.MAX_VALUE ? 0 : time;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override
+    public OptionalLong getLastAccessTime(T key)
+    {
+        Node<T> node = _nodes.get(key);
+        return node == null ? OptionalLong.empty() : OptionalLong.of(node.lastAccessTime);
+    }
+
+    @Override
+    public int size()
+    {
+        return _nodes.size();
+    }
+
+    private List<TreeSet<Node<T>>> segments()
+    {
+        List<TreeSet<Node<T>>> segments = new ArrayList<>(4);
+        segments.add(_rejected);
+        segments.add(_window);
+        segments.add(_probation);
+        segments.add(_protected);
+        return segments;
+    }
+
+    private static <N> N next(Iterator<N> iterator)
+    {
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    private void tryDrain()
+    {
+        if (_lock.tryLock()) {
+            try {
+                drain();
+            } finally {
+                _lock.unlock();
+            }
+        }
+    }
+
+    private void drain()
+    {
+        Runnable task;
+        while ((task = _writeBuffer.poll()) != null) {
+            task.run();
+        }
+
+        T key;
+        while ((key = _accessBuffer.poll()) != null) {
+            _accessBufferSize.decrementAndGet();
+            onAccess(key);
+        }
+
+        balance();
+    }
+
+    private void onAdd(Node<T> node)
+    {
+        if (node.segment == Segment.NONE && _nodes.get(node.key) == node) {
+            _sketch.ensureCapacity(_nodes.size());
+            _sketch.increment(node.key);
+            link(node, Segment.WINDOW, node.lastAccessTime);
+        }
+    }
+
+    private void onRemove(Node<T> node)
+    {
+        unlink(node);
+    }
+
+    private void onAccess(T key)
+    {
+        _sketch.increment(key);
+        Node<T> node = _nodes.get(key);
+        if (node != null && node.segment != Segment.NONE) {
+            Segment segment = node.segment;
+            unlink(node);
+            link(node, promote(segment), Math.max(node.order, node.lastAccessTime));
+        }
+    }
+
+    private static Segment promote(Segment segment)
+    {
+        switch (segment) {
+        case PROBATION:
+            return Segment.PROTECTED;
+        case REJECTED:
+            return Segment.PROBATION;
+        default:
+            return segment;
+        }
+    }
+
+    /**
+     * Moves keys out of the window and the protected segment until both
+     * are within their limits.
+     */
+    private void balance()
+    {
+        int size = _nodes.size();
+        int maxWindow = Math.max(1, (int) (size * WINDOW_FRACTION));
+        int maxProtected = (int) ((size - maxWindow) * PROTECTED_FRACTION);
+        while (_window.size() > maxWindow) {
+            Node<T> candidate = _window.first();
+            unlink(candidate);
+            Node<T> victim = !_probation.isEmpty() ? _probation.first() : _protected.isEmpty() ? null : _protected.first();
+            if (victim == null || _sketch.frequency(candidate.key) > _sketch.frequency(victim.key)) {
+                if (victim != null) {
+                    unlink(victim);
+                    link(victim, Segment.REJECTED, victim.order);
+                }
+                link(candidate, Segment.PROBATION, candidate.order);
+            } else {
+                link(candidate, Segment.REJECTED, candidate.order);
+            }
+        }
+        while (_protected.size() > maxProtected) {
+            Node<T> node = _protected.first();
+            unlink(node);
+            link(node, Segment.PROBATION, node.order);
+        }
+    }
+
+    private void link(Node<T> node, Segment segment, long order)
+    {
+        node.order = order;
+        node.segment = segment;
+        segmentOf(segment).add(node);
+    }
+
+    private void unlink(Node<T> node)
+    {
+        if (node.segment != Segment.NONE) {
+            segmentOf(node.segment).remove(node);
+            node.segment = Segment.NONE;
+        }
+    }
+
+    private TreeSet<Node<T>> segmentOf(Segment segment)
+    {
+        switch (segment) {
+        case WINDOW:
+            return _window;
+        case PROBATION:
+            return _probation;
+        case PROTECTED:
+            return _protected;
+        case REJECTED:
+            return _rejected;
+        default:
+            throw new IllegalArgumentException("Not a segment: " + segment);
+        }
+    }
+
+    /**
+     * Iterates over probation and then the protected segment.
+     */
+    private class MainIterator implements Iterator<Node<T>>
+    {
+        private final Iterator<Node<T>> _probationIterator = _probation.iterator();
+        private final Iterator<Node<T>> _protectedIterator = _protected.iterator();
+
+        @Override
+        public boolean hasNext()
+        {
+            return _probationIterator.hasNext() || _protectedIterator.hasNext();
+        }
+
+        @Override
+        public Node<T> next()
+        {
+            return _probationIterator.hasNext() ? _probationIterator.next() : _protectedIterator.next();
+        }
+    }
+}
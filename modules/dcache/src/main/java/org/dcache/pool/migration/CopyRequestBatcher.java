@@ -0,0 +1,167 @@
+package org.dcache.pool.migration;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.util.CacheException;
+
+import dmg.cells.nucleus.CellPath;
+
+import org.dcache.cells.CellStub;
+import org.dcache.util.FireAndForgetTask;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Sends copy requests to destination pools, combining requests to the same
+ * pool into batches.
+ *
+ * A request is held back for a short while, or until enough requests for
+ * the same pool have been collected, and then sent together with them as a
+ * single PoolMigrationCopyReplicaBatchMessage. The caller receives a future
+ * for the reply to its own request, so batching is transparent to tasks.
+ *
+ * With a batch size of one, requests are sent individually without delay.
+ * Pools not supporting batch messages must not be sent batches, thus
+ * batching has to be enabled explicitly.
+ */
+class CopyRequestBatcher
+{
+    /**
+     * Milliseconds a request waits for other requests to the same pool.
+     */
+    private static final long FLUSH_DELAY = 100;
+
+    private static class PendingRequest
+    {
+        final PoolMigrationCopyReplicaMessage message;
+        final SettableFuture<PoolMigrationCopyReplicaMessage> reply = SettableFuture.create();
+
+        PendingRequest(PoolMigrationCopyReplicaMessage message)
+        {
+            this.message = message;
+        }
+    }
+
+    private final CellStub _pool;
+    private final ScheduledExecutorService _executor;
+
+    @GuardedBy("this")
+    private final Map<CellPath, List<PendingRequest>> _pending = new HashMap<>();
+
+    private volatile int _batchSize = 1;
+
+    CopyRequestBatcher(CellStub pool, ScheduledExecutorService executor)
+    {
+        _pool = pool;
+        _executor = executor;
+    }
+
+    int getBatchSize()
+    {
+        return _batchSize;
+    }
+
+    void setBatchSize(int batchSize)
+    {
+        checkArgument(batchSize > 0, "Batch size must be positive.");
+        _batchSize = batchSize;
+    }
+
+    /**
+     * Sends {@code message} to {@code target}.
+     *
+     * @return future for the reply to {@code message}
+     */
+    ListenableFuture<PoolMigrationCopyReplicaMessage> send(CellPath target, PoolMigrationCopyReplicaMessage message)
+    {
+        int batchSize = _batchSize;
+        if (batchSize <= 1) {
+            return _pool.send(target, message);
+        }
+
+        PendingRequest request = new PendingRequest(message);
+        List<PendingRequest> full = null;
+        synchronized (this) {
+            List<PendingRequest> batch = _pending.get(target);
+            if (batch == null) {
+                List<PendingRequest> newBatch = new ArrayList<>();
+                _pending.put(target, newBatch);
+                _executor.schedule(new FireAndForgetTask(() -> flush(target, newBatch)),
+                                   FLUSH_DELAY, TimeUnit.MILLISECONDS);
+                batch = newBatch;
+            }
+            batch.add(request);
+            if (batch.size() >= batchSize) {
+                _pending.remove(target);
+                full = batch;
+            }
+        }
+        if (full != null) {
+            send(target, full);
+        }
+        return request.reply;
+    }
+
+    private void flush(CellPath target, List<PendingRequest> batch)
+    {
+        synchronized (this) {
+            if (_pending.get(target) != batch) {
+                return;
+            }
+            _pending.remove(target);
+        }
+        send(target, batch);
+    }
+
+    private void send(CellPath target, List<PendingRequest> batch)
+    {
+        if (batch.size() == 1) {
+            PendingRequest request = batch.get(0);
+            request.reply.setFuture(_pool.send(target, request.message));
+            return;
+        }
+
+        List<PoolMigrationCopyReplicaMessage> messages = batch.stream().map(r -> r.message).collect(toList());
+        ListenableFuture<PoolMigrationCopyReplicaBatchMessage> future =
+                _pool.send(target, new PoolMigrationCopyReplicaBatchMessage(messages));
+        future.addListener(() -> {
+            try {
+                PoolMigrationCopyReplicaBatchMessage reply = getUninterruptibly(future);
+                List<PoolMigrationCopyReplicaMessage> replies = reply.getRequests();
+                if (reply.getReturnCode() != 0) {
+                    for (PendingRequest request : batch) {
+                        request.message.setFailed(reply.getReturnCode(), reply.getErrorObject());
+                        request.reply.set(request.message);
+                    }
+                } else if (replies.size() != batch.size()) {
+                    CacheException e = new CacheException(CacheException.UNEXPECTED_SYSTEM_EXCEPTION,
+                                                          "Batch reply from " + target + " has " + replies.size() +
+                                                          " entries rather than " + batch.size());
+                    batch.forEach(r -> r.reply.setException(e));
+                } else {
+                    for (int i = 0; i < batch.size(); i++) {
+                        batch.get(i).reply.set(replies.get(i));
+                    }
+                }
+            } catch (ExecutionException e) {
+                batch.forEach(r -> r.reply.setException(e.getCause()));
+            } catch (RuntimeException e) {
+                batch.forEach(r -> r.reply.setException(e));
+            }
+        }, MoreExecutors.directExecutor());
+    }
+}
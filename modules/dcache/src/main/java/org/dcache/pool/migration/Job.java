@@ -1,5 +1,6 @@
 package org.dcache.pool.migration;
 
+import com.google.common.annotations.VisibleForTesting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,6 +25,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import diskCacheV111.pools.PoolCostInfo;
 import diskCacheV111.util.CacheException;
 import diskCacheV111.util.FileNotInCacheException;
 import diskCacheV111.util.PnfsId;
@@ -43,7 +45,10 @@ import org.dcache.pool.repository.StickyRecord;
 import org.dcache.util.FireAndForgetTask;
 import org.dcache.util.expression.Expression;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
+import static org.dcache.util.Strings.describeBandwidth;
+import static org.dcache.util.TimeUtils.describeDuration;
 
 import dmg.cells.nucleus.CellMessage;
 
@@ -70,6 +75,13 @@ import dmg.cells.nucleus.CellMessage;
  * empty. Permanent jobs are saved to the pool setup file and restored
  * on pool start.
  *
+ * Jobs may be given a target bandwidth. The throughput of the job is
+ * sampled periodically and the concurrency is raised by one while the
+ * throughput stays below the target and all task slots are in use, and
+ * lowered by one while the throughput exceeds the target or any target
+ * pool queues pool to pool transfers. The concurrency stays between one
+ * and a maximum.
+ *
  * Jobs can be in any of the following states:
  *
  * NEW            Job has not been started yet
@@ -94,6 +106,10 @@ public class Job
 
     private static final Logger _log = LoggerFactory.getLogger(Job.class);
 
+    private static final long SAMPLE_PERIOD = TimeUnit.SECONDS.toMillis(10);
+    private static final double BANDWIDTH_LOW = 0.9;
+    private static final double BANDWIDTH_HIGH = 1.1;
+
     private final Set<PnfsId> _queued = new LinkedHashSet<>();
     private final Map<PnfsId,Long> _sizes = new HashMap<>();
     private final Map<PnfsId,Task> _running = new HashMap<>();
@@ -105,27 +121,33 @@ public class Job
     private final MigrationContext _context;
     private final JobDefinition _definition;
     private final TaskParameters _taskParameters;
+    private final CopyRequestBatcher _batcher;
     private final String _pinPrefix;
 
     private final Lock _lock = new ReentrantLock(true);
 
     private volatile State _state;
     private int _concurrency;
+    private int _maxConcurrency;
+    private long _targetBandwidth;
 
     private Future<?> _refreshTask;
+    private Future<?> _sampleTask;
 
     public Job(MigrationContext context, JobDefinition definition)
     {
         _context = context;
         _definition = definition;
         _concurrency = 1;
+        _maxConcurrency = 1;
         _state = State.NEW;
 
+        _batcher = new CopyRequestBatcher(context.getPoolStub(), context.getExecutor());
         _taskParameters = new TaskParameters(context.getPoolStub(), context.getPnfsStub(), context.getPinManagerStub(),
                                              context.getExecutor(), definition.selectionStrategy,
                                              definition.poolList, definition.isEager, definition.isMetaOnly,
                                              definition.computeChecksumOnUpdate, definition.forceSourceMode,
-                                             definition.maintainAtime, definition.replicas);
+                                             definition.maintainAtime, definition.replicas, _batcher);
 
         _pinPrefix = context.getPinManagerStub().getDestinationPath().getDestinationAddress().getCellName();
     }
@@ -145,6 +167,9 @@ public class Job
                         _definition.sourceList.refresh();
                         _definition.poolList.refresh();
                     }), 0, refreshPeriod, TimeUnit.MILLISECONDS);
+            _sampleTask =
+                    executor.scheduleWithFixedDelay(new FireAndForgetTask(this::sample),
+                                                    0, SAMPLE_PERIOD, TimeUnit.MILLISECONDS);
 
             executor.submit(new FireAndForgetTask(() -> {
                 try {
@@ -208,6 +233,42 @@ public class Job
         }
     }
 
+    public int getBatchSize()
+    {
+        return _batcher.getBatchSize();
+    }
+
+    /**
+     * Sets the maximum number of copy requests sent to a target pool in a
+     * single message. Target pools must support batched requests if the
+     * batch size is larger than one.
+     */
+    public void setBatchSize(int batchSize)
+    {
+        _batcher.setBatchSize(batchSize);
+    }
+
+    /**
+     * Sets the throughput in bytes per second the job aims for by adjusting
+     * its concurrency between one and {@code maxConcurrency}. Zero disables
+     * concurrency adjustments.
+     */
+    public void setTargetBandwidth(long bandwidth, int maxConcurrency)
+    {
+        checkArgument(bandwidth >= 0, "Bandwidth must not be negative.");
+        checkArgument(maxConcurrency > 0, "Maximum concurrency must be positive.");
+        _lock.lock();
+        try {
+            _targetBandwidth = bandwidth;
+            _maxConcurrency = maxConcurrency;
+            if (bandwidth > 0 && _concurrency > maxConcurrency) {
+                _concurrency = maxConcurrency;
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
     public void addError(Error error)
     {
         _lock.lock();
@@ -266,7 +327,23 @@ public class Job
                 }
             }
 
-            pw.println("Concurrency: " + _concurrency);
+            if (_targetBandwidth > 0) {
+                pw.println("Concurrency: " + _concurrency + " (max " + _maxConcurrency + ")");
+                pw.println("Bandwidth  : " + describeBandwidth(_targetBandwidth));
+            } else {
+                pw.println("Concurrency: " + _concurrency);
+            }
+            if (getBatchSize() > 1) {
+                pw.println("Batch size : " + getBatchSize());
+            }
+            double throughput = _statistics.getThroughput();
+            if (!Double.isNaN(throughput)) {
+                pw.println("Throughput : " + describeBandwidth(throughput));
+                if (throughput > 0 && total > completed && _state != State.FINISHED
+                        && _state != State.CANCELLED && _state != State.FAILED) {
+                    pw.println("ETA        : " + describeDuration((total - completed) / throughput, TimeUnit.SECONDS));
+                }
+            }
             pw.println("Running tasks:");
             List<Task> tasks = new ArrayList<>(_running.values());
             Collections.sort(tasks, (t1, t2) -> Long.compare(t1.getId(), t2.getId()));
@@ -494,6 +571,7 @@ public class Job
                     _sizes.clear();
                     _context.getRepository().removeListener(this);
                     _refreshTask.cancel(false);
+                    _sampleTask.cancel(false);
 
                     for (Map.Entry<PoolMigrationJobCancelMessage,DelayedReply> entry: _cancelRequests.entrySet()) {
                         entry.getValue().reply(entry.getKey());
@@ -588,6 +666,78 @@ public class Job
         }
     }
 
+    /**
+     * Updates the throughput estimate and adjusts the concurrency to the
+     * target bandwidth.
+     */
+    private void sample()
+    {
+        _lock.lock();
+        try {
+            _statistics.sample(System.currentTimeMillis());
+            if (_targetBandwidth > 0 && _state == State.RUNNING) {
+                adjustConcurrency();
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @GuardedBy("_lock")
+    private void adjustConcurrency()
+    {
+        double throughput = _statistics.getThroughput();
+        if (Double.isNaN(throughput)) {
+            return;
+        }
+
+        boolean isSaturated = _running.size() >= _concurrency && !_queued.isEmpty();
+        int concurrency = nextConcurrency(_concurrency, _maxConcurrency, _targetBandwidth, throughput,
+                                          isSaturated, isTargetLoaded());
+        if (concurrency != _concurrency) {
+            _log.debug("Changing concurrency from {} to {} at {}", _concurrency, concurrency,
+                       describeBandwidth(throughput));
+            _concurrency = concurrency;
+            schedule();
+        }
+    }
+
+    /**
+     * Returns the concurrency for the next sample period. Concurrency is
+     * lowered by one if throughput exceeds the target bandwidth by more than
+     * ten percent or if a target pool is loaded. It is raised by one if
+     * throughput falls short of the target by more than ten percent and
+     * the job is saturated, i.e. all task slots are busy and files are
+     * queued.
+     */
+    @VisibleForTesting
+    static int nextConcurrency(int concurrency, int maxConcurrency, long targetBandwidth, double throughput,
+                               boolean isSaturated, boolean isTargetLoaded)
+    {
+        if (throughput > BANDWIDTH_HIGH * targetBandwidth || isTargetLoaded) {
+            return Math.max(1, concurrency - 1);
+        } else if (throughput < BANDWIDTH_LOW * targetBandwidth && isSaturated) {
+            return Math.min(maxConcurrency, concurrency + 1);
+        }
+        return concurrency;
+    }
+
+    /**
+     * Returns true if any target pool queues pool to pool transfers, that
+     * is, if it has no free slot for another transfer. The information is
+     * as recent as the last refresh of the pool list.
+     */
+    private boolean isTargetLoaded()
+    {
+        for (PoolManagerPoolInformation pool : _definition.poolList.getPools()) {
+            PoolCostInfo cost = pool.getPoolCostInfo();
+            if (cost != null && cost.getP2pClientQueue() != null && cost.getP2pClientQueue().getQueued() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private ReplicaState getTargetState(CacheEntry entry)
     {
         switch (_definition.targetMode.state) {
@@ -2,14 +2,25 @@ package org.dcache.pool.migration;
 
 /**
  * Encapsulates statistics about a job.
+ *
+ * Throughput is an exponentially weighted moving average of the bytes
+ * completed between successive calls to {@link #sample}. Since files are
+ * only accounted for once completely transferred, the average smooths out
+ * the bursts caused by large files.
  */
 public class JobStatistics
 {
+    private static final double SMOOTHING = 0.2;
+
     private int _completed;
     private int _attempts;
     private long _transferred;
     private long _total;
 
+    private long _lastSampleTime;
+    private long _lastSampleTransferred;
+    private double _throughput = Double.NaN;
+
     public synchronized int getCompleted()
     {
         return _completed;
@@ -45,4 +56,30 @@ public class JobStatistics
     {
         _total += bytes;
     }
+
+    /**
+     * Updates the throughput estimate.
+     *
+     * @param now current time in milliseconds
+     */
+    public synchronized void sample(long now)
+    {
+        if (_lastSampleTime > 0 && now > _lastSampleTime) {
+            double throughput = (_transferred - _lastSampleTransferred) * 1000.0 / (now - _lastSampleTime);
+            _throughput = Double.isNaN(_throughput)
+                          ? throughput
+                          : _throughput + SMOOTHING * (throughput - _throughput);
+        }
+        _lastSampleTime = now;
+        _lastSampleTransferred = _transferred;
+    }
+
+    /**
+     * Returns the estimated throughput in bytes per second, or NaN if
+     * not known yet.
+     */
+    public synchronized double getThroughput()
+    {
+        return _throughput;
+    }
 }
@@ -58,6 +58,7 @@ import org.dcache.util.expression.UnknownIdentifierException;
 import org.dcache.pool.migration.json.MigrationData;
 
 import static java.util.Arrays.asList;
+import static org.dcache.util.ByteUnit.MiB;
 
 import java.util.function.Predicate;
 
@@ -264,6 +265,34 @@ public class MigrationModule
         }
     }
 
+    @Command(name="migration bandwidth",
+            description = "Adjust the target bandwidth of a job. The concurrency of the job " +
+                    "is tuned to achieve the given throughput. A bandwidth of zero disables " +
+                    "tuning, leaving the concurrency at its current value.")
+    public class MigrationBandwidthCommand implements Callable<String>
+    {
+        @Argument(index=0)
+        String id;
+
+        @Argument(index=1, metaVar="MiB/s")
+        int bandwidth;
+
+        @Option(name="max-concurrency",
+                usage="Upper bound of the number of concurrent transfers.")
+        int maxConcurrency = 16;
+
+        @Override
+        public String call() throws NoSuchElementException
+        {
+            if (bandwidth < 0) {
+                throw new IllegalArgumentException("Bandwidth must not be negative.");
+            }
+            Job job = getJob(id);
+            job.setTargetBandwidth(MiB.toBytes((long) bandwidth), maxConcurrency);
+            return String.format("[%s] Target bandwidth set to %d MiB/s", id, bandwidth);
+        }
+    }
+
     @AffectsSetup
     @Command(name="migration copy",
             description = "Copies files to other pools. Unless filter options are specified, " +
@@ -370,6 +399,30 @@ public class MigrationModule
                 usage="Specifies how many concurrent transfers to perform.")
         int concurrency = 1;
 
+        @Option(name="target-bandwidth", metaVar="MiB/s",
+                category="Transfer options",
+                usage="Adjusts the number of concurrent transfers to achieve the given " +
+                      "throughput in MiB/s. Starting from the concurrency given with " +
+                      "-concurrency, a transfer is added while the throughput of the job " +
+                      "is below the target and removed while it is above the target or " +
+                      "while any target pool queues pool to pool transfers. The number " +
+                      "of concurrent transfers is kept between one and -max-concurrency.")
+        int targetBandwidth;
+
+        @Option(name="max-concurrency",
+                category="Transfer options",
+                usage="Upper bound of the number of concurrent transfers when a target " +
+                      "bandwidth is given.")
+        int maxConcurrency = 16;
+
+        @Option(name="batch-size",
+                category="Transfer options",
+                usage="Maximum number of copy requests combined into a single message " +
+                      "to a target pool. Combining requests reduces the messaging " +
+                      "overhead of jobs with many small files. All target pools must " +
+                      "support batched requests if the batch size is larger than one.")
+        int batchSize = 1;
+
         @Option(name="order", valueSpec="[-]size|[-]lru",
                 category="Transfer options",
                 usage = "Sort transfer queue. By default transfers are placed in " +
@@ -861,6 +914,11 @@ public class MigrationModule
                 throw new IllegalArgumentException(targetMode + ": Invalid value");
             }
 
+            if (targetBandwidth < 0 || maxConcurrency < 1 || batchSize < 1) {
+                throw new IllegalArgumentException("Target bandwidth must not be negative; maximum " +
+                                                   "concurrency and batch size must be positive.");
+            }
+
             synchronized (MigrationModule.this) {
                 if (id == null) {
                     id = nextId();
@@ -885,6 +943,10 @@ public class MigrationModule
 
                 Job job = new Job(_context, definition);
                 job.setConcurrency(concurrency);
+                job.setBatchSize(batchSize);
+                if (targetBandwidth > 0) {
+                    job.setTargetBandwidth(MiB.toBytes((long) targetBandwidth), maxConcurrency);
+                }
 
                 _commands.put(job, commandLine);
                 _jobs.put(id, job);
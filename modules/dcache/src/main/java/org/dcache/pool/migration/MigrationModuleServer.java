@@ -121,6 +121,45 @@ public class MigrationModuleServer
                                      "Pool is disabled");
         }
 
+        startCopy(envelope.getSourcePath().clone(), message);
+        return message;
+    }
+
+    public Message
+        messageArrived(CellMessage envelope, PoolMigrationCopyReplicaBatchMessage message)
+        throws CacheException, InterruptedException
+    {
+        if (message.isReply()) {
+            return null;
+        }
+
+        if (_poolMode.isDisabled(PoolV2Mode.DISABLED_P2P_CLIENT)) {
+            throw new CacheException(CacheException.POOL_DISABLED,
+                                     "Pool is disabled");
+        }
+
+        /* Requests are independent of each other, thus the failure of one
+         * is reported in its own reply rather than failing the batch.
+         */
+        for (PoolMigrationCopyReplicaMessage request : message.getRequests()) {
+            try {
+                startCopy(envelope.getSourcePath().clone(), request);
+            } catch (CacheException e) {
+                request.setFailed(e.getRc(), e.getMessage());
+            } catch (IOException e) {
+                request.setFailed(CacheException.ERROR_IO_DISK, messageOrClassName(e));
+            } catch (IllegalArgumentException e) {
+                request.setFailed(CacheException.INVALID_ARGS, e.getMessage());
+            }
+        }
+
+        message.setSucceeded();
+        return message;
+    }
+
+    private void startCopy(CellPath requestor, PoolMigrationCopyReplicaMessage message)
+        throws CacheException, IOException, InterruptedException
+    {
         /* This check prevents updates that are indirectly triggered
          * by a local migration task: In particular the case in which
          * two pools each try to move the same files to each other
@@ -134,12 +173,11 @@ public class MigrationModuleServer
             throw new LockedCacheException("Target file is busy");
         }
 
-        Request request = new Request(envelope.getSourcePath().clone(), message);
+        Request request = new Request(requestor, message);
         _requests.put(request.getUUID(), request);
         request.start();
 
         message.setSucceeded();
-        return message;
     }
 
     public Message messageArrived(PoolMigrationPingMessage message)
@@ -0,0 +1,31 @@
+package org.dcache.pool.migration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import diskCacheV111.vehicles.Message;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * MigrationModuleServer message to request that several replicas are
+ * transferred. The requests are processed independently; the outcome of
+ * each is reported in the return code of the corresponding request of the
+ * reply.
+ */
+public class PoolMigrationCopyReplicaBatchMessage extends Message
+{
+    private static final long serialVersionUID = -2471947815203458734L;
+
+    private final ArrayList<PoolMigrationCopyReplicaMessage> _requests;
+
+    public PoolMigrationCopyReplicaBatchMessage(List<PoolMigrationCopyReplicaMessage> requests)
+    {
+        _requests = new ArrayList<>(requireNonNull(requests));
+    }
+
+    public List<PoolMigrationCopyReplicaMessage> getRequests()
+    {
+        return _requests;
+    }
+}
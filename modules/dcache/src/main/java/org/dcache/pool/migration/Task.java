@@ -304,7 +304,7 @@ public class Task
                                                     _parameters.forceSourceMode,
                                                     _parameters.maintainAtime ? _atime : null,
                                                     _parameters.isMetaOnly);
-        CellStub.addCallback(_parameters.pool.send(_target, copyReplicaMessage),
+        CellStub.addCallback(_parameters.batcher.send(_target, copyReplicaMessage),
                              new Callback<>("copy_"), _parameters.executor);
     }
 
@@ -91,10 +91,25 @@ public class TaskParameters
      */
     public final int replicas;
 
+    /**
+     * Sends copy requests to target pools, possibly in batches.
+     */
+    final CopyRequestBatcher batcher;
+
     public TaskParameters(CellStub pool, CellStub pnfs, CellStub pinManager, ScheduledExecutorService executor,
                           PoolSelectionStrategy selectionStrategy, RefreshablePoolList poolList, boolean isEager,
                           boolean isMetaOnly, boolean computeChecksumOnUpdate, boolean forceSourceMode,
                           boolean maintainAtime, int replicas)
+    {
+        this(pool, pnfs, pinManager, executor, selectionStrategy, poolList, isEager, isMetaOnly,
+             computeChecksumOnUpdate, forceSourceMode, maintainAtime, replicas,
+             new CopyRequestBatcher(pool, executor));
+    }
+
+    TaskParameters(CellStub pool, CellStub pnfs, CellStub pinManager, ScheduledExecutorService executor,
+                   PoolSelectionStrategy selectionStrategy, RefreshablePoolList poolList, boolean isEager,
+                   boolean isMetaOnly, boolean computeChecksumOnUpdate, boolean forceSourceMode,
+                   boolean maintainAtime, int replicas, CopyRequestBatcher batcher)
     {
         this.pool = pool;
         this.pnfs = pnfs;
@@ -108,5 +123,6 @@ public class TaskParameters
         this.forceSourceMode = forceSourceMode;
         this.maintainAtime = maintainAtime;
         this.replicas = replicas;
+        this.batcher = batcher;
     }
 }
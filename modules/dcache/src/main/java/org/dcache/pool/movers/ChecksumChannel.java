@@ -5,6 +5,7 @@ import com.google.common.collect.DiscreteDomain;
 import com.google.common.collect.Range;
 import com.google.common.collect.RangeSet;
 import com.google.common.collect.TreeRangeSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,31 +20,83 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 
 import org.dcache.pool.repository.ForwardingRepositoryChannel;
 import org.dcache.pool.repository.RepositoryChannel;
+import org.dcache.util.BoundedExecutor;
 import org.dcache.util.Checksum;
 import org.dcache.util.ChecksumType;
+import org.dcache.util.SequentialExecutor;
 
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Throwables.throwIfInstanceOf;
+import static com.google.common.base.Throwables.throwIfUnchecked;
 import static com.google.common.collect.Lists.newArrayList;
 import static org.dcache.util.ByteUnit.KiB;
+import static org.dcache.util.ByteUnit.MiB;
 import static org.dcache.util.Exceptions.messageOrClassName;
 
 /**
  * A wrapper for RepositoryChannel that computes a digest
  * on the fly during write as long as all writes are
  * sequential.
+ *
+ * Digests are not updated on the writing thread. Each channel has a
+ * sequential pipeline stage, running on a shared thread pool, that
+ * consumes the contiguous prefix of the file as it grows and updates all
+ * digests in a single pass. Written data is handed to the stage in buffers
+ * taken from the {@link DirectBufferPool}; data that arrives out of order is
+ * kept until the gap before it is filled. The memory used for these buffers
+ * is bounded by a budget shared by all channels. Only data that did not fit
+ * into the budget has to be read back from the inner channel.
  */
 public class ChecksumChannel extends ForwardingRepositoryChannel
 {
     private static final Logger _log =
             LoggerFactory.getLogger(ChecksumChannel.class);
 
+    /**
+     * Maximum number of bytes waiting for the digest stage of a channel
+     * before its writers are throttled.
+     */
+    private static final long MAX_QUEUED_BYTES = MiB.toBytes(4);
+
+    /**
+     * Maximum number of bytes of out-of-order data a single channel keeps
+     * in buffers, so that one channel cannot exhaust the shared budget.
+     */
+    private static final long MAX_PENDING_BYTES = MiB.toBytes(16);
+
+    /**
+     * Maximum number of bytes held in buffers by all channels together.
+     */
+    private static final long MAX_BUFFERED_BYTES = MiB.toBytes(64);
+
+    /**
+     * Number of bytes currently held in buffers by all channels.
+     */
+    private static final AtomicLong BUFFERED_BYTES = new AtomicLong();
+
+    /**
+     * Thread pool shared by the digest stages of all channels.
+     */
+    private static final Executor DIGEST_EXECUTOR =
+            new BoundedExecutor(Executors.newCachedThreadPool(
+                    new ThreadFactoryBuilder().setNameFormat("checksum-%d").setDaemon(true).build()),
+                    Runtime.getRuntime().availableProcessors());
+
     /**
      * Inner channel to which all operations are delegated.
      */
@@ -51,10 +104,16 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
     RepositoryChannel _channel;
 
     /**
-     * Digest used for computing the checksum during write.
+     * Digest used for computing the checksum during write. Only accessed
+     * from the digest stage or after the digest stage has been drained.
      */
     private final List<MessageDigest> _digests;
 
+    /**
+     * Digest stage of this channel.
+     */
+    private final SequentialExecutor _pipeline = new SequentialExecutor(DIGEST_EXECUTOR);
+
     /**
      * Cached checksum after getChecksums is called the first time.
      */
@@ -63,14 +122,43 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
     /**
      * RangeSet to keep track of written bytes
      */
+    @GuardedBy("_dataRangeSet")
     private final RangeSet<Long> _dataRangeSet = TreeRangeSet.create();
 
     /**
-     * The offset where the checksum was calculated.
+     * Copies of data written beyond the contiguous prefix, keyed by their
+     * offset in the file.
+     */
+    @GuardedBy("_dataRangeSet")
+    private final TreeMap<Long, Chunk> _pendingData = new TreeMap<>();
+
+    @GuardedBy("_dataRangeSet")
+    private long _pendingBytes;
+
+    /**
+     * The offset up to which data has been handed to the digest stage.
      */
-    @GuardedBy("_digests")
+    @GuardedBy("_dataRangeSet")
     private long _nextChecksumOffset = 0L;
 
+    /**
+     * The offset up to which the digests have been updated. Guarded like
+     * {@code _digests}.
+     */
+    private long _digestedOffset = 0L;
+
+    /**
+     * Number of bytes and tasks handed to the digest stage that have not
+     * yet been processed. Bytes include data to be read back.
+     */
+    @GuardedBy("_pipelineLock")
+    private long _queuedBytes;
+
+    @GuardedBy("_pipelineLock")
+    private int _queuedTasks;
+
+    private final Object _pipelineLock = new Object();
+
     /**
      * Flag to indicate whether it is still possible to calculated a checksum
      */
@@ -92,10 +180,9 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
 
     /**
      * Buffer to be used for reading data back from the inner channel for
-     * checksum calculations.
+     * checksum calculations. Only accessed from the digest stage.
      */
     @VisibleForTesting
-    @GuardedBy("_digests")
     ByteBuffer _readBackBuffer = ByteBuffer.allocate(KiB.toBytes(256));
 
     /*
@@ -132,7 +219,7 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
      */
     public void addType(ChecksumType type) throws IOException
     {
-        synchronized (_digests) {
+        Future<?> result = submit(0, () -> {
             if (_digests.stream()
                     .map(MessageDigest::getAlgorithm)
                     .noneMatch(t -> t.equals(type.getName()))) {
@@ -140,7 +227,7 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
 
                 if (_isChecksumViable) {
                     try {
-                        updateFromChannel(Collections.singleton(digest), 0L, _nextChecksumOffset);
+                        updateFromChannel(Collections.singleton(digest), 0L, _digestedOffset);
                     } catch (IOException e) {
                         throw new IOException("Failed when reading received data: "
                                 + messageOrClassName(e), e);
@@ -149,6 +236,18 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
 
                 _digests.add(digest);
             }
+            return null;
+        });
+
+        try {
+            result.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throwIfInstanceOf(cause, IOException.class);
+            throwIfUnchecked(cause);
+            throw new RuntimeException(cause);
         }
     }
 
@@ -157,6 +256,20 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
         return _channel;
     }
 
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            /* Pending read-backs need the inner channel. */
+            awaitPipeline();
+        } finally {
+            synchronized (_dataRangeSet) {
+                releasePendingData();
+            }
+            super.close();
+        }
+    }
+
     @Override
     public int write(ByteBuffer buffer, long position) throws IOException {
         _ioStateReadLock.lock();
@@ -236,16 +349,12 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
     /**
      * @return final checksum of this channel
      */
-    public Set<Checksum> getChecksums()
+    public synchronized Set<Checksum> getChecksums()
     {
-        if (!_isChecksumViable) {
-            return Collections.emptySet();
-        }
-
         if (_finalChecksums == null) {
             _finalChecksums = finalizeChecksums();
         }
-        return _finalChecksums;
+        return _isChecksumViable ? _finalChecksums : Collections.emptySet();
     }
 
     /**
@@ -262,28 +371,38 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
             _ioStateWriteLock.unlock();
         }
 
-        // we need to synchronize on rangeSet and digest get exclusive access
-        synchronized (_dataRangeSet) {
-            synchronized (_digests) {
-                try {
+        try {
+            awaitPipeline();
+            if (!_isChecksumViable) {
+                return Collections.emptySet();
+            }
 
-                    if (_dataRangeSet.asRanges().size() != 1 || _nextChecksumOffset == 0) {
-                        feedZerosToDigesterForRangeGaps();
-                    }
+            boolean hasGaps;
+            synchronized (_dataRangeSet) {
+                hasGaps = _dataRangeSet.asRanges().size() != 1 || _nextChecksumOffset == 0;
+            }
+            if (hasGaps) {
+                feedZerosToDigesterForRangeGaps();
+                awaitPipeline();
+            }
 
-                    return _digests.stream()
-                            .map(Checksum::new)
-                            .collect(Collectors.toSet());
-                } catch (IOException e) {
-                    _log.info("Unable to generate checksum of sparse file: {}", e.toString());
-                    return Collections.emptySet();
-                }
+            if (!_isChecksumViable) {
+                return Collections.emptySet();
             }
+            return _digests.stream()
+                    .map(Checksum::new)
+                    .collect(Collectors.toSet());
+        } catch (IOException e) {
+            _log.info("Unable to generate checksum of sparse file: {}", e.toString());
+            return Collections.emptySet();
         }
     }
 
     private void feedZerosToDigesterForRangeGaps() throws IOException {
-        ArrayList<Range<Long>> complement = newArrayList(_dataRangeSet.complement().subRangeSet(Range.closed(0L, size())).asRanges());
+        ArrayList<Range<Long>> complement;
+        synchronized (_dataRangeSet) {
+            complement = newArrayList(_dataRangeSet.complement().subRangeSet(Range.closed(0L, size())).asRanges());
+        }
         complement.sort((r1, r2) -> r1.lowerEndpoint().compareTo(r2.lowerEndpoint()));
 
         for (Range<Long> range : complement) {
@@ -296,7 +415,10 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
                 long chunkSize = Math.min(_zerosBuffer.capacity(), bytesToWrite);
                 _zerosBuffer.limit((int)chunkSize);
 
-                updateChecksum(_zerosBuffer, chunkOffset, _zerosBuffer.limit());
+                /* The content of the zeros buffer never changes, thus the digest
+                 * stage may use a view of it rather than a copy.
+                 */
+                updateChecksum(_zerosBuffer.duplicate(), chunkOffset, _zerosBuffer.limit(), false);
 
                 chunkOffset += chunkSize;
                 bytesToWrite -= chunkSize;
@@ -323,7 +445,12 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
      */
     @VisibleForTesting
     void updateChecksum(ByteBuffer buffer, long position, int bytes) throws IOException {
+        updateChecksum(buffer, position, bytes, true);
+    }
 
+    private void updateChecksum(ByteBuffer buffer, long position, int bytes, boolean copy)
+            throws IOException
+    {
         if (bytes == 0) {
             return;
         }
@@ -332,64 +459,178 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
             buffer.limit(buffer.position() + bytes);
         }
 
-        Range<Long> writeRange = Range.closed(position, position + buffer.remaining() - 1).canonical(DiscreteDomain.longs());
-        Range<Long> fileStartRange;
+        int length = buffer.remaining();
+        Range<Long> writeRange = Range.closed(position, position + length - 1).canonical(DiscreteDomain.longs());
+
+        /* The caller may reuse its buffer once the write returns. Unless the
+         * budget is exhausted, the data is copied to a pooled buffer outside
+         * the lock; otherwise it is read back from the inner channel.
+         */
+        Chunk chunk = copy ? Chunk.copyOf(buffer) : new Chunk(buffer, false);
 
         synchronized (_dataRangeSet) {
 
             RangeSet<Long> overlappingRanges = _dataRangeSet.subRangeSet(writeRange);
             if (!overlappingRanges.isEmpty()) {
                 _isChecksumViable = false;
+                releasePendingData();
+                if (chunk != null) {
+                    chunk.release();
+                }
                 _log.info("On-transfer checksum aborted due to overlapping writes from client.");
                 return;
             }
 
-            fileStartRange = _dataRangeSet.rangeContaining(0L);
-            boolean canCalculateChecksum = position == 0 || (fileStartRange != null && fileStartRange.upperEndpoint() == position);
-
             _dataRangeSet.add(writeRange);
-            if (!canCalculateChecksum) {
-                return;
+
+            if (position == _nextChecksumOffset) {
+                if (chunk != null) {
+                    submitData(chunk, position);
+                } else {
+                    submitReadBack(position, length);
+                }
+                _nextChecksumOffset += length;
+                submitContiguousData();
+            } else if (chunk != null) {
+                if (_pendingBytes + length <= MAX_PENDING_BYTES) {
+                    _pendingBytes += length;
+                    _pendingData.put(position, chunk);
+                } else {
+                    /* The data will be read back from the channel once the
+                     * gap before it is filled.
+                     */
+                    chunk.release();
+                }
             }
+        }
 
-            // get it again as we may have merged two segments
-            fileStartRange = _dataRangeSet.rangeContaining(0L);
+        throttle();
+    }
+
+    @VisibleForTesting
+    static long getBufferedBytes()
+    {
+        return BUFFERED_BYTES.get();
+    }
+
+    /**
+     * Hands data following {@code _nextChecksumOffset} to the digest stage
+     * for as long as the written data is contiguous.
+     */
+    @GuardedBy("_dataRangeSet")
+    private void submitContiguousData()
+    {
+        Range<Long> fileStartRange = _dataRangeSet.rangeContaining(0L);
+        long end = fileStartRange == null ? 0 : fileStartRange.upperEndpoint();
+        while (_nextChecksumOffset < end) {
+            Map.Entry<Long, Chunk> pending = _pendingData.firstEntry();
+            if (pending != null && pending.getKey() == _nextChecksumOffset) {
+                _pendingData.remove(pending.getKey());
+                Chunk chunk = pending.getValue();
+                _pendingBytes -= chunk.length();
+                _nextChecksumOffset += chunk.length();
+                submitData(chunk, pending.getKey());
+            } else {
+                long next = (pending != null && pending.getKey() < end) ? pending.getKey() : end;
+                submitReadBack(_nextChecksumOffset, next - _nextChecksumOffset);
+                _nextChecksumOffset = next;
+            }
         }
+    }
 
-        synchronized (_digests) {
-            /*
-             * we are one of the threads which got the merge into continues block.
-             * Nevertheless, there may be a different thread which needs to update
-             * ahead of us. Wait for our turn.
-             */
-            while(_nextChecksumOffset != position) {
-                try {
-                    _digests.wait();
-                } catch (InterruptedException e) {
-                    throw new InterruptedIOException();
+    @GuardedBy("_dataRangeSet")
+    private void releasePendingData()
+    {
+        _pendingData.values().forEach(Chunk::release);
+        _pendingData.clear();
+        _pendingBytes = 0;
+    }
+
+    @GuardedBy("_dataRangeSet")
+    private void submitData(Chunk chunk, long position)
+    {
+        int length = chunk.length();
+        submit(length, () -> {
+            try {
+                if (_isChecksumViable) {
+                    _digests.forEach(d -> d.update(chunk.data()));
+                    _digestedOffset = position + length;
                 }
+            } finally {
+                chunk.release();
             }
+            return null;
+        });
+    }
 
-            long bytesToRead = fileStartRange.upperEndpoint() - position;
+    @GuardedBy("_dataRangeSet")
+    private void submitReadBack(long offset, long length)
+    {
+        submit(length, () -> {
+            if (_isChecksumViable) {
+                try {
+                    updateFromChannel(_digests, offset, length);
+                    _digestedOffset = offset + length;
+                } catch (IOException e) {
+                    _log.info("Unable to read back data for checksum calculation: {}",
+                            messageOrClassName(e));
+                }
+            }
+            return null;
+        });
+    }
 
-            // update current buffer and then keep procesing following blocks, if any
-            bytesToRead -= buffer.remaining();
-            // update offset prior digest calculation as digests#update will update position in the buffer
-            _nextChecksumOffset += buffer.remaining();
+    private Future<?> submit(long bytes, Callable<Void> task)
+    {
+        synchronized (_pipelineLock) {
+            _queuedBytes += bytes;
+            _queuedTasks++;
+        }
+        return _pipeline.submit(() -> {
+            try {
+                return task.call();
+            } finally {
+                synchronized (_pipelineLock) {
+                    _queuedBytes -= bytes;
+                    _queuedTasks--;
+                    _pipelineLock.notifyAll();
+                }
+            }
+        });
+    }
 
-            _digests.forEach(d -> d.update(buffer.duplicate()));
+    /**
+     * Blocks the writer while the digest stage is too far behind.
+     */
+    private void throttle() throws InterruptedIOException
+    {
+        synchronized (_pipelineLock) {
+            try {
+                while (_queuedBytes > MAX_QUEUED_BYTES) {
+                    _pipelineLock.wait();
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
 
-            long expectedOffsetAfterRead = _nextChecksumOffset + bytesToRead;
+    /**
+     * Waits until the digest stage has processed all submitted data.
+     */
+    private void awaitPipeline() throws InterruptedIOException
+    {
+        synchronized (_pipelineLock) {
             try {
-                updateFromChannel(_digests, _nextChecksumOffset, bytesToRead);
-            } finally {
-                _nextChecksumOffset = expectedOffsetAfterRead;
-                _digests.notifyAll();
+                while (_queuedTasks > 0) {
+                    _pipelineLock.wait();
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
             }
         }
     }
 
-    @GuardedBy("_digests")
     private void updateFromChannel(Collection<MessageDigest> digests, long offset, long bytesToRead)
             throws IOException
     {
@@ -415,4 +656,60 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
             throw e;
         }
     }
+
+    /**
+     * Data handed to the digest stage. Copies are held in buffers of the
+     * {@link DirectBufferPool} and count against the budget shared by all
+     * channels until released.
+     */
+    private static class Chunk
+    {
+        private final ByteBuffer _data;
+        private final boolean _isPooled;
+
+        Chunk(ByteBuffer data, boolean isPooled)
+        {
+            _data = data;
+            _isPooled = isPooled;
+        }
+
+        /**
+         * Returns a copy of the remaining bytes of {@code buffer} in a
+         * pooled buffer, or null if that would exceed the shared budget.
+         */
+        static Chunk copyOf(ByteBuffer buffer)
+        {
+            int length = buffer.remaining();
+            long buffered;
+            do {
+                buffered = BUFFERED_BYTES.get();
+                if (buffered + length > MAX_BUFFERED_BYTES) {
+                    return null;
+                }
+            } while (!BUFFERED_BYTES.compareAndSet(buffered, buffered + length));
+
+            ByteBuffer copy = DirectBufferPool.getInstance().acquire(length);
+            copy.put(buffer.duplicate());
+            copy.flip();
+            return new Chunk(copy, true);
+        }
+
+        int length()
+        {
+            return _data.remaining();
+        }
+
+        ByteBuffer data()
+        {
+            return _data.duplicate();
+        }
+
+        void release()
+        {
+            if (_isPooled) {
+                BUFFERED_BYTES.addAndGet(-_data.remaining());
+                DirectBufferPool.getInstance().release(_data);
+            }
+        }
+    }
 }
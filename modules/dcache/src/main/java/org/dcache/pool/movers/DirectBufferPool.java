@@ -0,0 +1,94 @@
+package org.dcache.pool.movers;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.dcache.util.ByteUnit.MiB;
+
+/**
+ * Pool of direct byte buffers shared by all movers.
+ *
+ * Socket and file IO on a heap buffer makes the JDK copy the data
+ * through a temporary direct buffer. Using direct buffers avoids that
+ * copy, but direct buffers are expensive to allocate and are only
+ * released by the garbage collector. Buffers are therefore recycled
+ * between transfers rather than allocated per transfer.
+ *
+ * The memory held by idle buffers is bounded in bytes, irrespective of
+ * the buffer sizes in use. A released buffer exceeding the bound is left
+ * to the garbage collector.
+ */
+public class DirectBufferPool
+{
+    /**
+     * Default maximum number of bytes held by idle buffers.
+     */
+    private static final long MAX_IDLE_BYTES = MiB.toBytes(64L);
+
+    private static final DirectBufferPool INSTANCE = new DirectBufferPool(MAX_IDLE_BYTES);
+
+    private final ConcurrentMap<Integer, Queue<ByteBuffer>> _idle = new ConcurrentHashMap<>();
+
+    private final AtomicLong _idleBytes = new AtomicLong();
+
+    private final long _maxIdleBytes;
+
+    @VisibleForTesting
+    DirectBufferPool(long maxIdleBytes)
+    {
+        _maxIdleBytes = maxIdleBytes;
+    }
+
+    public static DirectBufferPool getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns a cleared direct buffer with at least the given capacity.
+     * The capacity is rounded up to a power of two, which bounds the
+     * number of distinct buffer sizes retained by the pool.
+     */
+    public ByteBuffer acquire(int minimumCapacity)
+    {
+        int capacity = minimumCapacity <= 1 ? 1 : Integer.highestOneBit(minimumCapacity - 1) << 1;
+        Queue<ByteBuffer> idle = _idle.get(capacity);
+        if (idle != null) {
+            ByteBuffer buffer = idle.poll();
+            if (buffer != null) {
+                _idleBytes.addAndGet(-capacity);
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Returns a buffer obtained from acquire to the pool. The caller
+     * must not use the buffer afterwards.
+     */
+    public void release(ByteBuffer buffer)
+    {
+        int capacity = buffer.capacity();
+        if (_idleBytes.addAndGet(capacity) <= _maxIdleBytes) {
+            _idle.computeIfAbsent(capacity, c -> new ConcurrentLinkedQueue<>()).add(buffer);
+        } else {
+            _idleBytes.addAndGet(-capacity);
+        }
+    }
+
+    /**
+     * Returns the number of bytes held by idle buffers.
+     */
+    public long getIdleBytes()
+    {
+        return _idleBytes.get();
+    }
+}
@@ -19,7 +19,7 @@ package org.dcache.pool.nearline;
 
 import com.google.common.base.Functions;
 import com.google.common.base.Joiner;
-import com.google.common.collect.Ordering;
+import com.google.common.collect.Iterators;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -46,18 +46,22 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
@@ -116,6 +120,7 @@ import org.dcache.pool.repository.StateChangeListener;
 import org.dcache.pool.repository.StickyChangeEvent;
 import org.dcache.util.CacheExceptionFactory;
 import org.dcache.util.Checksum;
+import org.dcache.util.Glob;
 import org.dcache.vehicles.FileAttributes;
 
 import static java.util.Objects.requireNonNull;
@@ -406,32 +411,32 @@ public class NearlineStorageHandler
 
     public int getActiveFetchJobs()
     {
-        return stageRequests.getCount(r -> (r.state.get() == AbstractRequest.State.ACTIVE || r.state.get() == AbstractRequest.State.CANCELED));
+        return stageRequests.getActiveCount();
     }
 
     public int getFetchQueueSize()
     {
-        return stageRequests.getCount(r -> r.state.get() == AbstractRequest.State.QUEUED);
+        return stageRequests.getQueuedCount();
     }
 
     public int getActiveStoreJobs()
     {
-        return flushRequests.getCount(r -> (r.state.get() == AbstractRequest.State.ACTIVE || r.state.get() == AbstractRequest.State.CANCELED));
+        return flushRequests.getActiveCount();
     }
 
     public int getStoreQueueSize()
     {
-        return flushRequests.getCount(r -> r.state.get() == AbstractRequest.State.QUEUED);
+        return flushRequests.getQueuedCount();
     }
 
     public int getActiveRemoveJobs()
     {
-        return removeRequests.getCount(r -> (r.state.get() == AbstractRequest.State.ACTIVE || r.state.get() == AbstractRequest.State.CANCELED));
+        return removeRequests.getActiveCount();
     }
 
     public int getRemoveQueueSize()
     {
-        return removeRequests.getCount(r -> r.state.get() == AbstractRequest.State.QUEUED);
+        return removeRequests.getQueuedCount();
     }
 
     @Override
@@ -469,6 +474,12 @@ public class NearlineStorageHandler
     {
         protected enum State { QUEUED, ACTIVE, CANCELED }
 
+        static final Comparator<AbstractRequest<?>> BY_CREATION =
+                Comparator.<AbstractRequest<?>>comparingLong(r -> r.createdAt).thenComparing(r -> r.uuid);
+
+        static final Comparator<AbstractRequest<?>> BY_ACTIVATION =
+                Comparator.<AbstractRequest<?>>comparingLong(r -> r.activatedAt).thenComparing(r -> r.uuid);
+
         private final List<CompletionHandler<Void,K>> callbacks = new ArrayList<>();
         protected final long createdAt = System.currentTimeMillis();
         protected final UUID uuid = UUID.randomUUID();
@@ -476,11 +487,13 @@ public class NearlineStorageHandler
         protected final AtomicReference<State> state = new AtomicReference<>(State.QUEUED);
         protected volatile long activatedAt;
 
+        private final AbstractRequestContainer<K, ?, ?> container;
         private final List<Future<?>> asyncTasks = new ArrayList<>();
 
-        AbstractRequest(NearlineStorage storage)
+        AbstractRequest(NearlineStorage storage, AbstractRequestContainer<K, ?, ?> container)
         {
             this.storage = storage;
+            this.container = container;
         }
 
         // Implements NearlineRequest#setIncluded
@@ -494,6 +507,18 @@ public class NearlineStorageHandler
             return createdAt;
         }
 
+        // Implements NearlineRequest#getDeadline
+        public abstract long getDeadline();
+
+        /**
+         * Returns the storage class of the file, or null if the request is not
+         * for a particular file.
+         */
+        public String getStorageClass()
+        {
+            return null;
+        }
+
         protected synchronized <T> ListenableFuture<T> register(ListenableFuture<T> future)
         {
             if (state.get() == State.CANCELED) {
@@ -515,6 +540,7 @@ public class NearlineStorageHandler
                 return Futures.immediateFailedFuture(new IllegalStateException("Request is no longer queued."));
             }
             activatedAt = System.currentTimeMillis();
+            container.activated(this);
             return Futures.immediateFuture(null);
         }
 
@@ -532,7 +558,11 @@ public class NearlineStorageHandler
 
         public void cancel()
         {
-            if (state.getAndSet(State.CANCELED) != State.CANCELED) {
+            State previous = state.getAndSet(State.CANCELED);
+            if (previous != State.CANCELED) {
+                if (previous == State.QUEUED) {
+                    container.dequeued();
+                }
                 storage.cancel(uuid);
                 synchronized(this) {
                     for (Future<?> task : asyncTasks) {
@@ -595,6 +625,12 @@ public class NearlineStorageHandler
      * request (as identified by the key) is added multiple times, the requests are collapsed
      * by adding the callback to the existing request.
      *
+     * Besides the map by key, requests are indexed by creation time, by storage class, and
+     * while active by activation time. As all requests of a container share the same timeout,
+     * the latter is also the order of deadlines. Thus expiring requests, listing a page of the
+     * queue, cancelling the requests of a storage class and counting requests does not
+     * require visiting every request, even with a million requests queued.
+     *
      * @param <K> key identifying a request
      * @param <F> information defining a replica
      * @param <R> type of request
@@ -603,6 +639,21 @@ public class NearlineStorageHandler
     {
         protected final ConcurrentHashMap<K, R> requests = new ConcurrentHashMap<>();
 
+        /** Requests ordered by creation time. */
+        private final ConcurrentSkipListSet<R> byCreation =
+                new ConcurrentSkipListSet<>(AbstractRequest.BY_CREATION);
+
+        /** Active requests ordered by activation time, and thus by deadline. */
+        private final ConcurrentSkipListSet<AbstractRequest<K>> byActivation =
+                new ConcurrentSkipListSet<>(AbstractRequest.BY_ACTIVATION);
+
+        /** Requests by storage class, each ordered by creation time. */
+        private final ConcurrentHashMap<String, ConcurrentSkipListSet<R>> byStorageClass =
+                new ConcurrentHashMap<>();
+
+        /** Number of requests in the QUEUED state. */
+        private final AtomicInteger queued = new AtomicInteger();
+
         private final ContainerState state = new ContainerState();
 
         public void addAll(NearlineStorage storage,
@@ -619,6 +670,7 @@ public class NearlineStorageHandler
                     }
                     try {
                         R newRequest = createRequest(storage, file);
+                        index(newRequest);
                         newRequests.add(newRequest);
                         return newRequest;
                     } catch (Exception e) {
@@ -656,16 +708,41 @@ public class NearlineStorageHandler
             }
         }
 
+        /**
+         * Cancels the requests of all storage classes matching {@code storageClass}.
+         *
+         * @return the number of requests cancelled
+         */
+        public int cancel(Glob storageClass)
+        {
+            int count = 0;
+            for (Map.Entry<String, ConcurrentSkipListSet<R>> entry : byStorageClass.entrySet()) {
+                if (storageClass.matches(entry.getKey())) {
+                    for (R request : entry.getValue()) {
+                        request.cancel();
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+
         /**
          * Cancels requests whose deadline has past.
+         *
+         * Only visits expired requests and requests cancelled since the last call.
          */
         public void cancelExpiredRequests()
         {
             long now = System.currentTimeMillis();
-            for (R request : requests.values()) {
-                if (request.getDeadline() <= now) {
+            for (AbstractRequest<K> request : byActivation) {
+                if (request.state.get() == AbstractRequest.State.ACTIVE) {
+                    if (request.getDeadline() > now) {
+                        break;
+                    }
                     request.cancel();
                 }
+                byActivation.remove(request);
             }
         }
 
@@ -697,16 +774,37 @@ public class NearlineStorageHandler
         }
 
         /**
-         * Return number of requests matching the given predicate.
-         * @param filter predicate to match.
-         * @return
+         * Returns the number of requests waiting to be activated.
+         */
+        public int getQueuedCount()
+        {
+            return Math.max(queued.get(), 0);
+        }
+
+        /**
+         * Returns the number of activated requests, including requests that have been
+         * cancelled but not yet terminated.
+         */
+        public int getActiveCount()
+        {
+            return Math.max(requests.size() - queued.get(), 0);
+        }
+
+        /**
+         * Called by a request when it is activated.
+         */
+        void activated(AbstractRequest<K> request)
+        {
+            queued.decrementAndGet();
+            byActivation.add(request);
+        }
+
+        /**
+         * Called by a request when it is cancelled before being activated.
          */
-        public int getCount(Predicate<R> filter)
+        void dequeued()
         {
-            return (int)requests.values()
-                    .stream()
-                    .filter(filter)
-                    .count();
+            queued.decrementAndGet();
         }
 
         /**
@@ -727,14 +825,61 @@ public class NearlineStorageHandler
             }
         }
 
-        public String printJobQueue()
+        /**
+         * Lists requests in order of creation.
+         *
+         * @param storageClass lists only requests of matching storage classes, or all requests if null
+         * @param offset number of requests to skip
+         * @param limit maximum number of requests to list
+         */
+        public String printJobQueue(Glob storageClass, int offset, int limit)
+        {
+            Iterator<R> iterator;
+            if (storageClass == null) {
+                iterator = byCreation.iterator();
+            } else {
+                List<Iterator<R>> iterators = new ArrayList<>();
+                for (Map.Entry<String, ConcurrentSkipListSet<R>> entry : byStorageClass.entrySet()) {
+                    if (storageClass.matches(entry.getKey())) {
+                        iterators.add(entry.getValue().iterator());
+                    }
+                }
+                iterator = Iterators.mergeSorted(iterators, AbstractRequest.BY_CREATION);
+            }
+            Iterators.advance(iterator, offset);
+            return Joiner.on('\n').join(Iterators.limit(iterator, limit));
+        }
+
+        private void index(R request)
         {
-            return Joiner.on('\n').join(requests.values());
+            queued.incrementAndGet();
+            byCreation.add(request);
+            String storageClass = request.getStorageClass();
+            if (storageClass != null) {
+                byStorageClass.compute(storageClass, (k, requests) -> {
+                    if (requests == null) {
+                        requests = new ConcurrentSkipListSet<>(AbstractRequest.BY_CREATION);
+                    }
+                    requests.add(request);
+                    return requests;
+                });
+            }
         }
 
-        public String printJobQueue(Ordering<R> ordering)
+        private void unindex(R request)
         {
-            return Joiner.on('\n').join(ordering.sortedCopy(requests.values()));
+            if (request.state.compareAndSet(AbstractRequest.State.QUEUED, AbstractRequest.State.CANCELED)) {
+                queued.decrementAndGet();
+            }
+            byCreation.remove(request);
+            byActivation.remove(request);
+            String storageClass = request.getStorageClass();
+            if (storageClass != null) {
+                byStorageClass.computeIfPresent(storageClass, (k, requests) -> {
+                    requests.remove(request);
+                    return requests.isEmpty() ? null : requests;
+                });
+            }
         }
 
         private Iterable<CompletionHandler<Void,K>> remove(K key)
@@ -743,6 +888,7 @@ public class NearlineStorageHandler
             if (actualRequest == null) {
                 return Collections.emptyList();
             }
+            unindex(actualRequest);
             state.decrement();
             return actualRequest.callbacks();
         }
@@ -830,7 +976,7 @@ public class NearlineStorageHandler
 
         public FlushRequestImpl(NearlineStorage nearlineStorage, PnfsId pnfsId) throws CacheException, InterruptedException
         {
-            super(nearlineStorage);
+            super(nearlineStorage, flushRequests);
             descriptor = repository.openEntry(pnfsId, EnumSet.of(OpenFlags.NOATIME));
             infoMsg = new StorageInfoMessage(cellAddress, pnfsId, false);
             infoMsg.setStorageInfo(descriptor.getFileAttributes().getStorageInfo());
@@ -879,6 +1025,12 @@ public class NearlineStorageHandler
             return register(transformAsync(super.activate(), new PreFlushWithPathFunction(), executor));
         }
 
+        @Override
+        public String getStorageClass()
+        {
+            return getFileAttributes().getStorageClass();
+        }
+
         @Override
         public String toString()
         {
@@ -1096,7 +1248,7 @@ public class NearlineStorageHandler
 
         public StageRequestImpl(NearlineStorage storage, FileAttributes fileAttributes) throws CacheException
         {
-            super(storage);
+            super(storage, stageRequests);
             PnfsId pnfsId = fileAttributes.getPnfsId();
             infoMsg = new StorageInfoMessage(cellAddress, pnfsId, true);
             infoMsg.setStorageInfo(fileAttributes.getStorageInfo());
@@ -1239,6 +1391,12 @@ public class NearlineStorageHandler
             return info;
         }
 
+        @Override
+        public String getStorageClass()
+        {
+            return getFileAttributes().getStorageClass();
+        }
+
         @Override
         public String toString()
         {
@@ -1252,7 +1410,7 @@ public class NearlineStorageHandler
 
         RemoveRequestImpl(NearlineStorage storage, URI uri)
         {
-            super(storage);
+            super(storage, removeRequests);
             this.uri = uri;
             LOGGER.debug("Remove request created for {}.", uri);
         }
@@ -1326,15 +1484,26 @@ public class NearlineStorageHandler
 
     @Command(name = "rh kill",
             hint = "kill restore request",
-            description = "Remove an HSM restore request.")
+            description = "Remove an HSM restore request, or all restore requests of " +
+                    "matching storage classes.")
     class RestoreKillCommand implements Callable<String>
     {
-        @Argument
+        @Argument(required = false)
         PnfsId pnfsId;
 
+        @Option(name = "storage", metaVar = "GLOB",
+                usage = "Kill all requests with matching storage class.")
+        Glob storageClass;
+
         @Override
         public String call() throws NoSuchElementException, IllegalStateException
         {
+            if ((pnfsId == null) == (storageClass == null)) {
+                throw new IllegalArgumentException("Either a PNFS ID or -storage must be specified.");
+            }
+            if (storageClass != null) {
+                return "Kill initialized for " + stageRequests.cancel(storageClass) + " requests";
+            }
             stageRequests.cancel(pnfsId);
             return "Kill initialized";
         }
@@ -1347,10 +1516,22 @@ public class NearlineStorageHandler
                     "and request submission time.")
     class RestoreListCommand implements Callable<String>
     {
+        @Option(name = "storage", metaVar = "GLOB",
+                usage = "List only requests with matching storage class.")
+        Glob storageClass;
+
+        @Option(name = "offset",
+                usage = "Skip this number of requests.")
+        int offset;
+
+        @Option(name = "limit",
+                usage = "List at most this number of requests.")
+        int limit = Integer.MAX_VALUE;
+
         @Override
         public String call()
         {
-            return stageRequests.printJobQueue(Ordering.natural());
+            return stageRequests.printJobQueue(storageClass, offset, limit);
         }
     }
 
@@ -1376,15 +1557,26 @@ public class NearlineStorageHandler
 
     @Command(name = "st kill",
             hint = "kill store request",
-            description = "Remove an HSM store request.")
+            description = "Remove an HSM store request, or all store requests of " +
+                    "matching storage classes.")
     class StoreKillCommand implements Callable<String>
     {
-        @Argument
+        @Argument(required = false)
         PnfsId pnfsId;
 
+        @Option(name = "storage", metaVar = "GLOB",
+                usage = "Kill all requests with matching storage class.")
+        Glob storageClass;
+
         @Override
         public String call() throws NoSuchElementException, IllegalStateException
         {
+            if ((pnfsId == null) == (storageClass == null)) {
+                throw new IllegalArgumentException("Either a PNFS ID or -storage must be specified.");
+            }
+            if (storageClass != null) {
+                return "Kill initialized for " + flushRequests.cancel(storageClass) + " requests";
+            }
             flushRequests.cancel(pnfsId);
             return "Kill initialized";
         }
@@ -1397,10 +1589,22 @@ public class NearlineStorageHandler
                     "and request submission time.")
     class StoreListCommand implements Callable<String>
     {
+        @Option(name = "storage", metaVar = "GLOB",
+                usage = "List only requests with matching storage class.")
+        Glob storageClass;
+
+        @Option(name = "offset",
+                usage = "Skip this number of requests.")
+        int offset;
+
+        @Option(name = "limit",
+                usage = "List at most this number of requests.")
+        int limit = Integer.MAX_VALUE;
+
         @Override
         public String call()
         {
-            return flushRequests.printJobQueue(Ordering.natural());
+            return flushRequests.printJobQueue(storageClass, offset, limit);
         }
     }
 
@@ -1431,10 +1635,18 @@ public class NearlineStorageHandler
                     "and request submission time.")
     class RemoveListCommand implements Callable<String>
     {
+        @Option(name = "offset",
+                usage = "Skip this number of requests.")
+        int offset;
+
+        @Option(name = "limit",
+                usage = "List at most this number of requests.")
+        int limit = Integer.MAX_VALUE;
+
         @Override
         public String call()
         {
-            return removeRequests.printJobQueue(Ordering.natural());
+            return removeRequests.printJobQueue(null, offset, limit);
         }
     }
 
@@ -0,0 +1,749 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2026 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.nearline.aggregate;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.InvalidMessageCacheException;
+
+import org.dcache.pool.nearline.spi.FlushRequest;
+import org.dcache.pool.nearline.spi.NearlineRequest;
+import org.dcache.pool.nearline.spi.NearlineStorage;
+import org.dcache.pool.nearline.spi.RemoveRequest;
+import org.dcache.pool.nearline.spi.StageRequest;
+import org.dcache.vehicles.FileAttributes;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.Iterables.filter;
+import static com.google.common.collect.Iterables.getFirst;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Comparator.comparingLong;
+
+/**
+ * Nearline storage aggregating small files into large container files.
+ *
+ * Flush requests are collected per storage class until enough data has
+ * accumulated to fill a container, or until the oldest request has waited
+ * for the maximum delay. The files are then written back to back into a
+ * single container in the configured directory, followed by an index of the
+ * members (see {@link ContainerIndex}). A copy of the index is kept next to
+ * the container. The location of a member is
+ *
+ * <pre>
+ *     type://name/container/pnfsid?offset=offset&amp;length=length
+ * </pre>
+ *
+ * allowing a single member to be restored with a ranged read.
+ *
+ * Stage requests are grouped by container. A container is opened once,
+ * optionally after copying it to a local cache directory, and kept open for
+ * a while so that recalls of sibling members reuse it.
+ *
+ * Removed members are recorded in a tombstone file next to the container.
+ * The container is deleted once all its members have been removed.
+ */
+public class AggregateNearlineStorage implements NearlineStorage
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(AggregateNearlineStorage.class);
+
+    public static final String DIRECTORY = "directory";
+    public static final String CACHE_DIRECTORY = "cache";
+    public static final String CONTAINER_SIZE = "container-size";
+    public static final String MAX_DELAY = "max-delay";
+    public static final String CACHE_SIZE = "cache-size";
+    public static final String CACHE_TIME = "cache-time";
+
+    private static final String CONTAINER_SUFFIX = ".ctr";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String TOMBSTONE_SUFFIX = ".del";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static final long DEFAULT_CONTAINER_SIZE = 4L << 30;
+    private static final long DEFAULT_MAX_DELAY = 300;
+    private static final long DEFAULT_CACHE_SIZE = 16L << 30;
+    private static final long DEFAULT_CACHE_TIME = 600;
+
+    /** A batch is written early if the deadline of a member is closer than this. */
+    private static final long DEADLINE_MARGIN = TimeUnit.MINUTES.toMillis(1);
+
+    private static final int MAX_OPEN_CONTAINERS = 128;
+    private static final int THREADS = 8;
+
+    protected final String type;
+    protected final String name;
+
+    /** Requests not yet claimed by a worker, by request ID. */
+    private final Map<UUID, NearlineRequest<?>> queued = new ConcurrentHashMap<>();
+
+    /** Flush requests waiting to be written, by storage class. */
+    @GuardedBy("this")
+    private final Map<String, Batch> batches = new HashMap<>();
+
+    /** Stage requests by container. A container is present while a task recalls from it. */
+    @GuardedBy("this")
+    private final Map<String, List<Recall>> recalls = new HashMap<>();
+
+    private final ContainerCache cache = new ContainerCache();
+    private final Object removeLock = new Object();
+
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile Path directory;
+    private volatile Path cacheDirectory;
+    private volatile long containerSize = DEFAULT_CONTAINER_SIZE;
+    private volatile long maxDelay = TimeUnit.SECONDS.toMillis(DEFAULT_MAX_DELAY);
+    private volatile long cacheSize = DEFAULT_CACHE_SIZE;
+    private volatile long cacheTime = TimeUnit.SECONDS.toMillis(DEFAULT_CACHE_TIME);
+
+    public AggregateNearlineStorage(String type, String name)
+    {
+        this.type = type;
+        this.name = name;
+        executor = Executors.newFixedThreadPool(THREADS,
+                new ThreadFactoryBuilder().setNameFormat("aggregate-" + name + "-%d").build());
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("aggregate-" + name + "-timer").setDaemon(true).build());
+        scheduler.scheduleWithFixedDelay(this::sweep, 1, 1, TimeUnit.SECONDS);
+    }
+
+    protected Iterable<URI> getLocations(FileAttributes fileAttributes)
+    {
+        return filter(fileAttributes.getStorageInfo().locations(),
+                      uri -> uri.getScheme().equals(type) && uri.getAuthority().equals(name));
+    }
+
+    @Override
+    public void flush(Iterable<FlushRequest> requests)
+    {
+        for (FlushRequest request : requests) {
+            FileAttributes attributes = request.getFileAttributes();
+            String storageClass = attributes.getStorageInfo().getStorageClass();
+            queued.put(request.getId(), request);
+            synchronized (this) {
+                Batch batch = batches.computeIfAbsent(storageClass, Batch::new);
+                batch.add(request, attributes.getSizeIfPresent().orElse(0L));
+                if (batch.size >= containerSize) {
+                    batches.remove(storageClass);
+                    executor.execute(() -> write(batch));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void stage(Iterable<StageRequest> requests)
+    {
+        for (StageRequest request : requests) {
+            Recall recall;
+            try {
+                recall = new Recall(request);
+            } catch (CacheException e) {
+                request.failed(e);
+                continue;
+            }
+            queued.put(request.getId(), request);
+            synchronized (this) {
+                List<Recall> list = recalls.get(recall.container);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    recalls.put(recall.container, list);
+                    executor.execute(() -> recall(recall.container));
+                }
+                list.add(recall);
+            }
+        }
+    }
+
+    @Override
+    public void remove(Iterable<RemoveRequest> requests)
+    {
+        for (RemoveRequest request : requests) {
+            queued.put(request.getId(), request);
+            executor.execute(() -> {
+                if (queued.remove(request.getId(), request)) {
+                    remove(request);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void cancel(UUID uuid)
+    {
+        NearlineRequest<?> request = queued.remove(uuid);
+        if (request != null) {
+            request.failed(new CancellationException());
+        }
+    }
+
+    @Override
+    public void configure(Map<String, String> properties) throws IllegalArgumentException
+    {
+        String directory = properties.get(DIRECTORY);
+        checkArgument(directory != null, "directory attribute is required");
+        String cacheDirectory = properties.get(CACHE_DIRECTORY);
+        long containerSize = getLong(properties, CONTAINER_SIZE, DEFAULT_CONTAINER_SIZE);
+        long maxDelay = getLong(properties, MAX_DELAY, DEFAULT_MAX_DELAY);
+        long cacheSize = getLong(properties, CACHE_SIZE, DEFAULT_CACHE_SIZE);
+        long cacheTime = getLong(properties, CACHE_TIME, DEFAULT_CACHE_TIME);
+        checkArgument(containerSize > 0, CONTAINER_SIZE + " must be positive");
+
+        this.directory = Paths.get(directory);
+        this.cacheDirectory = (cacheDirectory == null) ? null : Paths.get(cacheDirectory);
+        this.containerSize = containerSize;
+        this.maxDelay = TimeUnit.SECONDS.toMillis(maxDelay);
+        this.cacheSize = cacheSize;
+        this.cacheTime = TimeUnit.SECONDS.toMillis(cacheTime);
+    }
+
+    private static long getLong(Map<String, String> properties, String key, long defaultValue)
+    {
+        String value = properties.get(key);
+        try {
+            return (value == null) ? defaultValue : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " must be an integer: " + value);
+        }
+    }
+
+    @Override
+    public void shutdown()
+    {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+        for (UUID id : queued.keySet()) {
+            cancel(id);
+        }
+        cache.clear();
+    }
+
+    /**
+     * Writes batches that have waited long enough and closes idle containers.
+     */
+    private void sweep()
+    {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Iterator<Batch> i = batches.values().iterator();
+            while (i.hasNext()) {
+                Batch batch = i.next();
+                if (batch.isDue(now)) {
+                    i.remove();
+                    executor.execute(() -> write(batch));
+                }
+            }
+        }
+        cache.expire(now);
+    }
+
+    private Path containerPath(Path directory, String container, String suffix)
+    {
+        return directory.resolve(container + suffix);
+    }
+
+    private void write(Batch batch)
+    {
+        List<FlushRequest> requests = new ArrayList<>();
+        for (FlushRequest request : batch.requests) {
+            if (queued.remove(request.getId(), request)) {
+                requests.add(request);
+            }
+        }
+        if (requests.isEmpty()) {
+            return;
+        }
+
+        Path directory = this.directory;
+        String container = UUID.randomUUID().toString();
+        Path tmp = containerPath(directory, container, TEMPORARY_SUFFIX);
+        List<ContainerIndex.Member> members = new ArrayList<>();
+        List<FlushRequest> written = new ArrayList<>();
+        List<FlushRequest> rejected = new ArrayList<>();
+        try {
+            try (FileChannel out = FileChannel.open(tmp, CREATE_NEW, WRITE)) {
+                for (FlushRequest request : requests) {
+                    long offset = out.position();
+                    try {
+                        request.activate().get();
+                        try (FileChannel in = FileChannel.open(Paths.get(request.getReplicaUri()), READ)) {
+                            transfer(in, 0, in.size(), out);
+                        }
+                        members.add(new ContainerIndex.Member(request.getFileAttributes().getPnfsId().toString(),
+                                                              offset, out.position() - offset));
+                        written.add(request);
+                    } catch (ExecutionException e) {
+                        rejected.add(request);
+                        failed(request, e.getCause());
+                    } catch (IOException e) {
+                        out.truncate(offset);
+                        out.position(offset);
+                        rejected.add(request);
+                        request.failed(e);
+                    }
+                }
+                if (members.isEmpty()) {
+                    Files.delete(tmp);
+                    return;
+                }
+                ContainerIndex index = new ContainerIndex(members);
+                index.write(out);
+                out.force(true);
+                writeIndex(containerPath(directory, container, INDEX_SUFFIX), index);
+            }
+            Files.move(tmp, containerPath(directory, container, CONTAINER_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+            /* Persist the directory entries of the index and the renamed container
+             * before the flush requests are reported as complete. */
+            forceDirectory(directory);
+        } catch (Exception e) {
+            LOGGER.error("Failed to write container {}: {}", container, e.toString());
+            try {
+                Files.deleteIfExists(tmp);
+                Files.deleteIfExists(containerPath(directory, container, INDEX_SUFFIX));
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            requests.stream().filter(r -> !rejected.contains(r)).forEach(r -> r.failed(e));
+            return;
+        }
+
+        LOGGER.info("Wrote {} files of {} to container {}.", members.size(), batch.storageClass, container);
+        for (int i = 0; i < written.size(); i++) {
+            ContainerIndex.Member member = members.get(i);
+            try {
+                URI uri = new URI(type, name, '/' + container + '/' + member.getId(),
+                                  "offset=" + member.getOffset() + "&length=" + member.getLength(), null);
+                written.get(i).completed(Collections.singleton(uri));
+            } catch (URISyntaxException e) {
+                written.get(i).failed(e);
+            }
+        }
+    }
+
+    private static void writeIndex(Path path, ContainerIndex index) throws IOException
+    {
+        try (FileChannel out = FileChannel.open(path, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            index.write(out);
+            out.force(true);
+        }
+    }
+
+    private static void forceDirectory(Path directory) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(directory, READ)) {
+            channel.force(true);
+        }
+    }
+
+    private static ContainerIndex readIndex(Path path) throws IOException
+    {
+        try (FileChannel in = FileChannel.open(path, READ)) {
+            return ContainerIndex.read(in);
+        }
+    }
+
+    private void recall(String container)
+    {
+        CachedContainer file = null;
+        try {
+            file = cache.acquire(container);
+            List<Recall> batch;
+            while ((batch = nextRecalls(container)) != null) {
+                batch.sort(comparingLong(r -> r.offset));
+                for (Recall recall : batch) {
+                    if (queued.remove(recall.request.getId(), recall.request)) {
+                        recall(file, recall);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Exception cause = (e instanceof NoSuchFileException)
+                              ? new CacheException(CacheException.BROKEN_ON_TAPE, "Container not found: " + container)
+                              : e;
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            List<Recall> batch;
+            while ((batch = nextRecalls(container)) != null) {
+                for (Recall recall : batch) {
+                    if (queued.remove(recall.request.getId(), recall.request)) {
+                        recall.request.failed(cause);
+                    }
+                }
+            }
+        } finally {
+            if (file != null) {
+                cache.release(file);
+            }
+        }
+    }
+
+    /**
+     * Returns the stage requests for {@code container} submitted since the last
+     * call, or null if there are none, in which case the container is no longer
+     * being recalled from.
+     */
+    private synchronized List<Recall> nextRecalls(String container)
+    {
+        List<Recall> list = recalls.get(container);
+        if (list == null || list.isEmpty()) {
+            recalls.remove(container);
+            return null;
+        }
+        recalls.put(container, new ArrayList<>());
+        return list;
+    }
+
+    private void recall(CachedContainer container, Recall recall) throws InterruptedException
+    {
+        StageRequest request = recall.request;
+        try {
+            request.activate().get();
+            request.allocate().get();
+            if (recall.offset + recall.length > container.channel.size()) {
+                throw new CacheException(CacheException.BROKEN_ON_TAPE,
+                                         "Member " + recall.member + " exceeds container " + recall.container);
+            }
+            try (FileChannel out = FileChannel.open(request.getFile().toPath(), CREATE, TRUNCATE_EXISTING, WRITE)) {
+                transfer(container.channel, recall.offset, recall.length, out);
+            }
+            request.completed(Collections.emptySet());
+        } catch (ExecutionException e) {
+            failed(request, e.getCause());
+        } catch (CacheException | IOException e) {
+            request.failed(e);
+        }
+    }
+
+    private void remove(RemoveRequest request)
+    {
+        try {
+            String[] path = parsePath(request.getUri());
+            String container = path[0];
+            Path directory = this.directory;
+            synchronized (removeLock) {
+                Path file = containerPath(directory, container, CONTAINER_SUFFIX);
+                Path index = containerPath(directory, container, INDEX_SUFFIX);
+                Path tombstone = containerPath(directory, container, TOMBSTONE_SUFFIX);
+                if (Files.exists(file)) {
+                    Set<String> removed = new HashSet<>();
+                    if (Files.exists(tombstone)) {
+                        removed.addAll(Files.readAllLines(tombstone));
+                    }
+                    if (removed.add(path[1])) {
+                        Files.write(tombstone, Collections.singleton(path[1]), CREATE, APPEND);
+                    }
+                    if (readIndex(index).getMembers().stream().allMatch(m -> removed.contains(m.getId()))) {
+                        cache.invalidate(container);
+                        Files.delete(file);
+                        Files.deleteIfExists(index);
+                        Files.deleteIfExists(tombstone);
+                        LOGGER.info("Deleted container {} as all its members were removed.", container);
+                    }
+                }
+            }
+            request.completed(null);
+        } catch (CacheException | IOException e) {
+            request.failed(e);
+        }
+    }
+
+    private static String[] parsePath(URI uri) throws InvalidMessageCacheException
+    {
+        String path = uri.getPath();
+        String[] elements = (path == null) ? new String[0] : path.substring(1).split("/");
+        if (elements.length != 2 || elements[0].isEmpty() || elements[1].isEmpty()) {
+            throw new InvalidMessageCacheException("Invalid nearline storage URI: " + uri);
+        }
+        return elements;
+    }
+
+    private static void transfer(FileChannel in, long position, long count, FileChannel out) throws IOException
+    {
+        long end = position + count;
+        while (position < end) {
+            long n = in.transferTo(position, end - position, out);
+            if (n <= 0 && position >= in.size()) {
+                throw new EOFException("Unexpected end of file");
+            }
+            position += n;
+        }
+    }
+
+    private static void failed(NearlineRequest<?> request, Throwable cause)
+    {
+        request.failed((cause instanceof Exception) ? (Exception) cause : new Exception(cause));
+    }
+
+    /**
+     * Flush requests of a storage class waiting to be written to the same container.
+     */
+    private class Batch
+    {
+        final String storageClass;
+        final List<FlushRequest> requests = new ArrayList<>();
+        final long created = System.currentTimeMillis();
+        long size;
+        long deadline = Long.MAX_VALUE;
+
+        Batch(String storageClass)
+        {
+            this.storageClass = storageClass;
+        }
+
+        void add(FlushRequest request, long size)
+        {
+            requests.add(request);
+            this.size += size;
+            deadline = Math.min(deadline, request.getDeadline());
+        }
+
+        boolean isDue(long now)
+        {
+            return now - created >= maxDelay || now >= deadline - DEADLINE_MARGIN;
+        }
+    }
+
+    /**
+     * A stage request and the location of the member in its container.
+     */
+    private class Recall
+    {
+        final StageRequest request;
+        final String container;
+        final String member;
+        final long offset;
+        final long length;
+
+        Recall(StageRequest request) throws CacheException
+        {
+            this.request = request;
+            FileAttributes fileAttributes = request.getFileAttributes();
+            URI location = getFirst(getLocations(fileAttributes), null);
+            if (location == null) {
+                throw new CacheException(CacheException.BROKEN_ON_TAPE,
+                                         "File not on nearline storage: " + fileAttributes.getPnfsId());
+            }
+            String[] path = parsePath(location);
+            container = path[0];
+            member = path[1];
+
+            Map<String, String> query = new HashMap<>();
+            if (location.getQuery() != null) {
+                for (String parameter : location.getQuery().split("&")) {
+                    String[] keyValue = parameter.split("=", 2);
+                    query.put(keyValue[0], (keyValue.length > 1) ? keyValue[1] : "");
+                }
+            }
+            try {
+                offset = Long.parseLong(query.get("offset"));
+                length = Long.parseLong(query.get("length"));
+            } catch (NumberFormatException e) {
+                throw new InvalidMessageCacheException("Invalid nearline storage URI: " + location);
+            }
+        }
+    }
+
+    /**
+     * An open container, possibly a copy in the cache directory.
+     */
+    private static class CachedContainer
+    {
+        final String name;
+        final Path path;
+        final FileChannel channel;
+        final long copySize;
+
+        int references;
+        long lastUsed = System.currentTimeMillis();
+        boolean isRetired;
+
+        CachedContainer(String name, Path path, boolean isCopy) throws IOException
+        {
+            this.name = name;
+            this.path = path;
+            this.channel = FileChannel.open(path, READ);
+            this.copySize = isCopy ? channel.size() : 0;
+        }
+
+        void discard()
+        {
+            try {
+                channel.close();
+                if (copySize > 0) {
+                    Files.deleteIfExists(path);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Failed to discard cached container {}: {}", path, e.toString());
+            }
+        }
+    }
+
+    /**
+     * Containers kept open for recalls of sibling members.
+     *
+     * Containers copied to the cache directory are discarded in least recently
+     * used order once their total size exceeds the cache size. All containers
+     * are closed once unused for the cache time.
+     */
+    private class ContainerCache
+    {
+        @GuardedBy("this")
+        private final Map<String, CachedContainer> containers = new LinkedHashMap<>(16, 0.75f, true);
+
+        @GuardedBy("this")
+        private long size;
+
+        CachedContainer acquire(String name) throws IOException
+        {
+            synchronized (this) {
+                CachedContainer container = containers.get(name);
+                if (container != null) {
+                    container.references++;
+                    return container;
+                }
+            }
+
+            CachedContainer container = open(name);
+            synchronized (this) {
+                CachedContainer existing = containers.putIfAbsent(name, container);
+                if (existing != null) {
+                    container.discard();
+                    existing.references++;
+                    return existing;
+                }
+                container.references++;
+                size += container.copySize;
+                evict(System.currentTimeMillis());
+                return container;
+            }
+        }
+
+        private CachedContainer open(String name) throws IOException
+        {
+            Path file = containerPath(directory, name, CONTAINER_SUFFIX);
+            Path cacheDirectory = AggregateNearlineStorage.this.cacheDirectory;
+            if (cacheDirectory == null) {
+                return new CachedContainer(name, file, false);
+            }
+            Path copy = containerPath(cacheDirectory, name, CONTAINER_SUFFIX);
+            Path tmp = containerPath(cacheDirectory, name, TEMPORARY_SUFFIX);
+            Files.copy(file, tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, copy, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            LOGGER.debug("Staged container {} to {}.", name, copy);
+            return new CachedContainer(name, copy, true);
+        }
+
+        synchronized void release(CachedContainer container)
+        {
+            container.references--;
+            container.lastUsed = System.currentTimeMillis();
+            if (container.isRetired) {
+                if (container.references == 0) {
+                    container.discard();
+                }
+            } else {
+                evict(container.lastUsed);
+            }
+        }
+
+        synchronized void expire(long now)
+        {
+            evict(now);
+        }
+
+        synchronized void invalidate(String name)
+        {
+            CachedContainer container = containers.remove(name);
+            if (container != null) {
+                retire(container);
+            }
+        }
+
+        synchronized void clear()
+        {
+            containers.values().forEach(this::retire);
+            containers.clear();
+        }
+
+        @GuardedBy("this")
+        private void retire(CachedContainer container)
+        {
+            size -= container.copySize;
+            container.isRetired = true;
+            if (container.references == 0) {
+                container.discard();
+            }
+        }
+
+        @GuardedBy("this")
+        private void evict(long now)
+        {
+            Iterator<CachedContainer> i = containers.values().iterator();
+            while (i.hasNext()) {
+                CachedContainer container = i.next();
+                boolean isFull = size > cacheSize || containers.size() > MAX_OPEN_CONTAINERS;
+                if (container.references == 0 && (isFull || now - container.lastUsed >= cacheTime)) {
+                    i.remove();
+                    retire(container);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2026 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.nearline.aggregate;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Member index of a container file.
+ *
+ * A container consists of the concatenated content of its members followed
+ * by the index and a fixed size trailer:
+ *
+ * <pre>
+ *     member data ...
+ *     index:   { UTF id, long offset, long length } ...
+ *     trailer: long index offset, int member count, int index CRC32, long magic
+ * </pre>
+ *
+ * The trailer allows the index to be located by reading the end of the
+ * container only, and the container to be recognized and listed without the
+ * pool that wrote it.
+ */
+public class ContainerIndex
+{
+    private static final long MAGIC = 0x6443616368654330L; // "dCacheC0"
+    private static final int TRAILER_SIZE = 24;
+
+    /**
+     * Location of a single member within the container.
+     */
+    public static class Member
+    {
+        private final String id;
+        private final long offset;
+        private final long length;
+
+        public Member(String id, long offset, long length)
+        {
+            this.id = id;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public String getId()
+        {
+            return id;
+        }
+
+        public long getOffset()
+        {
+            return offset;
+        }
+
+        public long getLength()
+        {
+            return length;
+        }
+
+        @Override
+        public String toString()
+        {
+            return id + "@" + offset + "+" + length;
+        }
+    }
+
+    private final List<Member> members;
+
+    public ContainerIndex(List<Member> members)
+    {
+        this.members = ImmutableList.copyOf(members);
+    }
+
+    public List<Member> getMembers()
+    {
+        return members;
+    }
+
+    /**
+     * Appends the index and the trailer at the current position of {@code channel}.
+     */
+    public void write(FileChannel channel) throws IOException
+    {
+        long indexOffset = channel.position();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(members.size() * 64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (Member member : members) {
+                out.writeUTF(member.id);
+                out.writeLong(member.offset);
+                out.writeLong(member.length);
+            }
+        }
+        byte[] index = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(index);
+
+        ByteBuffer buffer = ByteBuffer.allocate(index.length + TRAILER_SIZE);
+        buffer.put(index);
+        buffer.putLong(indexOffset);
+        buffer.putInt(members.size());
+        buffer.putInt((int) crc.getValue());
+        buffer.putLong(MAGIC);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Reads the index of the container accessible through {@code channel}.
+     */
+    public static ContainerIndex read(FileChannel channel) throws IOException
+    {
+        long size = channel.size();
+        if (size < TRAILER_SIZE) {
+            throw new IOException("Not a container: too short");
+        }
+
+        ByteBuffer trailer = readFully(channel, size - TRAILER_SIZE, TRAILER_SIZE);
+        long indexOffset = trailer.getLong();
+        int count = trailer.getInt();
+        int checksum = trailer.getInt();
+        if (trailer.getLong() != MAGIC) {
+            throw new IOException("Not a container: bad magic");
+        }
+        if (indexOffset < 0 || indexOffset > size - TRAILER_SIZE) {
+            throw new IOException("Corrupted container: bad index offset " + indexOffset);
+        }
+
+        ByteBuffer index = readFully(channel, indexOffset, (int) (size - TRAILER_SIZE - indexOffset));
+        CRC32 crc = new CRC32();
+        crc.update(index.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Corrupted container: index checksum mismatch");
+        }
+
+        List<Member> members = new ArrayList<>(count);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(index.array(), 0, index.limit()))) {
+            for (int i = 0; i < count; i++) {
+                members.add(new Member(in.readUTF(), in.readLong(), in.readLong()));
+            }
+        }
+        return new ContainerIndex(members);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Corrupted container: unexpected end of file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
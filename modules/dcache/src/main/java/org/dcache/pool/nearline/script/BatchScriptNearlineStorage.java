@@ -0,0 +1,752 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2026 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.nearline.script;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.TimeoutCacheException;
+import diskCacheV111.vehicles.StorageInfos;
+
+import org.dcache.alarms.AlarmMarkerFactory;
+import org.dcache.alarms.PredefinedAlarm;
+import org.dcache.pool.nearline.spi.FlushRequest;
+import org.dcache.pool.nearline.spi.NearlineRequest;
+import org.dcache.pool.nearline.spi.NearlineStorage;
+import org.dcache.pool.nearline.spi.RemoveRequest;
+import org.dcache.pool.nearline.spi.StageRequest;
+import org.dcache.util.Checksum;
+import org.dcache.util.NetworkUtils;
+import org.dcache.vehicles.FileAttributes;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+
+/**
+ * NearlineStorage implementation submitting requests to a single, long
+ * running HSM helper process.
+ *
+ * The helper is started on the first request and reads requests from its
+ * standard input, one per line. Each line consists of tab separated fields:
+ * a tag identifying the request, followed by the arguments an HSM script
+ * would be called with (put, get or remove and their options). The helper
+ * may process any number of requests concurrently and report completion in
+ * any order by writing a line with the tag, the return code and an optional
+ * message to standard output. For a successful put the message contains the
+ * storage URIs, otherwise it describes the error. The return codes are the
+ * same as for HSM scripts.
+ *
+ * A request that is cancelled or whose deadline passes is failed immediately
+ * and a line with its tag and the word {@code cancel} is sent to the helper.
+ *
+ * Tabs, newlines and backslashes within fields are escaped as {@code \t},
+ * {@code \n} and {@code \\}.
+ *
+ * If the helper terminates, all requests submitted to it fail and the helper
+ * is restarted for the next request.
+ */
+public class BatchScriptNearlineStorage implements NearlineStorage
+{
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(BatchScriptNearlineStorage.class);
+
+    public static final String COMMAND = ScriptNearlineStorage.COMMAND;
+    public static final String CONCURRENT_PUTS = ScriptNearlineStorage.CONCURRENT_PUTS;
+    public static final String CONCURRENT_GETS = ScriptNearlineStorage.CONCURRENT_GETS;
+    public static final String CONCURRENT_REMOVES = ScriptNearlineStorage.CONCURRENT_REMOVES;
+    public static final String POLLING_DELAY = ScriptNearlineStorage.POLLING_DELAY;
+
+    private static final Collection<String> PROPERTIES = asList(COMMAND, CONCURRENT_PUTS, CONCURRENT_GETS, CONCURRENT_REMOVES,
+                                                                POLLING_DELAY);
+
+    private static final long DEFAULT_RETRY_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    private enum Operation
+    {
+        PUT("put", CONCURRENT_PUTS, 1000),
+        GET("get", CONCURRENT_GETS, 1000),
+        REMOVE("remove", CONCURRENT_REMOVES, 100);
+
+        final String command;
+        final String property;
+        final int defaultLimit;
+
+        Operation(String command, String property, int defaultLimit)
+        {
+            this.command = command;
+            this.property = property;
+            this.defaultLimit = defaultLimit;
+        }
+    }
+
+    protected final String type;
+    protected final String name;
+
+    /** Requests not yet terminated, by request ID. */
+    private final Map<UUID, Call<?, ?>> calls = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+
+    @GuardedBy("this")
+    private final Map<Operation, Deque<Call<?, ?>>> queues = new EnumMap<>(Operation.class);
+
+    @GuardedBy("this")
+    private final Map<Operation, Integer> running = new EnumMap<>(Operation.class);
+
+    @GuardedBy("this")
+    private final Map<Operation, Integer> limits = new EnumMap<>(Operation.class);
+
+    @GuardedBy("this")
+    private Helper helper;
+
+    @GuardedBy("this")
+    private long nextTag;
+
+    @GuardedBy("this")
+    private boolean isShutdown;
+
+    private volatile List<String> command;
+    private volatile List<String> options;
+    private volatile long retryDelay;
+
+    public BatchScriptNearlineStorage(String type, String name)
+    {
+        this.type = type;
+        this.name = name;
+        for (Operation operation : Operation.values()) {
+            queues.put(operation, new ArrayDeque<>());
+            running.put(operation, 0);
+            limits.put(operation, operation.defaultLimit);
+        }
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public void flush(Iterable<FlushRequest> requests)
+    {
+        for (FlushRequest request : requests) {
+            new FlushCall(request).submit(request.activate());
+        }
+    }
+
+    @Override
+    public void stage(Iterable<StageRequest> requests)
+    {
+        for (StageRequest request : requests) {
+            new StageCall(request).submit(Futures.transformAsync(request.activate(), v -> request.allocate(),
+                                                                 directExecutor()));
+        }
+    }
+
+    @Override
+    public void remove(Iterable<RemoveRequest> requests)
+    {
+        for (RemoveRequest request : requests) {
+            new RemoveCall(request).submit(request.activate());
+        }
+    }
+
+    @Override
+    public void cancel(UUID uuid)
+    {
+        Call<?, ?> call = calls.get(uuid);
+        if (call != null) {
+            call.fail(new CancellationException());
+        }
+    }
+
+    @Override
+    public synchronized void configure(Map<String, String> properties)
+    {
+        if (!properties.containsKey(COMMAND)) {
+            throw new IllegalArgumentException("command option must be defined");
+        }
+
+        List<String> newCommand = Collections.singletonList(properties.get(COMMAND));
+        if (helper != null && !newCommand.equals(command)) {
+            /* Requests already submitted to the old helper complete when it exits. */
+            helper.close();
+            helper = null;
+        }
+        command = newCommand;
+        options = properties.entrySet().stream()
+                .filter(entry -> !PROPERTIES.contains(entry.getKey()))
+                .map(entry -> "-" + entry.getKey() + (Strings.isNullOrEmpty(entry.getValue()) ? "" : "=" + entry.getValue()))
+                .collect(Collectors.toList());
+        for (Operation operation : Operation.values()) {
+            String value = properties.get(operation.property);
+            limits.put(operation, (value != null) ? Integer.parseInt(value) : operation.defaultLimit);
+        }
+        retryDelay = properties.containsKey(POLLING_DELAY)
+                     ? TimeUnit.SECONDS.toMillis(Integer.parseInt(properties.get(POLLING_DELAY)))
+                     : DEFAULT_RETRY_DELAY;
+        dispatch();
+    }
+
+    @Override
+    public void shutdown()
+    {
+        synchronized (this) {
+            isShutdown = true;
+        }
+        calls.values().forEach(call -> call.fail(new CancellationException()));
+        synchronized (this) {
+            if (helper != null) {
+                helper.close();
+                helper = null;
+            }
+        }
+        scheduler.shutdown();
+        executor.shutdown();
+    }
+
+    private synchronized void enqueue(Call<?, ?> call)
+    {
+        if (isShutdown) {
+            call.fail(new CancellationException());
+        } else {
+            queues.get(call.operation).add(call);
+            dispatch();
+        }
+    }
+
+    /**
+     * Submits queued requests to the helper within the concurrency limit of
+     * each operation.
+     */
+    @GuardedBy("this")
+    private void dispatch()
+    {
+        List<Call<?, ?>> batch = new ArrayList<>();
+        for (Operation operation : Operation.values()) {
+            Deque<Call<?, ?>> queue = queues.get(operation);
+            while (running.get(operation) < limits.get(operation) && !queue.isEmpty()) {
+                Call<?, ?> call = queue.poll();
+                if (!call.isDone()) {
+                    running.merge(operation, 1, Integer::sum);
+                    batch.add(call);
+                }
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            if (helper == null || !helper.isAlive()) {
+                helper = new Helper(command);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to start HSM helper {}: {}", command, e.getMessage());
+            CacheException cause = new CacheException("Failed to start HSM helper: " + e.getMessage(), e);
+            for (Call<?, ?> call : batch) {
+                running.merge(call.operation, -1, Integer::sum);
+                executor.execute(() -> call.fail(cause));
+            }
+            return;
+        }
+
+        List<String> lines = new ArrayList<>(batch.size());
+        for (Call<?, ?> call : batch) {
+            long tag = nextTag++;
+            call.start(helper, tag);
+            lines.add(line(Stream.concat(Stream.of(Long.toString(tag), call.operation.command),
+                                         Stream.concat(call.arguments().stream(), options.stream()))));
+        }
+        helper.send(lines);
+    }
+
+    /**
+     * Releases the slot occupied by a request submitted to the helper.
+     */
+    private synchronized void release(Operation operation)
+    {
+        running.merge(operation, -1, Integer::sum);
+        dispatch();
+    }
+
+    @VisibleForTesting
+    static String line(Stream<String> fields)
+    {
+        return fields.map(BatchScriptNearlineStorage::escape).collect(Collectors.joining("\t"));
+    }
+
+    @VisibleForTesting
+    static String escape(String s)
+    {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (char c : s.toCharArray()) {
+            switch (c) {
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            default:
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    @VisibleForTesting
+    static String unescape(String s)
+    {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                c = s.charAt(++i);
+                switch (c) {
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                default:
+                    sb.append(c);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private String getFileString(URI dataFile)
+    {
+        return "file".equalsIgnoreCase(dataFile.getScheme()) ? dataFile.getPath() : dataFile.toASCIIString();
+    }
+
+    private CacheException toException(int rc, String message)
+    {
+        switch (rc) {
+        case 71:
+            return new CacheException(CacheException.HSM_DELAY_ERROR,
+                                      "HSM helper failed (helper reported 71: " + message + ")");
+        case 143:
+            return new TimeoutCacheException("HSM helper was killed (helper reported 143: " + message + ")");
+        default:
+            return new CacheException(rc, "HSM helper failed (helper reported: " + rc + ": " + message + ")");
+        }
+    }
+
+    /**
+     * A long running helper process.
+     */
+    private class Helper
+    {
+        private final Process process;
+        private final Writer out;
+
+        /** Requests submitted to this helper, by tag. */
+        private final Map<Long, Call<?, ?>> outstanding = new ConcurrentHashMap<>();
+
+        @GuardedBy("this")
+        private boolean isClosed;
+
+        Helper(List<String> command) throws IOException
+        {
+            process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            out = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), UTF_8));
+            Thread reader = new Thread(this::read, "hsm-helper-" + name);
+            reader.setDaemon(true);
+            reader.start();
+            LOGGER.info("Started HSM helper {}.", command);
+        }
+
+        boolean isAlive()
+        {
+            return process.isAlive();
+        }
+
+        void register(long tag, Call<?, ?> call)
+        {
+            outstanding.put(tag, call);
+        }
+
+        void unregister(long tag)
+        {
+            outstanding.remove(tag);
+        }
+
+        synchronized void send(List<String> lines)
+        {
+            if (isClosed || !process.isAlive()) {
+                return;
+            }
+            try {
+                for (String line : lines) {
+                    out.write(line);
+                    out.write('\n');
+                }
+                out.flush();
+            } catch (IOException e) {
+                LOGGER.error("Failed to send requests to HSM helper: {}", e.getMessage());
+                process.destroy();
+            }
+        }
+
+        /**
+         * Stops accepting requests. The helper is expected to exit once it has
+         * completed the requests already submitted.
+         */
+        synchronized void close()
+        {
+            isClosed = true;
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close HSM helper input: {}", e.getMessage());
+            }
+        }
+
+        private void read()
+        {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    List<String> fields = Splitter.on('\t').limit(3).splitToList(line);
+                    Call<?, ?> call;
+                    int rc;
+                    try {
+                        call = (fields.size() >= 2) ? outstanding.remove(Long.parseLong(fields.get(0))) : null;
+                        rc = (fields.size() >= 2) ? Integer.parseInt(fields.get(1)) : 0;
+                    } catch (NumberFormatException e) {
+                        call = null;
+                        rc = 0;
+                    }
+                    if (call == null) {
+                        LOGGER.debug("Ignoring HSM helper output: {}", line);
+                        continue;
+                    }
+                    String message = (fields.size() > 2) ? unescape(fields.get(2)) : "";
+                    Call<?, ?> completed = call;
+                    int returnCode = rc;
+                    executor.execute(() -> completed.complete(returnCode, message));
+                }
+            } catch (IOException e) {
+                LOGGER.error("Failed to read from HSM helper: {}", e.getMessage());
+            } catch (RejectedExecutionException e) {
+                /* Shutting down. */
+            }
+
+            process.destroy();
+            CacheException cause = new CacheException("HSM helper terminated");
+            outstanding.values().forEach(call -> call.fail(cause));
+            outstanding.clear();
+            LOGGER.info("HSM helper {} terminated.", command);
+        }
+
+        synchronized void cancel(long tag)
+        {
+            if (outstanding.remove(tag) != null) {
+                send(asList(line(Stream.of(Long.toString(tag), "cancel"))));
+            }
+        }
+    }
+
+    /**
+     * A nearline request from activation until termination.
+     *
+     * @param <R> Request type
+     * @param <T> Result type provided to the callback upon completion
+     */
+    private abstract class Call<R extends NearlineRequest<T>, T>
+    {
+        protected final R request;
+        final Operation operation;
+
+        /** The helper this request was submitted to, or null if not submitted. */
+        @GuardedBy("this")
+        private Helper helper;
+
+        @GuardedBy("this")
+        private long tag;
+
+        @GuardedBy("this")
+        private ScheduledFuture<?> timeout;
+
+        @GuardedBy("this")
+        private boolean isDone;
+
+        Call(Operation operation, R request)
+        {
+            this.operation = operation;
+            this.request = request;
+        }
+
+        void submit(ListenableFuture<?> activation)
+        {
+            calls.put(request.getId(), this);
+            long delay = request.getDeadline() - System.currentTimeMillis();
+            synchronized (this) {
+                timeout = scheduler.schedule(() -> fail(new TimeoutCacheException("HSM helper did not complete request in time")),
+                                             Math.max(delay, 0), TimeUnit.MILLISECONDS);
+            }
+            Futures.addCallback(activation, new FutureCallback<Object>()
+            {
+                @Override
+                public void onSuccess(Object result)
+                {
+                    enqueue(Call.this);
+                }
+
+                @Override
+                public void onFailure(Throwable t)
+                {
+                    fail(t instanceof Exception ? (Exception) t : new CacheException(t.toString(), t));
+                }
+            }, executor);
+        }
+
+        synchronized boolean isDone()
+        {
+            return isDone;
+        }
+
+        synchronized void start(Helper helper, long tag)
+        {
+            this.helper = helper;
+            this.tag = tag;
+            helper.register(tag, this);
+        }
+
+        /**
+         * Marks the request as terminated.
+         *
+         * @return true if the request was not already terminated
+         */
+        private boolean terminate()
+        {
+            Helper submittedTo;
+            long submittedAs;
+            synchronized (this) {
+                if (isDone) {
+                    return false;
+                }
+                isDone = true;
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+                submittedTo = helper;
+                submittedAs = tag;
+                helper = null;
+            }
+            calls.remove(request.getId());
+            if (submittedTo != null) {
+                submittedTo.cancel(submittedAs);
+                release(operation);
+            }
+            return true;
+        }
+
+        void fail(Exception cause)
+        {
+            if (terminate()) {
+                request.failed(cause);
+            }
+        }
+
+        void complete(int rc, String message)
+        {
+            if (rc == 72) {
+                requeue();
+                return;
+            }
+            synchronized (this) {
+                if (isDone) {
+                    return;
+                }
+                helper.unregister(tag);
+                helper = null;
+            }
+            release(operation);
+            if (rc != 0) {
+                CacheException cause = toException(rc, message);
+                LOGGER.error(AlarmMarkerFactory.getMarker(PredefinedAlarm.HSM_SCRIPT_FAILURE,
+                                                          NetworkUtils.getCanonicalHostName(),
+                                                          name, message),
+                             cause.getMessage());
+                fail(cause);
+                return;
+            }
+            T result;
+            try {
+                result = result(message);
+            } catch (Exception e) {
+                fail(e);
+                return;
+            }
+            if (terminate()) {
+                request.completed(result);
+            }
+        }
+
+        /**
+         * Submits the request again after the polling delay.
+         */
+        private void requeue()
+        {
+            synchronized (this) {
+                if (isDone) {
+                    return;
+                }
+                helper.unregister(tag);
+                helper = null;
+            }
+            release(operation);
+            scheduler.schedule(() -> enqueue(this), retryDelay, TimeUnit.MILLISECONDS);
+        }
+
+        abstract List<String> arguments();
+
+        abstract T result(String output) throws Exception;
+    }
+
+    private class FlushCall extends Call<FlushRequest, Set<URI>>
+    {
+        FlushCall(FlushRequest request)
+        {
+            super(Operation.PUT, request);
+        }
+
+        @Override
+        List<String> arguments()
+        {
+            FileAttributes attributes = request.getFileAttributes();
+            return asList(attributes.getPnfsId().toString(), getFileString(request.getReplicaUri()),
+                          "-si=" + StorageInfos.extractFrom(attributes));
+        }
+
+        @Override
+        Set<URI> result(String output) throws CacheException
+        {
+            Set<URI> locations = new HashSet<>();
+            for (String uri : Splitter.on("\n").trimResults().omitEmptyStrings().split(output)) {
+                try {
+                    locations.add(new URI(uri));
+                } catch (URISyntaxException e) {
+                    throw new CacheException(2, "HSM helper produced bad URI: " + e.getMessage(), e);
+                }
+            }
+            return locations;
+        }
+    }
+
+    private class StageCall extends Call<StageRequest, Set<Checksum>>
+    {
+        StageCall(StageRequest request)
+        {
+            super(Operation.GET, request);
+        }
+
+        @Override
+        List<String> arguments()
+        {
+            FileAttributes attributes = request.getFileAttributes();
+            return Stream.concat(
+                    Stream.of(attributes.getPnfsId().toString(), getFileString(request.getReplicaUri()),
+                              "-si=" + StorageInfos.extractFrom(attributes)),
+                    attributes.getStorageInfo().locations().stream()
+                            .filter(uri -> uri.getScheme().equals(type))
+                            .filter(uri -> uri.getAuthority().equals(name))
+                            .map(uri -> "-uri=" + uri))
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        Set<Checksum> result(String output) throws IOException
+        {
+            return ScriptNearlineStorage.readChecksumFromHsm(request.getFile());
+        }
+    }
+
+    private class RemoveCall extends Call<RemoveRequest, Void>
+    {
+        RemoveCall(RemoveRequest request)
+        {
+            super(Operation.REMOVE, request);
+        }
+
+        @Override
+        List<String> arguments()
+        {
+            return asList("-uri=" + request.getUri());
+        }
+
+        @Override
+        Void result(String output)
+        {
+            return null;
+        }
+    }
+}
@@ -248,7 +248,7 @@ public class ScriptNearlineStorage extends AbstractBlockingNearlineStorage
         return argsArray;
     }
 
-    private Set<Checksum> readChecksumFromHsm(File file)
+    static Set<Checksum> readChecksumFromHsm(File file)
             throws IOException
     {
         File checksumFile = new File(file.getCanonicalPath() + ".crcval");
@@ -84,6 +84,8 @@ import static org.dcache.util.ByteUnit.KiB;
  *
  * The companion will submit an HTTP download request to the source
  * pool, wait for the reply and then download the file through HTTP.
+ * Large files may be downloaded over several connections in parallel,
+ * each fetching a range of the file (see StripedHttpDownload).
  *
  * The code is driven by a state machine, Companion.sm. Most of the
  * logic is encapsulated in the state machine.
@@ -119,6 +121,9 @@ class Companion
     private final CellStub _pool;
     private final boolean _forceSourceMode;
     private final PnfsId _pnfsId;
+    private final int _minStreams;
+    private final int _maxStreams;
+    private final long _stripeSize;
 
     /** State machine driving the transfer. */
     private final CompanionContext _fsm;
@@ -145,6 +150,9 @@ class Companion
     private int _moverId;
     private HttpGet _request;
 
+    /** Striped download in progress, or null. */
+    private StripedHttpDownload _download;
+
     private SSLContext _sslContext;
 
     /**
@@ -166,6 +174,12 @@ class Companion
      * @param callback    Callback to which success or failure is reported
      * @param forceSourceMode Ignores disabled state of pools
      * @param atime       Last access time for the new replica
+     * @param getContextIfNeeded Provides the SSL context, or null if the
+     *                    transfer is not encrypted
+     * @param minStreams  Minimum number of parallel streams
+     * @param maxStreams  Maximum number of parallel streams
+     * @param stripeSize  Number of bytes fetched by each range request of
+     *                    a striped transfer
      */
     Companion(ScheduledExecutorService executor,
               InetAddress address,
@@ -182,7 +196,10 @@ class Companion
               CacheFileAvailable callback,
               boolean forceSourceMode,
               Long atime,
-              Supplier<SSLContext> getContextIfNeeded) {
+              Supplier<SSLContext> getContextIfNeeded,
+              int minStreams,
+              int maxStreams,
+              long stripeSize) {
         _fsm = new CompanionContext(this);
 
         _executor = executor;
@@ -211,6 +228,9 @@ class Companion
         _atime = atime;
         _targetState = targetState;
         _stickyRecords = new ArrayList<>(stickyRecords);
+        _minStreams = minStreams;
+        _maxStreams = maxStreams;
+        _stripeSize = stripeSize;
 
         _id = _nextId.getAndIncrement();
 
@@ -254,7 +274,9 @@ class Companion
     {
         // Unsynchronized access to the fsm state means we may show an old value, but it
         // avoids blocking in toString().
-        return _id + " " + _pnfsId + " " + _fsm.getState();
+        StripedHttpDownload download = _download;
+        return _id + " " + _pnfsId + " " + _fsm.getState()
+               + (download == null ? "" : " streams=" + download.getStreams());
     }
 
     /**
@@ -290,6 +312,14 @@ class Companion
         _request = request;
     }
 
+    /**
+     * Sets the striped download used for the file transfer.
+     */
+    private synchronized void setDownload(StripedHttpDownload download)
+    {
+        _download = download;
+    }
+
     private void transfer(String uri)
     {
         ReplicaDescriptor handle;
@@ -329,6 +359,16 @@ class Companion
         }
     }
 
+    /**
+     * Returns whether the file is transferred by several streams, each
+     * fetching a range of the file.
+     */
+    private boolean isStriped()
+    {
+        return _maxStreams > 1 && _fileAttributes.isDefined(FileAttribute.SIZE)
+               && _fileAttributes.getSize() > 2 * _stripeSize;
+    }
+
     private Set<Checksum> copy(String uri, ReplicaDescriptor handle) throws IOException, InterruptedException
     {
         EnumSet<ChecksumType> knownChecksumTypes = EnumSet.noneOf(ChecksumType.class);
@@ -340,48 +380,8 @@ class Companion
 
         RepositoryChannel channel = handle.createChannel();
         try {
-            HttpGet get = new HttpGet(uri);
-            get.addHeader(HttpHeaders.CONNECTION, HTTP.CONN_CLOSE);
-            get.setConfig(RequestConfig.custom()
-                                  .setConnectTimeout((int) CONNECT_TIMEOUT)
-                                  .setSocketTimeout((int) READ_TIMEOUT)
-                                  .build());
-            setRequest(get);
-
-            try (CloseableHttpClient client = HttpClients.custom()
-                    .setSSLContext(_sslContext)
-                    .setUserAgent(USER_AGENT).build();
-                 CloseableHttpResponse response = client.execute(get)) {
-                StatusLine statusLine = response.getStatusLine();
-                if (statusLine.getStatusCode() >= 300) {
-                    throw new HttpResponseException(statusLine.getStatusCode(), statusLine.getReasonPhrase());
-                }
-
-                HttpEntity entity = response.getEntity();
-                if (entity == null) {
-                    throw new ClientProtocolException("Response contains no content");
-                }
-
-                long contentLength = entity.getContentLength();
-                if (contentLength >= 0 && contentLength != _fileAttributes.getSize()) {
-                    /* Fail fast if the response is incomplete.
-                     */
-                    throw new EOFException("Received file does not match expected file size.");
-                }
-
-                ByteStreams.copy(entity.getContent(), Channels.newOutputStream(channel));
-
-                try {
-                    channel.sync();
-                } catch (SyncFailedException e) {
-                    /* Data is not guaranteed to be on disk. Not a fatal
-                     * problem, but better generate a warning.
-                     */
-                    _log.warn("Failed to synchronize file with storage device: {}",
-                              e.getMessage());
-                }
-            } finally {
-                setRequest(null);
+            if (!isStriped() || !copyStriped(uri, channel)) {
+                copySingle(uri, channel);
             }
             return channel.optionallyAs(ChecksumChannel.class)
                     .map(ChecksumChannel::getChecksums)
@@ -395,6 +395,96 @@ class Companion
         }
     }
 
+    private RequestConfig createRequestConfig()
+    {
+        return RequestConfig.custom()
+                .setConnectTimeout((int) CONNECT_TIMEOUT)
+                .setSocketTimeout((int) READ_TIMEOUT)
+                .build();
+    }
+
+    /**
+     * Fetches the file in several streams.
+     *
+     * @return false if the source pool does not serve byte ranges and the
+     *         file has to be fetched in a single stream
+     */
+    private boolean copyStriped(String uri, RepositoryChannel channel) throws IOException, InterruptedException
+    {
+        try (CloseableHttpClient client = HttpClients.custom()
+                .setSSLContext(_sslContext)
+                .setMaxConnPerRoute(_maxStreams)
+                .setMaxConnTotal(_maxStreams)
+                .setUserAgent(USER_AGENT).build()) {
+            StripedHttpDownload download =
+                    new StripedHttpDownload(uri, _fileAttributes.getSize(), _stripeSize,
+                                            _minStreams, _maxStreams, channel, client,
+                                            createRequestConfig(),
+                                            "P2P Transfer - " + _pnfsId + " " + _sourcePoolName);
+            setDownload(download);
+            try {
+                if (!download.download()) {
+                    _log.info("Source pool {} does not serve byte ranges; fetching {} in a single stream.",
+                              _sourcePoolName, _pnfsId);
+                    return false;
+                }
+            } finally {
+                setDownload(null);
+            }
+            syncChannel(channel);
+            return true;
+        }
+    }
+
+    private void copySingle(String uri, RepositoryChannel channel) throws IOException
+    {
+        HttpGet get = new HttpGet(uri);
+        get.addHeader(HttpHeaders.CONNECTION, HTTP.CONN_CLOSE);
+        get.setConfig(createRequestConfig());
+        setRequest(get);
+
+        try (CloseableHttpClient client = HttpClients.custom()
+                .setSSLContext(_sslContext)
+                .setUserAgent(USER_AGENT).build();
+             CloseableHttpResponse response = client.execute(get)) {
+            StatusLine statusLine = response.getStatusLine();
+            if (statusLine.getStatusCode() >= 300) {
+                throw new HttpResponseException(statusLine.getStatusCode(), statusLine.getReasonPhrase());
+            }
+
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                throw new ClientProtocolException("Response contains no content");
+            }
+
+            long contentLength = entity.getContentLength();
+            if (contentLength >= 0 && contentLength != _fileAttributes.getSize()) {
+                /* Fail fast if the response is incomplete.
+                 */
+                throw new EOFException("Received file does not match expected file size.");
+            }
+
+            ByteStreams.copy(entity.getContent(), Channels.newOutputStream(channel));
+
+            syncChannel(channel);
+        } finally {
+            setRequest(null);
+        }
+    }
+
+    private void syncChannel(RepositoryChannel channel) throws IOException
+    {
+        try {
+            channel.sync();
+        } catch (SyncFailedException e) {
+            /* Data is not guaranteed to be on disk. Not a fatal
+             * problem, but better generate a warning.
+             */
+            _log.warn("Failed to synchronize file with storage device: {}",
+                      e.getMessage());
+        }
+    }
+
     private ReplicaDescriptor createReplicaEntry()
         throws CacheException
     {
@@ -28,6 +28,7 @@ import dmg.cells.nucleus.CellMessageReceiver;
 import dmg.cells.nucleus.CellSetupProvider;
 import dmg.util.command.Argument;
 import dmg.util.command.Command;
+import dmg.util.command.Option;
 import org.dcache.cells.CellStub;
 import org.dcache.pool.PoolDataBeanProvider;
 import org.dcache.pool.classic.ChecksumModule;
@@ -37,7 +38,9 @@ import org.dcache.pool.repository.StickyRecord;
 import org.dcache.vehicles.FileAttributes;
 import org.dcache.pool.p2p.json.P2PData;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.stream.Collectors.joining;
+import static org.dcache.util.ByteUnit.MiB;
 
  enum TlsMode {
     NEVER,
@@ -63,6 +66,10 @@ public class P2PClient
 
     private SSLContext _sslContext;
 
+    private int _minStreams = 1;
+    private int _maxStreams = 1;
+    private long _stripeSize = MiB.toBytes(64);
+
     // TODO: cross zone behaves as ALYWAYS as long as we can't distinct zones
     private Supplier<SSLContext> getContextIfNeeded = () -> {
 
@@ -105,6 +112,24 @@ public class P2PClient
         _sslContext = sslContext;
     }
 
+    public synchronized void setMinStreams(int streams)
+    {
+        checkArgument(streams > 0, "Minimum number of streams must be positive.");
+        _minStreams = streams;
+    }
+
+    public synchronized void setMaxStreams(int streams)
+    {
+        checkArgument(streams > 0, "Maximum number of streams must be positive.");
+        _maxStreams = streams;
+    }
+
+    public synchronized void setStripeSize(long size)
+    {
+        checkArgument(size > 0, "Stripe size must be positive.");
+        _stripeSize = size;
+    }
+
     public synchronized void setTlsMode(TlsMode p2pTlslMode)
     {
         _p2pTlsMode = p2pTlslMode;
@@ -275,7 +300,10 @@ public class P2PClient
                         targetState, stickyRecords,
                         cb, forceSourceMode,
                         atime,
-                        getContextIfNeeded
+                        getContextIfNeeded,
+                        Math.min(_minStreams, _maxStreams),
+                        _maxStreams,
+                        _stripeSize
                         );
 
         int id = addCompanion(companion);
@@ -329,6 +357,8 @@ public class P2PClient
         if (_interface != null) {
             pw.println("pp interface " + _interface.getHostAddress());
         }
+        pw.println("pp set streams -min=" + _minStreams + " -max=" + _maxStreams
+                   + " -stripe-size=" + _stripeSize);
     }
 
     @Command(name="pp set pnfs timeout",
@@ -401,6 +431,49 @@ public class P2PClient
         }
     }
 
+    @AffectsSetup
+    @Command(name = "pp set streams",
+            hint = "set the number of parallel streams of pool-to-pool transfers",
+            description = "Files larger than twice the stripe size are downloaded " +
+                    "from the source pool over several HTTP connections in parallel, " +
+                    "each fetching a stripe of the file at a time. The number of " +
+                    "streams starts at the minimum and is raised by one for as long " +
+                    "as doing so increases throughput, up to the maximum. It is " +
+                    "halved when a stream fails and lowered when throughput drops.\n\n" +
+                    "Setting the maximum to 1 disables striping. Changes apply to " +
+                    "transfers started afterwards.")
+    public class PpSetStreamsCommand implements Callable<String>
+    {
+        @Option(name = "min", usage = "Minimum number of parallel streams.")
+        Integer min;
+
+        @Option(name = "max", usage = "Maximum number of parallel streams.")
+        Integer max;
+
+        @Option(name = "stripe-size", metaVar = "bytes",
+                usage = "Number of bytes fetched by a single range request.")
+        Long stripeSize;
+
+        @Override
+        public String call() throws IllegalArgumentException
+        {
+            synchronized (P2PClient.this) {
+                int newMin = (min == null) ? _minStreams : min;
+                int newMax = (max == null) ? _maxStreams : max;
+                checkArgument(newMin > 0, "Minimum number of streams must be positive.");
+                checkArgument(newMax >= newMin, "Maximum number of streams must not be less than the minimum.");
+                checkArgument(stripeSize == null || stripeSize > 0, "Stripe size must be positive.");
+                _minStreams = newMin;
+                _maxStreams = newMax;
+                if (stripeSize != null) {
+                    _stripeSize = stripeSize;
+                }
+                return "Using " + _minStreams + " to " + _maxStreams + " streams with stripes of "
+                       + _stripeSize + " bytes.";
+            }
+        }
+    }
+
     @Command(name = "pp get file",
             hint = "initiate pool-to-pool client transfer request of a file",
             description = "Transfer a file from a specified pool to this pool through " +
@@ -0,0 +1,327 @@
+package org.dcache.pool.p2p;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dcache.pool.repository.RepositoryChannel;
+import org.dcache.util.CDCExecutorServiceDecorator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.dcache.util.ByteUnit.KiB;
+
+/**
+ * Downloads a file by fetching byte ranges over several HTTP connections
+ * in parallel.
+ *
+ * The file is split into stripes of fixed size. Each stream repeatedly
+ * takes the next stripe, fetches it with a range request and writes it at
+ * its offset in the replica. Connections are kept alive between requests,
+ * so that the source mover stays open until all streams are done.
+ * Checksums are computed on the fly by the ChecksumChannel of the replica,
+ * which accepts data out of order.
+ *
+ * The number of streams adapts to the network. It starts at the minimum
+ * and is raised by one for as long as doing so increases throughput. It is
+ * lowered by one if throughput drops, and halved if a stream fails, e.g.
+ * because a connection timed out or was reset. A failed stripe is fetched
+ * again from where it broke off by another stream; a stripe failing too
+ * often fails the download.
+ *
+ * A source that answers a range request with anything but partial content
+ * does not serve byte ranges (e.g. it sends the whole file instead). The
+ * download then stops and reports that the file has to be fetched in a
+ * single stream.
+ */
+class StripedHttpDownload
+{
+    private static final Logger _log = LoggerFactory.getLogger(StripedHttpDownload.class);
+
+    private static final long SAMPLE_PERIOD = TimeUnit.SECONDS.toMillis(2);
+    private static final int BUFFER_SIZE = KiB.toBytes(64);
+    private static final int MAX_ATTEMPTS = 3;
+    private static final double GAIN_THRESHOLD = 1.05;
+    private static final double LOSS_THRESHOLD = 0.9;
+
+    /**
+     * Thrown if the source does not answer a range request with partial
+     * content.
+     */
+    private static class RangeNotSupportedException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        RangeNotSupportedException(StatusLine statusLine)
+        {
+            super("Range request answered with " + statusLine.getStatusCode() + " " + statusLine.getReasonPhrase());
+        }
+    }
+
+    private static class Stripe
+    {
+        long offset;
+        long length;
+        int attempts;
+
+        Stripe(long offset, long length)
+        {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final String _uri;
+    private final RequestConfig _config;
+    private final CloseableHttpClient _client;
+    private final RepositoryChannel _channel;
+    private final int _minStreams;
+    private final int _maxStreams;
+
+    private final Deque<Stripe> _stripes = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger _remainingStripes = new AtomicInteger();
+    private final Set<HttpGet> _requests = ConcurrentHashMap.newKeySet();
+    private final AtomicLong _transferred = new AtomicLong();
+    private final AtomicInteger _running = new AtomicInteger();
+    private final AtomicInteger _failures = new AtomicInteger();
+    private final CountDownLatch _done = new CountDownLatch(1);
+    private final ExecutorService _executor;
+
+    private volatile int _target;
+    private volatile Throwable _error;
+
+    /**
+     * @param uri         URI of the file on the source pool
+     * @param size        size of the file
+     * @param stripeSize  number of bytes fetched by a single range request
+     * @param minStreams  lower bound of the number of parallel streams
+     * @param maxStreams  upper bound of the number of parallel streams
+     * @param channel     channel to which the file is written
+     * @param client      client allowing at least maxStreams connections
+     * @param config      configuration of each request
+     * @param name        prefix of the names of stream threads
+     */
+    StripedHttpDownload(String uri, long size, long stripeSize, int minStreams, int maxStreams,
+                        RepositoryChannel channel, CloseableHttpClient client,
+                        RequestConfig config, String name)
+    {
+        checkArgument(stripeSize > 0, "Stripe size must be positive.");
+        checkArgument(minStreams > 0, "Minimum number of streams must be positive.");
+        checkArgument(maxStreams >= minStreams, "Maximum number of streams must not be less than the minimum.");
+        _uri = uri;
+        _config = config;
+        _client = client;
+        _channel = channel;
+        _minStreams = minStreams;
+        _maxStreams = maxStreams;
+        _target = minStreams;
+        for (long offset = 0; offset < size; offset += stripeSize) {
+            _stripes.add(new Stripe(offset, Math.min(stripeSize, size - offset)));
+        }
+        _remainingStripes.set(_stripes.size());
+        _executor = new CDCExecutorServiceDecorator<>(
+                Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat(name + " stream-%d").build()));
+    }
+
+    /**
+     * Returns the current number of parallel streams.
+     */
+    int getStreams()
+    {
+        return _running.get();
+    }
+
+    /**
+     * Downloads the file. Interrupting the calling thread aborts all streams.
+     *
+     * @return false if the source does not serve byte ranges, in which case
+     *         the file has not been downloaded completely
+     */
+    boolean download() throws IOException, InterruptedException
+    {
+        try {
+            long lastTransferred = 0;
+            double lastThroughput = Double.NaN;
+            if (_remainingStripes.get() == 0) {
+                return true;
+            }
+            startStreams();
+            while (!_done.await(SAMPLE_PERIOD, TimeUnit.MILLISECONDS)) {
+                long transferred = _transferred.get();
+                double throughput = (transferred - lastTransferred) * 1000.0 / SAMPLE_PERIOD;
+                lastTransferred = transferred;
+                adjust(throughput, lastThroughput);
+                lastThroughput = throughput;
+                startStreams();
+            }
+
+            Throwable error = _error;
+            if (error != null) {
+                if (error instanceof RangeNotSupportedException) {
+                    _log.debug("Source does not serve byte ranges: {}", error.getMessage());
+                    return false;
+                }
+                if (error instanceof IOException) {
+                    throw (IOException) error;
+                }
+                if (error instanceof Error) {
+                    throw (Error) error;
+                }
+                if (error instanceof RuntimeException) {
+                    throw (RuntimeException) error;
+                }
+                throw new IOException(error.getMessage(), error);
+            }
+            return true;
+        } finally {
+            _requests.forEach(HttpGet::abort);
+            _executor.shutdownNow();
+            _executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private void adjust(double throughput, double lastThroughput)
+    {
+        int target = _target;
+        int newTarget = target;
+        if (_failures.getAndSet(0) > 0) {
+            newTarget = Math.max(_minStreams, target / 2);
+        } else if (Double.isNaN(lastThroughput) || throughput >= GAIN_THRESHOLD * lastThroughput) {
+            if (_running.get() >= target) {
+                newTarget = Math.min(_maxStreams, target + 1);
+            }
+        } else if (throughput < LOSS_THRESHOLD * lastThroughput) {
+            newTarget = Math.max(_minStreams, target - 1);
+        }
+        if (newTarget != target) {
+            _log.debug("Changing number of streams from {} to {} at {} bytes/s", target, newTarget, (long) throughput);
+            _target = newTarget;
+        }
+    }
+
+    private void startStreams()
+    {
+        while (_running.get() < _target && !_stripes.isEmpty() && _error == null) {
+            _running.incrementAndGet();
+            _executor.execute(this::stream);
+        }
+    }
+
+    private void stream()
+    {
+        boolean isRunning = true;
+        try {
+            Stripe stripe;
+            while (_error == null && (stripe = _stripes.poll()) != null) {
+                try {
+                    fetch(stripe);
+                } catch (RangeNotSupportedException e) {
+                    fail(e);
+                    return;
+                } catch (IOException e) {
+                    if (stripe.attempts >= MAX_ATTEMPTS || Thread.currentThread().isInterrupted()) {
+                        fail(e);
+                    } else {
+                        _log.debug("Stream failed at offset {}: {}", stripe.offset, e.toString());
+                        _failures.incrementAndGet();
+                        _stripes.addFirst(stripe);
+                    }
+                    return;
+                }
+                if (_remainingStripes.decrementAndGet() == 0) {
+                    _done.countDown();
+                    return;
+                }
+
+                /* Leave if there are more streams than wanted. */
+                int running = _running.get();
+                if (running > _target && _running.compareAndSet(running, running - 1)) {
+                    isRunning = false;
+                    return;
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            fail(e);
+        } finally {
+            if (isRunning) {
+                _running.decrementAndGet();
+            }
+        }
+    }
+
+    private void fail(Throwable t)
+    {
+        if (_error == null) {
+            _error = t;
+        }
+        _done.countDown();
+    }
+
+    private void fetch(Stripe stripe) throws IOException
+    {
+        stripe.attempts++;
+        HttpGet get = new HttpGet(_uri);
+        get.setConfig(_config);
+        get.addHeader(HttpHeaders.RANGE, "bytes=" + stripe.offset + "-" + (stripe.offset + stripe.length - 1));
+        _requests.add(get);
+        try (CloseableHttpResponse response = _client.execute(get)) {
+            StatusLine statusLine = response.getStatusLine();
+            if (statusLine.getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT) {
+                throw new RangeNotSupportedException(statusLine);
+            }
+
+            Header contentRange = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+            if (contentRange == null || !contentRange.getValue().startsWith("bytes " + stripe.offset + "-")) {
+                throw new ClientProtocolException("Response does not match requested range: " + contentRange);
+            }
+
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                throw new ClientProtocolException("Response contains no content");
+            }
+
+            try (InputStream in = entity.getContent()) {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                while (stripe.length > 0) {
+                    int n = in.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), stripe.length));
+                    if (n < 0) {
+                        throw new EOFException("Received file does not match expected file size.");
+                    }
+                    buffer.limit(n).position(0);
+                    while (buffer.hasRemaining()) {
+                        _channel.write(buffer, stripe.offset + buffer.position());
+                    }
+                    stripe.offset += n;
+                    stripe.length -= n;
+                    _transferred.addAndGet(n);
+                }
+            }
+        } finally {
+            _requests.remove(get);
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package org.dcache.pool.repository;
+
+import com.sun.nio.file.ExtendedOpenOption;
+
+import java.io.IOException;
+import java.io.SyncFailedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.dcache.pool.movers.DirectBufferPool;
+
+/**
+ * A {@link RepositoryChannel} that bypasses the page cache by opening the
+ * data file with O_DIRECT.
+ *
+ * Direct I/O requires file offsets, transfer lengths and buffer addresses to
+ * be aligned to the block size of the file system. Movers use buffers of
+ * arbitrary size and alignment, so all data is staged through a single
+ * aligned direct buffer taken from the {@link DirectBufferPool} and returned
+ * to it when the channel is closed. Sequential writes are gathered and
+ * written in whole blocks. The unaligned head and tail of a write sequence go
+ * through a second, buffered file descriptor. Sequential reads are served
+ * from read-ahead blocks filled with direct reads.
+ *
+ * The channel is meant for large sequential transfers. Random access works,
+ * but each non-sequential write flushes the gathered data first.
+ */
+public class DirectIoRepositoryChannel implements RepositoryChannel
+{
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private final FileChannel _direct;
+    private final FileChannel _buffered;
+    private final int _alignment;
+    private final int _bufferSize;
+
+    /**
+     * Aligned staging buffer shared by reads and writes. While {@code _dirty}
+     * is true it holds unwritten data for the file region starting at
+     * {@code _stagingOffset}; otherwise bytes [0, {@code _cachedLength}) hold
+     * the file content starting at {@code _stagingOffset}.
+     */
+    private final ByteBuffer _staging;
+    private ByteBuffer _pooled;
+    private long _stagingOffset;
+    private boolean _dirty;
+    private int _cachedLength;
+
+    private long _position;
+
+    private final long _fileSize;
+
+    public DirectIoRepositoryChannel(Path path, Set<? extends OpenOption> openOptions) throws IOException
+    {
+        this(path, openOptions, DEFAULT_BUFFER_SIZE);
+    }
+
+    public DirectIoRepositoryChannel(Path path, Set<? extends OpenOption> openOptions, int bufferSize)
+            throws IOException
+    {
+        _buffered = FileChannel.open(path, openOptions);
+        try {
+            Set<OpenOption> directOptions = new HashSet<>(openOptions);
+            directOptions.remove(StandardOpenOption.CREATE);
+            directOptions.add(ExtendedOpenOption.DIRECT);
+            _direct = FileChannel.open(path, directOptions);
+        } catch (IOException | UnsupportedOperationException e) {
+            _buffered.close();
+            throw e;
+        }
+        try {
+            _alignment = (int) Files.getFileStore(path).getBlockSize();
+            int size = Math.max(_alignment, bufferSize - bufferSize % _alignment);
+            DirectBufferPool pool = DirectBufferPool.getInstance();
+            ByteBuffer pooled = pool.acquire(size);
+            ByteBuffer staging = pooled.alignedSlice(_alignment);
+            if (staging.capacity() < _alignment) {
+                pool.release(pooled);
+                pooled = pool.acquire(size + _alignment);
+                staging = pooled.alignedSlice(_alignment);
+            }
+            _pooled = pooled;
+            _staging = staging;
+            _bufferSize = staging.capacity() - staging.capacity() % _alignment;
+            _staging.limit(_bufferSize);
+            _fileSize = !openOptions.contains(StandardOpenOption.WRITE) ? _buffered.size() : -1;
+        } catch (IOException | RuntimeException e) {
+            try (FileChannel direct = _direct; FileChannel buffered = _buffered) {
+                if (_pooled != null) {
+                    DirectBufferPool.getInstance().release(_pooled);
+                }
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized long position() throws IOException
+    {
+        return _position;
+    }
+
+    @Override
+    public synchronized RepositoryChannel position(long position) throws IOException
+    {
+        _position = position;
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException
+    {
+        if (_fileSize != -1) {
+            return _fileSize;
+        }
+        long size = _buffered.size();
+        return _dirty ? Math.max(size, _stagingOffset + _staging.position()) : size;
+    }
+
+    @Override
+    public synchronized void sync() throws SyncFailedException, IOException
+    {
+        ensureOpen();
+        flush();
+        _buffered.force(false);
+    }
+
+    @Override
+    public synchronized RepositoryChannel truncate(long size) throws IOException
+    {
+        ensureOpen();
+        flush();
+        _cachedLength = 0;
+        _buffered.truncate(size);
+        _position = Math.min(_position, size);
+        return this;
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        try (FileChannel direct = _direct; FileChannel buffered = _buffered) {
+            if (_buffered.isOpen()) {
+                flush();
+            }
+        } finally {
+            if (_pooled != null) {
+                DirectBufferPool.getInstance().release(_pooled);
+                _pooled = null;
+            }
+        }
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+        return _buffered.isOpen();
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException
+    {
+        int n = read(dst, _position);
+        if (n > 0) {
+            _position += n;
+        }
+        return n;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst, long position) throws IOException
+    {
+        ensureOpen();
+        if (_dirty) {
+            flush();
+        }
+        int total = 0;
+        while (dst.hasRemaining()) {
+            if (position < _stagingOffset || position >= _stagingOffset + _cachedLength) {
+                if (!fill(position)) {
+                    break;
+                }
+            }
+            ByteBuffer src = _staging.duplicate();
+            src.position((int) (position - _stagingOffset)).limit(_cachedLength);
+            int n = Math.min(src.remaining(), dst.remaining());
+            src.limit(src.position() + n);
+            dst.put(src);
+            position += n;
+            total += n;
+        }
+        return (total == 0 && dst.hasRemaining()) ? -1 : total;
+    }
+
+    @Override
+    public synchronized long read(ByteBuffer[] dsts, int offset, int length) throws IOException
+    {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int n = read(dsts[i]);
+            if (n < 0) {
+                return total == 0 ? -1 : total;
+            }
+            total += n;
+            if (dsts[i].hasRemaining()) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts) throws IOException
+    {
+        return read(dsts, 0, dsts.length);
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException
+    {
+        int n = write(src, _position);
+        _position += n;
+        return n;
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src, long position) throws IOException
+    {
+        ensureOpen();
+        _cachedLength = 0;
+        int total = src.remaining();
+        if (_dirty && position != _stagingOffset + _staging.position()) {
+            flush();
+        }
+        if (!_dirty) {
+            int head = (int) Math.min(src.remaining(), misalignment(position));
+            if (head > 0) {
+                ByteBuffer slice = src.duplicate();
+                slice.limit(slice.position() + head);
+                writeFully(_buffered, slice, position);
+                src.position(src.position() + head);
+                position += head;
+            }
+            if (!src.hasRemaining()) {
+                return total;
+            }
+            _stagingOffset = position;
+            _staging.clear().limit(_bufferSize);
+            _dirty = true;
+        }
+        while (src.hasRemaining()) {
+            int n = Math.min(src.remaining(), _staging.remaining());
+            ByteBuffer slice = src.duplicate();
+            slice.limit(slice.position() + n);
+            _staging.put(slice);
+            src.position(src.position() + n);
+            if (!_staging.hasRemaining()) {
+                writeBlocks();
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized long write(ByteBuffer[] srcs, int offset, int length) throws IOException
+    {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            total += write(srcs[i]);
+        }
+        return total;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException
+    {
+        return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public synchronized long transferTo(long position, long count, WritableByteChannel target) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, _bufferSize));
+        long total = 0;
+        while (total < count) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), count - total));
+            int n = read(buffer, position + total);
+            if (n <= 0) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized long transferFrom(ReadableByteChannel src, long position, long count) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, _bufferSize));
+        long total = 0;
+        while (total < count) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), count - total));
+            int n = src.read(buffer);
+            if (n <= 0) {
+                break;
+            }
+            buffer.flip();
+            write(buffer, position + total);
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * The staging buffer is returned to the pool on close and must not be
+     * touched afterwards.
+     */
+    private void ensureOpen() throws ClosedChannelException
+    {
+        if (_pooled == null) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private long misalignment(long position)
+    {
+        long rest = position % _alignment;
+        return rest == 0 ? 0 : _alignment - rest;
+    }
+
+    /**
+     * Fills the staging buffer with the aligned region containing
+     * {@code position}. Returns false if {@code position} is at or beyond
+     * the end of the file.
+     */
+    private boolean fill(long position) throws IOException
+    {
+        long offset = position - position % _alignment;
+        _staging.clear().limit(_bufferSize);
+        _cachedLength = 0;
+        _stagingOffset = offset;
+        while (_staging.hasRemaining()) {
+            int n = _direct.read(_staging, offset + _staging.position());
+            if (n <= 0) {
+                break;
+            }
+            if (n % _alignment != 0) {
+                /* A short, unaligned read means we reached the end of the file. */
+                break;
+            }
+        }
+        _cachedLength = _staging.position();
+        return position < offset + _cachedLength;
+    }
+
+    /**
+     * Writes all complete blocks of the staging buffer using direct I/O
+     * and moves any remaining partial block to the start of the buffer.
+     */
+    private void writeBlocks() throws IOException
+    {
+        int length = _staging.position();
+        int aligned = length - length % _alignment;
+        if (aligned > 0) {
+            ByteBuffer blocks = _staging.duplicate();
+            blocks.position(0).limit(aligned);
+            writeFully(_direct, blocks, _stagingOffset);
+            _stagingOffset += aligned;
+            _staging.flip().position(aligned);
+            _staging.compact();
+            _staging.limit(_bufferSize);
+        }
+    }
+
+    /**
+     * Writes all gathered data to disk. The unaligned tail is written
+     * through the buffered file descriptor.
+     */
+    private void flush() throws IOException
+    {
+        if (_dirty) {
+            writeBlocks();
+            ByteBuffer tail = _staging.duplicate();
+            tail.flip();
+            writeFully(_buffered, tail, _stagingOffset);
+            _staging.clear().limit(_bufferSize);
+            _dirty = false;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer src, long position) throws IOException
+    {
+        while (src.hasRemaining()) {
+            position += channel.write(src, position);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.dcache.pool.repository;
+
+import com.google.common.base.Stopwatch;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.util.PnfsId;
+
+/**
+ * Command line tool to change the directory layout of a {@link FlatFileStore}
+ * and to compare the performance of layouts.
+ *
+ * The relayout command moves all files of a pool directory to the location
+ * given by the layout. The pool must not be running.
+ *
+ * The benchmark command creates the given number of empty files in a
+ * scratch directory for each layout, and measures the time to create them,
+ * to look them up in random order, to index them, and to remove them.
+ */
+public class FileStoreLayoutTool
+{
+    private static final int[][] BENCHMARK_LAYOUTS = { { 0, 256 }, { 1, 256 }, { 2, 256 }, { 1, 4096 } };
+
+    private static void usage()
+    {
+        System.err.println("Synopsis: FileStoreLayoutTool relayout DIR DEPTH FANOUT");
+        System.err.println("          FileStoreLayoutTool benchmark DIR COUNT");
+        System.err.println();
+        System.err.println("Where DIR is the pool directory or a scratch directory, DEPTH is the");
+        System.err.println("number of levels of subdirectories, FANOUT the number of subdirectories");
+        System.err.println("in each directory, and COUNT the number of files to create.");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length == 4 && args[0].equals("relayout")) {
+            relayout(FileSystems.getDefault().getPath(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+        } else if (args.length == 3 && args[0].equals("benchmark")) {
+            benchmark(FileSystems.getDefault().getPath(args[1]), Integer.parseInt(args[2]));
+        } else {
+            usage();
+        }
+    }
+
+    private static void relayout(Path dir, int depth, int fanOut) throws IOException
+    {
+        Stopwatch watch = Stopwatch.createStarted();
+        Set<PnfsId> files = new FlatFileStore(dir, depth, fanOut).index();
+        System.out.println("Indexed " + files.size() + " files of " + dir + " in " + watch + ".");
+    }
+
+    private static void benchmark(Path dir, int count) throws IOException
+    {
+        Random random = new Random();
+        List<PnfsId> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(new PnfsId(String.format("0000%016X%016X", random.nextLong(), random.nextLong())));
+        }
+
+        System.out.printf("%-12s %12s %12s %12s %12s\n", "Layout", "Create", "Lookup", "Index", "Remove");
+        for (int[] layout : BENCHMARK_LAYOUTS) {
+            Path base = dir.resolve("benchmark-" + layout[0] + "-" + layout[1]);
+            Files.createDirectories(base);
+            FlatFileStore store = new FlatFileStore(base, layout[0], layout[1]);
+
+            Stopwatch create = Stopwatch.createStarted();
+            for (PnfsId id : ids) {
+                store.create(id);
+            }
+            create.stop();
+
+            Collections.shuffle(ids, random);
+            Stopwatch lookup = Stopwatch.createStarted();
+            for (PnfsId id : ids) {
+                if (!store.contains(id)) {
+                    throw new IOException("Lost " + id);
+                }
+            }
+            lookup.stop();
+
+            Stopwatch index = Stopwatch.createStarted();
+            int size = store.index().size();
+            index.stop();
+            if (size != count) {
+                throw new IOException("Indexed " + size + " rather than " + count + " files");
+            }
+
+            Stopwatch remove = Stopwatch.createStarted();
+            for (PnfsId id : ids) {
+                store.remove(id);
+            }
+            remove.stop();
+
+            System.out.printf("%-12s %12s %12s %12s %12s\n",
+                              layout[0] + "x" + layout[1],
+                              perFile(create, count), perFile(lookup, count),
+                              index.elapsed(TimeUnit.MILLISECONDS) + " ms", perFile(remove, count));
+        }
+    }
+
+    private static String perFile(Stopwatch watch, int count)
+    {
+        return String.format("%.1f us", watch.elapsed(TimeUnit.NANOSECONDS) / 1000.0 / count);
+    }
+}
@@ -1,29 +1,82 @@
 package org.dcache.pool.repository;
 
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributeView;
 import java.net.URI;
+import java.util.HashSet;
 import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import diskCacheV111.util.PnfsId;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.US_ASCII;
 
 /**
- * A file store layout keeping all files in a single subdirectory
- * called "data".
+ * A file store layout keeping all files in a subdirectory called "data".
+ *
+ * By default all files are kept directly in the data directory. With a
+ * depth of one or more, files are distributed over a tree of
+ * subdirectories of the given fan-out, named by hexadecimal digits of a
+ * hash of the PNFS ID. E.g. with a depth of two and a fan-out of 256,
+ * a file is stored as data/3f/a0/PNFSID.
+ *
+ * Files found at a location not matching the configured layout, e.g.
+ * after the layout was changed, are moved to their proper location when
+ * the store is indexed.
  */
 public class FlatFileStore implements FileStore
 {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FlatFileStore.class);
+
+    /**
+     * Maximum number of levels of subdirectories.
+     */
+    public static final int MAX_DEPTH = 4;
+
+    /**
+     * Number of hexadecimal digits in the hash of a PNFS ID.
+     */
+    private static final int HASH_DIGITS = 8;
+
+    private static final HashFunction HASH = Hashing.murmur3_32();
+
     private final Path _dataDir;
 
+    /** Number of levels of subdirectories. */
+    private final int _depth;
+
+    /** Number of hexadecimal digits in the name of a subdirectory. */
+    private final int _width;
+
     public FlatFileStore(Path baseDir) throws IOException
     {
+        this(baseDir, 0, 256);
+    }
+
+    /**
+     * @param baseDir the pool directory
+     * @param depth levels of subdirectories, 0 for a flat layout
+     * @param fanOut subdirectories per directory; one of 16, 256 or 4096
+     */
+    public FlatFileStore(Path baseDir, int depth, int fanOut) throws IOException
+    {
+        checkArgument(depth >= 0 && depth <= MAX_DEPTH, "Depth must be between 0 and %s.", MAX_DEPTH);
+        checkArgument(fanOut == 16 || fanOut == 256 || fanOut == 4096, "Fan-out must be 16, 256 or 4096.");
+        _depth = depth;
+        _width = Integer.numberOfTrailingZeros(fanOut) / 4;
+        checkArgument(_depth * _width <= HASH_DIGITS, "Depth %s is too large for fan-out %s.", depth, fanOut);
+
         if (!Files.isDirectory(baseDir)) {
             throw new FileNotFoundException("No such directory: " + baseDir);
         }
@@ -44,8 +97,20 @@ public class FlatFileStore implements FileStore
         return _dataDir.toString();
     }
 
-    private Path getPath(PnfsId id) {
-        return _dataDir.resolve(id.toString());
+    /**
+     * Returns the location of the file {@code id}.
+     */
+    Path getPath(PnfsId id) {
+        String name = id.toString();
+        if (_depth == 0) {
+            return _dataDir.resolve(name);
+        }
+        String hash = String.format("%08x", HASH.hashString(name, US_ASCII).asInt());
+        Path dir = _dataDir;
+        for (int i = 0; i < _depth; i++) {
+            dir = dir.resolve(hash.substring(i * _width, (i + 1) * _width));
+        }
+        return dir.resolve(name);
     }
 
     @Override
@@ -69,12 +134,36 @@ public class FlatFileStore implements FileStore
     public URI create(PnfsId id) throws IOException
     {
         Path p = getPath(id);
-        Files.createFile(p);
+        try {
+            Files.createFile(p);
+        } catch (NoSuchFileException e) {
+            if (_depth == 0) {
+                throw e;
+            }
+            Files.createDirectories(p.getParent());
+            Files.createFile(p);
+        }
         return p.toUri();
     }
 
     @Override
     public RepositoryChannel openDataChannel(PnfsId id, Set<? extends OpenOption> mode) throws IOException {
+        if (mode.contains(Repository.OpenFlags.DIRECT_IO)) {
+            Set<OpenOption> options = new HashSet<>(mode);
+            options.remove(Repository.OpenFlags.DIRECT_IO);
+            try {
+                return new DirectIoRepositoryChannel(getPath(id), options);
+            } catch (UnsupportedOperationException e) {
+                LOGGER.warn("Direct I/O is not supported for {}: {}", id, e.getMessage());
+            } catch (IOException e) {
+                if (!Files.exists(getPath(id))) {
+                    throw e;
+                }
+                /* Typically EINVAL from a file system that does not support O_DIRECT. */
+                LOGGER.warn("Failed to open {} for direct I/O, using buffered I/O: {}", id, e.toString());
+            }
+            return new FileRepositoryChannel(getPath(id), options);
+        }
         return new FileRepositoryChannel(getPath(id), mode);
     }
 
@@ -87,13 +176,59 @@ public class FlatFileStore implements FileStore
     @Override
     public Set<PnfsId> index() throws IOException
     {
-        try (Stream<Path> files = Files.list(_dataDir)) {
-            return files
-                    .map(p -> p.getFileName().toString())
-                    .filter(PnfsId::isValid)
-                    .map(PnfsId::new)
-                    .collect(Collectors.toSet());
+        Set<PnfsId> files = new HashSet<>();
+        int moved = index(_dataDir, 0, files);
+        if (moved > 0) {
+            LOGGER.info("Moved {} files of {} to match the directory layout.", moved, _dataDir);
+        }
+        return files;
+    }
+
+    /**
+     * Adds the files in {@code dir} and its subdirectories to {@code files},
+     * moving files not matching the layout to their proper location.
+     * Subdirectories are recognized by their short names, thus files need
+     * not be stat'ed.
+     *
+     * @return the number of files moved
+     */
+    private int index(Path dir, int level, Set<PnfsId> files) throws IOException
+    {
+        int moved = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (name.length() <= 3) {
+                    if (level < MAX_DEPTH && Files.isDirectory(entry)) {
+                        moved += index(entry, level + 1, files);
+                    }
+                } else if (PnfsId.isValid(name)) {
+                    PnfsId id = new PnfsId(name);
+                    if (relocate(entry, getPath(id))) {
+                        moved++;
+                    }
+                    files.add(id);
+                }
+            }
+        }
+        if (level > 0 && moved > 0) {
+            try {
+                Files.deleteIfExists(dir);
+            } catch (IOException e) {
+                /* Not empty, which is fine. */
+            }
+        }
+        return moved;
+    }
+
+    private boolean relocate(Path from, Path to) throws IOException
+    {
+        if (from.equals(to)) {
+            return false;
         }
+        Files.createDirectories(to.getParent());
+        Files.move(from, to);
+        return true;
     }
 
     @Override
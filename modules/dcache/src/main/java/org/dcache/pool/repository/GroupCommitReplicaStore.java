@@ -0,0 +1,41 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2026 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository;
+
+import diskCacheV111.util.CacheException;
+
+/**
+ * A ReplicaStore able to make a sequence of updates durable as a unit.
+ *
+ * Updates applied to records of the store from within {@link #groupCommit}
+ * share a single commit rather than each waiting for the disk on its own.
+ */
+public interface GroupCommitReplicaStore extends ReplicaStore
+{
+    @FunctionalInterface
+    interface Updates
+    {
+        void run() throws CacheException;
+    }
+
+    /**
+     * Runs {@code updates} in the calling thread and returns once all
+     * updates applied by it are durable.
+     */
+    void groupCommit(Updates updates) throws CacheException;
+}
@@ -0,0 +1,144 @@
+package org.dcache.pool.repository;
+
+import com.google.common.base.Stopwatch;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.vehicles.GenericStorageInfo;
+
+import org.dcache.vehicles.FileAttributes;
+
+import static org.dcache.pool.repository.MetaDataCopyTool.createStore;
+
+/**
+ * Command line tool to compare the performance of meta data stores.
+ *
+ * For each store class, the tool creates the given number of replicas in a
+ * scratch directory and measures the time to create their records, to
+ * update their last access time, to reopen the store and list its records,
+ * and to look up all records in random order. Creation and updates are
+ * spread over the given number of threads.
+ */
+public class MetaDataBenchmarkTool
+{
+    private interface Task
+    {
+        void run(ReplicaStore store, PnfsId id) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 4) {
+            System.err.println("Synopsis: MetaDataBenchmarkTool DIR COUNT THREADS CLASS...");
+            System.err.println();
+            System.err.println("Where DIR is a scratch directory, COUNT the number of replicas,");
+            System.err.println("THREADS the number of concurrent writers, and CLASS a meta data");
+            System.err.println("store class name.");
+            System.exit(1);
+        }
+
+        Path dir = FileSystems.getDefault().getPath(args[0]);
+        int count = Integer.parseInt(args[1]);
+        int threads = Integer.parseInt(args[2]);
+
+        Random random = new Random();
+        List<PnfsId> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(new PnfsId(String.format("0000%016X%016X", random.nextLong(), random.nextLong())));
+        }
+
+        System.out.printf("%-60s %12s %12s %12s %12s\n", "Store", "Create", "Update", "Reopen", "Lookup");
+        for (int i = 3; i < args.length; i++) {
+            Class<? extends ReplicaStore> clazz = Class.forName(args[i]).asSubclass(ReplicaStore.class);
+            Path base = dir.resolve("benchmark-" + clazz.getSimpleName());
+            Files.createDirectories(base.resolve("data"));
+            FileStore fileStore = new FlatFileStore(base);
+
+            ReplicaStore store = createStore(clazz, fileStore, base, "benchmark", false);
+            store.init();
+
+            Stopwatch create = Stopwatch.createStarted();
+            run(store, ids, threads, MetaDataBenchmarkTool::create);
+            create.stop();
+
+            Stopwatch update = Stopwatch.createStarted();
+            run(store, ids, threads, (s, id) -> s.get(id).setLastAccessTime(System.currentTimeMillis()));
+            update.stop();
+
+            store.close();
+            Stopwatch reopen = Stopwatch.createStarted();
+            store = createStore(clazz, fileStore, base, "benchmark", false);
+            store.init();
+            int size = store.index(ReplicaStore.IndexOption.META_ONLY).size();
+            reopen.stop();
+            if (size != count) {
+                throw new IllegalStateException("Found " + size + " rather than " + count + " records");
+            }
+
+            Collections.shuffle(ids, random);
+            Stopwatch lookup = Stopwatch.createStarted();
+            for (PnfsId id : ids) {
+                if (store.get(id).getState() != ReplicaState.PRECIOUS) {
+                    throw new IllegalStateException("Lost " + id);
+                }
+            }
+            lookup.stop();
+            store.close();
+
+            System.out.printf("%-60s %12s %12s %12s %12s\n", clazz.getName(),
+                              perRecord(create, count), perRecord(update, count),
+                              reopen.elapsed(TimeUnit.MILLISECONDS) + " ms", perRecord(lookup, count));
+        }
+    }
+
+    private static void create(ReplicaStore store, PnfsId id) throws Exception
+    {
+        FileAttributes attributes = FileAttributes.ofPnfsId(id);
+        attributes.setStorageInfo(new GenericStorageInfo("osm", "benchmark:disk"));
+        store.create(id, EnumSet.of(StandardOpenOption.CREATE)).update("benchmark", r -> {
+            r.setFileAttributes(attributes);
+            r.setSticky("system", StickyRecord.NON_EXPIRING, true);
+            return r.setState(ReplicaState.PRECIOUS);
+        });
+    }
+
+    private static void run(ReplicaStore store, List<PnfsId> ids, int threads, Task task) throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++) {
+                int first = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = first; i < ids.size(); i += threads) {
+                        task.run(store, ids.get(i));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static String perRecord(Stopwatch watch, int count)
+    {
+        return String.format("%.1f us", watch.elapsed(TimeUnit.NANOSECONDS) / 1000.0 / count);
+    }
+}
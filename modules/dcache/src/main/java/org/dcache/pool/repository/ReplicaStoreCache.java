@@ -458,6 +458,26 @@ public class ReplicaStoreCache
         }
     }
 
+    /**
+     * Initializes the cache from the meta data of {@code inner} without
+     * reconciling it with the file store. Only safe if meta data and file
+     * store are known to be consistent, e.g. after a clean shutdown. Nothing
+     * is initialized if the number of records differs from {@code expectedCount}.
+     *
+     * @return true if the cache was initialized, false otherwise
+     */
+    public boolean initFromMetaData(long expectedCount) throws CacheException
+    {
+        Set<PnfsId> ids = _inner.index(IndexOption.META_ONLY);
+        if (ids.size() != expectedCount) {
+            return false;
+        }
+        for (PnfsId id: ids) {
+            _entries.putIfAbsent(id, new Monitor(id));
+        }
+        return true;
+    }
+
     @Override
     public Set<PnfsId> index(IndexOption... options)
     {
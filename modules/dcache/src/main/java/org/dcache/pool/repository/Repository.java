@@ -28,6 +28,11 @@ public interface Repository
          * Do not block on space allocation.
          */
         NONBLOCK_SPACE_ALLOCATION,
+        /**
+         * Access the replica's data bypassing the page cache, if the
+         * file store supports it.
+         */
+        DIRECT_IO,
     }
 
     /**
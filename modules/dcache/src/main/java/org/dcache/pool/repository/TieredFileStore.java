@@ -0,0 +1,931 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2026 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import diskCacheV111.util.PnfsId;
+
+import dmg.cells.nucleus.CellInfoProvider;
+
+import org.dcache.util.CDCScheduledExecutorServiceDecorator;
+import org.dcache.util.FireAndForgetTask;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.dcache.util.ByteUnit.GiB;
+import static org.dcache.util.ByteUnit.MiB;
+
+/**
+ * A file store layout with a small, fast tier in front of a large capacity
+ * tier, e.g. NVMe drives in front of an HDD array.
+ *
+ * Each tier is a {@link FlatFileStore}, and every replica lives in exactly
+ * one of them. New replicas are created on the fast tier unless it is filled
+ * beyond its high watermark or has less than the headroom left. Since the
+ * size of a replica is not known when it is created, writes on the fast
+ * tier keep checking that the headroom remains free; a replica that would
+ * eat into the headroom, or whose write fails for lack of space, is
+ * relocated to the capacity tier and the write continues there. A
+ * background task demotes the least frequently
+ * read replicas to the capacity tier whenever the fast tier is filled beyond
+ * its high watermark, until it is below its low watermark. Replicas on the
+ * capacity tier that are read often enough are promoted back to the fast
+ * tier, provided it is below its low watermark.
+ *
+ * Replicas are moved by copying them to a temporary file on the other tier,
+ * which is then renamed. A move is abandoned if the replica is opened for
+ * writing while being copied. Readers that opened the replica before the
+ * move completed continue to read the old file. Movers are thus unaware of
+ * the tiers.
+ *
+ * Only the capacity tier contributes to the size of the pool, so every
+ * replica on the fast tier can always be demoted.
+ */
+public class TieredFileStore implements FileStore, CellInfoProvider
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(TieredFileStore.class);
+
+    /**
+     * Suffix of the temporary file a replica is copied to while moved
+     * between tiers.
+     */
+    private static final String MOVE_SUFFIX = ".tiering";
+
+    /**
+     * Maximum number of bytes written to the fast tier before its free
+     * space is checked again. Bounds the amount by which concurrent writers
+     * may overcommit the headroom.
+     */
+    private static final long SPACE_CHECK_INTERVAL = MiB.toBytes(64L);
+
+    enum Tier
+    {
+        FAST, CAPACITY
+    }
+
+    /**
+     * Placement and access statistics of a replica.
+     */
+    private static class Placement
+    {
+        @GuardedBy("this")
+        Tier tier;
+
+        @GuardedBy("this")
+        int readers;
+
+        @GuardedBy("this")
+        int writers;
+
+        /** Number of times opened for writing; used to detect writes during a move. */
+        @GuardedBy("this")
+        long writes;
+
+        /** Number of reads, halved every balance period. */
+        @GuardedBy("this")
+        int frequency;
+
+        @GuardedBy("this")
+        long lastAccess;
+
+        @GuardedBy("this")
+        boolean isMoving;
+
+        @GuardedBy("this")
+        boolean isRemoved;
+
+        Placement(Tier tier)
+        {
+            this.tier = tier;
+        }
+    }
+
+    private final FlatFileStore _fast;
+    private final FlatFileStore _capacity;
+    private final Path _fastDir;
+    private final Path _capacityDir;
+
+    private final Map<PnfsId, Placement> _placements = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService _executor =
+            new CDCScheduledExecutorServiceDecorator<>(
+                    Executors.newSingleThreadScheduledExecutor(
+                            new ThreadFactoryBuilder().setNameFormat("tiering").build()));
+
+    private volatile double _highWatermark = 0.9;
+    private volatile double _lowWatermark = 0.75;
+    private volatile int _promotionThreshold = 3;
+    private volatile long _headroom = GiB.toBytes(1L);
+    private volatile long _balancePeriod = 60;
+    private volatile TimeUnit _balancePeriodUnit = TimeUnit.SECONDS;
+
+    private final LongAdder _hits = new LongAdder();
+    private final LongAdder _misses = new LongAdder();
+    private final LongAdder _promotions = new LongAdder();
+    private final LongAdder _promotedBytes = new LongAdder();
+    private final LongAdder _demotions = new LongAdder();
+    private final LongAdder _demotedBytes = new LongAdder();
+    private final LongAdder _abandoned = new LongAdder();
+    private final LongAdder _relocations = new LongAdder();
+
+    /* Bandwidth over the last balance period, updated by the balancer. */
+    private long _lastSample = System.nanoTime();
+    private long _lastPromotedBytes;
+    private long _lastDemotedBytes;
+    private volatile double _promotionBandwidth;
+    private volatile double _demotionBandwidth;
+
+    public TieredFileStore(Path fastDir, Path capacityDir) throws IOException
+    {
+        this(fastDir, capacityDir, 0, 256);
+    }
+
+    /**
+     * @param depth levels of subdirectories of both tiers
+     * @param fanOut subdirectories per directory of both tiers
+     * @see FlatFileStore#FlatFileStore(Path, int, int)
+     */
+    public TieredFileStore(Path fastDir, Path capacityDir, int depth, int fanOut) throws IOException
+    {
+        _fast = new FlatFileStore(fastDir, depth, fanOut);
+        _capacity = new FlatFileStore(capacityDir, depth, fanOut);
+        _fastDir = fastDir.resolve("data");
+        _capacityDir = capacityDir.resolve("data");
+    }
+
+    public void setHighWatermark(double watermark)
+    {
+        checkArgument(watermark > 0 && watermark <= 1, "High watermark must be in (0,1].");
+        _highWatermark = watermark;
+    }
+
+    public void setLowWatermark(double watermark)
+    {
+        checkArgument(watermark >= 0 && watermark <= 1, "Low watermark must be in [0,1].");
+        _lowWatermark = watermark;
+    }
+
+    public void setPromotionThreshold(int threshold)
+    {
+        checkArgument(threshold > 0, "Promotion threshold must be positive.");
+        _promotionThreshold = threshold;
+    }
+
+    /**
+     * Sets the number of bytes that writes leave free on the fast tier.
+     */
+    public void setHeadroom(long bytes)
+    {
+        checkArgument(bytes >= 0, "Headroom must not be negative.");
+        _headroom = bytes;
+    }
+
+    public void setBalancePeriod(long period)
+    {
+        _balancePeriod = period;
+    }
+
+    public void setBalancePeriodUnit(TimeUnit unit)
+    {
+        _balancePeriodUnit = unit;
+    }
+
+    public void start()
+    {
+        checkArgument(_lowWatermark <= _highWatermark, "Low watermark must not exceed high watermark.");
+        _executor.scheduleWithFixedDelay(new FireAndForgetTask(this::balance),
+                                         _balancePeriod, _balancePeriod, _balancePeriodUnit);
+    }
+
+    public void shutdown()
+    {
+        _executor.shutdownNow();
+    }
+
+    /**
+     * Returns a human readable description of the file store.
+     */
+    public String toString()
+    {
+        return _fast + " -> " + _capacity;
+    }
+
+    private FlatFileStore store(Tier tier)
+    {
+        return tier == Tier.FAST ? _fast : _capacity;
+    }
+
+    private Path dir(Tier tier)
+    {
+        return tier == Tier.FAST ? _fastDir : _capacityDir;
+    }
+
+    private Tier tierOf(PnfsId id)
+    {
+        Placement placement = _placements.get(id);
+        if (placement != null) {
+            synchronized (placement) {
+                return placement.tier;
+            }
+        }
+        return _fast.contains(id) ? Tier.FAST : Tier.CAPACITY;
+    }
+
+    /**
+     * Returns the tier holding the replica {@code id}, or null if the replica
+     * is unknown to this store.
+     */
+    Tier getTier(PnfsId id)
+    {
+        Placement placement = _placements.get(id);
+        if (placement == null) {
+            return null;
+        }
+        synchronized (placement) {
+            return placement.tier;
+        }
+    }
+
+    /**
+     * Returns the fraction of the file system of the fast tier in use.
+     */
+    double getFastTierUsage() throws IOException
+    {
+        java.nio.file.FileStore fs = Files.getFileStore(_fastDir);
+        long total = fs.getTotalSpace();
+        return total == 0 ? 1.0 : 1.0 - (double) fs.getUsableSpace() / total;
+    }
+
+    /**
+     * Returns the number of bytes available on the file system of the fast
+     * tier.
+     */
+    long getFastTierFreeSpace() throws IOException
+    {
+        return Files.getFileStore(_fastDir).getUsableSpace();
+    }
+
+    /**
+     * Returns the number of bytes the fast tier is filled beyond the
+     * low watermark.
+     */
+    long getFastTierExcess() throws IOException
+    {
+        java.nio.file.FileStore fs = Files.getFileStore(_fastDir);
+        long total = fs.getTotalSpace();
+        return (long) ((getFastTierUsage() - _lowWatermark) * total);
+    }
+
+    @Override
+    public URI get(PnfsId id)
+    {
+        return store(tierOf(id)).get(id);
+    }
+
+    @Override
+    public boolean contains(PnfsId id)
+    {
+        return _fast.contains(id) || _capacity.contains(id);
+    }
+
+    @Override
+    public BasicFileAttributeView getFileAttributeView(PnfsId id)
+    {
+        return store(tierOf(id)).getFileAttributeView(id);
+    }
+
+    @Override
+    public URI create(PnfsId id) throws IOException
+    {
+        Tier tier = Tier.CAPACITY;
+        try {
+            if (getFastTierUsage() < _highWatermark && getFastTierFreeSpace() >= _headroom) {
+                tier = Tier.FAST;
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to determine usage of fast tier {}: {}", _fastDir, e.toString());
+        }
+        URI uri;
+        if (tier == Tier.FAST) {
+            try {
+                uri = _fast.create(id);
+            } catch (FileAlreadyExistsException e) {
+                throw e;
+            } catch (IOException e) {
+                LOGGER.warn("Failed to create {} on fast tier, using capacity tier: {}", id, e.toString());
+                tier = Tier.CAPACITY;
+                uri = _capacity.create(id);
+            }
+        } else {
+            uri = _capacity.create(id);
+        }
+        Placement placement = new Placement(tier);
+        placement.lastAccess = System.currentTimeMillis();
+        _placements.put(id, placement);
+        return uri;
+    }
+
+    @Override
+    public RepositoryChannel openDataChannel(PnfsId id, Set<? extends OpenOption> mode) throws IOException
+    {
+        Placement placement = _placements.get(id);
+        boolean isNew = false;
+        if (placement == null) {
+            Placement newPlacement = new Placement(tierOf(id));
+            placement = _placements.putIfAbsent(id, newPlacement);
+            if (placement == null) {
+                placement = newPlacement;
+                isNew = true;
+            }
+        }
+
+        boolean isWrite = mode.contains(StandardOpenOption.WRITE);
+        boolean shouldPromote;
+        RepositoryChannel channel;
+        synchronized (placement) {
+            try {
+                channel = store(placement.tier).openDataChannel(id, mode);
+            } catch (IOException | RuntimeException e) {
+                if (isNew && placement.readers == 0 && placement.writers == 0) {
+                    _placements.remove(id, placement);
+                }
+                throw e;
+            }
+            placement.lastAccess = System.currentTimeMillis();
+            if (isWrite) {
+                placement.writers++;
+                placement.writes++;
+                shouldPromote = false;
+            } else {
+                placement.readers++;
+                placement.frequency++;
+                if (placement.tier == Tier.FAST) {
+                    _hits.increment();
+                    shouldPromote = false;
+                } else {
+                    _misses.increment();
+                    shouldPromote = !placement.isMoving && placement.frequency >= _promotionThreshold;
+                }
+            }
+            if (shouldPromote) {
+                placement.isMoving = true;
+            }
+        }
+        if (shouldPromote) {
+            Placement promoted = placement;
+            _executor.execute(new FireAndForgetTask(() -> promote(id, promoted)));
+        }
+        return new TieredChannel(id, placement, mode, channel);
+    }
+
+    @Override
+    public void remove(PnfsId id) throws IOException
+    {
+        Placement placement = _placements.remove(id);
+        if (placement != null) {
+            synchronized (placement) {
+                placement.isRemoved = true;
+                _fast.remove(id);
+                _capacity.remove(id);
+            }
+        } else {
+            _fast.remove(id);
+            _capacity.remove(id);
+        }
+    }
+
+    @Override
+    public Set<PnfsId> index() throws IOException
+    {
+        deleteTemporaryFiles(_fastDir);
+        deleteTemporaryFiles(_capacityDir);
+
+        Set<PnfsId> capacity = _capacity.index();
+        Set<PnfsId> fast = _fast.index();
+
+        _placements.clear();
+        for (PnfsId id : capacity) {
+            _placements.put(id, new Placement(Tier.CAPACITY));
+        }
+        for (PnfsId id : fast) {
+            if (capacity.contains(id)) {
+                /* The pool went down after a move was committed but before
+                 * the source was deleted. Both copies are complete. */
+                LOGGER.info("Replica {} found on both tiers, removing copy on fast tier.", id);
+                _fast.remove(id);
+            } else {
+                _placements.put(id, new Placement(Tier.FAST));
+            }
+        }
+
+        Set<PnfsId> files = new HashSet<>(capacity);
+        files.addAll(fast);
+        return files;
+    }
+
+    private void deleteTemporaryFiles(Path dir) throws IOException
+    {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + MOVE_SUFFIX)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Override
+    public long getFreeSpace() throws IOException
+    {
+        return _capacity.getFreeSpace();
+    }
+
+    @Override
+    public long getTotalSpace() throws IOException
+    {
+        return _capacity.getTotalSpace();
+    }
+
+    @Override
+    public boolean isOk()
+    {
+        return _fast.isOk() && _capacity.isOk();
+    }
+
+    /**
+     * Demotes the least frequently read replicas of the fast tier if it is
+     * filled beyond its high watermark, and ages the access frequencies.
+     */
+    void balance()
+    {
+        try {
+            if (getFastTierUsage() > _highWatermark) {
+                long excess = getFastTierExcess();
+                for (PnfsId id : selectForDemotion(excess)) {
+                    Placement placement = _placements.get(id);
+                    if (placement != null && claim(placement, Tier.FAST)) {
+                        demote(id, placement);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to determine usage of fast tier {}: {}", _fastDir, e.toString());
+        }
+
+        for (Placement placement : _placements.values()) {
+            synchronized (placement) {
+                placement.frequency /= 2;
+            }
+        }
+
+        long now = System.nanoTime();
+        double seconds = (now - _lastSample) / 1e9;
+        long promoted = _promotedBytes.sum();
+        long demoted = _demotedBytes.sum();
+        if (seconds > 0) {
+            _promotionBandwidth = (promoted - _lastPromotedBytes) / seconds;
+            _demotionBandwidth = (demoted - _lastDemotedBytes) / seconds;
+        }
+        _lastSample = now;
+        _lastPromotedBytes = promoted;
+        _lastDemotedBytes = demoted;
+    }
+
+    /**
+     * Returns the least frequently read replicas on the fast tier that
+     * together are at least {@code bytes} large. Replicas being written are
+     * not selected.
+     */
+    List<PnfsId> selectForDemotion(long bytes)
+    {
+        class Candidate
+        {
+            final PnfsId id;
+            final int frequency;
+            final long lastAccess;
+
+            Candidate(PnfsId id, int frequency, long lastAccess)
+            {
+                this.id = id;
+                this.frequency = frequency;
+                this.lastAccess = lastAccess;
+            }
+        }
+
+        List<Candidate> candidates = new ArrayList<>();
+        _placements.forEach((id, placement) -> {
+            synchronized (placement) {
+                if (placement.tier == Tier.FAST && placement.writers == 0 && !placement.isMoving) {
+                    candidates.add(new Candidate(id, placement.frequency, placement.lastAccess));
+                }
+            }
+        });
+        candidates.sort(Comparator.<Candidate>comparingInt(c -> c.frequency).thenComparingLong(c -> c.lastAccess));
+
+        List<PnfsId> selected = new ArrayList<>();
+        long total = 0;
+        for (Candidate candidate : candidates) {
+            if (total >= bytes) {
+                break;
+            }
+            try {
+                total += Files.size(_fast.getPath(candidate.id));
+                selected.add(candidate.id);
+            } catch (IOException e) {
+                LOGGER.debug("Failed to determine size of {}: {}", candidate.id, e.toString());
+            }
+        }
+        return selected;
+    }
+
+    private boolean claim(Placement placement, Tier tier)
+    {
+        synchronized (placement) {
+            if (placement.tier != tier || placement.isMoving || placement.isRemoved || placement.writers > 0) {
+                return false;
+            }
+            placement.isMoving = true;
+            return true;
+        }
+    }
+
+    private void promote(PnfsId id, Placement placement)
+    {
+        try {
+            if (getFastTierUsage() >= _lowWatermark) {
+                synchronized (placement) {
+                    placement.isMoving = false;
+                }
+                return;
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to determine usage of fast tier {}: {}", _fastDir, e.toString());
+            synchronized (placement) {
+                placement.isMoving = false;
+            }
+            return;
+        }
+        long size = move(id, placement, Tier.CAPACITY, Tier.FAST);
+        if (size >= 0) {
+            _promotions.increment();
+            _promotedBytes.add(size);
+        }
+    }
+
+    void demote(PnfsId id)
+    {
+        Placement placement = _placements.get(id);
+        if (placement != null && claim(placement, Tier.FAST)) {
+            demote(id, placement);
+        }
+    }
+
+    void promote(PnfsId id)
+    {
+        Placement placement = _placements.get(id);
+        if (placement != null && claim(placement, Tier.CAPACITY)) {
+            long size = move(id, placement, Tier.CAPACITY, Tier.FAST);
+            if (size >= 0) {
+                _promotions.increment();
+                _promotedBytes.add(size);
+            }
+        }
+    }
+
+    private void demote(PnfsId id, Placement placement)
+    {
+        long size = move(id, placement, Tier.FAST, Tier.CAPACITY);
+        if (size >= 0) {
+            _demotions.increment();
+            _demotedBytes.add(size);
+        }
+    }
+
+    /**
+     * Moves a replica claimed by the caller between tiers.
+     *
+     * @return the size of the replica, or -1 if the move was abandoned
+     */
+    private long move(PnfsId id, Placement placement, Tier from, Tier to)
+    {
+        Path source = store(from).getPath(id);
+        Path target = store(to).getPath(id);
+        Path temporary = dir(to).resolve(id + MOVE_SUFFIX);
+        try {
+            long writes;
+            synchronized (placement) {
+                writes = placement.writes;
+            }
+
+            Files.copy(source, temporary, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+
+            synchronized (placement) {
+                if (placement.isRemoved || placement.writers > 0 || placement.writes != writes) {
+                    _abandoned.increment();
+                    Files.deleteIfExists(temporary);
+                    return -1;
+                }
+                Files.createDirectories(target.getParent());
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+                placement.tier = to;
+                Files.delete(source);
+            }
+            return Files.size(target);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to move {} from {} to {} tier: {}", id, from, to, e.toString());
+            _abandoned.increment();
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            return -1;
+        } finally {
+            synchronized (placement) {
+                placement.isMoving = false;
+            }
+        }
+    }
+
+    /**
+     * Channel to a replica that relocates the replica to the capacity tier
+     * if writing it would leave less than the headroom free on the fast
+     * tier.
+     */
+    private class TieredChannel extends ForwardingRepositoryChannel
+    {
+        private final PnfsId _id;
+        private final Placement _placement;
+        private final Set<? extends OpenOption> _mode;
+        private final boolean _isWrite;
+
+        /* Only replaced by relocate, which requires this to be the only writer. */
+        private volatile RepositoryChannel _channel;
+
+        /** Bytes that may be written before checking free space again. */
+        private long _budget;
+
+        @GuardedBy("_placement")
+        private boolean _isClosed;
+
+        TieredChannel(PnfsId id, Placement placement, Set<? extends OpenOption> mode, RepositoryChannel channel)
+        {
+            _id = id;
+            _placement = placement;
+            _mode = mode;
+            _isWrite = mode.contains(StandardOpenOption.WRITE);
+            _channel = channel;
+        }
+
+        @Override
+        protected RepositoryChannel delegate()
+        {
+            return _channel;
+        }
+
+        private boolean isOnFastTier()
+        {
+            synchronized (_placement) {
+                return _placement.tier == Tier.FAST;
+            }
+        }
+
+        /**
+         * Relocates the replica to the capacity tier before {@code count}
+         * bytes are written, if writing them would eat into the headroom of
+         * the fast tier.
+         */
+        private void reserve(long count) throws IOException
+        {
+            if (_budget >= count || !isOnFastTier()) {
+                _budget -= count;
+                return;
+            }
+            long available = getFastTierFreeSpace() - _headroom;
+            if (available < count) {
+                relocate();
+            } else {
+                _budget = Math.min(available, SPACE_CHECK_INTERVAL) - count;
+            }
+        }
+
+        /**
+         * Writes to the replica, retrying on the capacity tier if the write
+         * failed on the fast tier, e.g. because it ran out of space. The
+         * write is only retried if it did not consume any of its source,
+         * as reported by {@code remaining}. Channels that stage data, such
+         * as {@link DirectIoRepositoryChannel}, may consume part of the
+         * source before failing.
+         */
+        private <T> T write(long count, LongSupplier remaining, Write<T> write) throws IOException
+        {
+            reserve(count);
+            try {
+                return write.apply(_channel);
+            } catch (IOException e) {
+                if (!isOnFastTier() || !_channel.isOpen() || remaining.getAsLong() != count) {
+                    throw e;
+                }
+                LOGGER.warn("Failed to write {} to fast tier: {}", _id, e.toString());
+                if (!relocate()) {
+                    throw e;
+                }
+                return write.apply(_channel);
+            }
+        }
+
+        /**
+         * Copies the replica to the capacity tier and continues writing
+         * there.
+         *
+         * @return false if the replica cannot be relocated because it has
+         *         other writers or was removed
+         */
+        private boolean relocate() throws IOException
+        {
+            synchronized (_placement) {
+                if (_placement.tier != Tier.FAST || _placement.writers > 1 || _placement.isRemoved) {
+                    return _placement.tier == Tier.CAPACITY;
+                }
+                Path source = _fast.getPath(_id);
+                Path target = _capacity.getPath(_id);
+                Path temporary = _capacityDir.resolve(_id + ".relocate" + MOVE_SUFFIX);
+                RepositoryChannel channel;
+                try {
+                    /* The channel may stage accepted data that has not reached the file yet. */
+                    _channel.sync();
+                    Files.copy(source, temporary, StandardCopyOption.REPLACE_EXISTING,
+                               StandardCopyOption.COPY_ATTRIBUTES);
+                    Files.createDirectories(target.getParent());
+                    Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+                    channel = _capacity.openDataChannel(_id, _mode);
+                    channel.position(_channel.position());
+                } catch (IOException e) {
+                    Files.deleteIfExists(temporary);
+                    throw e;
+                }
+                RepositoryChannel old = _channel;
+                _channel = channel;
+                _placement.tier = Tier.CAPACITY;
+                try {
+                    old.close();
+                } catch (IOException e) {
+                    LOGGER.debug("Failed to close {} on fast tier: {}", _id, e.toString());
+                }
+                Files.delete(source);
+            }
+            _relocations.increment();
+            LOGGER.info("Relocated {} to capacity tier to keep headroom on fast tier.", _id);
+            return true;
+        }
+
+        @Override
+        public int write(ByteBuffer buffer, long position) throws IOException
+        {
+            return write(buffer.remaining(), buffer::remaining, c -> c.write(buffer, position));
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException
+        {
+            return write(src.remaining(), src::remaining, c -> c.write(src));
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException
+        {
+            return write(remaining(srcs, offset, length), () -> remaining(srcs, offset, length),
+                         c -> c.write(srcs, offset, length));
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) throws IOException
+        {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException
+        {
+            /* The source is consumed, so a failed transfer cannot be retried. */
+            reserve(count);
+            return _channel.transferFrom(src, position, count);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try {
+                super.close();
+            } finally {
+                synchronized (_placement) {
+                    if (!_isClosed) {
+                        _isClosed = true;
+                        if (_isWrite) {
+                            _placement.writers--;
+                        } else {
+                            _placement.readers--;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static long remaining(ByteBuffer[] srcs, int offset, int length)
+    {
+        long count = 0;
+        for (int i = offset; i < offset + length; i++) {
+            count += srcs[i].remaining();
+        }
+        return count;
+    }
+
+    @FunctionalInterface
+    private interface Write<T>
+    {
+        T apply(RepositoryChannel channel) throws IOException;
+    }
+
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        long fast = 0;
+        for (Placement placement : _placements.values()) {
+            synchronized (placement) {
+                if (placement.tier == Tier.FAST) {
+                    fast++;
+                }
+            }
+        }
+        long hits = _hits.sum();
+        long reads = hits + _misses.sum();
+
+        pw.println("Fast tier             : " + _fastDir);
+        pw.println("Capacity tier         : " + _capacityDir);
+        pw.println("Replicas on fast tier : " + fast + " of " + _placements.size());
+        try {
+            pw.printf("Fast tier usage       : %.1f%% (watermarks %.0f%%/%.0f%%)\n",
+                      getFastTierUsage() * 100, _lowWatermark * 100, _highWatermark * 100);
+        } catch (IOException e) {
+            pw.println("Fast tier usage       : " + e.getMessage());
+        }
+        pw.println("Headroom              : " + _headroom + " bytes");
+        pw.println("Promotion threshold   : " + _promotionThreshold + " reads");
+        pw.printf("Fast tier hit rate    : %s\n",
+                  reads == 0 ? "-" : String.format("%.1f%% (%d of %d reads)", 100.0 * hits / reads, hits, reads));
+        pw.printf("Promotions            : %d (%d bytes, %.0f bytes/s)\n",
+                  _promotions.sum(), _promotedBytes.sum(), _promotionBandwidth);
+        pw.printf("Demotions             : %d (%d bytes, %.0f bytes/s)\n",
+                  _demotions.sum(), _demotedBytes.sum(), _demotionBandwidth);
+        pw.println("Abandoned moves       : " + _abandoned.sum());
+        pw.println("Relocated writes      : " + _relocations.sum());
+    }
+}
@@ -0,0 +1,269 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2026 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository;
+
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.OpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.DiskErrorCacheException;
+import diskCacheV111.util.PnfsId;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A ReplicaStore that defers writing access time updates to its delegate.
+ *
+ * Access time updates are not needed for consistency of the pool, yet with
+ * a synchronous meta data store every read pays for a disk write. This store
+ * keeps the latest access time of each replica in memory and writes it to the
+ * delegate at most once per write-behind window. Updates to the same replica
+ * within a window are coalesced. If the delegate implements
+ * {@link GroupCommitReplicaStore}, the updates of a window share a commit
+ * rather than each waiting for the disk.
+ *
+ * The in-memory access time is returned by the records of this store, thus
+ * the sweeper orders replicas by their actual last access. After a crash, up
+ * to one window of access time updates is lost. All other updates pass
+ * through synchronously.
+ */
+public class WriteBehindReplicaStore extends ForwardingReplicaStore
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindReplicaStore.class);
+
+    /** Maximum number of updates committed together. */
+    private static final int MAX_GROUP_SIZE = 1000;
+
+    /** Number of pending updates triggering a flush before the window ends. */
+    private static final int MAX_PENDING = 100_000;
+
+    private final ReplicaStore inner;
+    private final ScheduledExecutorService executor;
+
+    private final ConcurrentMap<PnfsId, Pending> pending = new ConcurrentHashMap<>();
+
+    /** Replicas of which an update is currently being written. */
+    private final Set<PnfsId> inFlight = new HashSet<>();
+
+    private final AtomicBoolean isFlushQueued = new AtomicBoolean();
+
+    private volatile boolean hasFailed;
+
+    public WriteBehindReplicaStore(ReplicaStore inner, Duration window)
+    {
+        checkArgument(!window.isNegative(), "Negative write-behind window not allowed: %s", window);
+        this.inner = requireNonNull(inner);
+        if (window.isZero()) {
+            executor = null;
+        } else {
+            executor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("meta-write-behind").build());
+            executor.scheduleWithFixedDelay(this::flush, window.toMillis(), window.toMillis(),
+                                            TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    protected ReplicaStore delegate()
+    {
+        return inner;
+    }
+
+    @Override
+    public ReplicaRecord get(PnfsId id) throws CacheException
+    {
+        ReplicaRecord record = super.get(id);
+        return (record == null || executor == null) ? record : new WriteBehindReplicaRecord(record);
+    }
+
+    @Override
+    public ReplicaRecord create(PnfsId id, Set<? extends OpenOption> flags)
+            throws DuplicateEntryException, CacheException
+    {
+        ReplicaRecord record = super.create(id, flags);
+        return executor == null ? record : new WriteBehindReplicaRecord(record);
+    }
+
+    @Override
+    public void remove(PnfsId id) throws CacheException
+    {
+        pending.remove(id);
+        awaitInFlight(id);
+        super.remove(id);
+    }
+
+    @Override
+    public boolean isOk()
+    {
+        return !hasFailed && super.isOk();
+    }
+
+    @Override
+    public void close()
+    {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flush();
+        }
+        super.close();
+    }
+
+    /**
+     * Returns the number of access time updates not yet written to the
+     * delegate.
+     */
+    public int getPendingCount()
+    {
+        return pending.size();
+    }
+
+    private void awaitInFlight(PnfsId id) throws CacheException
+    {
+        synchronized (inFlight) {
+            try {
+                while (inFlight.contains(id)) {
+                    inFlight.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CacheException("Interrupted while removing " + id);
+            }
+        }
+    }
+
+    /**
+     * Writes all pending access time updates to the delegate.
+     */
+    synchronized void flush()
+    {
+        isFlushQueued.set(false);
+        for (List<PnfsId> group : Iterables.partition(new ArrayList<>(pending.keySet()), MAX_GROUP_SIZE)) {
+            synchronized (inFlight) {
+                inFlight.addAll(group);
+            }
+            try {
+                if (inner instanceof GroupCommitReplicaStore) {
+                    ((GroupCommitReplicaStore) inner).groupCommit(() -> write(group));
+                } else {
+                    write(group);
+                }
+            } catch (DiskErrorCacheException e) {
+                LOGGER.error("Failed to write access times: {}", e.getMessage());
+                hasFailed = true;
+            } catch (CacheException | RuntimeException e) {
+                LOGGER.warn("Failed to write access times: {}", e.toString());
+            } finally {
+                synchronized (inFlight) {
+                    inFlight.removeAll(group);
+                    inFlight.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void write(List<PnfsId> group) throws CacheException
+    {
+        for (PnfsId id : group) {
+            Pending update = pending.get(id);
+            if (update != null) {
+                update.record.setLastAccessTime(update.time);
+                pending.remove(id, update);
+            }
+        }
+    }
+
+    private void queue(ReplicaRecord record, long time)
+    {
+        pending.merge(record.getPnfsId(), new Pending(record, time),
+                      (a, b) -> b.time >= a.time ? b : a);
+        if (pending.size() >= MAX_PENDING && isFlushQueued.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                isFlushQueued.set(false);
+            }
+        }
+    }
+
+    /**
+     * The latest access time of a replica not yet written to the delegate.
+     */
+    private static class Pending
+    {
+        final ReplicaRecord record;
+        final long time;
+
+        Pending(ReplicaRecord record, long time)
+        {
+            this.record = record;
+            this.time = time;
+        }
+    }
+
+    private class WriteBehindReplicaRecord extends ForwardingReplicaRecord
+    {
+        private final ReplicaRecord inner;
+
+        WriteBehindReplicaRecord(ReplicaRecord inner)
+        {
+            this.inner = inner;
+        }
+
+        @Override
+        protected ReplicaRecord delegate()
+        {
+            return inner;
+        }
+
+        @Override
+        public long getLastAccessTime()
+        {
+            Pending update = pending.get(inner.getPnfsId());
+            long time = inner.getLastAccessTime();
+            return update == null ? time : Math.max(time, update.time);
+        }
+
+        @Override
+        public void setLastAccessTime(long time)
+        {
+            queue(inner, time);
+        }
+    }
+}
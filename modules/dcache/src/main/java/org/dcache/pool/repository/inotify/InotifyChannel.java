@@ -17,14 +17,10 @@
  */
 package org.dcache.pool.repository.inotify;
 
-import javax.annotation.concurrent.GuardedBy;
-
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
-import java.time.Duration;
-import java.time.Instant;
 
 import diskCacheV111.util.PnfsId;
 
@@ -39,43 +35,32 @@ import org.dcache.pool.repository.RepositoryChannel;
  * each read(2) (or similar) call or write(2) (or similar) call, respectively.
  * <p>
  * dCache could do likewise; however, on a busy system, this is (almost
- * certainly) too many events.  Therefore this class has the facility to
- * suppress subsequent events for the same operation (read or write).  For
- * example, if a client is only reading then the first IN_ACCESS event is sent,
- * but the subsequent events are suppressed.
+ * certainly) too many events.  Therefore repeated events of the same type
+ * for the same file are suppressed.  For example, if a client is only
+ * reading then the first IN_ACCESS event is sent, but the subsequent events
+ * are suppressed.
  * <p>
- * The suppression is time-limited: if the client is continously only reading or
- * only writing then, after a configurable duration, an IN_ACCESS or IN_MODIFY
+ * The suppression is time-limited: if the file is continously read or
+ * written then, after a configurable duration, an IN_ACCESS or IN_MODIFY
  * event (respectively) is generated.  Subsequent events are again suppressed
  * for the configured duration.  This allows the inotify client to distinguish
  * between a file with active IO from one that is opened but idle.
  * <p>
- * If the IO client changes from reading to writing (or vice verse) then the
- * next event is sent, irrespective of whether events are currently being
- * suppressed.  The expectation is that, in general, IO clients either read
- * data exclusively or write data exclusively; in fact, (at the time of writing)
- * only the NFS protocol supports clients doing both, and only when creating
- * the file.  Additionally, it is expected that even clients that both read
- * and write files will have relatively long phases within which they
- * exclusively either read or write data.  Should this assumption be wrong then
- * the pool will generate large number of events, which may be problematic and
- * require revisiting these assumptions.
+ * Suppression is tracked per file rather than per channel (see
+ * {@link IoActivity}), so a hot file that is read by many movers
+ * concurrently still generates only one IN_ACCESS event per suppression
+ * period.  IN_ACCESS and IN_MODIFY are suppressed independently, so a
+ * client switching from reading to writing (or vice versa) generates an
+ * event unless the other type was already sent within the period.
  */
 public class InotifyChannel  extends ForwardingRepositoryChannel
 {
-    private enum Operation {
-        READ, WRITE
-    };
-
     private final RepositoryChannel inner;
     private final PnfsId target;
     private final boolean isOpenForRead;
     private final NotificationAmplifier notification;
-
-    private Operation lastOperation;
-    private Instant whenSendNextEvent;
-    private Duration suppressDuration = Duration.ZERO;
-
+    private final IoActivity activity;
+    private boolean isClosed;
 
     public InotifyChannel(RepositoryChannel inner, NotificationAmplifier notification,
             PnfsId target, boolean openForWrite)
@@ -84,16 +69,7 @@ public class InotifyChannel  extends ForwardingRepositoryChannel
         this.target = target;
         isOpenForRead = !openForWrite;
         this.notification = notification;
-    }
-
-    public synchronized void setSuppressDuration(Duration duration)
-    {
-        Instant newWhenSendNextEvent = whenSendNextEvent == null
-                ? null
-                : whenSendNextEvent.minus(suppressDuration).plus(duration);
-
-        suppressDuration = duration;
-        whenSendNextEvent = newWhenSendNextEvent;
+        activity = notification.openIoActivity(target);
     }
 
     @Override
@@ -110,7 +86,18 @@ public class InotifyChannel  extends ForwardingRepositoryChannel
     @Override
     public void close() throws IOException
     {
-        super.close();
+        synchronized (this) {
+            if (isClosed) {
+                super.close();
+                return;
+            }
+            isClosed = true;
+        }
+        try {
+            super.close();
+        } finally {
+            notification.closeIoActivity(activity);
+        }
 
         // Suppress sending IN_CLOSE_WRITE event until after updating namespace.
         // For non-write open, send the close event straight away as the pool
@@ -124,7 +111,7 @@ public class InotifyChannel  extends ForwardingRepositoryChannel
     public int read(ByteBuffer dst) throws IOException
     {
         int count = super.read(dst);
-        sendEventIfNoteworthy(Operation.READ);
+        activity.read();
         return count;
     }
 
@@ -132,7 +119,7 @@ public class InotifyChannel  extends ForwardingRepositoryChannel
     public int read(ByteBuffer buffer, long position) throws IOException
     {
         int count = super.read(buffer, position);
-        sendEventIfNoteworthy(Operation.READ);
+        activity.read();
         return count;
     }
 
@@ -140,7 +127,7 @@ public class InotifyChannel  extends ForwardingRepositoryChannel
     public int write(ByteBuffer src) throws IOException
     {
         int count = super.write(src);
-        sendEventIfNoteworthy(Operation.WRITE);
+        activity.write();
         return count;
     }
 
@@ -149,7 +136,7 @@ public class InotifyChannel  extends ForwardingRepositoryChannel
     public int write(ByteBuffer buffer, long position) throws IOException
     {
         int count = super.write(buffer, position);
-        sendEventIfNoteworthy(Operation.WRITE);
+        activity.write();
         return count;
     }
 
@@ -158,7 +145,7 @@ public class InotifyChannel  extends ForwardingRepositoryChannel
             throws IOException
     {
         long result = super.transferTo(position, count, target);
-        sendEventIfNoteworthy(Operation.READ);
+        activity.read();
         return result;
     }
 
@@ -167,23 +154,7 @@ public class InotifyChannel  extends ForwardingRepositoryChannel
             throws IOException
     {
         long result = super.transferFrom(src, position, count);
-        sendEventIfNoteworthy(Operation.WRITE);
+        activity.write();
         return result;
     }
-
-    private synchronized void sendEventIfNoteworthy(Operation operation)
-    {
-        if (lastOperation != operation
-                || whenSendNextEvent == null
-                || !Instant.now().isBefore(whenSendNextEvent)) {
-            EventType event = operation == Operation.READ
-                    ? EventType.IN_ACCESS
-                    : EventType.IN_MODIFY;
-
-            notification.sendEvent(target, event);
-
-            whenSendNextEvent = Instant.now().plus(suppressDuration);
-            lastOperation = operation;
-        }
-    }
 }
@@ -21,7 +21,6 @@ package org.dcache.pool.repository.inotify;
 import java.io.IOException;
 import java.nio.file.OpenOption;
 import java.nio.file.StandardOpenOption;
-import java.time.Duration;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -43,8 +42,6 @@ public class InotifyReplicaRecord extends ForwardingReplicaRecord
     private final ReplicaRecord inner;
     private final NotificationAmplifier notification;
 
-    private Duration suppressDuration = Duration.ZERO;
-
     public enum OpenFlags implements OpenOption
     {
         /**
@@ -64,15 +61,6 @@ public class InotifyReplicaRecord extends ForwardingReplicaRecord
         this.notification = notification;
     }
 
-    /**
-     * Update the suppression period for all subsequently opened
-     * RepositoryChannel. Any already opened channels are not affected.
-     */
-    public void setSuppressDuration(Duration duration)
-    {
-        suppressDuration = duration;
-    }
-
     @Override
     protected ReplicaRecord delegate()
     {
@@ -97,7 +85,6 @@ public class InotifyReplicaRecord extends ForwardingReplicaRecord
 
         InotifyChannel channel = new InotifyChannel(innerChannel, notification,
                 getPnfsId(), openForWrite);
-        channel.setSuppressDuration(suppressDuration);
         channel.sendOpenEvent();
         return channel;
     }
@@ -18,7 +18,6 @@
 package org.dcache.pool.repository.inotify;
 
 import java.nio.file.OpenOption;
-import java.time.Duration;
 import java.util.Set;
 
 import diskCacheV111.util.CacheException;
@@ -29,7 +28,6 @@ import org.dcache.pool.repository.ForwardingReplicaStore;
 import org.dcache.pool.repository.ReplicaRecord;
 import org.dcache.pool.repository.ReplicaStore;
 
-import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 
 /**
@@ -40,16 +38,11 @@ public class InotifyReplicaStore extends ForwardingReplicaStore
 {
     private final ReplicaStore inner;
     private final NotificationAmplifier notification;
-    private final Duration suppression;
 
-    public InotifyReplicaStore(ReplicaStore inner, NotificationAmplifier notication,
-            Duration duration)
+    public InotifyReplicaStore(ReplicaStore inner, NotificationAmplifier notication)
     {
-        checkArgument(!duration.isNegative(), "Negative suppression duration"
-                + " not allowed: %s", duration);
         this.inner = requireNonNull(inner);
         this.notification = requireNonNull(notication);
-        suppression = duration;
     }
 
     @Override
@@ -63,9 +56,7 @@ public class InotifyReplicaStore extends ForwardingReplicaStore
             throws DuplicateEntryException, CacheException
     {
         ReplicaRecord innerRecord = super.create(id, flags);
-        InotifyReplicaRecord record = new InotifyReplicaRecord(innerRecord, notification, id);
-        record.setSuppressDuration(suppression);
-        return record;
+        return new InotifyReplicaRecord(innerRecord, notification, id);
     }
 
     @Override
@@ -76,8 +67,6 @@ public class InotifyReplicaStore extends ForwardingReplicaStore
             return null;
         }
 
-        InotifyReplicaRecord record = new InotifyReplicaRecord(innerRecord, notification, id);
-        record.setSuppressDuration(suppression);
-        return record;
+        return new InotifyReplicaRecord(innerRecord, notification, id);
     }
 }
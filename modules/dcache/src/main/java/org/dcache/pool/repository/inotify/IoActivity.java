@@ -0,0 +1,112 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2026 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository.inotify;
+
+import diskCacheV111.util.PnfsId;
+
+import org.dcache.namespace.events.EventType;
+
+/**
+ * The IO activity of a single file, shared by all channels that currently
+ * have this file open.
+ * <p>
+ * IN_ACCESS and IN_MODIFY events are coalesced per file: within the
+ * suppression window, at most one event of each type is emitted, no
+ * matter how many channels are reading from or writing to the file.  The
+ * check runs on every read and write of a mover, so the common case of a
+ * suppressed event takes neither a lock nor a clock reading beyond a single
+ * {@link System#nanoTime}.
+ * <p>
+ * Instances are reference counted by {@link NotificationAmplifier}.
+ */
+class IoActivity
+{
+    private final NotificationAmplifier notification;
+    private final PnfsId target;
+
+    /** Number of open channels; guarded by the amplifier's activity map. */
+    int references;
+
+    private volatile long whenSendNextAccess;
+    private volatile long whenSendNextModify;
+
+    IoActivity(NotificationAmplifier notification, PnfsId target)
+    {
+        this.notification = notification;
+        this.target = target;
+        long now = System.nanoTime();
+        whenSendNextAccess = now;
+        whenSendNextModify = now;
+    }
+
+    PnfsId getTarget()
+    {
+        return target;
+    }
+
+    void read()
+    {
+        long now = System.nanoTime();
+        if (now - whenSendNextAccess < 0) {
+            notification.ioEventCoalesced();
+        } else if (claimAccess(now)) {
+            notification.sendIoEvent(target, EventType.IN_ACCESS);
+        }
+    }
+
+    void write()
+    {
+        long now = System.nanoTime();
+        if (now - whenSendNextModify < 0) {
+            notification.ioEventCoalesced();
+        } else if (claimModify(now)) {
+            notification.sendIoEvent(target, EventType.IN_MODIFY);
+        }
+    }
+
+    /**
+     * Returns whether to send an IN_ACCESS event.  The suppression window
+     * only starts once an event is sent; an event dropped by the rate
+     * limit leaves the next IO free to try again.
+     */
+    private synchronized boolean claimAccess(long now)
+    {
+        if (now - whenSendNextAccess < 0) {
+            notification.ioEventCoalesced();
+            return false;
+        }
+        if (!notification.tryAcquireIoPermit(target, EventType.IN_ACCESS)) {
+            return false;
+        }
+        whenSendNextAccess = now + notification.getIoSuppressionNanos();
+        return true;
+    }
+
+    private synchronized boolean claimModify(long now)
+    {
+        if (now - whenSendNextModify < 0) {
+            notification.ioEventCoalesced();
+            return false;
+        }
+        if (!notification.tryAcquireIoPermit(target, EventType.IN_MODIFY)) {
+            return false;
+        }
+        whenSendNextModify = now + notification.getIoSuppressionNanos();
+        return true;
+    }
+}
@@ -19,21 +19,28 @@ package org.dcache.pool.repository.inotify;
 
 import com.google.common.collect.Multimap;
 import com.google.common.collect.MultimapBuilder;
+import com.google.common.util.concurrent.RateLimiter;
 import org.apache.curator.shaded.com.google.common.base.Splitter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.util.UriUtils;
 
+import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
 
 import diskCacheV111.namespace.EventReceiver;
 import diskCacheV111.util.PnfsId;
 import diskCacheV111.vehicles.PoolIoFileMessage;
 
+import dmg.cells.nucleus.CellInfoProvider;
 import dmg.cells.nucleus.CellMessageReceiver;
 
 import org.dcache.namespace.events.EventType;
@@ -44,12 +51,20 @@ import org.dcache.pool.repository.ReplicaState;
 import org.dcache.pool.repository.StateChangeEvent;
 import org.dcache.vehicles.FileAttributes;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 /**
  * This class is responsible for accepting inotify events that target some
  * specific file and emits events that target that file and the corresponding
  * event for the parent directory.
+ * <p>
+ * IO events (IN_ACCESS and IN_MODIFY) are coalesced per file across all
+ * channels that have the file open, see {@link IoActivity}, and the IO
+ * events that survive coalescing may additionally be rate limited.  The
+ * number of coalesced and dropped events is reported in the cell's info.
  */
-public class NotificationAmplifier extends AbstractStateChangeListener implements CellMessageReceiver
+public class NotificationAmplifier extends AbstractStateChangeListener
+        implements CellMessageReceiver, CellInfoProvider
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(NotificationAmplifier.class);
 
@@ -74,11 +89,97 @@ public class NotificationAmplifier extends AbstractStateChangeListener implement
             MultimapBuilder.hashKeys().arrayListValues(EXPECTED_LINKS_PER_FILE).build();
     private final EventReceiver receiver;
 
+    private final Map<PnfsId,IoActivity> activities = new HashMap<>();
+
+    private final LongAdder ioEventsCoalesced = new LongAdder();
+    private final LongAdder ioEventsRateLimited = new LongAdder();
+    private final LongAdder ioEventsSent = new LongAdder();
+
+    private volatile long ioSuppressionNanos;
+    private volatile RateLimiter ioRateLimiter;
+
     public NotificationAmplifier(EventReceiver receiver)
     {
         this.receiver = receiver;
     }
 
+    /**
+     * The window within which repeated IO events of the same type for the
+     * same file are coalesced into a single event.
+     */
+    public void setIoSuppression(Duration duration)
+    {
+        checkArgument(!duration.isNegative(), "Negative suppression duration"
+                + " not allowed: %s", duration);
+        ioSuppressionNanos = duration.toNanos();
+    }
+
+    /**
+     * The maximum number of IO events per second sent by this pool.  IO
+     * events beyond this rate are dropped.  A value of zero disables the
+     * limit.
+     */
+    public void setIoRateLimit(double eventsPerSecond)
+    {
+        checkArgument(eventsPerSecond >= 0, "Negative rate limit not allowed: %s",
+                eventsPerSecond);
+        ioRateLimiter = eventsPerSecond == 0 ? null : RateLimiter.create(eventsPerSecond);
+    }
+
+    long getIoSuppressionNanos()
+    {
+        return ioSuppressionNanos;
+    }
+
+    /**
+     * Returns the IO activity of a file, shared by all channels that have
+     * the file open.  Each call must be matched by a call to
+     * {@link #closeIoActivity}.
+     */
+    IoActivity openIoActivity(PnfsId id)
+    {
+        synchronized (activities) {
+            IoActivity activity = activities.computeIfAbsent(id, i -> new IoActivity(this, i));
+            activity.references++;
+            return activity;
+        }
+    }
+
+    void closeIoActivity(IoActivity activity)
+    {
+        synchronized (activities) {
+            if (--activity.references == 0) {
+                activities.remove(activity.getTarget());
+            }
+        }
+    }
+
+    void ioEventCoalesced()
+    {
+        ioEventsCoalesced.increment();
+    }
+
+    /**
+     * Returns whether an IO event may be sent without exceeding the rate
+     * limit.  A dropped event is accounted for.
+     */
+    boolean tryAcquireIoPermit(PnfsId id, EventType event)
+    {
+        RateLimiter limiter = ioRateLimiter;
+        if (limiter != null && !limiter.tryAcquire()) {
+            LOGGER.debug("Dropping {} event for {} due to rate limit", event, id);
+            ioEventsRateLimited.increment();
+            return false;
+        }
+        return true;
+    }
+
+    void sendIoEvent(PnfsId id, EventType event)
+    {
+        ioEventsSent.increment();
+        sendEvent(id, event);
+    }
+
     public void messageArrived(PoolIoFileMessage message)
     {
         LOGGER.debug("messageArrived: {}", message);
@@ -138,4 +239,31 @@ public class NotificationAmplifier extends AbstractStateChangeListener implement
             }
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        long sent = ioEventsSent.sum();
+        long coalesced = ioEventsCoalesced.sum();
+        long rateLimited = ioEventsRateLimited.sum();
+        long total = sent + coalesced + rateLimited;
+        RateLimiter limiter = ioRateLimiter;
+        int active;
+        synchronized (activities) {
+            active = activities.size();
+        }
+        pw.println("Inotify IO events:");
+        pw.println("    Suppression window : " + Duration.ofNanos(ioSuppressionNanos));
+        pw.println("    Rate limit         : "
+                + (limiter == null ? "none" : limiter.getRate() + "/s"));
+        pw.println("    Active files       : " + active);
+        pw.println("    IO operations      : " + total);
+        pw.println("    Coalesced          : " + coalesced);
+        pw.println("    Rate limited       : " + rateLimited);
+        pw.println("    Sent               : " + sent);
+        if (total > 0) {
+            pw.println(String.format("    Reduction          : %.1f%%",
+                    100.0 * (total - sent) / total));
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package org.dcache.pool.repository.meta.log;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.DiskErrorCacheException;
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.vehicles.StorageInfo;
+import diskCacheV111.vehicles.StorageInfos;
+
+import org.dcache.namespace.FileAttribute;
+import org.dcache.pool.repository.FileStore;
+import org.dcache.pool.repository.ReplicaRecord;
+import org.dcache.pool.repository.ReplicaState;
+import org.dcache.pool.repository.RepositoryChannel;
+import org.dcache.pool.repository.StickyRecord;
+import org.dcache.vehicles.FileAttributes;
+
+import static com.google.common.collect.Iterables.filter;
+import static org.dcache.pool.repository.ReplicaState.*;
+import static org.dcache.util.Exceptions.messageOrClassName;
+
+/**
+ * Replica record persisted in a {@link ReplicaLog}.
+ *
+ * Every update writes the complete record to the log.
+ */
+public class CacheRepositoryEntryImpl implements ReplicaRecord
+{
+    private final PnfsId _pnfsId;
+    private final ReplicaLog _log;
+    private final FileStore _fileStore;
+
+    private ReplicaState _state;
+    private ImmutableList<StickyRecord> _sticky;
+    private long _creationTime;
+    private long _lastAccess;
+
+    /** Size of the replica, or -1 if unknown. */
+    private long _size;
+
+    private StorageInfo _storageInfo;
+    private int _linkCount;
+
+    CacheRepositoryEntryImpl(ReplicaLog log, FileStore fileStore, PnfsId pnfsId)
+    {
+        _log = log;
+        _fileStore = fileStore;
+        _pnfsId = pnfsId;
+        _state = NEW;
+        _sticky = ImmutableList.of();
+        _creationTime = System.currentTimeMillis();
+        _lastAccess = _creationTime;
+        _size = -1;
+    }
+
+    CacheRepositoryEntryImpl(ReplicaLog log, FileStore fileStore, LogRecord record)
+    {
+        _log = log;
+        _fileStore = fileStore;
+        _pnfsId = record.id;
+        _state = record.state;
+        _sticky = record.sticky;
+        _creationTime = record.creationTime;
+        _lastAccess = record.lastAccessTime;
+        _size = record.size;
+        _storageInfo = record.storageInfo;
+    }
+
+    private void save() throws CacheException
+    {
+        try {
+            _log.put(new LogRecord(_pnfsId, _state, _creationTime, _lastAccess, _size, _sticky, _storageInfo));
+        } catch (IOException e) {
+            throw new DiskErrorCacheException("Meta data update failed and a pool restart is required: " +
+                                              messageOrClassName(e), e);
+        }
+    }
+
+    private long readFileSize() throws IOException
+    {
+        try {
+            return _fileStore.getFileAttributeView(_pnfsId).readAttributes().size();
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public synchronized int decrementLinkCount()
+    {
+        if (_linkCount <= 0) {
+            throw new IllegalStateException("Link count is already zero");
+        }
+        _linkCount--;
+        return _linkCount;
+    }
+
+    @Override
+    public synchronized int incrementLinkCount()
+    {
+        if (_state == REMOVED || _state == DESTROYED) {
+            throw new IllegalStateException("Entry is marked as removed");
+        }
+        _linkCount++;
+        return _linkCount;
+    }
+
+    @Override
+    public synchronized int getLinkCount()
+    {
+        return _linkCount;
+    }
+
+    @Override
+    public synchronized long getCreationTime()
+    {
+        return _creationTime;
+    }
+
+    @Override
+    public synchronized long getLastAccessTime()
+    {
+        return _lastAccess;
+    }
+
+    @Override
+    public synchronized void setLastAccessTime(long time) throws CacheException
+    {
+        long lastAccess = _lastAccess;
+        _lastAccess = time;
+        try {
+            save();
+        } catch (CacheException e) {
+            _lastAccess = lastAccess;
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized long getReplicaSize()
+    {
+        try {
+            if ((_state == CACHED || _state == PRECIOUS) && _size >= 0) {
+                return _size;
+            }
+            return Math.max(readFileSize(), 0);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public synchronized FileAttributes getFileAttributes()
+    {
+        FileAttributes attributes = FileAttributes.ofPnfsId(_pnfsId);
+        if (_storageInfo != null) {
+            StorageInfos.injectInto(_storageInfo.clone(), attributes);
+        }
+        return attributes;
+    }
+
+    @Override
+    public synchronized PnfsId getPnfsId()
+    {
+        return _pnfsId;
+    }
+
+    @Override
+    public synchronized ReplicaState getState()
+    {
+        return _state;
+    }
+
+    @Override
+    public synchronized boolean isSticky()
+    {
+        return !_sticky.isEmpty();
+    }
+
+    @Override
+    public synchronized URI getReplicaUri()
+    {
+        return _fileStore.get(_pnfsId);
+    }
+
+    @Override
+    public RepositoryChannel openChannel(Set<? extends OpenOption> mode) throws IOException
+    {
+        return _fileStore.openDataChannel(_pnfsId, mode);
+    }
+
+    @Override
+    public Collection<StickyRecord> removeExpiredStickyFlags() throws CacheException
+    {
+        return update("removing expired sticky", r -> {
+            long now = System.currentTimeMillis();
+            List<StickyRecord> removed = Lists.newArrayList(filter(_sticky, s -> !s.isValidAt(now)));
+            if (!removed.isEmpty()) {
+                _sticky = ImmutableList.copyOf(filter(_sticky, s -> s.isValidAt(now)));
+            }
+            return removed;
+        });
+    }
+
+    @Override
+    public synchronized Collection<StickyRecord> stickyRecords()
+    {
+        return _sticky;
+    }
+
+    @Override
+    public synchronized <T> T update(String why, Update<T> update) throws CacheException
+    {
+        ReplicaState state = _state;
+        ImmutableList<StickyRecord> sticky = _sticky;
+        long size = _size;
+        long creationTime = _creationTime;
+        long lastAccess = _lastAccess;
+        StorageInfo storageInfo = _storageInfo;
+        try {
+            T result = update.apply(new UpdatableRecordImpl());
+            if (_state != state || _sticky != sticky || _storageInfo != storageInfo
+                    || _creationTime != creationTime || _lastAccess != lastAccess) {
+                save();
+            }
+            return result;
+        } catch (CacheException | RuntimeException e) {
+            _state = state;
+            _sticky = sticky;
+            _size = size;
+            _creationTime = creationTime;
+            _lastAccess = lastAccess;
+            _storageInfo = storageInfo;
+            throw e;
+        }
+    }
+
+    private class UpdatableRecordImpl implements UpdatableRecord
+    {
+        @Override
+        public boolean setSticky(String owner, long expire, boolean overwrite) throws CacheException
+        {
+            if (_state == REMOVED) {
+                throw new CacheException("Entry in removed state");
+            }
+            Predicate<StickyRecord> subsumes =
+                    r -> r.owner().equals(owner) && (r.expire() == expire || !overwrite && r.isValidAt(expire));
+            if (_sticky.stream().anyMatch(subsumes)) {
+                return false;
+            }
+            ImmutableList.Builder<StickyRecord> builder = ImmutableList.builder();
+            _sticky.stream().filter(r -> !r.owner().equals(owner)).forEach(builder::add);
+            builder.add(new StickyRecord(owner, expire));
+            _sticky = builder.build();
+            return true;
+        }
+
+        @Override
+        public Void setState(ReplicaState state) throws CacheException
+        {
+            if (_state != state) {
+                if (_state.isMutable() && !state.isMutable()) {
+                    try {
+                        _size = readFileSize();
+                    } catch (IOException e) {
+                        throw new DiskErrorCacheException("Failed to query file size: " + messageOrClassName(e), e);
+                    }
+                }
+                _state = state;
+            }
+            return null;
+        }
+
+        @Override
+        public Void setFileAttributes(FileAttributes attributes) throws CacheException
+        {
+            if (attributes.isDefined(FileAttribute.STORAGEINFO)) {
+                _storageInfo = StorageInfos.extractFrom(attributes).clone();
+            } else {
+                _storageInfo = null;
+            }
+            if (attributes.isDefined(FileAttribute.ACCESS_TIME) && attributes.isDefined(FileAttribute.CREATION_TIME)) {
+                _lastAccess = attributes.getAccessTime();
+                _creationTime = attributes.getCreationTime();
+            }
+            return null;
+        }
+
+        @Override
+        public FileAttributes getFileAttributes() throws CacheException
+        {
+            return CacheRepositoryEntryImpl.this.getFileAttributes();
+        }
+
+        @Override
+        public ReplicaState getState()
+        {
+            return _state;
+        }
+
+        @Override
+        public int getLinkCount()
+        {
+            return _linkCount;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.dcache.pool.repository.meta.log;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import diskCacheV111.util.PnfsId;
+
+/**
+ * Maps PNFS IDs to the location and length of their most recent record in
+ * the log.
+ *
+ * The index is an open addressing hash table with linear probing, keeping
+ * locations and lengths in primitive arrays. Compared to a HashMap this
+ * saves an entry object and two boxed values per replica.
+ *
+ * The class is not thread safe.
+ */
+class LogIndex
+{
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final double LOAD_FACTOR = 0.7;
+
+    private PnfsId[] _keys;
+    private long[] _locations;
+    private int[] _lengths;
+    private int _size;
+
+    LogIndex()
+    {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity)
+    {
+        _keys = new PnfsId[capacity];
+        _locations = new long[capacity];
+        _lengths = new int[capacity];
+    }
+
+    private int slot(PnfsId id)
+    {
+        int h = id.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h & (_keys.length - 1);
+    }
+
+    private int find(PnfsId id)
+    {
+        int mask = _keys.length - 1;
+        for (int i = slot(id); ; i = (i + 1) & mask) {
+            PnfsId key = _keys[i];
+            if (key == null || key.equals(id)) {
+                return i;
+            }
+        }
+    }
+
+    int size()
+    {
+        return _size;
+    }
+
+    boolean contains(PnfsId id)
+    {
+        return _keys[find(id)] != null;
+    }
+
+    /**
+     * Returns the location of the record of {@code id}, or -1 if there is
+     * none.
+     */
+    long getLocation(PnfsId id)
+    {
+        int i = find(id);
+        return _keys[i] == null ? -1 : _locations[i];
+    }
+
+    /**
+     * Returns the length of the record of {@code id}, or 0 if there is none.
+     */
+    int getLength(PnfsId id)
+    {
+        int i = find(id);
+        return _keys[i] == null ? 0 : _lengths[i];
+    }
+
+    void put(PnfsId id, long location, int length)
+    {
+        int i = find(id);
+        if (_keys[i] == null) {
+            if (_size + 1 > _keys.length * LOAD_FACTOR) {
+                resize(_keys.length * 2);
+                i = find(id);
+            }
+            _keys[i] = id;
+            _size++;
+        }
+        _locations[i] = location;
+        _lengths[i] = length;
+    }
+
+    void remove(PnfsId id)
+    {
+        int i = find(id);
+        if (_keys[i] == null) {
+            return;
+        }
+        _size--;
+
+        /* Backward shift deletion keeps probe sequences intact without tombstones. */
+        int mask = _keys.length - 1;
+        int hole = i;
+        for (int j = (i + 1) & mask; _keys[j] != null; j = (j + 1) & mask) {
+            int home = slot(_keys[j]);
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                _keys[hole] = _keys[j];
+                _locations[hole] = _locations[j];
+                _lengths[hole] = _lengths[j];
+                hole = j;
+            }
+        }
+        _keys[hole] = null;
+    }
+
+    Set<PnfsId> keys()
+    {
+        Set<PnfsId> keys = new HashSet<>(_size * 2);
+        for (PnfsId key : _keys) {
+            if (key != null) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private void resize(int capacity)
+    {
+        PnfsId[] keys = _keys;
+        long[] locations = _locations;
+        int[] lengths = _lengths;
+        allocate(capacity);
+        for (int j = 0; j < keys.length; j++) {
+            if (keys[j] != null) {
+                int i = find(keys[j]);
+                _keys[i] = keys[j];
+                _locations[i] = locations[j];
+                _lengths[i] = lengths[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package org.dcache.pool.repository.meta.log;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.DiskErrorCacheException;
+import diskCacheV111.util.PnfsId;
+
+import dmg.cells.nucleus.EnvironmentAware;
+
+import org.dcache.pool.repository.DuplicateEntryException;
+import org.dcache.pool.repository.FileStore;
+import org.dcache.pool.repository.GroupCommitReplicaStore;
+import org.dcache.pool.repository.ReplicaRecord;
+import org.dcache.pool.repository.ReplicaState;
+
+import static java.util.Arrays.asList;
+import static org.dcache.util.Exceptions.messageOrClassName;
+
+/**
+ * Replica store keeping meta data in an append-only log in the meta-log/
+ * directory of the pool.
+ *
+ * Each update appends a compact binary record and concurrent updates share
+ * a single fsync. All records are indexed in memory; a lookup is a single
+ * positional read. Segments of the log consisting mostly of superseded
+ * records are compacted in the background.
+ */
+public class LogMetaDataRepository implements GroupCommitReplicaStore, EnvironmentAware
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogMetaDataRepository.class);
+
+    private static final String DIRECTORY_NAME = "meta-log";
+
+    private static final String SEGMENT_SIZE = "pool.plugins.meta.log.segment-size";
+    private static final String COMPACTION_THRESHOLD = "pool.plugins.meta.log.compaction-threshold";
+    private static final String COMPACTION_PERIOD = "pool.plugins.meta.log.compaction-period";
+
+    private static final long DEFAULT_SEGMENT_SIZE = 64 << 20;
+    private static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+    private static final long DEFAULT_COMPACTION_PERIOD = 60;
+
+    private final FileStore _fileStore;
+    private final Path _dir;
+    private final boolean _readOnly;
+
+    private long _segmentSize = DEFAULT_SEGMENT_SIZE;
+    private double _compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+    private long _compactionPeriod = DEFAULT_COMPACTION_PERIOD;
+
+    private ReplicaLog _log;
+    private ScheduledExecutorService _compactor;
+
+    public LogMetaDataRepository(FileStore fileStore, Path baseDir, String poolName)
+            throws IOException
+    {
+        this(fileStore, baseDir, poolName, false);
+    }
+
+    public LogMetaDataRepository(FileStore fileStore, Path baseDir, String poolName, boolean readOnly)
+            throws IOException
+    {
+        _fileStore = fileStore;
+        _readOnly = readOnly;
+        _dir = baseDir.resolve(DIRECTORY_NAME);
+        if (!Files.exists(_dir)) {
+            if (readOnly) {
+                throw new FileNotFoundException("No such directory and not allowed to create it: " + _dir);
+            }
+            Files.createDirectory(_dir);
+        } else if (!Files.isDirectory(_dir)) {
+            throw new FileNotFoundException("No such directory: " + _dir);
+        }
+    }
+
+    @Override
+    public void setEnvironment(Map<String, Object> environment)
+    {
+        Object segmentSize = environment.get(SEGMENT_SIZE);
+        if (segmentSize != null) {
+            _segmentSize = Long.parseLong(segmentSize.toString().trim());
+        }
+        Object threshold = environment.get(COMPACTION_THRESHOLD);
+        if (threshold != null) {
+            _compactionThreshold = Double.parseDouble(threshold.toString().trim());
+        }
+        Object period = environment.get(COMPACTION_PERIOD);
+        if (period != null) {
+            _compactionPeriod = Long.parseLong(period.toString().trim());
+        }
+    }
+
+    public void setSegmentSize(long segmentSize)
+    {
+        _segmentSize = segmentSize;
+    }
+
+    public void setCompactionThreshold(double threshold)
+    {
+        _compactionThreshold = threshold;
+    }
+
+    @Override
+    public void init() throws CacheException
+    {
+        Stopwatch watch = Stopwatch.createStarted();
+        _log = new ReplicaLog(_dir, _segmentSize);
+        try {
+            _log.open();
+        } catch (IOException e) {
+            throw new DiskErrorCacheException("Failed to open meta data log " + _dir + ": " + messageOrClassName(e), e);
+        }
+        LOGGER.info("Replayed {} records from {} in {}.", _log.size(), _dir, watch);
+
+        if (!_readOnly && _compactionPeriod > 0) {
+            _compactor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("meta-log-compactor").setDaemon(true).build());
+            _compactor.scheduleWithFixedDelay(this::compact, _compactionPeriod, _compactionPeriod, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Compacts segments of the log until no segment is below the compaction
+     * threshold.
+     */
+    void compact()
+    {
+        try {
+            while (_log.compact(_compactionThreshold)) {
+                // Keep going
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to compact meta data log {}: {}", _dir, messageOrClassName(e));
+        }
+    }
+
+    @Override
+    public Set<PnfsId> index(IndexOption... options) throws CacheException
+    {
+        try {
+            List<IndexOption> indexOptions = asList(options);
+
+            if (indexOptions.contains(IndexOption.META_ONLY)) {
+                return _log.keys();
+            }
+
+            Stopwatch watch = Stopwatch.createStarted();
+            Set<PnfsId> files = _fileStore.index();
+            LOGGER.info("Indexed {} entries in {} in {}.", files.size(), _fileStore, watch);
+
+            if (indexOptions.contains(IndexOption.ALLOW_REPAIR)) {
+                for (PnfsId id : _log.keys()) {
+                    if (!files.contains(id)) {
+                        LOGGER.warn("Removing redundant meta data for {}.", id);
+                        _log.remove(id);
+                    }
+                }
+            }
+
+            return files;
+        } catch (IOException e) {
+            throw new DiskErrorCacheException("Meta data lookup failed and a pool restart is required: " + messageOrClassName(e), e);
+        }
+    }
+
+    @Override
+    public ReplicaRecord get(PnfsId id) throws CacheException
+    {
+        try {
+            LogRecord record = _log.get(id);
+            if (record != null) {
+                return new CacheRepositoryEntryImpl(_log, _fileStore, record);
+            }
+
+            /* No meta data. Either the file doesn't exist or the replica is broken. */
+            _fileStore.getFileAttributeView(id).readAttributes();
+            return new CacheRepositoryEntryImpl(_log, _fileStore,
+                                                new LogRecord(id, ReplicaState.BROKEN, System.currentTimeMillis(),
+                                                              System.currentTimeMillis(), -1, ImmutableList.of(), null));
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            return null;
+        } catch (InterruptedIOException e) {
+            throw new CacheException("Interrupted while reading meta data for " + id, e);
+        } catch (IOException e) {
+            throw new DiskErrorCacheException("Failed to read meta data for " + id + ": " + messageOrClassName(e), e);
+        }
+    }
+
+    /**
+     * The entry is not persistent until it is updated for the first time.
+     */
+    @Override
+    public ReplicaRecord create(PnfsId id, Set<? extends OpenOption> flags)
+            throws DuplicateEntryException, CacheException
+    {
+        try {
+            if (_log.contains(id)) {
+                throw new DuplicateEntryException(id);
+            }
+            if (flags.contains(StandardOpenOption.CREATE)) {
+                _fileStore.create(id);
+            }
+            return new CacheRepositoryEntryImpl(_log, _fileStore, id);
+        } catch (FileAlreadyExistsException e) {
+            throw new DuplicateEntryException(id);
+        } catch (IOException e) {
+            throw new DiskErrorCacheException(
+                    "Failed to create new entry " + id + ": " + messageOrClassName(e), e);
+        }
+    }
+
+    @Override
+    public void remove(PnfsId id) throws CacheException
+    {
+        try {
+            _fileStore.remove(id);
+        } catch (IOException e) {
+            throw new DiskErrorCacheException("Failed to remove " + id + ": " + messageOrClassName(e), e);
+        }
+        try {
+            _log.remove(id);
+        } catch (IOException e) {
+            throw new DiskErrorCacheException("Meta data update failed and a pool restart is required: " +
+                                              messageOrClassName(e), e);
+        }
+    }
+
+    /**
+     * Applies {@code updates} with a single fsync for all records they append.
+     */
+    @Override
+    public void groupCommit(Updates updates) throws CacheException
+    {
+        _log.beginGroup();
+        try {
+            updates.run();
+        } finally {
+            try {
+                _log.commitGroup();
+            } catch (IOException e) {
+                throw new DiskErrorCacheException("Meta data update failed and a pool restart is required: " +
+                                                  messageOrClassName(e), e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized boolean isOk()
+    {
+        if (!_fileStore.isOk()) {
+            return false;
+        }
+        Path tmp = _dir.resolve(".repository_is_ok");
+        try {
+            Files.deleteIfExists(tmp);
+            Files.createFile(tmp);
+            return true;
+        } catch (IOException e) {
+            LOGGER.error("Failed to touch {}: {}", tmp, messageOrClassName(e));
+            return false;
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        if (_compactor != null) {
+            /* Not interrupting the compactor, as interrupting a thread closes
+             * the file channel it is writing to.
+             */
+            _compactor.shutdown();
+            try {
+                _compactor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (_log != null) {
+            LOGGER.info("Closing meta data log {}: {}", _dir, _log.getStatistics());
+            try {
+                _log.close();
+            } catch (IOException e) {
+                LOGGER.error("Ignored: Could not close meta data log: {}", messageOrClassName(e));
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("[data=%s;meta=%s]", _fileStore, _dir);
+    }
+
+    @Override
+    public long getFreeSpace()
+    {
+        try {
+            return _fileStore.getFreeSpace();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to query free space: {}", e.toString());
+            return 0;
+        }
+    }
+
+    @Override
+    public long getTotalSpace()
+    {
+        try {
+            return _fileStore.getTotalSpace();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to query total space: {}", e.toString());
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package org.dcache.pool.repository.meta.log;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.BaseEncoding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.Map;
+
+import diskCacheV111.util.AccessLatency;
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.util.RetentionPolicy;
+import diskCacheV111.vehicles.GenericStorageInfo;
+import diskCacheV111.vehicles.StorageInfo;
+
+import org.dcache.pool.repository.ReplicaState;
+import org.dcache.pool.repository.StickyRecord;
+
+/**
+ * Persistent state of a replica, and its binary encoding in the log.
+ *
+ * A record consists of the PNFS ID, the replica state, creation and last
+ * access time, size, sticky flags and storage info. Storage info of type
+ * GenericStorageInfo is encoded field by field; other types, which are
+ * rare, are Java serialized.
+ */
+class LogRecord
+{
+    /**
+     * Encoding of replica states. The position in this array is persisted,
+     * thus new states must be appended.
+     */
+    private static final ReplicaState[] STATES = {
+        ReplicaState.NEW, ReplicaState.FROM_CLIENT, ReplicaState.FROM_POOL,
+        ReplicaState.FROM_STORE, ReplicaState.BROKEN, ReplicaState.CACHED,
+        ReplicaState.PRECIOUS, ReplicaState.REMOVED, ReplicaState.DESTROYED
+    };
+
+    private static final int NO_STORAGE_INFO = 0;
+    private static final int GENERIC_STORAGE_INFO = 1;
+    private static final int SERIALIZED_STORAGE_INFO = 2;
+
+    private static final int IS_NEW = 1;
+    private static final int IS_STORED = 2;
+    private static final int IS_SET_HSM = 4;
+    private static final int IS_SET_STORAGE_CLASS = 8;
+    private static final int IS_SET_BITFILE_ID = 16;
+    private static final int IS_SET_ADD_LOCATION = 32;
+
+    final PnfsId id;
+    final ReplicaState state;
+    final long creationTime;
+    final long lastAccessTime;
+
+    /** Size of the replica, or -1 if the size is to be taken from the data file. */
+    final long size;
+
+    final ImmutableList<StickyRecord> sticky;
+    final StorageInfo storageInfo;
+
+    LogRecord(PnfsId id, ReplicaState state, long creationTime, long lastAccessTime, long size,
+              ImmutableList<StickyRecord> sticky, StorageInfo storageInfo)
+    {
+        this.id = id;
+        this.state = state;
+        this.creationTime = creationTime;
+        this.lastAccessTime = lastAccessTime;
+        this.size = size;
+        this.sticky = sticky;
+        this.storageInfo = storageInfo;
+    }
+
+    static void writeId(DataOutput out, PnfsId id) throws IOException
+    {
+        byte[] bytes = BaseEncoding.base16().decode(id.toString());
+        out.writeByte(bytes.length);
+        out.write(bytes);
+    }
+
+    static PnfsId readId(DataInput in) throws IOException
+    {
+        byte[] bytes = new byte[in.readUnsignedByte()];
+        in.readFully(bytes);
+        return new PnfsId(BaseEncoding.base16().encode(bytes));
+    }
+
+    void writeTo(DataOutput out) throws IOException
+    {
+        writeId(out, id);
+        out.writeByte(indexOf(state));
+        out.writeLong(creationTime);
+        out.writeLong(lastAccessTime);
+        out.writeLong(size);
+        out.writeShort(sticky.size());
+        for (StickyRecord record : sticky) {
+            out.writeUTF(record.owner());
+            out.writeLong(record.expire());
+        }
+        if (storageInfo == null) {
+            out.writeByte(NO_STORAGE_INFO);
+        } else if (storageInfo.getClass() == GenericStorageInfo.class) {
+            out.writeByte(GENERIC_STORAGE_INFO);
+            writeStorageInfo(out, storageInfo);
+        } else {
+            out.writeByte(SERIALIZED_STORAGE_INFO);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream stream = new ObjectOutputStream(bytes)) {
+                stream.writeObject(storageInfo);
+            }
+            out.writeInt(bytes.size());
+            out.write(bytes.toByteArray());
+        }
+    }
+
+    static LogRecord readFrom(DataInput in) throws IOException
+    {
+        PnfsId id = readId(in);
+        int code = in.readUnsignedByte();
+        if (code >= STATES.length) {
+            throw new IOException("Invalid replica state " + code + " for " + id);
+        }
+        ReplicaState state = STATES[code];
+        long creationTime = in.readLong();
+        long lastAccessTime = in.readLong();
+        long size = in.readLong();
+        int count = in.readUnsignedShort();
+        ImmutableList.Builder<StickyRecord> sticky = ImmutableList.builder();
+        for (int i = 0; i < count; i++) {
+            sticky.add(new StickyRecord(in.readUTF(), in.readLong()));
+        }
+        StorageInfo storageInfo;
+        switch (in.readUnsignedByte()) {
+        case NO_STORAGE_INFO:
+            storageInfo = null;
+            break;
+        case GENERIC_STORAGE_INFO:
+            storageInfo = readStorageInfo(in);
+            break;
+        case SERIALIZED_STORAGE_INFO:
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                storageInfo = (StorageInfo) stream.readObject();
+            } catch (ClassNotFoundException | ClassCastException e) {
+                throw new IOException("Invalid storage info for " + id + ": " + e, e);
+            }
+            break;
+        default:
+            throw new IOException("Invalid storage info type for " + id);
+        }
+        return new LogRecord(id, state, creationTime, lastAccessTime, size, sticky.build(), storageInfo);
+    }
+
+    private static int indexOf(ReplicaState state)
+    {
+        for (int i = 0; i < STATES.length; i++) {
+            if (STATES[i] == state) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported replica state: " + state);
+    }
+
+    private static void writeNullableUTF(DataOutput out, String s) throws IOException
+    {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readNullableUTF(DataInput in) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void writeStorageInfo(DataOutput out, StorageInfo info) throws IOException
+    {
+        writeNullableUTF(out, info.getHsm());
+        writeNullableUTF(out, info.getStorageClass());
+        writeNullableUTF(out, info.getCacheClass());
+        writeNullableUTF(out, info.getBitfileId());
+        out.writeLong(info.getLegacySize());
+        out.writeByte(info.getLegacyAccessLatency() == null ? -1 : info.getLegacyAccessLatency().getId());
+        out.writeByte(info.getLegacyRetentionPolicy() == null ? -1 : info.getLegacyRetentionPolicy().getId());
+        int flags = (info.isCreatedOnly() ? IS_NEW : 0)
+                | (info.isStored() ? IS_STORED : 0)
+                | (info.isSetHsm() ? IS_SET_HSM : 0)
+                | (info.isSetStorageClass() ? IS_SET_STORAGE_CLASS : 0)
+                | (info.isSetBitFileId() ? IS_SET_BITFILE_ID : 0)
+                | (info.isSetAddLocation() ? IS_SET_ADD_LOCATION : 0);
+        out.writeByte(flags);
+        List<URI> locations = info.locations();
+        out.writeShort(locations.size());
+        for (URI location : locations) {
+            out.writeUTF(location.toString());
+        }
+        Map<String, String> keys = info.getMap();
+        out.writeShort(keys.size());
+        for (Map.Entry<String, String> entry : keys.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static StorageInfo readStorageInfo(DataInput in) throws IOException
+    {
+        GenericStorageInfo info = new GenericStorageInfo(readNullableUTF(in), readNullableUTF(in));
+        info.setCacheClass(readNullableUTF(in));
+        info.setBitfileId(readNullableUTF(in));
+        info.setLegacySize(in.readLong());
+        byte accessLatency = in.readByte();
+        if (accessLatency >= 0) {
+            info.setLegacyAccessLatency(AccessLatency.getAccessLatency(accessLatency));
+        }
+        byte retentionPolicy = in.readByte();
+        if (retentionPolicy >= 0) {
+            info.setLegacyRetentionPolicy(RetentionPolicy.getRetentionPolicy(retentionPolicy));
+        }
+        int flags = in.readUnsignedByte();
+        info.setIsNew((flags & IS_NEW) != 0);
+        info.setIsStored((flags & IS_STORED) != 0);
+        info.isSetHsm((flags & IS_SET_HSM) != 0);
+        info.isSetStorageClass((flags & IS_SET_STORAGE_CLASS) != 0);
+        info.isSetBitFileId((flags & IS_SET_BITFILE_ID) != 0);
+        info.isSetAddLocation((flags & IS_SET_ADD_LOCATION) != 0);
+        int locations = in.readUnsignedShort();
+        for (int i = 0; i < locations; i++) {
+            try {
+                info.addLocation(new URI(in.readUTF()));
+            } catch (URISyntaxException e) {
+                throw new IOException("Invalid location: " + e.getMessage(), e);
+            }
+        }
+        int keys = in.readUnsignedShort();
+        for (int i = 0; i < keys; i++) {
+            info.setKey(in.readUTF(), in.readUTF());
+        }
+        return info;
+    }
+}
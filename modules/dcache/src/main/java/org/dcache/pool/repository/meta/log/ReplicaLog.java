@@ -0,0 +1,693 @@
+package org.dcache.pool.repository.meta.log;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import diskCacheV111.util.PnfsId;
+
+/**
+ * Append-only log of replica records.
+ *
+ * The log is a sequence of numbered segment files. Each update of a replica
+ * appends a complete record to the active segment; removal of a replica
+ * appends a tombstone. An in-memory index maps each replica to its most
+ * recent record. It is rebuilt by replaying all segments in order when
+ * the log is opened.
+ *
+ * Every record is framed by its length and a CRC32 checksum, so a torn
+ * write at the end of the log is detected and truncated on replay.
+ *
+ * Writers wait until their record has been forced to disk. Concurrent
+ * writers share a single force (group commit): a writer finding that a
+ * force covering its record completed while it was waiting returns
+ * without forcing again.
+ *
+ * Once a segment other than the active one consists mostly of superseded
+ * records, compaction copies its live records to the active segment and
+ * deletes it. A tombstone records the segment it was first appended to;
+ * records it supersedes can only be in that segment or older ones. It is
+ * copied unless the replica has been recreated since or no such segment
+ * remains, as otherwise a record in an older segment would be resurrected
+ * on replay.
+ *
+ * Interrupting a thread using a FileChannel closes the channel. A segment
+ * whose channel was closed that way is reopened on next use.
+ */
+class ReplicaLog
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicaLog.class);
+
+    private static final int MAGIC = 0x64435247; // "dCRG"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    /** Bytes preceding the body of a record: length and checksum. */
+    private static final int FRAME_SIZE = 8;
+
+    static final byte PUT = 1;
+    static final byte REMOVE = 2;
+
+    private static final String SUFFIX = ".log";
+
+    private static class Segment
+    {
+        final int number;
+        final Path path;
+
+        /** Replaced if closed by an interrupt. */
+        @GuardedBy("ReplicaLog.this")
+        FileChannel channel;
+
+        /** Bytes of this segment, including the header. */
+        long size;
+
+        /** Bytes of records in this segment still referenced by the index. */
+        long live;
+
+        Segment(int number, Path path, FileChannel channel, long size)
+        {
+            this.number = number;
+            this.path = path;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        double utilization()
+        {
+            return size <= HEADER_SIZE ? 1.0 : (double) live / (size - HEADER_SIZE);
+        }
+    }
+
+    /**
+     * A record read from a segment during replay or compaction.
+     */
+    private static class Frame
+    {
+        final long offset;
+        final byte[] bytes;
+
+        Frame(long offset, byte[] bytes)
+        {
+            this.offset = offset;
+            this.bytes = bytes;
+        }
+
+        byte type()
+        {
+            return bytes[FRAME_SIZE];
+        }
+
+        PnfsId id() throws IOException
+        {
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(bytes, FRAME_SIZE + 1, bytes.length - FRAME_SIZE - 1));
+            return LogRecord.readId(in);
+        }
+
+        /**
+         * Returns the number of the segment a tombstone was first appended
+         * to, or {@code segment} for tombstones written before this was
+         * recorded.
+         */
+        int origin(int segment) throws IOException
+        {
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(bytes, FRAME_SIZE + 1, bytes.length - FRAME_SIZE - 1));
+            LogRecord.readId(in);
+            return in.available() >= 4 ? in.readInt() : segment;
+        }
+    }
+
+    private final Path _dir;
+    private final long _segmentSize;
+
+    @GuardedBy("this")
+    private final LogIndex _index = new LogIndex();
+
+    @GuardedBy("this")
+    private final TreeMap<Integer, Segment> _segments = new TreeMap<>();
+
+    @GuardedBy("this")
+    private Segment _active;
+
+    @GuardedBy("this")
+    private boolean _isClosed;
+
+    private final Object _syncLock = new Object();
+
+    /** Position up to which the log is known to be on disk. */
+    private volatile long _synced;
+
+    /** End of the records appended by the current thread in a group commit. */
+    private final ThreadLocal<long[]> _group = new ThreadLocal<>();
+
+    private final LongAdder _appends = new LongAdder();
+    private final LongAdder _syncs = new LongAdder();
+    private final LongAdder _compactions = new LongAdder();
+    private final LongAdder _compactedBytes = new LongAdder();
+
+    ReplicaLog(Path dir, long segmentSize)
+    {
+        _dir = dir;
+        _segmentSize = segmentSize;
+    }
+
+    private static long location(int segment, long offset)
+    {
+        return ((long) segment << 32) | offset;
+    }
+
+    private static int segmentOf(long location)
+    {
+        return (int) (location >>> 32);
+    }
+
+    private static long offsetOf(long location)
+    {
+        return location & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Opens the log, replaying all segments.
+     */
+    synchronized void open() throws IOException
+    {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(_dir, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    int number = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+                    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    _segments.put(number, new Segment(number, file, channel, channel.size()));
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("Ignoring unexpected file {}.", file);
+                }
+            }
+        }
+
+        for (Segment segment : _segments.values()) {
+            replay(segment, segment == _segments.lastEntry().getValue());
+        }
+
+        if (_segments.isEmpty() || _segments.lastEntry().getValue().size >= _segmentSize) {
+            roll();
+        } else {
+            _active = _segments.lastEntry().getValue();
+        }
+        _synced = location(_active.number, _active.size);
+    }
+
+    @GuardedBy("this")
+    private void replay(Segment segment, boolean isLast) throws IOException
+    {
+        if (segment.size < HEADER_SIZE) {
+            if (!isLast) {
+                LOGGER.error("Segment {} lacks its header and is ignored.", segment.path);
+                return;
+            }
+            writeHeader(segment);
+            return;
+        }
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(segment.path), 65536)) {
+            DataInputStream data = new DataInputStream(in);
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                throw new IOException("Segment " + segment.path + " has an unsupported format.");
+            }
+            long offset = HEADER_SIZE;
+            while (offset < segment.size) {
+                Frame frame = readFrame(data, offset, segment.size);
+                if (frame == null) {
+                    if (isLast) {
+                        LOGGER.warn("Truncating incomplete record at offset {} of {}.", offset, segment.path);
+                        segment.channel.truncate(offset);
+                        segment.size = offset;
+                    } else {
+                        LOGGER.error("Ignoring corrupted records from offset {} of {}.", offset, segment.path);
+                    }
+                    break;
+                }
+                apply(segment, frame);
+                offset += frame.bytes.length;
+            }
+        }
+    }
+
+    /**
+     * Reads the next record, or returns null if the record is incomplete or
+     * its checksum does not match.
+     */
+    private static Frame readFrame(DataInputStream in, long offset, long end) throws IOException
+    {
+        try {
+            if (end - offset < FRAME_SIZE) {
+                return null;
+            }
+            int length = in.readInt();
+            int checksum = in.readInt();
+            if (length <= 0 || length > end - offset - FRAME_SIZE) {
+                return null;
+            }
+            byte[] bytes = new byte[FRAME_SIZE + length];
+            ByteBuffer.wrap(bytes).putInt(length).putInt(checksum);
+            in.readFully(bytes, FRAME_SIZE, length);
+            CRC32 crc = new CRC32();
+            crc.update(bytes, FRAME_SIZE, length);
+            if ((int) crc.getValue() != checksum) {
+                return null;
+            }
+            return new Frame(offset, bytes);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    @GuardedBy("this")
+    private void apply(Segment segment, Frame frame) throws IOException
+    {
+        PnfsId id = frame.id();
+        release(id);
+        if (frame.type() == PUT) {
+            _index.put(id, location(segment.number, frame.offset), frame.bytes.length);
+            segment.live += frame.bytes.length;
+        } else {
+            _index.remove(id);
+        }
+    }
+
+    /**
+     * Accounts for the current record of {@code id} being superseded.
+     */
+    @GuardedBy("this")
+    private void release(PnfsId id)
+    {
+        long location = _index.getLocation(id);
+        if (location >= 0) {
+            Segment segment = _segments.get(segmentOf(location));
+            if (segment != null) {
+                segment.live -= _index.getLength(id);
+            }
+        }
+    }
+
+    private static void writeHeader(Segment segment) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+        header.flip();
+        writeFully(segment.channel, header, 0);
+        segment.size = HEADER_SIZE;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Returns the channel of {@code segment}, reopening it if it was closed
+     * by interrupting a thread using it.
+     */
+    @GuardedBy("this")
+    private FileChannel channel(Segment segment) throws IOException
+    {
+        if (!segment.channel.isOpen()) {
+            if (_isClosed || _segments.get(segment.number) != segment) {
+                throw new ClosedChannelException();
+            }
+            LOGGER.info("Reopening {} closed by an interrupt.", segment.path);
+            segment.channel = FileChannel.open(segment.path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (segment == _active) {
+                /* Discard whatever the interrupted append left behind. */
+                segment.channel.truncate(segment.size);
+            }
+        }
+        return segment.channel;
+    }
+
+    @GuardedBy("this")
+    private void roll() throws IOException
+    {
+        if (_active != null) {
+            channel(_active).force(false);
+        }
+        int number = _segments.isEmpty() ? 1 : _segments.lastKey() + 1;
+        Path path = _dir.resolve(String.format("%010d%s", number, SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                                               StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(number, path, channel, 0);
+        writeHeader(segment);
+        _segments.put(number, segment);
+        _active = segment;
+    }
+
+    private static byte[] frame(byte type, RecordWriter writer) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(0);
+        out.writeByte(type);
+        writer.write(out);
+        out.flush();
+        byte[] frame = bytes.toByteArray();
+        int length = frame.length - FRAME_SIZE;
+        CRC32 crc = new CRC32();
+        crc.update(frame, FRAME_SIZE, length);
+        ByteBuffer.wrap(frame).putInt(length).putInt((int) crc.getValue());
+        return frame;
+    }
+
+    private interface RecordWriter
+    {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    @GuardedBy("this")
+    private long append(byte[] frame) throws IOException
+    {
+        if (_active.size + frame.length > _segmentSize && _active.size > HEADER_SIZE) {
+            roll();
+        }
+        long offset = _active.size;
+        writeFully(channel(_active), ByteBuffer.wrap(frame), offset);
+        _active.size += frame.length;
+        _appends.increment();
+        return location(_active.number, offset);
+    }
+
+    /**
+     * Blocks until the log is on disk up to {@code position}.
+     */
+    private void sync(long position) throws IOException
+    {
+        if (_synced >= position) {
+            return;
+        }
+        synchronized (_syncLock) {
+            if (_synced >= position) {
+                return;
+            }
+            FileChannel channel;
+            long end;
+            synchronized (this) {
+                channel = channel(_active);
+                end = location(_active.number, _active.size);
+            }
+            channel.force(false);
+            _syncs.increment();
+            _synced = end;
+        }
+    }
+
+    /**
+     * Appends {@code record} and waits until it is on disk.
+     */
+    void put(LogRecord record) throws IOException
+    {
+        byte[] frame = frame(PUT, record::writeTo);
+        long end;
+        synchronized (this) {
+            long location = append(frame);
+            release(record.id);
+            _index.put(record.id, location, frame.length);
+            _segments.get(segmentOf(location)).live += frame.length;
+            end = location + frame.length;
+        }
+        syncOrDefer(end);
+    }
+
+    /**
+     * Appends a tombstone for {@code id} and waits until it is on disk.
+     */
+    void remove(PnfsId id) throws IOException
+    {
+        long end;
+        synchronized (this) {
+            if (!_index.contains(id)) {
+                return;
+            }
+            int origin = _active.number;
+            byte[] frame = frame(REMOVE, out -> {
+                LogRecord.writeId(out, id);
+                out.writeInt(origin);
+            });
+            long location = append(frame);
+            release(id);
+            _index.remove(id);
+            end = location + frame.length;
+        }
+        syncOrDefer(end);
+    }
+
+    private void syncOrDefer(long end) throws IOException
+    {
+        long[] group = _group.get();
+        if (group == null) {
+            sync(end);
+        } else {
+            group[0] = Math.max(group[0], end);
+        }
+    }
+
+    /**
+     * Starts a group commit for the calling thread. Until the matching call
+     * to {@link #commitGroup}, puts and removes by the calling thread return
+     * without waiting for the disk.
+     */
+    void beginGroup()
+    {
+        _group.set(new long[1]);
+    }
+
+    /**
+     * Ends the group commit of the calling thread and waits until all
+     * records appended in it are on disk.
+     */
+    void commitGroup() throws IOException
+    {
+        long[] group = _group.get();
+        _group.remove();
+        if (group != null) {
+            sync(group[0]);
+        }
+    }
+
+    /**
+     * Returns the most recent record of {@code id}, or null if there is
+     * none.
+     *
+     * @throws InterruptedIOException if the calling thread is interrupted
+     */
+    LogRecord get(PnfsId id) throws IOException
+    {
+        while (true) {
+            FileChannel channel;
+            long offset;
+            int length;
+            synchronized (this) {
+                if (_isClosed) {
+                    throw new ClosedChannelException();
+                }
+                long location = _index.getLocation(id);
+                if (location < 0) {
+                    return null;
+                }
+                channel = channel(_segments.get(segmentOf(location)));
+                offset = offsetOf(location);
+                length = _index.getLength(id);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            try {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, offset + buffer.position()) < 0) {
+                        throw new EOFException("Unexpected end of log reading " + id);
+                    }
+                }
+            } catch (ClosedByInterruptException e) {
+                /* The interrupt status is set and the channel is reopened by
+                 * the next thread using the segment. */
+                InterruptedIOException interrupted = new InterruptedIOException("Interrupted while reading " + id);
+                interrupted.initCause(e);
+                throw interrupted;
+            } catch (ClosedChannelException e) {
+                /* The segment was compacted, the log was closed, or another
+                 * thread was interrupted while using the channel. The next
+                 * iteration reads the new location, fails, or reopens the
+                 * channel, respectively. */
+                continue;
+            }
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(buffer.array(), FRAME_SIZE + 1, length - FRAME_SIZE - 1));
+            return LogRecord.readFrom(in);
+        }
+    }
+
+    synchronized boolean contains(PnfsId id)
+    {
+        return _index.contains(id);
+    }
+
+    synchronized Set<PnfsId> keys()
+    {
+        return _index.keys();
+    }
+
+    synchronized int size()
+    {
+        return _index.size();
+    }
+
+    /**
+     * Compacts the least utilized segment other than the active one if its
+     * utilization is below {@code threshold}.
+     *
+     * @return true if a segment was compacted
+     */
+    boolean compact(double threshold) throws IOException
+    {
+        Segment victim = null;
+        synchronized (this) {
+            for (Segment segment : _segments.values()) {
+                if (segment != _active && segment.utilization() < threshold
+                        && (victim == null || segment.utilization() < victim.utilization())) {
+                    victim = segment;
+                }
+            }
+            if (victim == null) {
+                return false;
+            }
+        }
+
+        long copied = 0;
+        long end = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(victim.path), 65536)) {
+            DataInputStream data = new DataInputStream(in);
+            data.skipBytes(HEADER_SIZE);
+            long offset = HEADER_SIZE;
+            while (offset < victim.size) {
+                Frame frame = readFrame(data, offset, victim.size);
+                if (frame == null) {
+                    break;
+                }
+                PnfsId id = frame.id();
+                synchronized (this) {
+                    if (frame.type() == PUT) {
+                        if (_index.getLocation(id) == location(victim.number, frame.offset)) {
+                            long location = append(frame.bytes);
+                            victim.live -= frame.bytes.length;
+                            _index.put(id, location, frame.bytes.length);
+                            _segments.get(segmentOf(location)).live += frame.bytes.length;
+                            end = location + frame.bytes.length;
+                            copied += frame.bytes.length;
+                        }
+                    } else if (!_index.contains(id) && mayHoldOlderRecords(victim, frame.origin(victim.number))) {
+                        long location = append(frame.bytes);
+                        end = location + frame.bytes.length;
+                        copied += frame.bytes.length;
+                    }
+                }
+                offset += frame.bytes.length;
+            }
+        }
+        if (end > 0) {
+            sync(end);
+        }
+
+        FileChannel channel;
+        synchronized (this) {
+            _segments.remove(victim.number);
+            channel = victim.channel;
+        }
+        channel.close();
+        Files.delete(victim.path);
+        _compactions.increment();
+        _compactedBytes.add(victim.size - copied);
+        LOGGER.debug("Compacted {}, reclaiming {} bytes.", victim.path, victim.size - copied);
+        return true;
+    }
+
+    /**
+     * Returns whether a segment other than {@code victim} may hold records
+     * superseded by a tombstone first appended to segment {@code origin}.
+     */
+    @GuardedBy("this")
+    private boolean mayHoldOlderRecords(Segment victim, int origin)
+    {
+        for (int number : _segments.headMap(origin, true).keySet()) {
+            if (number != victim.number) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized void close() throws IOException
+    {
+        _isClosed = true;
+        IOException error = null;
+        for (Segment segment : _segments.values()) {
+            try {
+                segment.channel.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        _segments.clear();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Returns a human readable summary of the log and its activity.
+     */
+    String getStatistics()
+    {
+        long size = 0;
+        long live = 0;
+        int segments;
+        int records;
+        synchronized (this) {
+            for (Segment segment : _segments.values()) {
+                size += segment.size;
+                live += segment.live;
+            }
+            segments = _segments.size();
+            records = _index.size();
+        }
+        long appends = _appends.sum();
+        long syncs = _syncs.sum();
+        return String.format("%d records in %d segments of %d bytes (%d bytes live); " +
+                             "%d appends, %d syncs, %d compactions reclaiming %d bytes",
+                             records, segments, size, live, appends, syncs,
+                             _compactions.sum(), _compactedBytes.sum());
+    }
+}
@@ -18,6 +18,7 @@ import org.dcache.pool.repository.FileStore;
 import org.dcache.pool.repository.ReplicaRecord;
 import org.dcache.pool.repository.ReplicaState;
 import org.dcache.pool.repository.ReplicaDescriptor;
+import org.dcache.pool.repository.Repository;
 import org.dcache.pool.repository.RepositoryChannel;
 import org.dcache.pool.repository.inotify.InotifyReplicaRecord;
 import org.dcache.pool.statistics.IoStatisticsReplicaRecord;
@@ -40,6 +41,16 @@ class ReadHandleImpl implements ReplicaDescriptor
             .add(InotifyReplicaRecord.OpenFlags.ENABLE_INOTIFY_MONITORING)
             .build();
 
+    private static final Set<OpenOption> DIRECT_IO_OPEN_OPTIONS = ImmutableSet.<OpenOption>builder()
+            .addAll(OPEN_OPTIONS)
+            .add(Repository.OpenFlags.DIRECT_IO)
+            .build();
+
+    private static final Set<OpenOption> DIRECT_IO_OPEN_OPTIONS_WITH_INOTIFY = ImmutableSet.<OpenOption>builder()
+            .addAll(OPEN_OPTIONS_WITH_INOTIFY)
+            .add(Repository.OpenFlags.DIRECT_IO)
+            .build();
+
     protected static final Logger LOGGER = LoggerFactory.getLogger(ReadHandleImpl.class);
 
 
@@ -50,13 +61,17 @@ class ReadHandleImpl implements ReplicaDescriptor
     private boolean _open;
 
     ReadHandleImpl(PnfsHandler pnfs, ReplicaRecord entry, FileAttributes fileAttributes,
-            boolean isInternalActivity)
+            boolean isInternalActivity, boolean isDirectIo)
     {
         _pnfs = requireNonNull(pnfs);
         _entry = requireNonNull(entry);
         _fileAttributes = requireNonNull(fileAttributes);
         _open = true;
-        _openOptions = isInternalActivity ? OPEN_OPTIONS : OPEN_OPTIONS_WITH_INOTIFY;
+        if (isDirectIo) {
+            _openOptions = isInternalActivity ? DIRECT_IO_OPEN_OPTIONS : DIRECT_IO_OPEN_OPTIONS_WITH_INOTIFY;
+        } else {
+            _openOptions = isInternalActivity ? OPEN_OPTIONS : OPEN_OPTIONS_WITH_INOTIFY;
+        }
     }
 
     /**
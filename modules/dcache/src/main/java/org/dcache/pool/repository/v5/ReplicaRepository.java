@@ -1,37 +1,39 @@
 package org.dcache.pool.repository.v5;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.concurrent.GuardedBy;
 
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.OpenOption;
-import java.util.ArrayList;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.OptionalLong;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.Future;
-import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -84,6 +86,7 @@ import org.dcache.pool.repository.json.RepositoryData;
 import org.dcache.util.CacheExceptionFactory;
 import org.dcache.vehicles.FileAttributes;
 
+import static java.nio.charset.StandardCharsets.US_ASCII;
 import static java.util.Objects.requireNonNull;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
@@ -93,6 +96,7 @@ import static org.dcache.pool.repository.ReplicaState.NEW;
 import static org.dcache.pool.repository.ReplicaState.PRECIOUS;
 import static org.dcache.pool.repository.ReplicaState.REMOVED;
 import static org.dcache.util.ByteUnit.GiB;
+import static org.dcache.util.Exceptions.messageOrClassName;
 
 /**
  * Implementation of Repository interface.
@@ -159,6 +163,25 @@ public class ReplicaRepository
     private long _workQueuekeepAliveTime = 60;
     private TimeUnit _workQueueTimeUnit =  TimeUnit.SECONDS;
 
+    /**
+     * File recording whether the repository was shut down cleanly, the
+     * inventory generation and the number of replicas at shutdown. If not
+     * set, the inventory is always fully reconciled on startup.
+     */
+    @GuardedBy("_stateLock")
+    private Path _inventoryStateFile;
+
+    /**
+     * Incremented every time the repository is loaded.
+     */
+    private volatile long _inventoryGeneration;
+
+    /**
+     * Whether a fault was reported since the repository was loaded. A
+     * repository that failed is not considered to be shut down cleanly.
+     */
+    private volatile boolean _hasFault;
+
     /** Executor for periodic tasks. */
     @GuardedBy("_stateLock")
     private ScheduledExecutorService _executor;
@@ -167,7 +190,7 @@ public class ReplicaRepository
      * Meta data about files in the pool.
      */
     @GuardedBy("_stateLock")
-    private ReplicaStore _store;
+    private ReplicaStoreCache _store;
 
     @GuardedBy("_stateLock")
     private String _poolName;
@@ -282,6 +305,17 @@ public class ReplicaRepository
         }
     }
 
+    public void setInventoryStateFile(Path path)
+    {
+        _stateLock.readLock().lock();
+        try {
+            checkUninitialized();
+            _inventoryStateFile = path;
+        } finally {
+            _stateLock.readLock().unlock();
+        }
+    }
+
     public Integer getscanThreads()
     {
         return scanThreads;
@@ -458,6 +492,7 @@ public class ReplicaRepository
                 @Override
                 public void faultOccurred(FaultEvent event)
                 {
+                    _hasFault = true;
                     for (FaultListener listener : _faultListeners) {
                         listener.faultOccurred(event);
                     }
@@ -549,6 +584,65 @@ public class ReplicaRepository
         return id;
     }
 
+    /**
+     * Reads the inventory state file and marks the inventory as dirty
+     * for the new generation.
+     *
+     * @return the number of replicas recorded at the last clean shutdown, or
+     *         empty if the repository was not shut down cleanly
+     */
+    private OptionalLong openInventory() throws CacheException
+    {
+        if (_inventoryStateFile == null) {
+            return OptionalLong.empty();
+        }
+
+        OptionalLong count = OptionalLong.empty();
+        long generation = 0;
+        try {
+            String[] fields = new String(Files.readAllBytes(_inventoryStateFile), US_ASCII).trim().split(" ");
+            generation = Long.parseLong(fields[0]);
+            if (fields.length == 3 && fields[1].equals("clean")) {
+                count = OptionalLong.of(Long.parseLong(fields[2]));
+            }
+        } catch (NoSuchFileException e) {
+            LOGGER.info("No inventory state found in {}.", _inventoryStateFile);
+        } catch (IOException | NumberFormatException e) {
+            LOGGER.warn("Failed to read inventory state from {}: {}", _inventoryStateFile, messageOrClassName(e));
+        }
+
+        _inventoryGeneration = generation + 1;
+        _hasFault = false;
+        writeInventoryState(_inventoryGeneration + " dirty");
+        return count;
+    }
+
+    /**
+     * Records that the repository was shut down cleanly with {@code count}
+     * replicas.
+     */
+    private void closeInventory(long count)
+    {
+        try {
+            writeInventoryState(_inventoryGeneration + " clean " + count);
+        } catch (DiskErrorCacheException e) {
+            LOGGER.error(e.getMessage());
+        }
+    }
+
+    private void writeInventoryState(String state) throws DiskErrorCacheException
+    {
+        Path tmp = _inventoryStateFile.resolveSibling(_inventoryStateFile.getFileName() + ".tmp");
+        try {
+            Files.write(tmp, state.getBytes(US_ASCII), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, StandardOpenOption.SYNC);
+            Files.move(tmp, _inventoryStateFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new DiskErrorCacheException("Failed to write inventory state to " + _inventoryStateFile + ": "
+                                              + messageOrClassName(e), e);
+        }
+    }
+
     @Override
     public void load()
             throws CacheException, IllegalStateException,
@@ -559,59 +653,31 @@ public class ReplicaRepository
 
         Stopwatch watch = Stopwatch.createStarted();
         try {
+            OptionalLong cleanCount = openInventory();
+
             LOGGER.warn("Reading inventory from {}.", _store);
-            _store.init();
+            if (!cleanCount.isPresent()) {
+                _store.init();
+            } else if (_store.initFromMetaData(cleanCount.getAsLong())) {
+                LOGGER.info("Repository was shut down cleanly, skipping reconciliation with {}.", _store);
+            } else {
+                LOGGER.warn("Inventory does not match the state recorded at shutdown, reconciling with {}.", _store);
+                _store.init();
+            }
 
             Collection<PnfsId> ids = _store.index();
             int fileCount = ids.size();
 
             LOGGER.info("Checking meta data for {} files with {} threads.", fileCount, scanThreads);
-            int cnt = 0;
 
             if (scanThreads == 1) {
+                int cnt = 0;
                 for (PnfsId id : ids) {
                     loadRecord(id);
                     _initializationProgress = ((float) ++cnt) / fileCount;
                 }
             } else {
-                BlockingQueue<Runnable> workQueue = new ArrayBlockingQueue<Runnable>(_workQueueCapacity);
-                ThreadPoolExecutor scanExecutor = new ThreadPoolExecutor(1, scanThreads, _workQueuekeepAliveTime, _workQueueTimeUnit, workQueue);
-                CompletionService<PnfsId> completionService = new ExecutorCompletionService<PnfsId>(scanExecutor);
-                Set<Future<PnfsId>> futures = new HashSet<Future<PnfsId>>();
-
-                for (PnfsId id : ids) {
-
-                    ArrayList<Future<PnfsId>> completedFutures = new ArrayList<Future<PnfsId>>();
-                    while (true) {
-                        try {
-                            futures.add(completionService.submit(() -> {
-                                return loadRecord(id);
-                            }));
-                            break;
-                        } catch (RejectedExecutionException e) {
-                            completedFutures.add(completionService.take());
-                        }
-                    }
-
-                    while (completedFutures.size() > 0 || (futures.size() + cnt == fileCount && futures.size() > 0)) {
-
-                        Future<PnfsId> future = completionService.poll();
-                        if (future != null) {
-                            completedFutures.add(future);
-                        }
-                        if (completedFutures.size() > 0) {
-                            future = completedFutures.remove(0);
-                            futures.remove(future);
-                            try {
-                                future.get();
-                                _initializationProgress = ((float) ++cnt) / fileCount;
-                            } catch (ExecutionException e) {
-                                throw new RuntimeException(e);
-                            }
-                        }
-                    }
-                }
-                scanExecutor.shutdown();
+                loadRecords(ids);
             }
             LOGGER.debug("Checked meta data for {} % of the files.", _initializationProgress);
 
@@ -631,17 +697,59 @@ public class ReplicaRepository
         LOGGER.info("Done generating inventory in {}", watch);
     }
 
+    /**
+     * Loads the records of {@code ids} using {@code scanThreads} threads.
+     * Records are submitted as the inventory is iterated and replicas
+     * become available as soon as their record has been checked. If the
+     * work queue is full, the loading thread checks records itself.
+     */
+    private void loadRecords(Collection<PnfsId> ids)
+            throws CacheException, InterruptedException
+    {
+        int fileCount = ids.size();
+        AtomicInteger cnt = new AtomicInteger();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        ThreadPoolExecutor scanExecutor =
+                new ThreadPoolExecutor(scanThreads, scanThreads, _workQueuekeepAliveTime, _workQueueTimeUnit,
+                                       new ArrayBlockingQueue<>(_workQueueCapacity),
+                                       new ThreadFactoryBuilder().setNameFormat("repository-scan-%d").build(),
+                                       new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            for (PnfsId id : ids) {
+                if (failure.get() != null) {
+                    break;
+                }
+                scanExecutor.execute(() -> {
+                    try {
+                        loadRecord(id);
+                        _initializationProgress = ((float) cnt.incrementAndGet()) / fileCount;
+                    } catch (CacheException | InterruptedException | RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+            }
+            scanExecutor.shutdown();
+            scanExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            scanExecutor.shutdownNow();
+        }
+
+        Exception e = failure.get();
+        if (e != null) {
+            Throwables.throwIfInstanceOf(e, CacheException.class);
+            Throwables.throwIfInstanceOf(e, InterruptedException.class);
+            Throwables.throwIfUnchecked(e);
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public Iterator<PnfsId> iterator()
     {
         _stateLock.readLock().lock();
         try {
             checkOpen();
-            try {
-                return Collections.unmodifiableCollection(_store.index()).iterator();
-            } catch (CacheException e) {
-                throw new RuntimeException(e);
-            }
+            return Collections.unmodifiableCollection(_store.index()).iterator();
         } finally {
             _stateLock.readLock().unlock();
         }
@@ -691,7 +799,8 @@ public class ReplicaRepository
                 r.setFileAttributes(fileAttributes);
                 r.setState(transferState);
                 return new WriteHandleImpl(this, buildAllocator(flags, maximumSize), _pnfs,
-                        entry, fileAttributes, targetState, stickyRecords);
+                        entry, fileAttributes, targetState, stickyRecords,
+                        flags.contains(OpenFlags.DIRECT_IO));
             });
         } catch (DuplicateEntryException e) {
             /* Somebody got the idea that we don't have the file, so we make
@@ -753,7 +862,8 @@ public class ReplicaRepository
             // all dCache-internal activity cannot (hence has NOATIME flag).
             boolean isInternalActivity = flags.contains(OpenFlags.NOATIME);
 
-            return new ReadHandleImpl(_pnfs, entry, fileAttributes, isInternalActivity);
+            return new ReadHandleImpl(_pnfs, entry, fileAttributes, isInternalActivity,
+                    flags.contains(OpenFlags.DIRECT_IO));
         } catch (FileNotInCacheException e) {
             /* Somebody got the idea that we have the file, so we make
              * sure to remove any stray pointers.
@@ -1000,14 +1110,10 @@ public class ReplicaRepository
             if (_state == State.LOADING) {
                 info.setInitializationProgress((int) (_initializationProgress * 100));
             }
-            try {
-                if (_state == State.OPEN ||
-                                _state == State.LOADING ||
-                                _state == State.INITIALIZED) {
-                    info.setFiles(_store.index().size());
-                }
-            } catch (CacheException e) {
-                info.setFilesException(e.getMessage());
+            if (_state == State.OPEN ||
+                            _state == State.LOADING ||
+                            _state == State.INITIALIZED) {
+                info.setFiles(_store.index().size());
             }
 
             SpaceRecord space = getSpaceRecord();
@@ -1047,8 +1153,13 @@ public class ReplicaRepository
         _stateLock.writeLock().lock();
         try {
             _stateChangeListeners.stop();
+            boolean isClean = _state == State.OPEN && !_hasFault && _inventoryStateFile != null;
+            long count = isClean ? _store.index().size() : 0;
             _state = State.CLOSED;
             _store.close();
+            if (isClean) {
+                closeInventory(count);
+            }
         } finally {
             _stateLock.writeLock().unlock();
         }
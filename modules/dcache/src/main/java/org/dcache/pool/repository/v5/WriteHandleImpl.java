@@ -27,6 +27,7 @@ import org.dcache.pool.repository.FileStore;
 import org.dcache.pool.repository.ReplicaState;
 import org.dcache.pool.repository.ReplicaRecord;
 import org.dcache.pool.repository.ReplicaDescriptor;
+import org.dcache.pool.repository.Repository;
 import org.dcache.pool.repository.RepositoryChannel;
 import org.dcache.pool.repository.StickyRecord;
 import org.dcache.pool.repository.checksums.ChecksumReplicaRecord;
@@ -61,6 +62,11 @@ class WriteHandleImpl implements ReplicaDescriptor
             .add(InotifyReplicaRecord.OpenFlags.ENABLE_INOTIFY_MONITORING)
             .build();
 
+    private static final Set<OpenOption> DIRECT_IO_OPEN_OPTIONS_WITH_INOTIFY = ImmutableSet.<OpenOption>builder()
+            .addAll(OPEN_OPTIONS_WITH_INOTIFY)
+            .add(Repository.OpenFlags.DIRECT_IO)
+            .build();
+
     /**
      * Time that a new CACHED file with no sticky flags will be marked
      * sticky.
@@ -99,13 +105,17 @@ class WriteHandleImpl implements ReplicaDescriptor
 
     private boolean hasChannelBeenCreated;
 
+    /** Whether the client channel bypasses the page cache. */
+    private final boolean _isDirectIo;
+
     WriteHandleImpl(ReplicaRepository repository,
                     Allocator allocator,
                     PnfsHandler pnfs,
                     ReplicaRecord entry,
                     FileAttributes fileAttributes,
                     ReplicaState targetState,
-                    List<StickyRecord> stickyRecords)
+                    List<StickyRecord> stickyRecords,
+                    boolean isDirectIo)
     {
         _repository = requireNonNull(repository);
         _allocator = requireNonNull(allocator);
@@ -116,6 +126,7 @@ class WriteHandleImpl implements ReplicaDescriptor
         _targetState = requireNonNull(targetState);
         _stickyRecords = requireNonNull(stickyRecords);
         _state = HandleState.OPEN;
+        _isDirectIo = isDirectIo;
 
         checkState(_initialState != ReplicaState.FROM_CLIENT || _fileAttributes.isDefined(EnumSet.of(RETENTION_POLICY, ACCESS_LATENCY)));
         checkState(_initialState == ReplicaState.FROM_CLIENT || _fileAttributes.isDefined(SIZE));
@@ -145,9 +156,14 @@ class WriteHandleImpl implements ReplicaDescriptor
             throw new IllegalStateException("Handle is closed");
         }
 
-        Set<OpenOption> options = isChannelForClient()
-                ? OPEN_OPTIONS_WITH_INOTIFY
-                : OPEN_OPTIONS;
+        Set<OpenOption> options;
+        if (!isChannelForClient()) {
+            options = OPEN_OPTIONS;
+        } else if (_isDirectIo) {
+            options = DIRECT_IO_OPEN_OPTIONS_WITH_INOTIFY;
+        } else {
+            options = OPEN_OPTIONS_WITH_INOTIFY;
+        }
 
         RepositoryChannel channel = new AllocatorAwareRepositoryChannel(_entry.openChannel(options),
                 _repository, _fileAttributes.getPnfsId(), _allocator);
@@ -0,0 +1,93 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2026 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.statistics;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.dcache.util.LineIndentingPrintWriter;
+
+import static org.dcache.pool.statistics.SnapshotStatistics.describeLatencyPercentiles;
+import static org.dcache.pool.statistics.SnapshotStatistics.describeSizePercentiles;
+
+/**
+ * Latency and request size distributions of the IO requests of all movers
+ * that completed on a pool, both in total and per protocol.  The histograms
+ * of each mover are added once the mover has finished.
+ */
+public class IoHistograms
+{
+    private static class Histograms
+    {
+        final LogHistogram readLatency = new LogHistogram();
+        final LogHistogram readSize = new LogHistogram();
+        final LogHistogram writeLatency = new LogHistogram();
+        final LogHistogram writeSize = new LogHistogram();
+
+        void add(SnapshotStatistics reads, SnapshotStatistics writes)
+        {
+            readLatency.add(reads.latencyHistogram());
+            readSize.add(reads.sizeHistogram());
+            writeLatency.add(writes.latencyHistogram());
+            writeSize.add(writes.sizeHistogram());
+        }
+
+        void getInfo(PrintWriter pw)
+        {
+            long[] latency = readLatency.snapshot();
+            if (latency.length > 0) {
+                pw.println("Read wait time: " + describeLatencyPercentiles(latency));
+                pw.println("Read requested size: " + describeSizePercentiles(readSize.snapshot()));
+            }
+            latency = writeLatency.snapshot();
+            if (latency.length > 0) {
+                pw.println("Write wait time: " + describeLatencyPercentiles(latency));
+                pw.println("Write requested size: " + describeSizePercentiles(writeSize.snapshot()));
+            }
+        }
+    }
+
+    private final Histograms _total = new Histograms();
+    private final Map<String, Histograms> _protocols = new ConcurrentSkipListMap<>();
+
+    /**
+     * Adds the IO statistics of a finished mover.
+     * @param protocol the protocol of the mover, e.g. {@literal Http-1}
+     * @param statistics the IO statistics of the mover
+     */
+    public void add(String protocol, IoStatistics statistics)
+    {
+        SnapshotStatistics reads = statistics.reads().statistics();
+        SnapshotStatistics writes = statistics.writes().statistics();
+        _total.add(reads, writes);
+        _protocols.computeIfAbsent(protocol, p -> new Histograms()).add(reads, writes);
+    }
+
+    public void getInfo(PrintWriter pw)
+    {
+        pw.println("Disk IO distributions of finished movers:");
+        PrintWriter indented = new LineIndentingPrintWriter(pw, "    ");
+        indented.println("All protocols:");
+        _total.getInfo(new LineIndentingPrintWriter(indented, "    "));
+        _protocols.forEach((protocol, histograms) -> {
+            indented.println(protocol + ":");
+            histograms.getInfo(new LineIndentingPrintWriter(indented, "    "));
+        });
+    }
+}
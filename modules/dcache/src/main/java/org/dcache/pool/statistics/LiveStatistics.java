@@ -17,7 +17,12 @@
  */
 package org.dcache.pool.statistics;
 
-import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+import org.apache.commons.math3.stat.descriptive.StatisticalSummary;
+import org.apache.commons.math3.stat.descriptive.StatisticalSummaryValues;
+
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static java.time.temporal.ChronoUnit.SECONDS;
@@ -29,29 +34,71 @@ import static java.time.temporal.ChronoUnit.SECONDS;
  * observed behaviour of an IO operation (either read or write) and the getter
  * methods provide immutable snapshots of various metrics.
  * <p>
- * This class protects against concurrent updates and obtaining a snapshot of a
- * metric's statistics.  External synchronisation is needed if multiple snapshot
- * statistics are desired without any intermediate updates.
+ * Updates are lock-free: each metric is accumulated in striped adders, so
+ * concurrent IO requests of a mover do not contend on a common monitor.  As
+ * a consequence, a snapshot taken while IO operations are in flight may
+ * include an operation in some metrics and not in others.
+ * <p>
+ * In addition to summary statistics, the latency and requested size of each
+ * IO operation are recorded in {@link LogHistogram}s.
  */
 public class LiveStatistics
 {
-    private final SummaryStatistics _instantaneousBandwidth = new SummaryStatistics();
-    private final SummaryStatistics _requestedBytes = new SummaryStatistics();
-    private final SummaryStatistics _transferredBytes = new SummaryStatistics();
-    private final SummaryStatistics _duration = new SummaryStatistics();
-    private final SummaryStatistics _concurrency = new SummaryStatistics();
+    /**
+     * Lock-free accumulation of the values needed for a StatisticalSummary.
+     */
+    private static class Summary
+    {
+        private final LongAdder _n = new LongAdder();
+        private final DoubleAdder _sum = new DoubleAdder();
+        private final DoubleAdder _sumOfSquares = new DoubleAdder();
+        private final DoubleAccumulator _min = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+        private final DoubleAccumulator _max = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+
+        void addValue(double value)
+        {
+            _sum.add(value);
+            _sumOfSquares.add(value * value);
+            _min.accumulate(value);
+            _max.accumulate(value);
+            _n.increment();
+        }
+
+        StatisticalSummary snapshot()
+        {
+            long n = _n.sum();
+            if (n == 0) {
+                return new StatisticalSummaryValues(Double.NaN, Double.NaN, 0L,
+                        Double.NaN, Double.NaN, 0);
+            }
+            double sum = _sum.sum();
+            double mean = sum / n;
+            double variance = n == 1 ? 0 : Math.max(0, (_sumOfSquares.sum() - sum * mean) / (n - 1));
+            return new StatisticalSummaryValues(mean, variance, n, _max.get(), _min.get(), sum);
+        }
+    }
+
+    private final Summary _instantaneousBandwidth = new Summary();
+    private final Summary _requestedBytes = new Summary();
+    private final Summary _transferredBytes = new Summary();
+    private final Summary _duration = new Summary();
+    private final Summary _concurrency = new Summary();
+    private final LogHistogram _latencyHistogram = new LogHistogram();
+    private final LogHistogram _sizeHistogram = new LogHistogram();
 
     /**
      * Provide a snapshot of current state of the monitored statistics.
      */
-    public synchronized SnapshotStatistics snapshot()
+    public SnapshotStatistics snapshot()
     {
         return new SnapshotStatistics(
-                _instantaneousBandwidth,
-                _duration,
-                _requestedBytes,
-                _transferredBytes,
-                _concurrency);
+                _instantaneousBandwidth.snapshot(),
+                _duration.snapshot(),
+                _requestedBytes.snapshot(),
+                _transferredBytes.snapshot(),
+                _concurrency.snapshot(),
+                _latencyHistogram.snapshot(),
+                _sizeHistogram.snapshot());
     }
 
     /**
@@ -64,7 +111,7 @@ public class LiveStatistics
      * @param startedAt the value of System.nanoTime() immediately before
      * starting the IO operation.
      */
-    public synchronized void accept(int concurrency, long requestedBytes,
+    public void accept(int concurrency, long requestedBytes,
             long transferredBytes, long startedAt)
     {
         checkArgument(concurrency > 0);
@@ -81,6 +128,7 @@ public class LiveStatistics
         _requestedBytes.addValue(requestedBytes);
         _instantaneousBandwidth.addValue(instantaneousBandwidth);
         _concurrency.addValue(concurrency);
+        _latencyHistogram.record(duration);
+        _sizeHistogram.record(requestedBytes);
     }
 }
-
@@ -0,0 +1,133 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2026 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.statistics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative values with power-of-two buckets.
+ * <p>
+ * Bucket 0 counts the value 0 and bucket {@code i} counts values in the
+ * range [2<sup>i-1</sup>, 2<sup>i</sup>). Recording is lock-free, so the
+ * histogram may be updated by many threads concurrently. Bucket counts are
+ * exchanged as {@code long[]} arrays, which may be shorter than
+ * {@link #BUCKETS} if the upper buckets are empty.
+ */
+public class LogHistogram
+{
+    public static final int BUCKETS = 64;
+
+    private final LongAdder[] _buckets = new LongAdder[BUCKETS];
+
+    public LogHistogram()
+    {
+        for (int i = 0; i < BUCKETS; i++) {
+            _buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Returns the bucket of {@code value}.
+     */
+    public static int bucketOf(long value)
+    {
+        return value <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+    /**
+     * Returns the smallest value counted in {@code bucket}.
+     */
+    public static long lowerBound(int bucket)
+    {
+        return bucket == 0 ? 0 : 1L << (bucket - 1);
+    }
+
+    public void record(long value)
+    {
+        _buckets[bucketOf(value)].increment();
+    }
+
+    /**
+     * Adds bucket counts, e.g. of a snapshot of another histogram.
+     */
+    public void add(long[] counts)
+    {
+        for (int i = 0; i < counts.length && i < BUCKETS; i++) {
+            if (counts[i] > 0) {
+                _buckets[i].add(counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the bucket counts without trailing empty buckets. Concurrent
+     * updates may or may not be included.
+     */
+    public long[] snapshot()
+    {
+        long[] counts = new long[BUCKETS];
+        int length = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = _buckets[i].sum();
+            if (counts[i] > 0) {
+                length = i + 1;
+            }
+        }
+        return Arrays.copyOf(counts, length);
+    }
+
+    /**
+     * Returns an exclusive upper bound for the {@code quantile} of the values
+     * counted in {@code counts}, or -1 if there are no values.
+     */
+    public static long quantile(long[] counts, double quantile)
+    {
+        long total = Arrays.stream(counts).sum();
+        if (total == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i == BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns a compact representation of {@code counts}, listing the lower
+     * bound and count of each non-empty bucket, e.g. {@code 512:3,1024:17}.
+     */
+    public static String toString(long[] counts)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(lowerBound(i)).append(':').append(counts[i]);
+            }
+        }
+        return sb.toString();
+    }
+}
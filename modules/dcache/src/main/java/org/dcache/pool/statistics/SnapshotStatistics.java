@@ -26,6 +26,7 @@ import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.dcache.util.Strings.describeBandwidth;
 import static org.dcache.util.Strings.describeInteger;
 import static org.dcache.util.Strings.describeSize;
+import static org.dcache.util.Strings.humanReadableSize;
 import static org.dcache.util.TimeUtils.describeDuration;
 
 /**
@@ -38,11 +39,15 @@ public class SnapshotStatistics
     private static final StatisticalSummary NO_RESULTS = new StatisticalSummaryValues(
             Double.NaN, Double.NaN, 0L, Double.NaN, Double.NaN, Double.NaN);
 
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99};
+
     private final StatisticalSummary _instantaneousBandwidth;
     private final StatisticalSummary _duration;
     private final StatisticalSummary _requestedBytes;
     private final StatisticalSummary _transferredBytes;
     private final StatisticalSummary _concurrency;
+    private final long[] _latencyHistogram;
+    private final long[] _sizeHistogram;
 
     public SnapshotStatistics()
     {
@@ -55,12 +60,27 @@ public class SnapshotStatistics
             StatisticalSummary requestedBytes,
             StatisticalSummary transferredBytes,
             StatisticalSummary concurrency)
+    {
+        this(instantaneousBandwidth, duration, requestedBytes, transferredBytes,
+                concurrency, new long[0], new long[0]);
+    }
+
+    public SnapshotStatistics(
+            StatisticalSummary instantaneousBandwidth,
+            StatisticalSummary duration,
+            StatisticalSummary requestedBytes,
+            StatisticalSummary transferredBytes,
+            StatisticalSummary concurrency,
+            long[] latencyHistogram,
+            long[] sizeHistogram)
     {
         _instantaneousBandwidth = instantaneousBandwidth;
         _duration = duration;
         _requestedBytes = requestedBytes;
         _transferredBytes = transferredBytes;
         _concurrency = concurrency;
+        _latencyHistogram = latencyHistogram;
+        _sizeHistogram = sizeHistogram;
     }
 
     /**
@@ -113,6 +133,24 @@ public class SnapshotStatistics
         return _duration;
     }
 
+    /**
+     * Distribution of the time spent processing IO requests of this type, as
+     * {@link LogHistogram} bucket counts.  Values are in nanoseconds.
+     */
+    public long[] latencyHistogram()
+    {
+        return _latencyHistogram.clone();
+    }
+
+    /**
+     * Distribution of the requested bytes, as {@link LogHistogram} bucket
+     * counts.
+     */
+    public long[] sizeHistogram()
+    {
+        return _sizeHistogram.clone();
+    }
+
     public void getInfo(PrintWriter pw)
     {
         if (_instantaneousBandwidth.getN() > 0) {
@@ -121,9 +159,15 @@ public class SnapshotStatistics
         if (_duration.getN() > 0) {
             pw.println("IO wait time: " + describeDuration(_duration, NANOSECONDS));
         }
+        if (_latencyHistogram.length > 0) {
+            pw.println("IO wait time percentiles: " + describeLatencyPercentiles(_latencyHistogram));
+        }
         if (_requestedBytes.getN() > 0) {
             pw.println("IO requested size: " + describeSize(_requestedBytes));
         }
+        if (_sizeHistogram.length > 0) {
+            pw.println("IO requested size percentiles: " + describeSizePercentiles(_sizeHistogram));
+        }
         if (_transferredBytes.getN() > 0) {
             pw.println("IO transferred size: " + describeSize(_transferredBytes));
         }
@@ -131,4 +175,34 @@ public class SnapshotStatistics
             pw.println("Concurrency: " + describeInteger(_concurrency));
         }
     }
+
+    /**
+     * Describes the median, 90th and 99th percentile of the values in a
+     * histogram.  Values are exclusive upper bounds of the histogram buckets.
+     */
+    public static String describeLatencyPercentiles(long[] histogram)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (double p : PERCENTILES) {
+            appendPercentile(sb, p).append(describeDuration(LogHistogram.quantile(histogram, p), NANOSECONDS));
+        }
+        return sb.toString();
+    }
+
+    public static String describeSizePercentiles(long[] histogram)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (double p : PERCENTILES) {
+            appendPercentile(sb, p).append(humanReadableSize(LogHistogram.quantile(histogram, p)));
+        }
+        return sb.toString();
+    }
+
+    private static StringBuilder appendPercentile(StringBuilder sb, double p)
+    {
+        if (sb.length() > 0) {
+            sb.append(", ");
+        }
+        return sb.append("p").append(Math.round(p * 100)).append(" < ");
+    }
 }
@@ -0,0 +1,134 @@
+/*
+ * dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2026 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.dcache.poolmanager;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import diskCacheV111.pools.PoolCostInfo;
+import diskCacheV111.vehicles.PoolManagerPoolUpMessage;
+
+/**
+ * Turns delta heartbeats of pools into full heartbeats.
+ *
+ * The most recent full heartbeat of each pool is kept. A delta is merged
+ * with the full heartbeat it refers to; a delta referring to a full
+ * heartbeat that was not received, e.g. because the receiver or the pool
+ * restarted, cannot be resolved.
+ *
+ * Every heartbeat returned carries its own copy of the cost info, so
+ * receivers may modify it.
+ */
+public class PoolHeartbeatResolver
+{
+    /**
+     * Minimum time between two requests for a full heartbeat of the same
+     * pool.
+     */
+    private static final long REQUEST_PERIOD = TimeUnit.SECONDS.toMillis(30);
+
+    private static class Base
+    {
+        final PoolManagerPoolUpMessage message;
+        final PoolCostInfo costInfo;
+
+        Base(PoolManagerPoolUpMessage message)
+        {
+            this.message = message;
+            this.costInfo = message.getPoolCostInfo() == null ? null : new PoolCostInfo(message.getPoolCostInfo());
+        }
+    }
+
+    private final Map<String, Base> _bases = new ConcurrentHashMap<>();
+    private final Map<String, Long> _requests = new ConcurrentHashMap<>();
+
+    private final LongAdder _full = new LongAdder();
+    private final LongAdder _deltas = new LongAdder();
+    private final LongAdder _unresolved = new LongAdder();
+
+    /**
+     * Returns the full heartbeat corresponding to {@code message}, or an
+     * empty Optional if {@code message} is a delta that cannot be resolved.
+     */
+    public Optional<PoolManagerPoolUpMessage> resolve(PoolManagerPoolUpMessage message)
+    {
+        String pool = message.getPoolName();
+        if (!message.isDelta()) {
+            _full.increment();
+            _bases.put(pool, new Base(message));
+            _requests.remove(pool);
+            return Optional.of(message);
+        }
+
+        Base base = _bases.get(pool);
+        if (base == null || base.message.getSerialId() != message.getSerialId()
+                || base.message.getSequence() != message.getBaseSequence()) {
+            _unresolved.increment();
+            return Optional.empty();
+        }
+
+        _deltas.increment();
+        PoolCostInfo costInfo = message.getPoolCostInfo();
+        if (costInfo == null && base.costInfo != null) {
+            PoolCostInfo.Delta delta = message.getPoolCostInfoDelta();
+            costInfo = delta == null ? new PoolCostInfo(base.costInfo) : new PoolCostInfo(base.costInfo, delta);
+        }
+        PoolManagerPoolUpMessage full =
+                new PoolManagerPoolUpMessage(pool, message.getSerialId(), message.getPoolMode(), costInfo);
+        full.setSequence(message.getSequence());
+        full.setHostName(message.getHostName() != null ? message.getHostName() : base.message.getHostName());
+        full.setTagMap(message.getTagMap() != null ? message.getTagMap() : base.message.getTagMap());
+        if (message.getHsmInstances() != null) {
+            full.setHsmInstances(message.getHsmInstances());
+        } else if (base.message.getHsmInstances() != null) {
+            full.setHsmInstances(base.message.getHsmInstances());
+        }
+        full.setMessage(message.getMessage());
+        full.setCode(message.getCode());
+        return Optional.of(full);
+    }
+
+    /**
+     * Returns true if a full heartbeat should be requested from
+     * {@code pool}. Requests are limited to one per pool every thirty
+     * seconds.
+     */
+    public boolean shouldRequestFull(String pool)
+    {
+        long now = System.currentTimeMillis();
+        Long last = _requests.get(pool);
+        if (last != null && now - last < REQUEST_PERIOD) {
+            return false;
+        }
+        _requests.put(pool, now);
+        return true;
+    }
+
+    public void getInfo(PrintWriter pw)
+    {
+        pw.println("       Full : " + _full);
+        pw.println("      Delta : " + _deltas);
+        pw.println(" Unresolved : " + _unresolved);
+    }
+}
@@ -37,6 +37,7 @@ import diskCacheV111.vehicles.StorageInfoMessage;
 import diskCacheV111.vehicles.WarningPnfsFileInfoMessage;
 
 import org.dcache.auth.SubjectWrapper;
+import org.dcache.pool.statistics.LogHistogram;
 import org.dcache.util.ByteUnit;
 
 public class StringTemplateInfoMessageVisitor implements InfoMessageVisitor
@@ -119,6 +120,18 @@ public class StringTemplateInfoMessageVisitor implements InfoMessageVisitor
         template.add("writeActive", message.getWriteActive()
                 .map(d -> Long.toString(d.toMillis()))
                 .orElse("-"));
+        template.add("readLatency", message.getReadLatencyHistogram()
+                .map(LogHistogram::toString)
+                .orElse("-"));
+        template.add("readSize", message.getReadSizeHistogram()
+                .map(LogHistogram::toString)
+                .orElse("-"));
+        template.add("writeLatency", message.getWriteLatencyHistogram()
+                .map(LogHistogram::toString)
+                .orElse("-"));
+        template.add("writeSize", message.getWriteSizeHistogram()
+                .map(LogHistogram::toString)
+                .orElse("-"));
     }
 
     // Format value in scientific notation to three significant figures.
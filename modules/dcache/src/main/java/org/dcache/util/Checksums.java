@@ -48,6 +48,7 @@ public class Checksums
     private static final Map<ChecksumType,String> CHECKSUMTYPE_TO_RFC3230_NAME = ImmutableMap.<ChecksumType,String>builder()
             .put(ADLER32, "adler32")
             .put(MD5_TYPE, "md5")
+            .put(CRC32C, "crc32c")
             .build();
 
     private static final EntryTransformer<String,String,Checksum>
@@ -65,6 +66,9 @@ public class Checksums
                         byte[] bytes = Base64.getDecoder().decode(value);
                         return new Checksum(ChecksumType.MD5_TYPE, bytes);
 
+                    case "crc32c":
+                        return new Checksum(ChecksumType.CRC32C, value);
+
                     default:
                         _log.debug("Unsupported checksum type {}", type);
                         return null;
@@ -76,7 +80,7 @@ public class Checksums
                 }
             };
     private static final Ordering<ChecksumType> PREFERRED_CHECKSUM_TYPE_ORDERING =
-            Ordering.explicit(MD5_TYPE, ADLER32, MD4_TYPE);
+            Ordering.explicit(MD5_TYPE, ADLER32, CRC32C, MD4_TYPE);
     private static final Ordering<Checksum> PREFERRED_CHECKSUM_ORDERING =
             PREFERRED_CHECKSUM_TYPE_ORDERING.onResultOf(Checksum::getType);
 
@@ -92,6 +96,8 @@ public class Checksums
                 switch(f.getType()) {
                 case ADLER32:
                     return "adler32=" + value;
+                case CRC32C:
+                    return "crc32c=" + value;
                 case MD4_TYPE:
                     return null;
                 case MD5_TYPE:
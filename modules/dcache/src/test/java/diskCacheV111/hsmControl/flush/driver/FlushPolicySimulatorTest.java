@@ -0,0 +1,111 @@
+package diskCacheV111.hsmControl.flush.driver;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class FlushPolicySimulatorTest
+{
+    private static final String[] SCENARIO = { "-hours=12", "-pools=4" };
+
+    /**
+     * Runs the simulator and returns the columns of the output by policy.
+     */
+    private static Map<String, String[]> simulate(String... arguments) throws UnsupportedEncodingException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(bytes, true, "UTF-8"));
+        try {
+            FlushPolicySimulator.main(arguments);
+        } finally {
+            System.setOut(out);
+        }
+
+        Map<String, String[]> rows = new HashMap<>();
+        for (String line : bytes.toString("UTF-8").split("\n")) {
+            String[] columns = line.trim().replace("%", "").split("\\s+");
+            rows.put(columns[0], columns);
+        }
+        return rows;
+    }
+
+    private static long flushes(String[] row)
+    {
+        return Long.parseLong(row[1]);
+    }
+
+    private static long mounts(String[] row)
+    {
+        return Long.parseLong(row[2]);
+    }
+
+    private static double perMount(String[] row)
+    {
+        return Double.parseDouble(row[3]);
+    }
+
+    private static double streaming(String[] row)
+    {
+        return Double.parseDouble(row[4]);
+    }
+
+    private static double interference(String[] row)
+    {
+        return Double.parseDouble(row[5]);
+    }
+
+    private static long maxAge(String[] row)
+    {
+        return Long.parseLong(row[6]);
+    }
+
+    @Test
+    public void shouldReportBothPolicies() throws Exception
+    {
+        Map<String, String[]> rows = simulate(SCENARIO);
+
+        assertThat(rows.keySet(), containsInAnyOrder("POLICY", "threshold", "predictive"));
+        assertThat(rows.get("threshold").length, is(9));
+        assertThat(rows.get("predictive").length, is(9));
+    }
+
+    @Test
+    public void shouldBeDeterministicForSameSeed() throws Exception
+    {
+        Map<String, String[]> first = simulate(SCENARIO);
+        Map<String, String[]> second = simulate(SCENARIO);
+
+        assertArrayEquals(first.get("threshold"), second.get("threshold"));
+        assertArrayEquals(first.get("predictive"), second.get("predictive"));
+    }
+
+    @Test
+    public void shouldMountLessOftenWithPredictivePolicy() throws Exception
+    {
+        Map<String, String[]> rows = simulate(SCENARIO);
+        String[] threshold = rows.get("threshold");
+        String[] predictive = rows.get("predictive");
+
+        assertThat(flushes(predictive), is(lessThan(flushes(threshold))));
+        assertThat(mounts(predictive), is(lessThan(mounts(threshold))));
+        assertThat(perMount(predictive), is(greaterThan(perMount(threshold))));
+        assertThat(streaming(predictive), is(greaterThan(streaming(threshold))));
+        assertThat(interference(predictive), is(lessThan(interference(threshold))));
+    }
+
+    @Test
+    public void shouldRespectMaximumAgeWithPredictivePolicy() throws Exception
+    {
+        assertThat(maxAge(simulate(SCENARIO).get("predictive")), is(lessThanOrEqualTo(240L)));
+        assertThat(maxAge(simulate("-hours=12", "-pools=4", "-max-age=60").get("predictive")),
+                   is(lessThanOrEqualTo(60L)));
+    }
+}
@@ -0,0 +1,300 @@
+package diskCacheV111.hsmControl.flush.driver;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import diskCacheV111.hsmControl.flush.driver.PredictiveFlushModel.Flush;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.dcache.util.ByteUnit.MiB;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class PredictiveFlushModelTest
+{
+    private static final String SC = "tape:raw@osm";
+    private static final long T0 = HOURS.toMillis(1000);
+
+    /** Bytes a drive writes in the stream time. */
+    private static final long MOUNT = 100_000;
+
+    private PredictiveFlushModel model;
+
+    @Before
+    public void setUp()
+    {
+        model = new PredictiveFlushModel();
+        model.setDrives(1);
+        model.setInitialBandwidth(1000);
+        model.setMountTime(SECONDS.toMillis(100));
+        model.setStreamTime(SECONDS.toMillis(100));
+        model.setMaxAge(HOURS.toMillis(1));
+        model.setWriteRateLimit(Double.MAX_VALUE);
+        model.setMaxStartsPerRound(10);
+    }
+
+    @Test
+    public void shouldNotMountForLessThanStreamTime()
+    {
+        model.updateQueue("pool-a", SC, T0, MOUNT / 2, T0);
+
+        assertThat(model.schedule(T0), is(empty()));
+    }
+
+    @Test
+    public void shouldMountOnceDriveCanStream()
+    {
+        model.updateQueue("pool-a", SC, T0, MOUNT, T0);
+
+        List<Flush> flushes = model.schedule(T0);
+
+        assertThat(pools(flushes), contains("pool-a"));
+        assertFalse(flushes.get(0).isUrgent());
+        assertThat(flushes.get(0).getStorageClass(), is(SC));
+    }
+
+    @Test
+    public void shouldCountDataWrittenByClientsDuringMount()
+    {
+        model.updateQueue("pool-a", SC, T0, 0, T0);
+        model.updateQueue("pool-a", SC, T0 + SECONDS.toMillis(10), MOUNT / 2, T0);
+
+        /* 5000 B/s weighted by 0.3, during 100 s of mount time. */
+        assertThat(pools(model.schedule(T0 + SECONDS.toMillis(10))), contains("pool-a"));
+    }
+
+    @Test
+    public void shouldFlushDataAboutToExceedMaximumAge()
+    {
+        model.updateQueue("pool-a", SC, T0, 10, T0 - HOURS.toMillis(1));
+
+        List<Flush> flushes = model.schedule(T0);
+
+        assertThat(pools(flushes), contains("pool-a"));
+        assertTrue(flushes.get(0).isUrgent());
+    }
+
+    @Test
+    public void shouldCountTimeToTapeTowardsMaximumAge()
+    {
+        /* Mounting and writing take 150 s, by which time the oldest file
+         * reaches the maximum age. */
+        model.updateQueue("pool-a", SC, T0, MOUNT / 2, T0 - HOURS.toMillis(1) + SECONDS.toMillis(150));
+
+        List<Flush> flushes = model.schedule(T0);
+
+        assertThat(pools(flushes), contains("pool-a"));
+        assertTrue(flushes.get(0).isUrgent());
+    }
+
+    @Test
+    public void shouldFlushPoolRunningOutOfSpace()
+    {
+        model.updatePool("pool-a", 1000, 800);
+        model.updateQueue("pool-a", SC, T0, 10, T0);
+
+        List<Flush> flushes = model.schedule(T0);
+
+        assertThat(pools(flushes), contains("pool-a"));
+        assertTrue(flushes.get(0).isUrgent());
+    }
+
+    @Test
+    public void shouldNotFlushUnavailablePool()
+    {
+        model.updateQueue("pool-a", SC, T0, MOUNT, T0);
+        model.setPoolAvailable("pool-a", false);
+
+        assertThat(model.schedule(T0), is(empty()));
+    }
+
+    @Test
+    public void shouldTopUpMountedStorageClass()
+    {
+        model.updateQueue("pool-a", SC, T0, MOUNT, T0);
+        model.flushStarted("pool-a", SC, T0);
+        model.updateQueue("pool-b", SC, T0, 10, T0);
+
+        assertThat(pools(model.schedule(T0 + SECONDS.toMillis(1))), contains("pool-b"));
+    }
+
+    @Test
+    public void shouldNotQueueMoreThanDrivesCanStream()
+    {
+        model.updateQueue("pool-a", SC, T0, 2 * MOUNT, T0);
+        model.flushStarted("pool-a", SC, T0);
+        model.updateQueue("pool-b", SC, T0, 10, T0);
+
+        assertThat(model.schedule(T0 + SECONDS.toMillis(1)), is(empty()));
+    }
+
+    @Test
+    public void shouldTopUpOnceFlushIsMostlyWritten()
+    {
+        model.updateQueue("pool-a", SC, T0, 2 * MOUNT, T0);
+        model.flushStarted("pool-a", SC, T0);
+        model.updateQueue("pool-b", SC, T0, 10, T0);
+
+        assertThat(pools(model.schedule(T0 + SECONDS.toMillis(150))), contains("pool-b"));
+    }
+
+    @Test
+    public void shouldLeaveBusyPoolAloneWhileDriveIsFed()
+    {
+        model.setDrives(2);
+        model.setWriteRateLimit(100);
+        model.updateQueue("pool-a", SC, T0, 3 * MOUNT / 2, T0);
+        model.flushStarted("pool-a", SC, T0);
+        model.updateQueue("pool-b", SC, T0 - SECONDS.toMillis(10), 0, T0);
+        model.updateQueue("pool-b", SC, T0, 10_000, T0);
+        model.updateQueue("pool-c", SC, T0, 10_000, T0);
+
+        assertThat(pools(model.schedule(T0)), contains("pool-c"));
+    }
+
+    @Test
+    public void shouldUseBusyPoolToFillMount()
+    {
+        model.setWriteRateLimit(100);
+        model.updateQueue("pool-a", SC, T0 - SECONDS.toMillis(10), 0, T0);
+        model.updateQueue("pool-a", SC, T0, MOUNT, T0);
+
+        assertThat(pools(model.schedule(T0)), contains("pool-a"));
+    }
+
+    @Test
+    public void shouldPreferQuietPoolsAndThenLargestQueues()
+    {
+        model.setDrives(4);
+        model.setWriteRateLimit(100);
+        model.updateQueue("pool-a", SC, T0 - SECONDS.toMillis(10), 0, T0);
+        model.updateQueue("pool-a", SC, T0, 3 * MOUNT, T0);
+        model.updateQueue("pool-b", SC, T0, MOUNT / 4, T0);
+        model.updateQueue("pool-c", SC, T0, MOUNT / 2, T0);
+
+        assertThat(pools(model.schedule(T0)), contains("pool-c", "pool-b", "pool-a"));
+    }
+
+    @Test
+    public void shouldLimitStartsPerRoundExceptForUrgentFlushes()
+    {
+        model.setDrives(3);
+        model.setMaxStartsPerRound(1);
+        model.updateQueue("pool-a", SC, T0, MOUNT, T0);
+        model.updateQueue("pool-b", SC, T0, MOUNT, T0);
+        model.updateQueue("pool-c", SC, T0, 10, T0 - HOURS.toMillis(1));
+        model.updateQueue("pool-d", "disk:raw@osm", T0, 10, T0 - HOURS.toMillis(1));
+
+        List<Flush> flushes = model.schedule(T0);
+
+        assertThat(flushes, hasSize(3));
+        assertTrue(flushes.get(0).isUrgent());
+        assertTrue(flushes.get(1).isUrgent());
+        assertFalse(flushes.get(2).isUrgent());
+        assertThat(pools(flushes.subList(0, 2)), containsInAnyOrder("pool-c", "pool-d"));
+    }
+
+    @Test
+    public void shouldScheduleStorageClassesIndependently()
+    {
+        model.updateQueue("pool-a", SC, T0, MOUNT, T0);
+        model.updateQueue("pool-a", "disk:raw@osm", T0, MOUNT / 2, T0);
+
+        List<Flush> flushes = model.schedule(T0);
+
+        assertThat(flushes, hasSize(1));
+        assertThat(flushes.get(0).getStorageClass(), is(SC));
+    }
+
+    @Test
+    public void shouldLearnBandwidthIncludingMountTime()
+    {
+        model.setInitialBandwidth(MiB.toBytes(200L));
+        model.updateQueue("pool-a", SC, T0, MiB.toBytes(1000L), T0);
+        model.flushStarted("pool-a", SC, T0);
+
+        model.flushDone("pool-a", SC, T0 + SECONDS.toMillis(100));
+
+        assertThat(model.describe(T0), containsString("bandwidth=10.0 MiB/s samples=1"));
+    }
+
+    @Test
+    public void shouldLearnBandwidthPerDrive()
+    {
+        model.setDrives(2);
+        model.setStreamTime(HOURS.toMillis(1));
+        model.updateQueue("pool-a", SC, T0, MiB.toBytes(1000L), T0);
+        model.updateQueue("pool-b", SC, T0, MiB.toBytes(1000L), T0);
+        model.flushStarted("pool-a", SC, T0);
+        model.flushStarted("pool-b", SC, T0);
+
+        model.flushDone("pool-a", SC, T0 + SECONDS.toMillis(100));
+        assertThat(model.describe(T0), containsString("samples=0"));
+        model.flushDone("pool-b", SC, T0 + SECONDS.toMillis(100));
+
+        assertThat(model.describe(T0), containsString("bandwidth=10.0 MiB/s samples=1"));
+    }
+
+    @Test
+    public void shouldMountForMoreDataOnceBandwidthIsLearned()
+    {
+        model.updateQueue("pool-a", SC, T0, MOUNT, T0);
+        model.flushStarted("pool-a", SC, T0);
+        model.flushDone("pool-a", SC, T0 + SECONDS.toMillis(50));
+        model.updateQueue("pool-a", SC, T0 + SECONDS.toMillis(50), MOUNT, T0 + SECONDS.toMillis(50));
+
+        /* At 2000 B/s, a mount needs twice as much data. */
+        assertThat(model.schedule(T0 + SECONDS.toMillis(50)), is(empty()));
+    }
+
+    @Test
+    public void shouldNotLearnFromAbortedFlush()
+    {
+        model.updateQueue("pool-a", SC, T0, MOUNT, T0);
+        model.flushStarted("pool-a", SC, T0);
+        assertTrue(model.isFlushing("pool-a", SC));
+
+        model.flushAborted("pool-a", SC);
+
+        assertFalse(model.isFlushing("pool-a", SC));
+        assertThat(model.describe(T0), containsString("samples=0"));
+        assertThat(pools(model.schedule(T0)), contains("pool-a"));
+    }
+
+    @Test
+    public void shouldConsiderStorageClassIdleOnceFlushingPoolIsRemoved()
+    {
+        model.updateQueue("pool-a", SC, T0, MOUNT, T0);
+        model.flushStarted("pool-a", SC, T0);
+        model.updateQueue("pool-b", SC, T0, 10, T0);
+
+        model.removePool("pool-a");
+
+        assertThat(model.schedule(T0 + SECONDS.toMillis(1)), is(empty()));
+    }
+
+    @Test
+    public void shouldIgnoreRepeatedFlushNotifications()
+    {
+        model.updateQueue("pool-a", SC, T0, MOUNT, T0);
+        model.flushStarted("pool-a", SC, T0);
+        model.flushStarted("pool-a", SC, T0);
+        model.flushDone("pool-a", SC, T0 + SECONDS.toMillis(100));
+        model.flushDone("pool-a", SC, T0 + SECONDS.toMillis(200));
+        model.updateQueue("pool-a", SC, T0 + SECONDS.toMillis(200), 0, 0);
+        model.updateQueue("pool-b", SC, T0, 10, T0);
+
+        assertFalse(model.isFlushing("pool-a", SC));
+        assertThat(model.describe(T0), containsString("samples=1"));
+        assertThat(model.schedule(T0 + SECONDS.toMillis(200)), is(empty()));
+    }
+
+    private static List<String> pools(List<Flush> flushes)
+    {
+        return flushes.stream().map(Flush::getPool).collect(Collectors.toList());
+    }
+}
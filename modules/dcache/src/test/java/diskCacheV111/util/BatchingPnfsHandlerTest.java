@@ -0,0 +1,208 @@
+package diskCacheV111.util;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.vehicles.PnfsAddCacheLocationMessage;
+import diskCacheV111.vehicles.PnfsClearCacheLocationMessage;
+import diskCacheV111.vehicles.PnfsMessage;
+
+import org.dcache.cells.CellStub;
+import org.dcache.vehicles.PnfsBatchMessage;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BatchingPnfsHandlerTest
+{
+    private final List<PnfsBatchMessage> batches = new ArrayList<>();
+    private final List<SettableFuture<PnfsBatchMessage>> replies = new ArrayList<>();
+    private BatchingPnfsHandler handler;
+
+    @Before
+    public void setUp()
+    {
+        CellStub stub = mock(CellStub.class);
+        when(stub.send(any(PnfsBatchMessage.class), anyLong())).thenAnswer(invocation -> {
+            SettableFuture<PnfsBatchMessage> reply = SettableFuture.create();
+            batches.add(invocation.getArgument(0));
+            replies.add(reply);
+            return reply;
+        });
+        handler = new BatchingPnfsHandler(stub, "pool");
+        handler.setMaxBatchSize(3);
+        handler.setMaxDelay(1);
+        handler.setMaxDelayUnit(TimeUnit.HOURS);
+    }
+
+    @After
+    public void tearDown()
+    {
+        handler.shutdown();
+    }
+
+    private static PnfsId pnfsId(int i)
+    {
+        return new PnfsId(String.format("%036X", i));
+    }
+
+    private ListenableFuture<PnfsAddCacheLocationMessage> add(int i)
+    {
+        return handler.requestAsync(new PnfsAddCacheLocationMessage(pnfsId(i), "pool"));
+    }
+
+    private void reply(int batch)
+    {
+        replies.get(batch).set(batches.get(batch));
+    }
+
+    private List<PnfsId> idsOf(int batch)
+    {
+        List<PnfsId> ids = new ArrayList<>();
+        for (PnfsMessage message : batches.get(batch).getMessages()) {
+            ids.add(message.getPnfsId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void shouldSendRightAwayIfNoBatchIsOutstanding()
+    {
+        add(1);
+
+        assertThat(batches, hasSize(1));
+        assertThat(idsOf(0), contains(pnfsId(1)));
+    }
+
+    @Test
+    public void shouldCollectRequestsWhileBatchIsOutstanding()
+    {
+        add(1);
+        add(2);
+        handler.notify(new PnfsClearCacheLocationMessage(pnfsId(3), "pool"));
+
+        assertThat(batches, hasSize(1));
+
+        reply(0);
+
+        assertThat(batches, hasSize(2));
+        assertThat(idsOf(1), contains(pnfsId(2), pnfsId(3)));
+    }
+
+    @Test
+    public void shouldSendFullBatch()
+    {
+        add(1);
+        add(2);
+        add(3);
+        add(4);
+
+        assertThat(batches, hasSize(2));
+        assertThat(idsOf(1), contains(pnfsId(2), pnfsId(3), pnfsId(4)));
+    }
+
+    @Test
+    public void shouldHoldBackRequestsForFilesOfOutstandingBatch()
+    {
+        add(1);
+        add(2);
+        add(3);
+        add(1);
+        add(4);
+
+        assertThat(batches, hasSize(2));
+        assertThat(idsOf(1), contains(pnfsId(2), pnfsId(3)));
+
+        reply(0);
+
+        assertThat(batches, hasSize(3));
+        assertThat(idsOf(2), contains(pnfsId(1), pnfsId(4)));
+    }
+
+    @Test
+    public void shouldReportResultPerRequest() throws Exception
+    {
+        add(1);
+        ListenableFuture<PnfsAddCacheLocationMessage> succeeding = add(2);
+        ListenableFuture<PnfsAddCacheLocationMessage> failing = add(3);
+        reply(0);
+
+        batches.get(1).getMessages().get(1).setFailed(CacheException.FILE_NOT_FOUND, "No such file");
+        reply(1);
+
+        assertThat(succeeding.get().getReturnCode(), is(0));
+        assertThat(failing.get().getReturnCode(), is(CacheException.FILE_NOT_FOUND));
+    }
+
+    @Test
+    public void shouldFailAllRequestsOfFailedBatch() throws Exception
+    {
+        ListenableFuture<PnfsAddCacheLocationMessage> request = add(1);
+
+        replies.get(0).setException(new TimeoutCacheException("timeout"));
+
+        try {
+            request.get();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(TimeoutCacheException.class)));
+            return;
+        }
+        throw new AssertionError("Request did not fail");
+    }
+
+    @Test
+    public void shouldFailAllRequestsOfBatchWithMissingReplies() throws Exception
+    {
+        add(1);
+        ListenableFuture<PnfsAddCacheLocationMessage> first = add(2);
+        ListenableFuture<PnfsAddCacheLocationMessage> second = add(3);
+        reply(0);
+
+        replies.get(1).set(new PnfsBatchMessage(batches.get(1).getMessages().subList(0, 1)));
+
+        for (ListenableFuture<PnfsAddCacheLocationMessage> request : Arrays.asList(first, second)) {
+            try {
+                request.get();
+                throw new AssertionError("Request did not fail");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), is(instanceOf(CacheException.class)));
+            }
+        }
+
+        add(2);
+
+        assertThat(batches, hasSize(3));
+        assertThat(idsOf(2), contains(pnfsId(2)));
+    }
+
+    @Test
+    public void shouldNotBatchByDefault()
+    {
+        CellStub stub = mock(CellStub.class);
+        when(stub.send(any(PnfsMessage.class), anyLong())).thenReturn(SettableFuture.create());
+        BatchingPnfsHandler unbatched = new BatchingPnfsHandler(stub, "pool");
+        try {
+            unbatched.requestAsync(new PnfsAddCacheLocationMessage(pnfsId(1), "pool"));
+
+            verify(stub).send(any(PnfsAddCacheLocationMessage.class), anyLong());
+            verify(stub, never()).send(any(PnfsBatchMessage.class), anyLong());
+        } finally {
+            unbatched.shutdown();
+        }
+    }
+}
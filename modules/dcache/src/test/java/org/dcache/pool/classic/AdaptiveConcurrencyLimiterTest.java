@@ -0,0 +1,280 @@
+package org.dcache.pool.classic;
+
+import org.apache.commons.math3.stat.descriptive.StatisticalSummary;
+import org.apache.commons.math3.stat.descriptive.StatisticalSummaryValues;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dcache.pool.classic.MoverRequestScheduler.PrioritizedRequest;
+import org.dcache.pool.movers.Mover;
+import org.dcache.pool.statistics.DirectedIoStatistics;
+import org.dcache.pool.statistics.IoStatistics;
+import org.dcache.pool.statistics.IoStatisticsChannel;
+import org.dcache.pool.statistics.SnapshotStatistics;
+import org.dcache.util.IoPriority;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AdaptiveConcurrencyLimiterTest
+{
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AtomicInteger limit = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final List<SimulatedMover> movers = new ArrayList<>();
+    private MoverRequestScheduler queue;
+
+    @Before
+    public void setUp()
+    {
+        queue = mock(MoverRequestScheduler.class);
+        when(queue.getName()).thenReturn("regular");
+        when(queue.getJobs()).thenAnswer(i -> movers.stream().map(m -> m.request));
+        when(queue.getMaxActiveJobs()).thenAnswer(i -> limit.get());
+        when(queue.getQueueSize()).thenAnswer(i -> queued.get());
+        doAnswer(i -> {
+            limit.set(i.getArgument(0));
+            return null;
+        }).when(queue).setMaxActiveJobs(anyInt());
+    }
+
+    @Test
+    public void shouldNotChangeLimitWithoutIo()
+    {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 40, 2.0);
+        limit.set(10);
+        givenMovers(10);
+        queued.set(5);
+
+        limiter.update(queue);
+        limiter.update(queue);
+
+        assertThat(limit.get(), is(10));
+    }
+
+    @Test
+    public void shouldDecreaseLimitByQuarterWhenLatencyExceedsTolerance()
+    {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 40, 2.0);
+        limit.set(20);
+        givenMovers(20);
+
+        limiter.update(queue);
+        period(limiter, 1 * MS);
+        assertThat(limit.get(), is(20));
+
+        period(limiter, 5 * MS);
+        assertThat(limit.get(), is(15));
+
+        period(limiter, 5 * MS);
+        assertThat(limit.get(), is(11));
+    }
+
+    @Test
+    public void shouldNotDecreaseLimitWithinTolerance()
+    {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 40, 2.0);
+        limit.set(20);
+        givenMovers(20);
+
+        limiter.update(queue);
+        period(limiter, 1 * MS);
+        period(limiter, 19 * MS / 10);
+
+        assertThat(limit.get(), is(20));
+    }
+
+    @Test
+    public void shouldIncreaseLimitByOneWhenAllSlotsBusyAndMoversQueued()
+    {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 40, 2.0);
+        limit.set(4);
+        givenMovers(4);
+        queued.set(3);
+
+        limiter.update(queue);
+        period(limiter, 1 * MS);
+        assertThat(limit.get(), is(5));
+
+        givenMovers(1);
+        period(limiter, 1 * MS);
+        assertThat(limit.get(), is(6));
+    }
+
+    @Test
+    public void shouldNotIncreaseLimitWithoutQueuedMovers()
+    {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 40, 2.0);
+        limit.set(4);
+        givenMovers(4);
+
+        limiter.update(queue);
+        period(limiter, 1 * MS);
+
+        assertThat(limit.get(), is(4));
+    }
+
+    @Test
+    public void shouldNotIncreaseLimitWithIdleSlots()
+    {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 40, 2.0);
+        limit.set(4);
+        givenMovers(3);
+        queued.set(3);
+
+        limiter.update(queue);
+        period(limiter, 1 * MS);
+
+        assertThat(limit.get(), is(4));
+    }
+
+    @Test
+    public void shouldStayWithinMinimumAndMaximum()
+    {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(3, 5, 2.0);
+        limit.set(5);
+        givenMovers(5);
+        queued.set(10);
+
+        limiter.update(queue);
+        period(limiter, 1 * MS);
+        assertThat(limit.get(), is(5));
+
+        period(limiter, 10 * MS);
+        assertThat(limit.get(), is(3));
+
+        period(limiter, 100 * MS);
+        assertThat(limit.get(), is(3));
+    }
+
+    @Test
+    public void shouldClampLimitOutsideOfRange()
+    {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 8, 2.0);
+        limit.set(100);
+
+        limiter.update(queue);
+
+        assertThat(limit.get(), is(8));
+    }
+
+    @Test
+    public void shouldFollowLastingLatencyIncreaseThroughBaselineDrift()
+    {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1000, 2.0);
+        limit.set(1000);
+        givenMovers(10);
+
+        limiter.update(queue);
+        period(limiter, 1 * MS);
+        period(limiter, 22 * MS / 10);
+        assertThat(limit.get(), is(750));
+
+        /* The baseline drifts up by 1% per period, so 2.2 ms soon falls
+         * within the tolerance and the limit stops shrinking. */
+        for (int i = 0; i < 20; i++) {
+            period(limiter, 22 * MS / 10);
+        }
+        int settled = limit.get();
+        for (int i = 0; i < 10; i++) {
+            period(limiter, 22 * MS / 10);
+        }
+        assertThat(limit.get(), is(settled));
+        assertThat(settled, is(greaterThan(1)));
+    }
+
+    @Test
+    public void shouldReportReasonForChanges()
+    {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 40, 2.0);
+        limit.set(20);
+        givenMovers(20);
+
+        limiter.update(queue);
+        period(limiter, 1 * MS);
+        period(limiter, 5 * MS);
+
+        StringWriter out = new StringWriter();
+        limiter.getInfo(new PrintWriter(out), queue);
+        assertThat(out.toString(), containsString("20 -> 15: latency 5.00 ms exceeds 2.0 times baseline 1.01 ms"));
+    }
+
+    /**
+     * Lets every mover issue 100 IO requests of the given latency and
+     * updates the limiter.
+     */
+    private void period(AdaptiveConcurrencyLimiter limiter, long latency)
+    {
+        for (SimulatedMover mover : movers) {
+            mover.io(100, latency, 100 * 1024 * 1024);
+        }
+        limiter.update(queue);
+    }
+
+    private void givenMovers(int count)
+    {
+        for (int i = 0; i < count; i++) {
+            movers.add(new SimulatedMover(movers.size()));
+        }
+    }
+
+    /**
+     * A running mover with cumulative IO statistics.
+     */
+    private static class SimulatedMover
+    {
+        final PrioritizedRequest request;
+        final IoStatisticsChannel channel = mock(IoStatisticsChannel.class);
+        final Mover<?> mover = mock(Mover.class);
+        long operations;
+        long ioTime;
+        long bytes;
+
+        SimulatedMover(int id)
+        {
+            request = new PrioritizedRequest(id, "door-" + id, mover, IoPriority.REGULAR);
+            doReturn(Optional.of(channel)).when(mover).getChannel();
+            when(channel.optionallyAs(IoStatisticsChannel.class)).thenReturn(Optional.of(channel));
+            when(mover.getBytesTransferred()).thenAnswer(i -> bytes);
+            when(channel.getStatistics()).thenAnswer(i -> statistics());
+        }
+
+        void io(long count, long latency, long size)
+        {
+            operations += count;
+            ioTime += count * latency;
+            bytes += size;
+        }
+
+        IoStatistics statistics()
+        {
+            DirectedIoStatistics reads = mock(DirectedIoStatistics.class);
+            when(reads.statistics()).thenReturn(snapshot(operations, ioTime));
+            DirectedIoStatistics writes = mock(DirectedIoStatistics.class);
+            when(writes.statistics()).thenReturn(new SnapshotStatistics());
+            return new IoStatistics(reads, writes);
+        }
+
+        static SnapshotStatistics snapshot(long n, double sum)
+        {
+            StatisticalSummary none = new SnapshotStatistics().IOTime();
+            StatisticalSummary duration = n == 0 ? none :
+                    new StatisticalSummaryValues(sum / n, 0, n, sum / n, sum / n, sum);
+            return new SnapshotStatistics(none, duration, none, none, none);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package org.dcache.pool.classic;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import diskCacheV111.util.PnfsId;
+
+import org.dcache.pool.repository.ReplicaDescriptor;
+import org.dcache.pool.repository.ReplicaState;
+import org.dcache.pool.repository.Repository;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ChecksumScannerTest
+{
+    private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    private Path _dir;
+    private Path _stateFile;
+    private Repository _repository;
+    private ChecksumModuleV1 _csm;
+    private IoQueueManager _ioQueueManager;
+    private ChecksumScanner _scanner;
+
+    private final List<PnfsId> _files = new ArrayList<>();
+    private final Map<ReplicaDescriptor,PnfsId> _handles = new HashMap<>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        _dir = Files.createTempDirectory("scrubber");
+        _stateFile = _dir.resolve("scrubber-state");
+
+        _repository = mock(Repository.class);
+        when(_repository.iterator()).thenAnswer(i -> new ArrayList<>(_files).iterator());
+
+        _csm = mock(ChecksumModuleV1.class);
+        when(_csm.isScrubEnabled()).thenReturn(true);
+        when(_csm.getScrubPeriod()).thenReturn(TimeUnit.DAYS.toMillis(1));
+        when(_csm.getThroughputLimit()).thenReturn(Double.POSITIVE_INFINITY);
+
+        _ioQueueManager = mock(IoQueueManager.class);
+        when(_ioQueueManager.queues()).thenReturn(Collections.emptyList());
+
+        _scanner = new ChecksumScanner();
+        _scanner.setRepository(_repository);
+        _scanner.setChecksumModule(_csm);
+        _scanner.setIoQueueManager(_ioQueueManager);
+        _scanner.setScrubberStateFile(_stateFile.toFile());
+        _scanner.setPoolName("pool");
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        stopScrubber();
+        try (Stream<Path> files = Files.walk(_dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void shouldVerifyFilesInParallelUpToConfiguredThreads() throws Exception
+    {
+        givenFiles(12);
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        CountDownLatch allBusy = new CountDownLatch(3);
+        whenVerifying(id -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            allBusy.countDown();
+            allBusy.await();
+            Thread.sleep(20);
+            active.decrementAndGet();
+        });
+        _scanner.setScrubberThreads(3);
+
+        _scanner.afterStart();
+
+        verifyAllFilesVerified();
+        assertThat(maxActive.get(), is(3));
+    }
+
+    @Test
+    public void shouldShareThroughputLimitBetweenThreads() throws Exception
+    {
+        givenFiles(4);
+        when(_csm.getThroughputLimit()).thenReturn(512.0 * 1024);
+        List<RateLimiter> limiters = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(4);
+        when(_csm.verifyChecksum(any(ReplicaDescriptor.class), any(RateLimiter.class))).thenAnswer(i -> {
+            RateLimiter limiter = i.getArgument(1);
+            limiters.add(limiter);
+            for (int n = 0; n < 4; n++) {
+                limiter.acquire(64 * 1024);
+            }
+            done.countDown();
+            return Collections.emptySet();
+        });
+        _scanner.setScrubberThreads(4);
+
+        long start = System.nanoTime();
+        _scanner.afterStart();
+        assertThat(done.await(TIMEOUT, TimeUnit.MILLISECONDS), is(true));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        /* 1 MiB at 512 KiB/s, less a burst of up to one second. */
+        assertThat(elapsed, is(greaterThanOrEqualTo(750L)));
+        assertThat(limiters, hasSize(4));
+        assertThat(limiters.stream().distinct().count(), is(1L));
+        assertThat(limiters.get(0).getRate(), is(closeTo(512.0 * 1024, 1.0)));
+    }
+
+    @Test
+    public void shouldResumeAfterLastCheckedFileInStateFile() throws Exception
+    {
+        givenFiles(6);
+        Files.write(_stateFile, (System.currentTimeMillis() + " " + _files.get(2)).getBytes(StandardCharsets.UTF_8));
+        whenVerifying(id -> {});
+        _scanner.setScrubberThreads(2);
+
+        _scanner.afterStart();
+
+        for (PnfsId id : _files.subList(3, 6)) {
+            verify(_repository, timeout(TIMEOUT)).openEntry(eq(id), anySet());
+        }
+        stopScrubber();
+        for (PnfsId id : _files.subList(0, 3)) {
+            verify(_repository, never()).openEntry(eq(id), anySet());
+        }
+    }
+
+    @Test
+    public void shouldNotRecordFilesAfterUnfinishedVerificationAsChecked() throws Exception
+    {
+        givenFiles(5);
+        PnfsId slow = _files.get(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        whenVerifying(id -> {
+            if (id.equals(slow)) {
+                blocked.countDown();
+                new CountDownLatch(1).await();
+            }
+        });
+        _scanner.setScrubberThreads(2);
+
+        _scanner.afterStart();
+        for (PnfsId id : _files) {
+            verify(_repository, timeout(TIMEOUT)).openEntry(eq(id), anySet());
+        }
+        blocked.await();
+        stopScrubber();
+
+        assertThat(readState(), endsWith(" " + _files.get(0)));
+    }
+
+    @Test
+    public void shouldVerifyUnfinishedFilesAgainAfterRestart() throws Exception
+    {
+        givenFiles(5);
+        PnfsId slow = _files.get(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        List<PnfsId> verified = Collections.synchronizedList(new ArrayList<>());
+        whenVerifying(id -> {
+            if (id.equals(slow) && blocked.getCount() > 0) {
+                blocked.countDown();
+                new CountDownLatch(1).await();
+            }
+            verified.add(id);
+        });
+        _scanner.setScrubberThreads(2);
+        _scanner.afterStart();
+        for (PnfsId id : _files) {
+            verify(_repository, timeout(TIMEOUT)).openEntry(eq(id), anySet());
+        }
+        blocked.await();
+        stopScrubber();
+        verified.clear();
+
+        _scanner.afterStart();
+
+        for (PnfsId id : _files.subList(1, 5)) {
+            verify(_repository, timeout(TIMEOUT).atLeast(2)).openEntry(eq(id), anySet());
+        }
+        assertThat(verified, not(hasItem(_files.get(0))));
+        assertThat(verified, hasItem(slow));
+    }
+
+    @Test
+    public void shouldYieldToQueuedMovers() throws Exception
+    {
+        givenFiles(3);
+        whenVerifying(id -> {});
+        MoverRequestScheduler queue = mock(MoverRequestScheduler.class);
+        when(queue.getQueueSize()).thenReturn(1);
+        when(_ioQueueManager.queues()).thenReturn(Collections.singletonList(queue));
+
+        _scanner.afterStart();
+
+        verify(queue, timeout(TIMEOUT)).getQueueSize();
+        Thread.sleep(200);
+        verify(_repository, never()).openEntry(any(PnfsId.class), anySet());
+        assertThat(status(), containsString("yielding to movers"));
+
+        when(queue.getQueueSize()).thenReturn(0);
+
+        verifyAllFilesVerified();
+    }
+
+    @Test
+    public void shouldNotYieldToQueuedMoversIfDisabled() throws Exception
+    {
+        givenFiles(3);
+        whenVerifying(id -> {});
+        MoverRequestScheduler queue = mock(MoverRequestScheduler.class);
+        when(queue.getQueueSize()).thenReturn(1);
+        when(_ioQueueManager.queues()).thenReturn(Collections.singletonList(queue));
+        _scanner.setScrubberYieldsToMovers(false);
+
+        _scanner.afterStart();
+
+        verifyAllFilesVerified();
+    }
+
+    private void givenFiles(int count) throws Exception
+    {
+        for (int i = 1; i <= count; i++) {
+            PnfsId id = new PnfsId(String.format("0000%032X", i));
+            ReplicaDescriptor handle = mock(ReplicaDescriptor.class);
+            when(handle.getReplicaSize()).thenReturn(1024L);
+            when(_repository.getState(id)).thenReturn(ReplicaState.CACHED);
+            when(_repository.openEntry(eq(id), anySet())).thenReturn(handle);
+            _handles.put(handle, id);
+            _files.add(id);
+        }
+    }
+
+    private void whenVerifying(Verification verification) throws Exception
+    {
+        when(_csm.verifyChecksum(any(ReplicaDescriptor.class), any(RateLimiter.class))).thenAnswer(i -> {
+            verification.verify(_handles.get(i.<ReplicaDescriptor>getArgument(0)));
+            return Collections.emptySet();
+        });
+    }
+
+    private void verifyAllFilesVerified() throws Exception
+    {
+        for (ReplicaDescriptor handle : _handles.keySet()) {
+            verify(_csm, timeout(TIMEOUT)).verifyChecksum(eq(handle), any(RateLimiter.class));
+        }
+    }
+
+    private void stopScrubber() throws InterruptedException
+    {
+        _scanner.beforeStop();
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (status().contains("Scrubber Active")) {
+            assertThat("Scrubber did not stop", System.currentTimeMillis(), is(lessThan(deadline)));
+            Thread.sleep(10);
+        }
+    }
+
+    private String status()
+    {
+        return _scanner.new CsmStatusCommand().call();
+    }
+
+    private String readState() throws IOException
+    {
+        return new String(Files.readAllBytes(_stateFile), StandardCharsets.UTF_8);
+    }
+
+    @FunctionalInterface
+    private interface Verification
+    {
+        void verify(PnfsId id) throws Exception;
+    }
+}
@@ -0,0 +1,146 @@
+package org.dcache.pool.classic;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Comparator.naturalOrder;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class FairShareQueueTest
+{
+    private final Map<String, Integer> weights = new HashMap<>();
+    private FairShareQueue<String> queue;
+
+    @Before
+    public void setUp()
+    {
+        queue = new FairShareQueue<>(naturalOrder(), s -> s.substring(0, 1), k -> weights.getOrDefault(k, 1));
+    }
+
+    @Test
+    public void shouldBeEmptyInitially()
+    {
+        assertTrue(queue.isEmpty());
+        assertThat(queue.poll(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldOrderElementsWithinFlow()
+    {
+        queue.add("a3");
+        queue.add("a1");
+        queue.add("a2");
+
+        assertThat(queue.size(), is(3));
+        assertThat(queue.poll(), is("a1"));
+        assertThat(queue.poll(), is("a2"));
+        assertThat(queue.poll(), is("a3"));
+        assertThat(queue.poll(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldAlternateBetweenFlowsOfEqualWeight()
+    {
+        for (int i = 0; i < 1000; i++) {
+            queue.add(String.format("a%04d", i));
+        }
+        queue.add("b1");
+        queue.add("b2");
+
+        assertThat(queue.poll(), is("a0000"));
+        assertThat(queue.poll(), is("b1"));
+        assertThat(queue.poll(), is("a0001"));
+        assertThat(queue.poll(), is("b2"));
+        assertThat(queue.poll(), is("a0002"));
+    }
+
+    @Test
+    public void shouldShareInProportionToWeights()
+    {
+        weights.put("b", 3);
+        for (int i = 0; i < 1000; i++) {
+            queue.add(String.format("a%04d", i));
+            queue.add(String.format("b%04d", i));
+        }
+
+        int b = 0;
+        for (int i = 0; i < 400; i++) {
+            if (queue.poll().startsWith("b")) {
+                b++;
+            }
+        }
+        assertThat(b, is(300));
+    }
+
+    @Test
+    public void shouldNotGiveCreditToIdleFlows()
+    {
+        for (int i = 0; i < 100; i++) {
+            queue.add(String.format("a%04d", i));
+        }
+        for (int i = 0; i < 50; i++) {
+            queue.poll();
+        }
+        queue.add("b1");
+        queue.add("b2");
+        queue.add("b3");
+
+        assertThat(queue.poll(), is("a0050"));
+        assertThat(queue.poll(), is("b1"));
+        assertThat(queue.poll(), is("a0051"));
+    }
+
+    @Test
+    public void shouldRemoveElements()
+    {
+        queue.add("a1");
+        queue.add("b1");
+
+        assertTrue(queue.remove("a1"));
+        assertFalse(queue.remove("a1"));
+        assertThat(queue.size(), is(1));
+        assertThat(queue.poll(), is("b1"));
+        assertTrue(queue.isEmpty());
+
+        queue.add("a2");
+        assertThat(queue.poll(), is("a2"));
+    }
+
+    @Test
+    public void shouldPeekAtElementTakenByNextPoll()
+    {
+        weights.put("b", 2);
+        for (int i = 0; i < 10; i++) {
+            queue.add(String.format("a%02d", i));
+            queue.add(String.format("b%02d", i));
+        }
+
+        for (int i = 0; i < 20; i++) {
+            String head = queue.peek();
+            assertThat(queue.peek(), is(head));
+            assertThat(queue.poll(), is(head));
+        }
+        assertThat(queue.peek(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldNotPeekAtRemovedElements()
+    {
+        queue.add("a1");
+        queue.add("b1");
+        queue.remove("a1");
+
+        assertThat(queue.peek(), is("b1"));
+        assertThat(queue.size(), is(1));
+
+        queue.remove("b1");
+        assertThat(queue.peek(), is(nullValue()));
+
+        queue.add("a2");
+        assertThat(queue.peek(), is("a2"));
+    }
+}
@@ -0,0 +1,161 @@
+package org.dcache.pool.classic;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import dmg.util.CommandException;
+
+import org.dcache.pool.classic.MoverRequestScheduler.Order;
+import org.dcache.pool.classic.MoverRequestScheduler.Share;
+import org.dcache.util.Args;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class IoQueueManagerTest
+{
+    private IoQueueManager manager;
+
+    @Before
+    public void setUp()
+    {
+        manager = new IoQueueManager();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        manager.shutdown();
+    }
+
+    @Test
+    public void shouldKeepShareWhenQueueIsRecreatedFromProperties() throws Exception
+    {
+        createQueue("tape", Order.LIFO, Share.VO);
+
+        manager.setQueues(new String[] { "-tape" });
+
+        MoverRequestScheduler queue = manager.getQueueByNameOrDefault("tape");
+        assertThat(queue.getOrder(), is(Order.FIFO));
+        assertThat(queue.getShare(), is(Share.VO));
+    }
+
+    @Test
+    public void shouldChangeShareWhenQueueIsCreatedAgain() throws Exception
+    {
+        createQueue("tape", Order.LIFO, Share.VO);
+        createQueue("tape", Order.LIFO, Share.NONE);
+
+        assertThat(manager.getQueueByNameOrDefault("tape").getShare(), is(Share.NONE));
+    }
+
+    @Test
+    public void shouldEscapeWeightKeysInSetup() throws Exception
+    {
+        String key = "/atlas/Role=production \"special\" it's";
+        createQueue("tape", Order.LIFO, Share.VO);
+        setWeight("tape", key, 3);
+
+        List<String> commands = setup().stream()
+                .filter(line -> line.startsWith("mover queue set weight "))
+                .collect(Collectors.toList());
+
+        assertThat(commands, hasSize(1));
+        Args args = new Args(commands.get(0).substring("mover queue set weight ".length()));
+        assertThat(args.argc(), is(2));
+        assertThat(args.argv(0), is(key));
+        assertThat(args.argv(1), is("3"));
+        assertThat(args.getOption("queue"), is("tape"));
+    }
+
+    @Test
+    public void shouldIncludeShareInSetup() throws Exception
+    {
+        createQueue("tape", Order.FIFO, Share.STORAGE);
+
+        assertThat(setup(), hasItem("mover queue create tape -order=FIFO -share=STORAGE"));
+    }
+
+    @Test
+    public void shouldEnableAdaptiveLimit() throws Exception
+    {
+        setAdaptive("regular", "on", 2, 20, 3.0);
+
+        AdaptiveConcurrencyLimiter limiter = manager.getQueueByNameOrDefault("regular").getAdaptiveLimiter();
+        assertThat(limiter, is(notNullValue()));
+        assertThat(limiter.getMin(), is(2));
+        assertThat(limiter.getMax(), is(20));
+        assertThat(setup(), hasItem("mover set adaptive -queue=regular -min=2 -max=20 -tolerance=3.0 on"));
+    }
+
+    @Test
+    public void shouldDisableAdaptiveLimit() throws Exception
+    {
+        setAdaptive("regular", "on", 2, 20, 3.0);
+        setAdaptive("regular", "off", 1, 1000, 2.0);
+
+        assertThat(manager.getQueueByNameOrDefault("regular").getAdaptiveLimiter(), is(nullValue()));
+        assertThat(setup(), not(hasItem(startsWith("mover set adaptive"))));
+    }
+
+    @Test(expected = CommandException.class)
+    public void shouldRejectAdaptiveLimitWithMaximumBelowMinimum() throws Exception
+    {
+        setAdaptive("regular", "on", 10, 5, 2.0);
+    }
+
+    @Test
+    public void shouldClampLimitWhenAdaptiveLimitIsUpdated() throws Exception
+    {
+        MoverRequestScheduler queue = manager.getQueueByNameOrDefault("regular");
+        queue.setMaxActiveJobs(100);
+        setAdaptive("regular", "on", 2, 20, 3.0);
+
+        queue.updateAdaptiveLimit();
+
+        assertThat(queue.getMaxActiveJobs(), is(20));
+    }
+
+    private void createQueue(String name, Order order, Share share) throws Exception
+    {
+        IoQueueManager.MoverCreateQueueCommand command = manager.new MoverCreateQueueCommand();
+        command.name = name;
+        command.order = order;
+        command.share = share;
+        command.execute();
+    }
+
+    private void setWeight(String queue, String key, int weight) throws Exception
+    {
+        IoQueueManager.MoverQueueSetWeightCommand command = manager.new MoverQueueSetWeightCommand();
+        command.queueName = queue;
+        command.key = key;
+        command.weight = weight;
+        command.call();
+    }
+
+    private void setAdaptive(String queue, String enable, int min, int max, double tolerance) throws Exception
+    {
+        IoQueueManager.MoverSetAdaptiveCommand command = manager.new MoverSetAdaptiveCommand();
+        command.queueName = queue;
+        command.enable = enable;
+        command.min = min;
+        command.max = max;
+        command.tolerance = tolerance;
+        command.call();
+    }
+
+    private List<String> setup()
+    {
+        StringWriter out = new StringWriter();
+        manager.printSetup(new PrintWriter(out));
+        return Arrays.asList(out.toString().split("\n"));
+    }
+}
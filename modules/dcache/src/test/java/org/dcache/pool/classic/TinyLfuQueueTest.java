@@ -0,0 +1,95 @@
+package org.dcache.pool.classic;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class TinyLfuQueueTest
+{
+    private TinyLfuQueue<Integer> queue;
+
+    @Before
+    public void setUp()
+    {
+        queue = new TinyLfuQueue<>();
+    }
+
+    @Test
+    public void shouldTrackMembership()
+    {
+        assertTrue(queue.add(1, 10));
+        assertFalse(queue.add(1, 20));
+        assertThat(queue.size(), is(1));
+        assertThat(queue.getLastAccessTime(1).getAsLong(), is(10L));
+
+        assertTrue(queue.remove(1));
+        assertFalse(queue.remove(1));
+        assertThat(queue.size(), is(0));
+        assertFalse(queue.getLastAccessTime(1).isPresent());
+        assertThat(queue.values(), is(empty()));
+    }
+
+    @Test
+    public void shouldListAllKeys()
+    {
+        for (int i = 0; i < 100; i++) {
+            queue.add(i, i);
+        }
+
+        assertThat(queue.getTimeOfLeastRecentlyUsedElement(), is(0L));
+        assertThat(queue.values(), hasSize(100));
+        assertThat(new HashSet<>(queue.values()), hasSize(100));
+    }
+
+    @Test
+    public void shouldEvictScanBeforeFrequentlyAccessedFiles()
+    {
+        long time = 0;
+        for (int i = 0; i < 101; i++) {
+            queue.add(i, time++);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 100; i++) {
+                queue.accessed(i, time++);
+            }
+        }
+
+        /* A scan reading each file once, more recently than the hot files. */
+        for (int i = 101; i < 1000; i++) {
+            queue.add(i, time++);
+        }
+
+        List<Integer> values = queue.values();
+        assertThat(values, hasSize(1000));
+        for (int i = 0; i < 900; i++) {
+            assertThat(values.get(i), is(greaterThanOrEqualTo(100)));
+        }
+    }
+
+    @Test
+    public void shouldRememberAccessesOfKeysNotOnQueue()
+    {
+        for (int i = 0; i < 200; i++) {
+            queue.add(i, i);
+        }
+
+        /* While sticky, the file is not on the queue, but is still read. */
+        queue.remove(0);
+        for (int i = 0; i < 5; i++) {
+            queue.accessed(0, 200 + i);
+        }
+        queue.add(0, 0);
+        for (int i = 200; i < 210; i++) {
+            queue.add(i, i);
+        }
+
+        List<Integer> values = queue.values();
+        assertThat(values.get(0), is(not(0)));
+        assertThat(values.get(values.size() - 1), is(0));
+    }
+}
@@ -0,0 +1,276 @@
+package org.dcache.pool.migration;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.PnfsId;
+
+import dmg.cells.nucleus.CellPath;
+
+import org.dcache.cells.CellStub;
+import org.dcache.pool.repository.ReplicaState;
+import org.dcache.vehicles.FileAttributes;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CopyRequestBatcherTest
+{
+    private static final CellPath POOL_A = new CellPath("pool_a");
+    private static final CellPath POOL_B = new CellPath("pool_b");
+
+    private final List<Runnable> _scheduled = new ArrayList<>();
+    private final List<PoolMigrationCopyReplicaBatchMessage> _batches = new ArrayList<>();
+    private final List<SettableFuture<PoolMigrationCopyReplicaBatchMessage>> _batchReplies = new ArrayList<>();
+    private final List<PoolMigrationCopyReplicaMessage> _singles = new ArrayList<>();
+
+    private CellStub _pool;
+    private ScheduledExecutorService _executor;
+    private CopyRequestBatcher _batcher;
+    private int _files;
+
+    @Before
+    public void setUp()
+    {
+        _pool = mock(CellStub.class);
+        when(_pool.send(any(CellPath.class), any(PoolMigrationCopyReplicaBatchMessage.class))).thenAnswer(i -> {
+            SettableFuture<PoolMigrationCopyReplicaBatchMessage> reply = SettableFuture.create();
+            _batches.add(i.getArgument(1));
+            _batchReplies.add(reply);
+            return reply;
+        });
+        when(_pool.send(any(CellPath.class), any(PoolMigrationCopyReplicaMessage.class))).thenAnswer(i -> {
+            _singles.add(i.getArgument(1));
+            return Futures.immediateFuture(i.getArgument(1));
+        });
+
+        _executor = mock(ScheduledExecutorService.class);
+        when(_executor.schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS))).thenAnswer(i -> {
+            _scheduled.add(i.getArgument(0));
+            return null;
+        });
+
+        _batcher = new CopyRequestBatcher(_pool, _executor);
+    }
+
+    @Test
+    public void shouldSendRequestsIndividuallyByDefault() throws Exception
+    {
+        PoolMigrationCopyReplicaMessage first = newRequest();
+        PoolMigrationCopyReplicaMessage second = newRequest();
+
+        ListenableFuture<PoolMigrationCopyReplicaMessage> firstReply = _batcher.send(POOL_A, first);
+        ListenableFuture<PoolMigrationCopyReplicaMessage> secondReply = _batcher.send(POOL_A, second);
+
+        assertThat(_singles, contains(first, second));
+        assertThat(_batches, is(empty()));
+        assertThat(_scheduled, is(empty()));
+        assertThat(firstReply.get(), is(sameInstance(first)));
+        assertThat(secondReply.get(), is(sameInstance(second)));
+    }
+
+    @Test
+    public void shouldSendFullBatchImmediately() throws Exception
+    {
+        _batcher.setBatchSize(3);
+        List<PoolMigrationCopyReplicaMessage> requests = newRequests(3);
+
+        List<ListenableFuture<PoolMigrationCopyReplicaMessage>> replies = sendAll(POOL_A, requests);
+
+        assertThat(_batches, hasSize(1));
+        assertThat(_batches.get(0).getRequests(), is(requests));
+        assertThat(_singles, is(empty()));
+        replies.forEach(r -> assertFalse(r.isDone()));
+    }
+
+    @Test
+    public void shouldDeliverEachReplyOfBatchToItsRequest() throws Exception
+    {
+        _batcher.setBatchSize(3);
+        List<PoolMigrationCopyReplicaMessage> requests = newRequests(3);
+        List<ListenableFuture<PoolMigrationCopyReplicaMessage>> replies = sendAll(POOL_A, requests);
+
+        requests.get(1).setFailed(CacheException.FILE_NOT_IN_REPOSITORY, "no such file");
+        _batchReplies.get(0).set(new PoolMigrationCopyReplicaBatchMessage(requests));
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(replies.get(i).get(), is(sameInstance(requests.get(i))));
+        }
+        assertThat(replies.get(0).get().getReturnCode(), is(0));
+        assertThat(replies.get(1).get().getReturnCode(), is(CacheException.FILE_NOT_IN_REPOSITORY));
+    }
+
+    @Test
+    public void shouldBatchRequestsPerTargetPool() throws Exception
+    {
+        _batcher.setBatchSize(2);
+        PoolMigrationCopyReplicaMessage a1 = newRequest();
+        PoolMigrationCopyReplicaMessage b1 = newRequest();
+        PoolMigrationCopyReplicaMessage a2 = newRequest();
+
+        _batcher.send(POOL_A, a1);
+        _batcher.send(POOL_B, b1);
+        _batcher.send(POOL_A, a2);
+
+        verify(_pool).send(eq(POOL_A), any(PoolMigrationCopyReplicaBatchMessage.class));
+        verify(_pool, never()).send(eq(POOL_B), any(PoolMigrationCopyReplicaBatchMessage.class));
+        assertThat(_batches, hasSize(1));
+        assertThat(_batches.get(0).getRequests(), contains(a1, a2));
+        assertThat(_scheduled, hasSize(2));
+    }
+
+    @Test
+    public void shouldFlushIncompleteBatchAfterDelay() throws Exception
+    {
+        _batcher.setBatchSize(5);
+        List<PoolMigrationCopyReplicaMessage> requests = newRequests(2);
+        sendAll(POOL_A, requests);
+
+        assertThat(_batches, is(empty()));
+        assertThat(_scheduled, hasSize(1));
+
+        _scheduled.get(0).run();
+
+        assertThat(_batches, hasSize(1));
+        assertThat(_batches.get(0).getRequests(), is(requests));
+    }
+
+    @Test
+    public void shouldSendSingleRequestOfBatchIndividually() throws Exception
+    {
+        _batcher.setBatchSize(5);
+        PoolMigrationCopyReplicaMessage request = newRequest();
+        ListenableFuture<PoolMigrationCopyReplicaMessage> reply = _batcher.send(POOL_A, request);
+
+        _scheduled.get(0).run();
+
+        assertThat(_batches, is(empty()));
+        assertThat(_singles, contains(request));
+        assertThat(reply.get(), is(sameInstance(request)));
+    }
+
+    @Test
+    public void shouldNotFlushBatchAgainAfterItWasFull() throws Exception
+    {
+        _batcher.setBatchSize(2);
+        sendAll(POOL_A, newRequests(2));
+        PoolMigrationCopyReplicaMessage next = newRequest();
+        _batcher.send(POOL_A, next);
+
+        _scheduled.get(0).run();
+
+        assertThat(_batches, hasSize(1));
+        assertThat(_singles, is(empty()));
+
+        _scheduled.get(1).run();
+
+        assertThat(_singles, contains(next));
+    }
+
+    @Test
+    public void shouldFailAllRequestsIfBatchFails() throws Exception
+    {
+        _batcher.setBatchSize(2);
+        List<PoolMigrationCopyReplicaMessage> requests = newRequests(2);
+        List<ListenableFuture<PoolMigrationCopyReplicaMessage>> replies = sendAll(POOL_A, requests);
+
+        PoolMigrationCopyReplicaBatchMessage reply = new PoolMigrationCopyReplicaBatchMessage(requests);
+        reply.setFailed(CacheException.SERVICE_UNAVAILABLE, "pool disabled");
+        _batchReplies.get(0).set(reply);
+
+        for (ListenableFuture<PoolMigrationCopyReplicaMessage> r : replies) {
+            assertThat(r.get().getReturnCode(), is(CacheException.SERVICE_UNAVAILABLE));
+            assertEquals("pool disabled", r.get().getErrorObject());
+        }
+    }
+
+    @Test
+    public void shouldFailAllRequestsIfBatchReplyIsIncomplete() throws Exception
+    {
+        _batcher.setBatchSize(2);
+        List<PoolMigrationCopyReplicaMessage> requests = newRequests(2);
+        List<ListenableFuture<PoolMigrationCopyReplicaMessage>> replies = sendAll(POOL_A, requests);
+
+        _batchReplies.get(0).set(new PoolMigrationCopyReplicaBatchMessage(requests.subList(0, 1)));
+
+        for (ListenableFuture<PoolMigrationCopyReplicaMessage> r : replies) {
+            assertThat(causeOf(r), is(instanceOf(CacheException.class)));
+        }
+    }
+
+    @Test
+    public void shouldFailAllRequestsIfBatchCannotBeDelivered() throws Exception
+    {
+        _batcher.setBatchSize(2);
+        List<ListenableFuture<PoolMigrationCopyReplicaMessage>> replies = sendAll(POOL_A, newRequests(2));
+
+        CacheException e = new CacheException(CacheException.TIMEOUT, "timeout");
+        _batchReplies.get(0).setException(e);
+
+        for (ListenableFuture<PoolMigrationCopyReplicaMessage> r : replies) {
+            assertThat(causeOf(r), is(sameInstance(e)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNonPositiveBatchSize()
+    {
+        _batcher.setBatchSize(0);
+    }
+
+    private List<ListenableFuture<PoolMigrationCopyReplicaMessage>> sendAll(CellPath target,
+                                                                           List<PoolMigrationCopyReplicaMessage> requests)
+    {
+        List<ListenableFuture<PoolMigrationCopyReplicaMessage>> replies = new ArrayList<>();
+        for (PoolMigrationCopyReplicaMessage request : requests) {
+            replies.add(_batcher.send(target, request));
+        }
+        return replies;
+    }
+
+    private List<PoolMigrationCopyReplicaMessage> newRequests(int count)
+    {
+        List<PoolMigrationCopyReplicaMessage> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            requests.add(newRequest());
+        }
+        return requests;
+    }
+
+    private PoolMigrationCopyReplicaMessage newRequest()
+    {
+        PnfsId pnfsId = new PnfsId(String.format("0000%032X", ++_files));
+        return new PoolMigrationCopyReplicaMessage(UUID.randomUUID(), "source", FileAttributes.ofPnfsId(pnfsId),
+                                                   ReplicaState.CACHED, Collections.emptyList(),
+                                                   false, false, null, false);
+    }
+
+    private static Throwable causeOf(ListenableFuture<?> future) throws InterruptedException
+    {
+        try {
+            future.get();
+            throw new AssertionError("Request did not fail");
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+}
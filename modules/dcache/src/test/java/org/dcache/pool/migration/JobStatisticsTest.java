@@ -0,0 +1,46 @@
+package org.dcache.pool.migration;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class JobStatisticsTest
+{
+    @Test
+    public void shouldNotKnowThroughputBeforeSecondSample()
+    {
+        JobStatistics statistics = new JobStatistics();
+        assertTrue(Double.isNaN(statistics.getThroughput()));
+
+        statistics.sample(1000);
+        statistics.addCompleted(5000);
+
+        assertTrue(Double.isNaN(statistics.getThroughput()));
+    }
+
+    @Test
+    public void shouldMeasureThroughputOfFirstPeriod()
+    {
+        JobStatistics statistics = new JobStatistics();
+        statistics.sample(1000);
+        statistics.addCompleted(5000);
+        statistics.sample(3000);
+
+        assertThat(statistics.getThroughput(), is(closeTo(2500.0, 0.001)));
+    }
+
+    @Test
+    public void shouldSmoothThroughputOverPeriods()
+    {
+        JobStatistics statistics = new JobStatistics();
+        statistics.sample(1000);
+        statistics.addCompleted(10_000);
+        statistics.sample(2000);
+        statistics.sample(3000);
+
+        assertThat(statistics.getThroughput(), is(closeTo(8000.0, 0.001)));
+    }
+}
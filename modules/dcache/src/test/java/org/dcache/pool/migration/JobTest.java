@@ -0,0 +1,78 @@
+package org.dcache.pool.migration;
+
+import org.junit.Test;
+
+import static org.dcache.pool.migration.Job.nextConcurrency;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class JobTest
+{
+    private static final long TARGET = 100_000_000L;
+
+    @Test
+    public void shouldRaiseConcurrencyWhenSaturatedBelowTarget()
+    {
+        assertThat(nextConcurrency(4, 10, TARGET, 0.5 * TARGET, true, false), is(5));
+    }
+
+    @Test
+    public void shouldNotRaiseConcurrencyWhenNotSaturated()
+    {
+        assertThat(nextConcurrency(4, 10, TARGET, 0.5 * TARGET, false, false), is(4));
+    }
+
+    @Test
+    public void shouldNotRaiseConcurrencyAboveMaximum()
+    {
+        assertThat(nextConcurrency(10, 10, TARGET, 0.5 * TARGET, true, false), is(10));
+    }
+
+    @Test
+    public void shouldKeepConcurrencyWithinTenPercentOfTarget()
+    {
+        assertThat(nextConcurrency(4, 10, TARGET, 0.91 * TARGET, true, false), is(4));
+        assertThat(nextConcurrency(4, 10, TARGET, 1.09 * TARGET, true, false), is(4));
+    }
+
+    @Test
+    public void shouldLowerConcurrencyAboveTarget()
+    {
+        assertThat(nextConcurrency(4, 10, TARGET, 1.2 * TARGET, true, false), is(3));
+    }
+
+    @Test
+    public void shouldLowerConcurrencyWhenTargetPoolIsLoaded()
+    {
+        assertThat(nextConcurrency(4, 10, TARGET, 0.5 * TARGET, true, true), is(3));
+    }
+
+    @Test
+    public void shouldNotLowerConcurrencyBelowOne()
+    {
+        assertThat(nextConcurrency(1, 10, TARGET, 2.0 * TARGET, false, true), is(1));
+    }
+
+    @Test
+    public void shouldConvergeOnTargetBandwidth()
+    {
+        /* Each task contributes 15 MB/s until the network saturates at
+         * 180 MB/s, beyond which additional tasks only add contention. */
+        JobStatistics statistics = new JobStatistics();
+        long now = 1;
+        statistics.sample(now);
+        int concurrency = 1;
+        for (int i = 0; i < 100; i++) {
+            double rate = Math.min(15_000_000.0 * concurrency, 180_000_000.0);
+            for (int j = 0; j < 10; j++) {
+                statistics.addCompleted((long) rate);
+            }
+            now += 10_000;
+            statistics.sample(now);
+            concurrency = nextConcurrency(concurrency, 20, TARGET, statistics.getThroughput(), true, false);
+        }
+
+        assertThat(concurrency, is(allOf(greaterThanOrEqualTo(6), lessThanOrEqualTo(8))));
+        assertThat(statistics.getThroughput(), is(closeTo(TARGET, 0.1 * TARGET)));
+    }
+}
@@ -29,6 +29,8 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.hamcrest.CoreMatchers.*;
 import static org.hamcrest.collection.IsEmptyCollection.empty;
@@ -93,6 +95,18 @@ public class ChecksumChannelTest {
         assertThat(chksumChannel.getChecksums(), contains(expectedChecksum));
     }
 
+    @Test
+    public void shouldSucceedIfBufferIsReusedForInOrderWrites() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(blocksize);
+        for (int block = 0; block < blockcount; block++) {
+            buffer.clear();
+            buffer.put(data, block * blocksize, blocksize).flip();
+            chksumChannel.write(buffer, block * blocksize);
+        }
+
+        assertThat(chksumChannel.getChecksums(), contains(expectedChecksum));
+    }
+
     @Test
     public void shouldSucceedIfWrittenOutOfOrderWithPosition() throws IOException {
         int[] blockorder = getRandomPermutationOfBlockOrder();
@@ -285,6 +299,36 @@ public class ChecksumChannelTest {
         assertThat(chksumChannel.getChecksums(), is(not(empty())));
     }
 
+    @Test
+    public void shouldNotReadBackOutOfOrderWrites() throws IOException {
+        chksumChannel._channel = mock(FileRepositoryChannel.class);
+        when(chksumChannel._channel.write(any(), anyLong())).thenAnswer(invocation -> {
+            ByteBuffer buffer = invocation.getArgument(0);
+            int bytes = buffer.remaining();
+            buffer.position(buffer.limit());
+            return bytes;
+        });
+
+        int[] blockorder = getRandomPermutationOfBlockOrder();
+        for (int i = 0; i < blockcount; i++) {
+            chksumChannel.write(buffers[blockorder[i]], blockorder[i] * blocksize);
+        }
+
+        assertThat(chksumChannel.getChecksums(), contains(expectedChecksum));
+        verify(chksumChannel._channel, never()).read(any(), anyLong());
+    }
+
+    @Test
+    public void shouldReleaseBuffersOfOutOfOrderWritesOnClose() throws IOException {
+        long buffered = ChecksumChannel.getBufferedBytes();
+
+        chksumChannel.write(buffers[1], blocksize);
+        assertThat(ChecksumChannel.getBufferedBytes(), is(buffered + blocksize));
+
+        chksumChannel.close();
+        assertThat(ChecksumChannel.getBufferedBytes(), is(buffered));
+    }
+
     @Test
     public void shouldFillUpRangeGapsWithZerosOnGetChecksum() throws IOException {
         Map<Long, ByteBuffer> nonZeroBlocksFromByteArray = getNonZeroBlocksFromByteArray(data);
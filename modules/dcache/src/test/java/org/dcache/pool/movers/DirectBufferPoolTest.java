@@ -0,0 +1,81 @@
+package org.dcache.pool.movers;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class DirectBufferPoolTest
+{
+    private DirectBufferPool _pool;
+
+    @Before
+    public void setUp()
+    {
+        _pool = new DirectBufferPool(4096);
+    }
+
+    @Test
+    public void shouldRoundCapacityUpToPowerOfTwo()
+    {
+        ByteBuffer buffer = _pool.acquire(1000);
+
+        assertTrue(buffer.isDirect());
+        assertThat(buffer.capacity(), is(1024));
+        assertThat(_pool.acquire(1024).capacity(), is(1024));
+    }
+
+    @Test
+    public void shouldReuseReleasedBuffer()
+    {
+        ByteBuffer buffer = _pool.acquire(1024);
+        buffer.put((byte) 1);
+        _pool.release(buffer);
+
+        ByteBuffer reused = _pool.acquire(1000);
+
+        assertThat(reused, is(sameInstance(buffer)));
+        assertThat(reused.position(), is(0));
+        assertThat(reused.limit(), is(1024));
+        assertThat(_pool.getIdleBytes(), is(0L));
+    }
+
+    @Test
+    public void shouldNotReuseBufferOfOtherSize()
+    {
+        ByteBuffer buffer = _pool.acquire(1024);
+        _pool.release(buffer);
+
+        assertThat(_pool.acquire(2048), is(not(sameInstance(buffer))));
+        assertThat(_pool.getIdleBytes(), is(1024L));
+    }
+
+    @Test
+    public void shouldBoundIdleBuffersByBytes()
+    {
+        ByteBuffer large = _pool.acquire(4096);
+        ByteBuffer small = _pool.acquire(1024);
+
+        _pool.release(small);
+        _pool.release(large);
+
+        assertThat(_pool.getIdleBytes(), is(1024L));
+        assertThat(_pool.acquire(4096), is(not(sameInstance(large))));
+        assertThat(_pool.acquire(1024), is(sameInstance(small)));
+    }
+
+    @Test
+    public void shouldRetainBuffersOfMixedSizesUpToBound()
+    {
+        ByteBuffer[] buffers = { _pool.acquire(2048), _pool.acquire(1024), _pool.acquire(1024), _pool.acquire(1024) };
+
+        for (ByteBuffer buffer : buffers) {
+            _pool.release(buffer);
+        }
+
+        assertThat(_pool.getIdleBytes(), is(4096L));
+    }
+}
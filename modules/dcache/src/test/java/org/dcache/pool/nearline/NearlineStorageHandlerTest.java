@@ -0,0 +1,259 @@
+package org.dcache.pool.nearline;
+
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import diskCacheV111.util.PnfsHandler;
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.vehicles.GenericStorageInfo;
+
+import dmg.cells.nucleus.CellAddressCore;
+
+import org.dcache.cells.CellStub;
+import org.dcache.pool.classic.ChecksumModule;
+import org.dcache.pool.classic.NopCompletionHandler;
+import org.dcache.pool.nearline.spi.NearlineStorage;
+import org.dcache.pool.nearline.spi.StageRequest;
+import org.dcache.pool.repository.Allocator;
+import org.dcache.pool.repository.FileStore;
+import org.dcache.pool.repository.ReplicaDescriptor;
+import org.dcache.pool.repository.Repository;
+import org.dcache.util.Glob;
+import org.dcache.vehicles.FileAttributes;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class NearlineStorageHandlerTest
+{
+    private final List<StageRequest> _staged = new ArrayList<>();
+
+    private NearlineStorageHandler _handler;
+    private NearlineStorage _storage;
+    private Runnable _timeoutTask;
+    private Repository _repository;
+    private int _files;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        _storage = mock(NearlineStorage.class);
+        doAnswer(i -> {
+            Iterables.addAll(_staged, i.<Iterable<StageRequest>>getArgument(0));
+            return null;
+        }).when(_storage).stage(any());
+
+        HsmSet hsmSet = mock(HsmSet.class);
+        when(hsmSet.getNearlineStorageByName("osm")).thenReturn(_storage);
+
+        _repository = mock(Repository.class);
+        when(_repository.createEntry(any(), any(), any(), any(), any(), any())).thenAnswer(i -> {
+            FileAttributes attributes = i.getArgument(0);
+            ReplicaDescriptor descriptor = mock(ReplicaDescriptor.class);
+            when(descriptor.getFileAttributes()).thenReturn(attributes);
+            return descriptor;
+        });
+
+        ScheduledExecutorService scheduledExecutor = mock(ScheduledExecutorService.class);
+        when(scheduledExecutor.scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(), eq(TimeUnit.SECONDS)))
+                .thenAnswer(i -> {
+                    _timeoutTask = i.getArgument(0);
+                    return null;
+                });
+
+        _handler = new NearlineStorageHandler();
+        _handler.setCellAddress(new CellAddressCore("pool"));
+        _handler.setScheduledExecutor(scheduledExecutor);
+        _handler.setExecutor(MoreExecutors.newDirectExecutorService());
+        _handler.setRepository(_repository);
+        _handler.setChecksumModule(mock(ChecksumModule.class));
+        _handler.setPnfsHandler(mock(PnfsHandler.class));
+        _handler.setBillingStub(mock(CellStub.class));
+        _handler.setHsmSet(hsmSet);
+        _handler.setAllocator(mock(Allocator.class));
+        _handler.setFileStore(mock(FileStore.class));
+        _handler.init();
+    }
+
+    @After
+    public void tearDown()
+    {
+        /* Cancels the requests without waiting for the mocked storage to finish them. */
+        _handler.beforeStop();
+    }
+
+    @Test
+    public void shouldListRestoreQueueInOrderOfCreation() throws Exception
+    {
+        List<PnfsId> ids = stage("a:x", "b:y", "a:z", "b:y");
+
+        assertThat(pnfsIdsIn(restoreList(null, 0, Integer.MAX_VALUE)), is(ids));
+    }
+
+    @Test
+    public void shouldListPageOfRestoreQueue() throws Exception
+    {
+        List<PnfsId> ids = stage("a:x", "a:x", "a:x", "a:x", "a:x", "a:x", "a:x");
+
+        assertThat(pnfsIdsIn(restoreList(null, 2, 3)), is(ids.subList(2, 5)));
+        assertThat(pnfsIdsIn(restoreList(null, 5, 10)), is(ids.subList(5, 7)));
+        assertThat(restoreList(null, 7, 10), is(""));
+    }
+
+    @Test
+    public void shouldMergeStorageClassesWhenListingMatchingRequests() throws Exception
+    {
+        List<PnfsId> ids = stage("a:x", "b:y", "a:z", "b:y", "a:x");
+
+        assertThat(pnfsIdsIn(restoreList("a:*", 0, Integer.MAX_VALUE)),
+                   is(Arrays.asList(ids.get(0), ids.get(2), ids.get(4))));
+        assertThat(pnfsIdsIn(restoreList("a:*", 1, 1)), is(Arrays.asList(ids.get(2))));
+        assertThat(pnfsIdsIn(restoreList("b:y@osm", 0, Integer.MAX_VALUE)),
+                   is(Arrays.asList(ids.get(1), ids.get(3))));
+        assertThat(restoreList("c:*", 0, Integer.MAX_VALUE), is(""));
+    }
+
+    @Test
+    public void shouldKillRequestsOfMatchingStorageClasses() throws Exception
+    {
+        stage("a:x", "b:y", "a:z", "b:y");
+
+        NearlineStorageHandler.RestoreKillCommand command = _handler.new RestoreKillCommand();
+        command.storageClass = new Glob("a:*");
+
+        assertThat(command.call(), is("Kill initialized for 2 requests"));
+        verify(_storage).cancel(_staged.get(0).getId());
+        verify(_storage).cancel(_staged.get(2).getId());
+        verify(_storage, never()).cancel(_staged.get(1).getId());
+        verify(_storage, never()).cancel(_staged.get(3).getId());
+        assertThat(_handler.getFetchQueueSize(), is(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectKillWithoutPnfsIdOrStorageClass() throws Exception
+    {
+        _handler.new RestoreKillCommand().call();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectKillWithBothPnfsIdAndStorageClass() throws Exception
+    {
+        List<PnfsId> ids = stage("a:x");
+
+        NearlineStorageHandler.RestoreKillCommand command = _handler.new RestoreKillCommand();
+        command.pnfsId = ids.get(0);
+        command.storageClass = new Glob("a:*");
+        command.call();
+    }
+
+    @Test
+    public void shouldCountQueuedAndActiveRequests() throws Exception
+    {
+        List<PnfsId> ids = stage("a:x", "a:x", "b:y");
+
+        assertThat(_handler.getFetchQueueSize(), is(3));
+        assertThat(_handler.getActiveFetchJobs(), is(0));
+
+        _staged.get(0).activate();
+        _staged.get(2).activate();
+
+        assertThat(_handler.getFetchQueueSize(), is(1));
+        assertThat(_handler.getActiveFetchJobs(), is(2));
+
+        NearlineStorageHandler.RestoreKillCommand command = _handler.new RestoreKillCommand();
+        command.pnfsId = ids.get(1);
+        assertThat(command.call(), is("Kill initialized"));
+
+        assertThat(_handler.getFetchQueueSize(), is(0));
+    }
+
+    @Test
+    public void shouldOnlyCancelActiveRequestsPastDeadline() throws Exception
+    {
+        stage("a:x", "a:x", "a:x");
+        NearlineStorageHandler.RestoreSetTimeoutCommand timeout = _handler.new RestoreSetTimeoutCommand();
+        timeout.timeout = 0;
+        timeout.call();
+        _staged.get(0).activate();
+        _staged.get(1).activate();
+        Thread.sleep(5);
+
+        _timeoutTask.run();
+
+        verify(_storage).cancel(_staged.get(0).getId());
+        verify(_storage).cancel(_staged.get(1).getId());
+        verify(_storage, never()).cancel(_staged.get(2).getId());
+        assertThat(_handler.getFetchQueueSize(), is(1));
+    }
+
+    @Test
+    public void shouldNotCancelActiveRequestsBeforeDeadline() throws Exception
+    {
+        stage("a:x");
+        _staged.get(0).activate();
+
+        _timeoutTask.run();
+
+        verify(_storage, never()).cancel(any());
+        assertThat(_handler.getActiveFetchJobs(), is(1));
+    }
+
+    /**
+     * Stages one file for each of the given storage classes, each created
+     * at a distinct time.
+     */
+    private List<PnfsId> stage(String... storageClasses) throws InterruptedException
+    {
+        List<PnfsId> ids = new ArrayList<>();
+        for (String storageClass : storageClasses) {
+            PnfsId id = new PnfsId(String.format("0000%032X", ++_files));
+            String[] parts = storageClass.split(":");
+            FileAttributes attributes = FileAttributes.of()
+                    .pnfsId(id)
+                    .size(1024)
+                    .hsm("osm")
+                    .storageClass(storageClass + "@osm")
+                    .storageInfo(new GenericStorageInfo("osm", parts[0] + ":" + parts[1]))
+                    .build();
+            _handler.stage("osm", attributes, new NopCompletionHandler<>());
+            ids.add(id);
+            Thread.sleep(2);
+        }
+        return ids;
+    }
+
+    private String restoreList(String storageClass, int offset, int limit)
+    {
+        NearlineStorageHandler.RestoreListCommand command = _handler.new RestoreListCommand();
+        command.storageClass = storageClass == null ? null : new Glob(storageClass);
+        command.offset = offset;
+        command.limit = limit;
+        return command.call();
+    }
+
+    private static List<PnfsId> pnfsIdsIn(String listing)
+    {
+        return Arrays.stream(listing.split("\n"))
+                .filter(line -> !line.isEmpty())
+                .map(line -> new PnfsId(line.split(" ")[line.split(" ").length - 2]))
+                .collect(Collectors.toList());
+    }
+}
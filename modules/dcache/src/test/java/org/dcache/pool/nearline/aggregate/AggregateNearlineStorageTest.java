@@ -0,0 +1,392 @@
+package org.dcache.pool.nearline.aggregate;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.vehicles.GenericStorageInfo;
+
+import org.dcache.pool.nearline.spi.FlushRequest;
+import org.dcache.pool.nearline.spi.NearlineRequest;
+import org.dcache.pool.nearline.spi.RemoveRequest;
+import org.dcache.pool.nearline.spi.StageRequest;
+import org.dcache.util.Checksum;
+import org.dcache.vehicles.FileAttributes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AggregateNearlineStorageTest
+{
+    private static final int FILE_SIZE = 1000;
+
+    private Path dir;
+    private Path pool;
+    private Path tape;
+    private Path cache;
+    private AggregateNearlineStorage storage;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory("aggregate");
+        pool = Files.createDirectory(dir.resolve("pool"));
+        tape = Files.createDirectory(dir.resolve("tape"));
+        cache = Files.createDirectory(dir.resolve("cache"));
+        storage = new AggregateNearlineStorage("osm", "osm");
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        storage.shutdown();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private void configure(String... options)
+    {
+        ImmutableMap.Builder<String, String> properties = ImmutableMap.builder();
+        properties.put("directory", tape.toString());
+        for (String option : options) {
+            String[] keyValue = option.split("=", 2);
+            properties.put(keyValue[0], keyValue[1]);
+        }
+        storage.configure(properties.build());
+    }
+
+    private static <T> T get(TestRequest<T> request) throws Exception
+    {
+        try {
+            return request.result.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    private static PnfsId pnfsId(int i)
+    {
+        return new PnfsId(String.format("%036X", i));
+    }
+
+    private static byte[] content(int i)
+    {
+        byte[] content = new byte[FILE_SIZE];
+        Arrays.fill(content, (byte) i);
+        return content;
+    }
+
+    private List<TestFlushRequest> flush(int count) throws IOException
+    {
+        List<TestFlushRequest> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path file = pool.resolve(pnfsId(i).toString());
+            Files.write(file, content(i));
+            requests.add(new TestFlushRequest(pnfsId(i), file));
+        }
+        storage.flush(new ArrayList<>(requests));
+        return requests;
+    }
+
+    private List<URI> locations(List<TestFlushRequest> requests) throws Exception
+    {
+        List<URI> locations = new ArrayList<>();
+        for (TestFlushRequest request : requests) {
+            locations.add(Iterables.getOnlyElement(get(request)));
+        }
+        return locations;
+    }
+
+    private static String container(URI location)
+    {
+        return location.getPath().split("/")[1];
+    }
+
+    private List<Path> containers() throws IOException
+    {
+        try (Stream<Path> files = Files.list(tape)) {
+            return files.filter(p -> p.toString().endsWith(".ctr")).collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void shouldAggregateFilesOfSameStorageClass() throws Exception
+    {
+        configure("container-size=" + 5 * FILE_SIZE);
+
+        List<URI> locations = locations(flush(10));
+
+        assertEquals(2, containers().size());
+        assertEquals(2, locations.stream().map(AggregateNearlineStorageTest::container).distinct().count());
+        assertEquals(URI.create("osm://osm/" + container(locations.get(1)) + "/" + pnfsId(1) +
+                                "?offset=" + FILE_SIZE + "&length=" + FILE_SIZE),
+                     locations.get(1));
+    }
+
+    @Test
+    public void shouldWritePartialContainerAfterMaxDelay() throws Exception
+    {
+        configure("max-delay=1");
+
+        List<URI> locations = locations(flush(3));
+
+        assertEquals(1, containers().size());
+        assertEquals(1, locations.stream().map(AggregateNearlineStorageTest::container).distinct().count());
+    }
+
+    @Test
+    public void shouldIndexMembers() throws Exception
+    {
+        configure("container-size=" + 3 * FILE_SIZE);
+        locations(flush(3));
+
+        ContainerIndex index;
+        try (FileChannel channel = FileChannel.open(containers().get(0), StandardOpenOption.READ)) {
+            index = ContainerIndex.read(channel);
+        }
+
+        assertEquals(3, index.getMembers().size());
+        assertEquals(pnfsId(2).toString(), index.getMembers().get(2).getId());
+        assertEquals(2 * FILE_SIZE, index.getMembers().get(2).getOffset());
+        assertEquals(FILE_SIZE, index.getMembers().get(2).getLength());
+    }
+
+    @Test
+    public void shouldRestoreSingleMembers() throws Exception
+    {
+        configure("container-size=" + 4 * FILE_SIZE, "cache=" + cache);
+        List<URI> locations = locations(flush(4));
+
+        List<TestStageRequest> requests = new ArrayList<>();
+        for (int i : new int[] { 3, 1 }) {
+            requests.add(new TestStageRequest(pnfsId(i), locations.get(i), pool.resolve("staged-" + i)));
+        }
+        storage.stage(new ArrayList<>(requests));
+
+        for (TestStageRequest request : requests) {
+            get(request);
+        }
+        assertArrayEquals(content(3), Files.readAllBytes(pool.resolve("staged-3")));
+        assertArrayEquals(content(1), Files.readAllBytes(pool.resolve("staged-1")));
+    }
+
+    @Test
+    public void shouldReuseCachedContainerForSiblings() throws Exception
+    {
+        configure("container-size=" + 2 * FILE_SIZE, "cache=" + cache);
+        List<URI> locations = locations(flush(2));
+
+        TestStageRequest first = new TestStageRequest(pnfsId(0), locations.get(0), pool.resolve("staged-0"));
+        storage.stage(Collections.singletonList(first));
+        get(first);
+
+        /* Removing the container from the nearline storage proves that the
+         * sibling is restored from the cached copy. */
+        Files.delete(containers().get(0));
+
+        TestStageRequest second = new TestStageRequest(pnfsId(1), locations.get(1), pool.resolve("staged-1"));
+        storage.stage(Collections.singletonList(second));
+        get(second);
+
+        assertArrayEquals(content(1), Files.readAllBytes(pool.resolve("staged-1")));
+    }
+
+    @Test
+    public void shouldDeleteContainerOnceAllMembersAreRemoved() throws Exception
+    {
+        configure("container-size=" + 2 * FILE_SIZE);
+        List<URI> locations = locations(flush(2));
+
+        TestRemoveRequest first = new TestRemoveRequest(locations.get(0));
+        storage.remove(Collections.singletonList(first));
+        get(first);
+        assertEquals(1, containers().size());
+
+        TestRemoveRequest second = new TestRemoveRequest(locations.get(1));
+        storage.remove(Collections.singletonList(second));
+        get(second);
+        assertTrue(containers().isEmpty());
+        try (Stream<Path> files = Files.list(tape)) {
+            assertFalse(files.findAny().isPresent());
+        }
+    }
+
+    @Test(expected = CancellationException.class)
+    public void shouldCancelPendingFlush() throws Exception
+    {
+        configure();
+        TestFlushRequest request = flush(1).get(0);
+
+        storage.cancel(request.getId());
+
+        get(request);
+    }
+
+    private abstract static class TestRequest<T> implements NearlineRequest<T>
+    {
+        final UUID id = UUID.randomUUID();
+        final SettableFuture<T> result = SettableFuture.create();
+
+        @Override
+        public UUID getId()
+        {
+            return id;
+        }
+
+        @Override
+        public long getDeadline()
+        {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public ListenableFuture<Void> activate()
+        {
+            return Futures.immediateFuture(null);
+        }
+
+        @Override
+        public void failed(Exception cause)
+        {
+            result.setException(cause);
+        }
+
+        @Override
+        public void failed(int rc, String msg)
+        {
+            result.setException(new Exception(msg));
+        }
+
+        @Override
+        public void completed(T value)
+        {
+            result.set(value);
+        }
+    }
+
+    private static FileAttributes attributes(PnfsId pnfsId, URI... locations)
+    {
+        GenericStorageInfo info = new GenericStorageInfo("osm", "test:disk");
+        for (URI location : locations) {
+            info.addLocation(location);
+        }
+        return FileAttributes.of().pnfsId(pnfsId).size(FILE_SIZE).storageInfo(info).build();
+    }
+
+    private static class TestFlushRequest extends TestRequest<Set<URI>> implements FlushRequest
+    {
+        private final FileAttributes attributes;
+        private final Path file;
+
+        TestFlushRequest(PnfsId pnfsId, Path file)
+        {
+            this.attributes = attributes(pnfsId);
+            this.file = file;
+        }
+
+        @Override
+        public File getFile()
+        {
+            return file.toFile();
+        }
+
+        @Override
+        public URI getReplicaUri()
+        {
+            return file.toUri();
+        }
+
+        @Override
+        public FileAttributes getFileAttributes()
+        {
+            return attributes;
+        }
+
+        @Override
+        public ListenableFuture<String> activateWithPath()
+        {
+            return Futures.immediateFuture(file.toString());
+        }
+    }
+
+    private static class TestStageRequest extends TestRequest<Set<Checksum>> implements StageRequest
+    {
+        private final FileAttributes attributes;
+        private final Path file;
+
+        TestStageRequest(PnfsId pnfsId, URI location, Path file)
+        {
+            this.attributes = attributes(pnfsId, location);
+            this.file = file;
+        }
+
+        @Override
+        public File getFile()
+        {
+            return file.toFile();
+        }
+
+        @Override
+        public URI getReplicaUri()
+        {
+            return file.toUri();
+        }
+
+        @Override
+        public FileAttributes getFileAttributes()
+        {
+            return attributes;
+        }
+
+        @Override
+        public ListenableFuture<Void> allocate()
+        {
+            return Futures.immediateFuture(null);
+        }
+    }
+
+    private static class TestRemoveRequest extends TestRequest<Void> implements RemoveRequest
+    {
+        private final URI uri;
+
+        TestRemoveRequest(URI uri)
+        {
+            this.uri = uri;
+        }
+
+        @Override
+        public URI getUri()
+        {
+            return uri;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package org.dcache.pool.nearline.script;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.util.TimeoutCacheException;
+import diskCacheV111.vehicles.GenericStorageInfo;
+
+import org.dcache.pool.nearline.spi.FlushRequest;
+import org.dcache.pool.nearline.spi.NearlineRequest;
+import org.dcache.pool.nearline.spi.RemoveRequest;
+import org.dcache.pool.nearline.spi.StageRequest;
+import org.dcache.util.Checksum;
+import org.dcache.vehicles.FileAttributes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchScriptNearlineStorageTest
+{
+    private Path helper;
+    private BatchScriptNearlineStorage storage;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        helper = Files.createTempFile("mock-hsm-helper", ".sh");
+        try (InputStream in = getClass().getResourceAsStream("mock-hsm-helper.sh")) {
+            Files.copy(in, helper, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.setPosixFilePermissions(helper, PosixFilePermissions.fromString("rwx------"));
+        storage = new BatchScriptNearlineStorage("osm", "osm");
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        storage.shutdown();
+        Files.deleteIfExists(helper);
+    }
+
+    private void configure(String... options)
+    {
+        ImmutableMap.Builder<String, String> properties = ImmutableMap.builder();
+        properties.put("command", helper.toString());
+        for (String option : options) {
+            String[] keyValue = option.split("=", 2);
+            properties.put(keyValue[0], keyValue.length > 1 ? keyValue[1] : "");
+        }
+        storage.configure(properties.build());
+    }
+
+    private static <T> T get(TestRequest<T> request) throws Exception
+    {
+        try {
+            return request.result.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    @Test
+    public void shouldFlushFile() throws Exception
+    {
+        configure();
+        TestFlushRequest request = new TestFlushRequest("000000000000000000000000000000000001");
+
+        storage.flush(Collections.singletonList(request));
+
+        assertEquals(Collections.singleton(URI.create("osm://osm/?store=test&bfid=000000000000000000000000000000000001")),
+                     get(request));
+    }
+
+    @Test
+    public void shouldProcessManyRequestsConcurrently() throws Exception
+    {
+        configure("c:puts=100", "delay=0.5");
+        List<TestFlushRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            requests.add(new TestFlushRequest(String.format("%036X", i)));
+        }
+
+        long start = System.nanoTime();
+        storage.flush(new ArrayList<>(requests));
+        for (TestFlushRequest request : requests) {
+            assertEquals(1, get(request).size());
+        }
+
+        /* Sequential processing would take 100 seconds. */
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+    }
+
+    @Test
+    public void shouldStageFile() throws Exception
+    {
+        configure();
+        TestStageRequest request = new TestStageRequest("000000000000000000000000000000000001");
+
+        storage.stage(Collections.singletonList(request));
+
+        assertEquals(Collections.emptySet(), get(request));
+    }
+
+    @Test
+    public void shouldRemoveFile() throws Exception
+    {
+        configure();
+        TestRemoveRequest request = new TestRemoveRequest();
+
+        storage.remove(Collections.singletonList(request));
+
+        get(request);
+    }
+
+    @Test
+    public void shouldReportHelperErrors() throws Exception
+    {
+        configure("rc=33");
+        TestFlushRequest request = new TestFlushRequest("000000000000000000000000000000000001");
+
+        storage.flush(Collections.singletonList(request));
+
+        try {
+            get(request);
+            fail("Expected CacheException");
+        } catch (CacheException e) {
+            assertEquals(33, e.getRc());
+        }
+    }
+
+    @Test(expected = TimeoutCacheException.class)
+    public void shouldFailRequestsPastDeadline() throws Exception
+    {
+        configure("delay=30");
+        TestFlushRequest request = new TestFlushRequest("000000000000000000000000000000000001");
+        request.deadline = System.currentTimeMillis() + 500;
+
+        storage.flush(Collections.singletonList(request));
+
+        get(request);
+    }
+
+    @Test(expected = CancellationException.class)
+    public void shouldCancelRequests() throws Exception
+    {
+        configure("delay=30");
+        TestFlushRequest request = new TestFlushRequest("000000000000000000000000000000000001");
+
+        storage.flush(Collections.singletonList(request));
+        storage.cancel(request.getId());
+
+        get(request);
+    }
+
+    @Test
+    public void shouldRestartHelperAfterTermination() throws Exception
+    {
+        configure("exit");
+        TestFlushRequest first = new TestFlushRequest("000000000000000000000000000000000001");
+        storage.flush(Collections.singletonList(first));
+        try {
+            get(first);
+            fail("Expected CacheException");
+        } catch (CacheException expected) {
+        }
+
+        configure();
+        TestFlushRequest second = new TestFlushRequest("000000000000000000000000000000000002");
+        storage.flush(Collections.singletonList(second));
+
+        assertEquals(1, get(second).size());
+    }
+
+    @Test
+    public void shouldEscapeFields()
+    {
+        String s = "a\tb\nc\\d";
+
+        assertEquals("a\\tb\\nc\\\\d", BatchScriptNearlineStorage.escape(s));
+        assertEquals(s, BatchScriptNearlineStorage.unescape(BatchScriptNearlineStorage.escape(s)));
+        assertEquals("x\t\\\\ty", BatchScriptNearlineStorage.line(Stream.of("x", "\\ty")));
+    }
+
+    private abstract static class TestRequest<T> implements NearlineRequest<T>
+    {
+        final UUID id = UUID.randomUUID();
+        final SettableFuture<T> result = SettableFuture.create();
+        long deadline = Long.MAX_VALUE;
+
+        @Override
+        public UUID getId()
+        {
+            return id;
+        }
+
+        @Override
+        public long getDeadline()
+        {
+            return deadline;
+        }
+
+        @Override
+        public ListenableFuture<Void> activate()
+        {
+            return Futures.immediateFuture(null);
+        }
+
+        @Override
+        public void failed(Exception cause)
+        {
+            result.setException(cause);
+        }
+
+        @Override
+        public void failed(int rc, String msg)
+        {
+            result.setException(new CacheException(rc, msg));
+        }
+
+        @Override
+        public void completed(T value)
+        {
+            result.set(value);
+        }
+    }
+
+    private static FileAttributes attributes(String pnfsId)
+    {
+        GenericStorageInfo info = new GenericStorageInfo("osm", "test:disk");
+        info.addLocation(URI.create("osm://osm/?store=test&bfid=" + pnfsId));
+        return FileAttributes.of().pnfsId(new PnfsId(pnfsId)).storageInfo(info).build();
+    }
+
+    private static class TestFlushRequest extends TestRequest<Set<URI>> implements FlushRequest
+    {
+        private final FileAttributes attributes;
+
+        TestFlushRequest(String pnfsId)
+        {
+            attributes = attributes(pnfsId);
+        }
+
+        @Override
+        public File getFile()
+        {
+            return new File("/pool/data/" + attributes.getPnfsId());
+        }
+
+        @Override
+        public URI getReplicaUri()
+        {
+            return getFile().toURI();
+        }
+
+        @Override
+        public FileAttributes getFileAttributes()
+        {
+            return attributes;
+        }
+
+        @Override
+        public ListenableFuture<String> activateWithPath()
+        {
+            return Futures.immediateFuture(getFile().getPath());
+        }
+    }
+
+    private static class TestStageRequest extends TestRequest<Set<Checksum>> implements StageRequest
+    {
+        private final FileAttributes attributes;
+
+        TestStageRequest(String pnfsId)
+        {
+            attributes = attributes(pnfsId);
+        }
+
+        @Override
+        public File getFile()
+        {
+            return new File(System.getProperty("java.io.tmpdir"), attributes.getPnfsId().toString());
+        }
+
+        @Override
+        public URI getReplicaUri()
+        {
+            return getFile().toURI();
+        }
+
+        @Override
+        public FileAttributes getFileAttributes()
+        {
+            return attributes;
+        }
+
+        @Override
+        public ListenableFuture<Void> allocate()
+        {
+            return Futures.immediateFuture(null);
+        }
+    }
+
+    private static class TestRemoveRequest extends TestRequest<Void> implements RemoveRequest
+    {
+        @Override
+        public URI getUri()
+        {
+            return URI.create("osm://osm/?store=test&bfid=000000000000000000000000000000000001");
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package org.dcache.pool.p2p;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.dcache.pool.repository.FileRepositoryChannel;
+import org.dcache.pool.repository.RepositoryChannel;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StripedHttpDownloadTest
+{
+    private static final String URI = "http://source.example.org:20000/0000ABCD";
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    private final Random _random = new Random(42);
+    private final List<String> _ranges = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger _concurrent = new AtomicInteger();
+    private final AtomicInteger _maxConcurrent = new AtomicInteger();
+
+    private Path _dir;
+    private Path _file;
+    private RepositoryChannel _channel;
+    private CloseableHttpClient _client;
+    private byte[] _data;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        _dir = Files.createTempDirectory("p2p");
+        _file = _dir.resolve("replica");
+        _channel = new FileRepositoryChannel(_file, ImmutableSet.of(CREATE, READ, WRITE));
+        _client = mock(CloseableHttpClient.class);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        _channel.close();
+        try (Stream<Path> files = Files.walk(_dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void shouldSplitFileIntoStripes() throws Exception
+    {
+        givenSourceWithRanges(1003);
+
+        assertThat(download(100, 1, 1).download(), is(true));
+
+        List<String> expected = new ArrayList<>();
+        for (long offset = 0; offset < 1000; offset += 100) {
+            expected.add("bytes=" + offset + "-" + (offset + 99));
+        }
+        expected.add("bytes=1000-1002");
+        assertThat(_ranges, is(expected));
+    }
+
+    @Test
+    public void shouldReassembleStripesFetchedInParallel() throws Exception
+    {
+        givenSourceWithRanges(64 * 1024 + 17);
+
+        assertThat(download(1000, 4, 4).download(), is(true));
+
+        assertArrayEquals(_data, Files.readAllBytes(_file));
+        assertThat(_ranges, hasSize(66));
+        assertThat(_maxConcurrent.get(), is(greaterThan(1)));
+    }
+
+    @Test
+    public void shouldResumeFailedStripeWhereItBrokeOff() throws Exception
+    {
+        _data = randomBytes(300);
+        AtomicBoolean hasFailed = new AtomicBoolean();
+        when(_client.execute(any(HttpGet.class))).thenAnswer(i -> {
+            HttpGet get = i.getArgument(0);
+            String range = get.getFirstHeader(HttpHeaders.RANGE).getValue();
+            _ranges.add(range);
+            Matcher m = matchRange(range);
+            int from = Integer.parseInt(m.group(1));
+            int to = Integer.parseInt(m.group(2));
+            InputStream in = new ByteArrayInputStream(_data, from, to - from + 1);
+            if (from == 100 && hasFailed.compareAndSet(false, true)) {
+                in = new BrokenInputStream(in, 40);
+            }
+            return partialContent(from, to, in);
+        });
+
+        assertThat(download(100, 1, 1).download(), is(true));
+
+        assertArrayEquals(_data, Files.readAllBytes(_file));
+        assertThat(_ranges, is(Arrays.asList("bytes=0-99", "bytes=100-199", "bytes=140-199", "bytes=200-299")));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldFailWhenStripeFailsTooOften() throws Exception
+    {
+        _data = randomBytes(300);
+        when(_client.execute(any(HttpGet.class))).thenAnswer(i -> {
+            HttpGet get = i.getArgument(0);
+            Matcher m = matchRange(get.getFirstHeader(HttpHeaders.RANGE).getValue());
+            int from = Integer.parseInt(m.group(1));
+            int to = Integer.parseInt(m.group(2));
+            return partialContent(from, to, new BrokenInputStream(new ByteArrayInputStream(_data, from, to - from + 1), 0));
+        });
+
+        download(100, 1, 1).download();
+    }
+
+    @Test
+    public void shouldReportMissingRangeSupportWhenSourceSendsWholeFile() throws Exception
+    {
+        _data = randomBytes(1000);
+        when(_client.execute(any(HttpGet.class))).thenAnswer(i -> {
+            _ranges.add(i.<HttpGet>getArgument(0).getFirstHeader(HttpHeaders.RANGE).getValue());
+            return response(HttpStatus.SC_OK, "OK", new ByteArrayInputStream(_data));
+        });
+
+        assertThat(download(100, 2, 4).download(), is(false));
+        assertThat(_ranges, hasSize(lessThanOrEqualTo(2)));
+    }
+
+    @Test
+    public void shouldReportMissingRangeSupportOnErrorResponse() throws Exception
+    {
+        _data = randomBytes(1000);
+        when(_client.execute(any(HttpGet.class))).thenAnswer(i ->
+                response(HttpStatus.SC_INTERNAL_SERVER_ERROR, "Internal Server Error", new ByteArrayInputStream(new byte[0])));
+
+        assertThat(download(100, 1, 1).download(), is(false));
+    }
+
+    @Test
+    public void shouldNotRequestAnythingForEmptyFile() throws Exception
+    {
+        givenSourceWithRanges(0);
+
+        assertThat(download(100, 1, 4).download(), is(true));
+        assertThat(_ranges, is(empty()));
+    }
+
+    private StripedHttpDownload download(long stripeSize, int minStreams, int maxStreams)
+    {
+        return new StripedHttpDownload(URI, _data.length, stripeSize, minStreams, maxStreams,
+                                       _channel, _client, RequestConfig.DEFAULT, "test");
+    }
+
+    private void givenSourceWithRanges(int size) throws IOException
+    {
+        _data = randomBytes(size);
+        when(_client.execute(any(HttpGet.class))).thenAnswer(i -> {
+            HttpGet get = i.getArgument(0);
+            String range = get.getFirstHeader(HttpHeaders.RANGE).getValue();
+            _ranges.add(range);
+            _maxConcurrent.accumulateAndGet(_concurrent.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(1);
+            } finally {
+                _concurrent.decrementAndGet();
+            }
+            Matcher m = matchRange(range);
+            int from = Integer.parseInt(m.group(1));
+            int to = Integer.parseInt(m.group(2));
+            return partialContent(from, to, new ByteArrayInputStream(_data, from, to - from + 1));
+        });
+    }
+
+    private CloseableHttpResponse partialContent(int from, int to, InputStream in)
+    {
+        CloseableHttpResponse response = response(HttpStatus.SC_PARTIAL_CONTENT, "Partial Content", in);
+        when(response.getFirstHeader(HttpHeaders.CONTENT_RANGE))
+                .thenReturn(new BasicHeader(HttpHeaders.CONTENT_RANGE, "bytes " + from + "-" + to + "/" + _data.length));
+        return response;
+    }
+
+    private static CloseableHttpResponse response(int status, String reason, InputStream in)
+    {
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, status, reason));
+        when(response.getEntity()).thenReturn(new InputStreamEntity(in));
+        return response;
+    }
+
+    private static Matcher matchRange(String range)
+    {
+        Matcher m = RANGE.matcher(range);
+        assertTrue("Unexpected range " + range, m.matches());
+        return m;
+    }
+
+    private byte[] randomBytes(int length)
+    {
+        byte[] data = new byte[length];
+        _random.nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Input stream that fails after a given number of bytes, like a
+     * connection that is reset.
+     */
+    private static class BrokenInputStream extends InputStream
+    {
+        private final InputStream _in;
+        private int _remaining;
+
+        BrokenInputStream(InputStream in, int remaining)
+        {
+            _in = in;
+            _remaining = remaining;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (_remaining == 0) {
+                throw new IOException("Connection reset");
+            }
+            int n = _in.read(b, off, Math.min(len, _remaining));
+            _remaining -= n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package org.dcache.pool.repository;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.dcache.pool.movers.DirectBufferPool;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeNoException;
+
+public class DirectIoRepositoryChannelTest
+{
+    private static final Set<OpenOption> READ_WRITE = ImmutableSet.of(CREATE, READ, WRITE);
+    private static final Set<OpenOption> READ_ONLY = ImmutableSet.of(READ);
+
+    private final Random _random = new Random(42);
+
+    private Path _dir;
+    private Path _file;
+    private int _alignment;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        _dir = Files.createTempDirectory("direct-io");
+        _file = _dir.resolve("replica");
+        _alignment = (int) Files.getFileStore(_dir).getBlockSize();
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        try (Stream<Path> files = Files.walk(_dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void shouldWriteUnalignedBuffersWithUnalignedTail() throws IOException
+    {
+        byte[] data = randomBytes(10 * _alignment + 123);
+
+        try (RepositoryChannel channel = open(READ_WRITE)) {
+            writeInRandomChunks(channel, data);
+            assertEquals(data.length, channel.size());
+        }
+
+        assertArrayEquals(data, Files.readAllBytes(_file));
+    }
+
+    @Test
+    public void shouldWriteUnalignedHead() throws IOException
+    {
+        byte[] data = randomBytes(3 * _alignment);
+        int offset = _alignment / 2 + 7;
+
+        try (RepositoryChannel channel = open(READ_WRITE)) {
+            channel.position(offset);
+            writeInRandomChunks(channel, data);
+        }
+
+        byte[] expected = new byte[offset + data.length];
+        System.arraycopy(data, 0, expected, offset, data.length);
+        assertArrayEquals(expected, Files.readAllBytes(_file));
+    }
+
+    @Test
+    public void shouldWriteNonSequentialBuffers() throws IOException
+    {
+        byte[] first = randomBytes(_alignment + 10);
+        byte[] second = randomBytes(_alignment);
+        long position = 5L * _alignment + 3;
+
+        try (RepositoryChannel channel = open(READ_WRITE)) {
+            channel.write(ByteBuffer.wrap(second), position);
+            channel.write(ByteBuffer.wrap(first), 0);
+        }
+
+        byte[] content = Files.readAllBytes(_file);
+        assertEquals(position + second.length, content.length);
+        assertArrayEquals(first, Arrays.copyOfRange(content, 0, first.length));
+        assertArrayEquals(second, Arrays.copyOfRange(content, (int) position, content.length));
+    }
+
+    @Test
+    public void shouldReadBackGatheredData() throws IOException
+    {
+        byte[] data = randomBytes(2 * _alignment + 17);
+
+        try (RepositoryChannel channel = open(READ_WRITE)) {
+            channel.write(ByteBuffer.wrap(data));
+            ByteBuffer buffer = ByteBuffer.allocate(data.length);
+            assertEquals(data.length, channel.read(buffer, 0));
+            assertArrayEquals(data, buffer.array());
+        }
+    }
+
+    @Test
+    public void shouldReadFromUnalignedPositions() throws IOException
+    {
+        byte[] data = randomBytes(7 * _alignment + 321);
+        Files.write(_file, data);
+
+        try (RepositoryChannel channel = open(READ_ONLY)) {
+            assertEquals(data.length, channel.size());
+            for (int i = 0; i < 100; i++) {
+                int position = _random.nextInt(data.length);
+                int length = Math.min(1 + _random.nextInt(3 * _alignment), data.length - position);
+                ByteBuffer buffer = ByteBuffer.allocate(length);
+                while (buffer.hasRemaining()) {
+                    channel.read(buffer, position + buffer.position());
+                }
+                assertArrayEquals(Arrays.copyOfRange(data, position, position + length), buffer.array());
+            }
+        }
+    }
+
+    @Test
+    public void shouldReturnEndOfFileBeyondTail() throws IOException
+    {
+        Files.write(_file, randomBytes(_alignment + 5));
+
+        try (RepositoryChannel channel = open(READ_ONLY)) {
+            ByteBuffer buffer = ByteBuffer.allocate(100);
+            assertEquals(5, channel.read(buffer, _alignment));
+            buffer.clear();
+            assertEquals(-1, channel.read(buffer, _alignment + 5));
+        }
+    }
+
+    @Test
+    public void shouldTransferToTarget() throws IOException
+    {
+        byte[] data = randomBytes(5 * _alignment + 99);
+        Files.write(_file, data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try (RepositoryChannel channel = open(READ_ONLY)) {
+            long count = channel.transferTo(17, data.length, Channels.newChannel(out));
+            assertEquals(data.length - 17, count);
+        }
+
+        assertArrayEquals(Arrays.copyOfRange(data, 17, data.length), out.toByteArray());
+    }
+
+    @Test
+    public void shouldReturnStagingBufferToPoolOnClose() throws IOException
+    {
+        DirectBufferPool pool = DirectBufferPool.getInstance();
+        RepositoryChannel channel = open(READ_WRITE);
+        long idle = pool.getIdleBytes();
+
+        channel.close();
+        channel.close();
+
+        assertEquals(idle + 4 * _alignment, pool.getIdleBytes());
+    }
+
+    @Test(expected = ClosedChannelException.class)
+    public void shouldRejectWriteAfterClose() throws IOException
+    {
+        RepositoryChannel channel = open(READ_WRITE);
+        channel.close();
+
+        channel.write(ByteBuffer.wrap(randomBytes(10)));
+    }
+
+    private RepositoryChannel open(Set<OpenOption> options) throws IOException
+    {
+        try {
+            return new DirectIoRepositoryChannel(_file, options, 4 * _alignment);
+        } catch (UnsupportedOperationException | IOException e) {
+            /* The file system of the temporary directory does not support O_DIRECT. */
+            assumeNoException(e);
+            throw e;
+        }
+    }
+
+    private void writeInRandomChunks(RepositoryChannel channel, byte[] data) throws IOException
+    {
+        int offset = 0;
+        while (offset < data.length) {
+            int length = Math.min(1 + _random.nextInt(2 * _alignment), data.length - offset);
+            ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            offset += length;
+        }
+    }
+
+    private byte[] randomBytes(int length)
+    {
+        byte[] data = new byte[length];
+        _random.nextBytes(data);
+        return data;
+    }
+}
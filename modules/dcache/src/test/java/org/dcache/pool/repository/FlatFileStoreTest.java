@@ -0,0 +1,111 @@
+package org.dcache.pool.repository;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import diskCacheV111.util.PnfsId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FlatFileStoreTest
+{
+    private static final PnfsId ID1 = new PnfsId("000000000000000000000000000000000001");
+    private static final PnfsId ID2 = new PnfsId("000000000000000000000000000000000002");
+
+    private Path _dir;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        _dir = Files.createTempDirectory("pool");
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        try (Stream<Path> files = Files.walk(_dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void shouldKeepFilesInDataDirectoryByDefault() throws IOException
+    {
+        FlatFileStore store = new FlatFileStore(_dir);
+
+        store.create(ID1);
+
+        assertTrue(Files.exists(_dir.resolve("data").resolve(ID1.toString())));
+    }
+
+    @Test
+    public void shouldKeepFilesInSubdirectories() throws IOException
+    {
+        FlatFileStore store = new FlatFileStore(_dir, 2, 256);
+
+        store.create(ID1);
+
+        Path path = store.getPath(ID1);
+        assertTrue(Files.exists(path));
+        assertEquals(_dir.resolve("data"), path.getParent().getParent().getParent());
+        assertEquals(2, path.getParent().getFileName().toString().length());
+        assertTrue(store.contains(ID1));
+        assertEquals(ImmutableSet.of(ID1), store.index());
+    }
+
+    @Test
+    public void shouldRemoveFilesFromSubdirectories() throws IOException
+    {
+        FlatFileStore store = new FlatFileStore(_dir, 1, 16);
+        store.create(ID1);
+
+        store.remove(ID1);
+
+        assertFalse(store.contains(ID1));
+        assertTrue(store.index().isEmpty());
+    }
+
+    @Test
+    public void shouldMoveFilesToNewLayoutWhenIndexing() throws IOException
+    {
+        FlatFileStore flat = new FlatFileStore(_dir);
+        flat.create(ID1);
+        flat.create(ID2);
+
+        FlatFileStore sharded = new FlatFileStore(_dir, 2, 16);
+
+        assertEquals(ImmutableSet.of(ID1, ID2), sharded.index());
+        assertTrue(Files.exists(sharded.getPath(ID1)));
+        assertTrue(Files.exists(sharded.getPath(ID2)));
+        assertFalse(Files.exists(flat.getPath(ID1)));
+    }
+
+    @Test
+    public void shouldMoveFilesBackToFlatLayoutWhenIndexing() throws IOException
+    {
+        FlatFileStore sharded = new FlatFileStore(_dir, 1, 4096);
+        sharded.create(ID1);
+
+        FlatFileStore flat = new FlatFileStore(_dir);
+
+        assertEquals(ImmutableSet.of(ID1), flat.index());
+        assertTrue(Files.exists(flat.getPath(ID1)));
+        assertFalse(Files.exists(sharded.getPath(ID1).getParent()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidFanOut() throws IOException
+    {
+        new FlatFileStore(_dir, 1, 100);
+    }
+}
@@ -0,0 +1,284 @@
+package org.dcache.pool.repository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import diskCacheV111.util.PnfsId;
+
+import org.dcache.pool.repository.TieredFileStore.Tier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TieredFileStoreTest
+{
+    private static final PnfsId ID1 = new PnfsId("000000000000000000000000000000000001");
+    private static final PnfsId ID2 = new PnfsId("000000000000000000000000000000000002");
+
+    private Path _dir;
+    private double _usage;
+    private long _free = Long.MAX_VALUE;
+    private TieredFileStore _store;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        _dir = Files.createTempDirectory("tiered");
+        Files.createDirectory(_dir.resolve("fast"));
+        Files.createDirectory(_dir.resolve("capacity"));
+        _store = new TieredFileStore(_dir.resolve("fast"), _dir.resolve("capacity"))
+        {
+            @Override
+            double getFastTierUsage()
+            {
+                return _usage;
+            }
+
+            @Override
+            long getFastTierExcess()
+            {
+                return 1;
+            }
+
+            @Override
+            long getFastTierFreeSpace()
+            {
+                return _free;
+            }
+        };
+        _store.setPromotionThreshold(2);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        _store.shutdown();
+        try (Stream<Path> files = Files.walk(_dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private void write(PnfsId id, String content) throws IOException
+    {
+        _store.create(id);
+        try (RepositoryChannel channel = _store.openDataChannel(id, FileStore.O_RW)) {
+            channel.write(ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8)), 0);
+        }
+    }
+
+    private String read(PnfsId id) throws IOException
+    {
+        try (RepositoryChannel channel = _store.openDataChannel(id, FileStore.O_READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            channel.read(buffer, 0);
+            return new String(buffer.array(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void shouldCreateReplicasOnFastTier() throws IOException
+    {
+        write(ID1, "hello");
+
+        assertEquals(Tier.FAST, _store.getTier(ID1));
+        assertTrue(Files.exists(_dir.resolve("fast/data").resolve(ID1.toString())));
+    }
+
+    @Test
+    public void shouldCreateReplicasOnCapacityTierAboveHighWatermark() throws IOException
+    {
+        _usage = 0.95;
+
+        write(ID1, "hello");
+
+        assertEquals(Tier.CAPACITY, _store.getTier(ID1));
+    }
+
+    @Test
+    public void shouldDemoteLeastFrequentlyReadReplica() throws IOException
+    {
+        write(ID1, "hello");
+        write(ID2, "world");
+        read(ID2);
+        _usage = 0.95;
+
+        _store.balance();
+
+        assertEquals(Tier.CAPACITY, _store.getTier(ID1));
+        assertEquals(Tier.FAST, _store.getTier(ID2));
+        assertEquals("hello", read(ID1));
+        assertFalse(Files.exists(_dir.resolve("fast/data").resolve(ID1.toString())));
+    }
+
+    @Test
+    public void shouldNotDemoteReplicaBeingWritten() throws IOException
+    {
+        _store.create(ID1);
+        try (RepositoryChannel channel = _store.openDataChannel(ID1, FileStore.O_RW)) {
+            _usage = 0.95;
+            _store.balance();
+        }
+
+        assertEquals(Tier.FAST, _store.getTier(ID1));
+    }
+
+    @Test
+    public void shouldPromoteFrequentlyReadReplica() throws Exception
+    {
+        write(ID1, "hello");
+        _store.demote(ID1);
+        _usage = 0.5;
+
+        read(ID1);
+        Thread.sleep(100);
+        assertEquals(Tier.CAPACITY, _store.getTier(ID1));
+
+        read(ID1);
+        awaitTier(ID1, Tier.FAST);
+        assertEquals("hello", read(ID1));
+    }
+
+    @Test
+    public void shouldNotPromoteFrequentlyReadReplicaAboveLowWatermark() throws Exception
+    {
+        write(ID1, "hello");
+        _store.demote(ID1);
+        _usage = 0.8;
+
+        read(ID1);
+        read(ID1);
+        read(ID1);
+        Thread.sleep(100);
+
+        assertEquals(Tier.CAPACITY, _store.getTier(ID1));
+    }
+
+    @Test
+    public void shouldNotTrackReplicaIfOpenFails() throws IOException
+    {
+        try {
+            _store.openDataChannel(ID1, FileStore.O_READ);
+            fail("Opening a missing replica succeeded");
+        } catch (IOException expected) {
+        }
+
+        assertNull(_store.getTier(ID1));
+    }
+
+    @Test
+    public void shouldCreateReplicasOnCapacityTierWithoutHeadroom() throws IOException
+    {
+        _store.setHeadroom(1000);
+        _free = 999;
+
+        write(ID1, "hello");
+
+        assertEquals(Tier.CAPACITY, _store.getTier(ID1));
+    }
+
+    @Test
+    public void shouldRelocateReplicaWhenWriteWouldExceedHeadroom() throws IOException
+    {
+        _store.setHeadroom(1000);
+        _free = 1010;
+        _store.create(ID1);
+
+        try (RepositoryChannel channel = _store.openDataChannel(ID1, FileStore.O_RW)) {
+            channel.write(ByteBuffer.wrap("hello ".getBytes(StandardCharsets.UTF_8)));
+            assertEquals(Tier.FAST, _store.getTier(ID1));
+            _free = 1004;
+
+            channel.write(ByteBuffer.wrap("world".getBytes(StandardCharsets.UTF_8)));
+            assertEquals(Tier.CAPACITY, _store.getTier(ID1));
+            assertEquals(11, channel.position());
+        }
+
+        assertEquals("hello world", read(ID1));
+        assertFalse(Files.exists(_dir.resolve("fast/data").resolve(ID1.toString())));
+    }
+
+    @Test
+    public void shouldRelocateStagedDataOfDirectIoWrites() throws IOException
+    {
+        _store.setHeadroom(1000);
+        _free = 1010;
+        _store.create(ID1);
+        Set<OpenOption> mode = new HashSet<>(FileStore.O_RW);
+        mode.add(Repository.OpenFlags.DIRECT_IO);
+
+        try (RepositoryChannel channel = _store.openDataChannel(ID1, mode)) {
+            channel.write(ByteBuffer.wrap("hello ".getBytes(StandardCharsets.UTF_8)));
+            _free = 1004;
+
+            channel.write(ByteBuffer.wrap("world".getBytes(StandardCharsets.UTF_8)));
+            assertEquals(Tier.CAPACITY, _store.getTier(ID1));
+        }
+
+        assertEquals("hello world", read(ID1));
+    }
+
+    @Test
+    public void shouldKeepReadingAfterDemotion() throws IOException
+    {
+        write(ID1, "hello");
+        try (RepositoryChannel channel = _store.openDataChannel(ID1, FileStore.O_READ)) {
+            _store.demote(ID1);
+
+            ByteBuffer buffer = ByteBuffer.allocate(5);
+            channel.read(buffer, 0);
+            assertEquals("hello", new String(buffer.array(), StandardCharsets.UTF_8));
+        }
+        assertEquals(Tier.CAPACITY, _store.getTier(ID1));
+    }
+
+    @Test
+    public void shouldIndexBothTiers() throws IOException
+    {
+        write(ID1, "hello");
+        write(ID2, "world");
+        _store.demote(ID1);
+
+        assertEquals(2, _store.index().size());
+        assertEquals(Tier.CAPACITY, _store.getTier(ID1));
+        assertEquals(Tier.FAST, _store.getTier(ID2));
+    }
+
+    @Test
+    public void shouldRemoveReplicaFromEitherTier() throws IOException
+    {
+        write(ID1, "hello");
+        write(ID2, "world");
+        _store.demote(ID1);
+
+        _store.remove(ID1);
+        _store.remove(ID2);
+
+        assertFalse(_store.contains(ID1));
+        assertFalse(_store.contains(ID2));
+    }
+
+    private void awaitTier(PnfsId id, Tier tier) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (_store.getTier(id) != tier) {
+            assertTrue("Replica did not move to " + tier, System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
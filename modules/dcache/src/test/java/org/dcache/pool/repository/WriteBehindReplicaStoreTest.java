@@ -0,0 +1,134 @@
+package org.dcache.pool.repository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import diskCacheV111.util.DiskErrorCacheException;
+import diskCacheV111.util.PnfsId;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.BDDMockito.*;
+
+public class WriteBehindReplicaStoreTest
+{
+    private final static PnfsId PNFSID =
+        new PnfsId("000000000000000000000000000000000001");
+
+    private ReplicaStore _inner;
+    private ReplicaRecord _innerRecord;
+    private WriteBehindReplicaStore _store;
+
+    @Before
+    public void setup() throws Exception
+    {
+        _inner = mock(ReplicaStore.class);
+        _innerRecord = mock(ReplicaRecord.class);
+        given(_innerRecord.getPnfsId()).willReturn(PNFSID);
+        given(_innerRecord.getLastAccessTime()).willReturn(1000L);
+        given(_inner.get(PNFSID)).willReturn(_innerRecord);
+        given(_inner.isOk()).willReturn(true);
+        _store = new WriteBehindReplicaStore(_inner, Duration.ofHours(1));
+    }
+
+    @After
+    public void tearDown()
+    {
+        _store.close();
+    }
+
+    @Test
+    public void shouldReturnLatestAccessTimeBeforeFlush() throws Exception
+    {
+        ReplicaRecord record = _store.get(PNFSID);
+
+        record.setLastAccessTime(2000L);
+        record.setLastAccessTime(3000L);
+
+        assertThat(record.getLastAccessTime(), is(3000L));
+        assertThat(_store.get(PNFSID).getLastAccessTime(), is(3000L));
+        verify(_innerRecord, never()).setLastAccessTime(anyLong());
+    }
+
+    @Test
+    public void shouldCoalesceUpdatesOfSameReplica() throws Exception
+    {
+        ReplicaRecord record = _store.get(PNFSID);
+        record.setLastAccessTime(2000L);
+        record.setLastAccessTime(3000L);
+
+        _store.flush();
+
+        verify(_innerRecord).setLastAccessTime(3000L);
+        verifyNoMoreInteractions(ignoreStubs(_innerRecord));
+        assertThat(_store.getPendingCount(), is(0));
+    }
+
+    @Test
+    public void shouldFlushOnClose() throws Exception
+    {
+        _store.get(PNFSID).setLastAccessTime(2000L);
+
+        _store.close();
+
+        verify(_innerRecord).setLastAccessTime(2000L);
+        verify(_inner).close();
+    }
+
+    @Test
+    public void shouldNotWriteAccessTimeOfRemovedReplica() throws Exception
+    {
+        _store.get(PNFSID).setLastAccessTime(2000L);
+
+        _store.remove(PNFSID);
+        _store.flush();
+
+        verify(_inner).remove(PNFSID);
+        verify(_innerRecord, never()).setLastAccessTime(anyLong());
+    }
+
+    @Test
+    public void shouldUseGroupCommitIfSupported() throws Exception
+    {
+        GroupCommitReplicaStore inner = mock(GroupCommitReplicaStore.class);
+        given(inner.get(PNFSID)).willReturn(_innerRecord);
+        willAnswer(invocation -> {
+            ((GroupCommitReplicaStore.Updates) invocation.getArguments()[0]).run();
+            return null;
+        }).given(inner).groupCommit(any());
+        WriteBehindReplicaStore store = new WriteBehindReplicaStore(inner, Duration.ofHours(1));
+
+        store.get(PNFSID).setLastAccessTime(2000L);
+        store.flush();
+
+        verify(inner).groupCommit(any());
+        verify(_innerRecord).setLastAccessTime(2000L);
+        store.close();
+    }
+
+    @Test
+    public void shouldWriteThroughWithoutWindow() throws Exception
+    {
+        WriteBehindReplicaStore store = new WriteBehindReplicaStore(_inner, Duration.ZERO);
+
+        store.get(PNFSID).setLastAccessTime(2000L);
+
+        verify(_innerRecord).setLastAccessTime(2000L);
+        store.close();
+    }
+
+    @Test
+    public void shouldFailAfterDiskError() throws Exception
+    {
+        willThrow(new DiskErrorCacheException("failed"))
+                .given(_innerRecord).setLastAccessTime(anyLong());
+        _store.get(PNFSID).setLastAccessTime(2000L);
+
+        _store.flush();
+
+        assertThat(_store.isOk(), is(false));
+    }
+}
@@ -0,0 +1,136 @@
+package org.dcache.pool.repository.inotify;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+
+import diskCacheV111.namespace.EventReceiver;
+import diskCacheV111.util.PnfsId;
+
+import org.dcache.pool.repository.RepositoryChannel;
+
+import static org.dcache.namespace.FileType.REGULAR;
+import static org.dcache.namespace.events.EventType.IN_ACCESS;
+import static org.dcache.namespace.events.EventType.IN_CLOSE_NOWRITE;
+import static org.dcache.namespace.events.EventType.IN_MODIFY;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class InotifyChannelTest
+{
+    private static final PnfsId FILE = new PnfsId("000000000000000000000000000000000001");
+
+    private EventReceiver receiver;
+    private NotificationAmplifier notification;
+
+    @Before
+    public void setup()
+    {
+        receiver = mock(EventReceiver.class);
+        notification = new NotificationAmplifier(receiver);
+    }
+
+    private InotifyChannel open(boolean forWrite)
+    {
+        return new InotifyChannel(mock(RepositoryChannel.class), notification, FILE, forWrite);
+    }
+
+    @Test
+    public void shouldSendEveryEventWithoutSuppression() throws IOException
+    {
+        notification.setIoSuppression(Duration.ZERO);
+        InotifyChannel channel = open(false);
+
+        channel.read(ByteBuffer.allocate(1));
+        channel.read(ByteBuffer.allocate(1));
+
+        verify(receiver, times(2)).notifySelfEvent(IN_ACCESS, FILE, REGULAR);
+    }
+
+    @Test
+    public void shouldCoalesceEventsAcrossChannelsOfSameFile() throws IOException
+    {
+        notification.setIoSuppression(Duration.ofHours(1));
+        InotifyChannel first = open(false);
+        InotifyChannel second = open(false);
+
+        for (int i = 0; i < 10; i++) {
+            first.read(ByteBuffer.allocate(1));
+            second.read(ByteBuffer.allocate(1), i);
+        }
+
+        verify(receiver, times(1)).notifySelfEvent(IN_ACCESS, FILE, REGULAR);
+    }
+
+    @Test
+    public void shouldSuppressReadsAndWritesIndependently() throws IOException
+    {
+        notification.setIoSuppression(Duration.ofHours(1));
+        InotifyChannel channel = open(true);
+
+        channel.read(ByteBuffer.allocate(1));
+        channel.write(ByteBuffer.allocate(1));
+        channel.read(ByteBuffer.allocate(1));
+        channel.write(ByteBuffer.allocate(1));
+
+        verify(receiver, times(1)).notifySelfEvent(IN_ACCESS, FILE, REGULAR);
+        verify(receiver, times(1)).notifySelfEvent(IN_MODIFY, FILE, REGULAR);
+    }
+
+    @Test
+    public void shouldForgetActivityOnceAllChannelsAreClosed() throws IOException
+    {
+        notification.setIoSuppression(Duration.ofHours(1));
+        InotifyChannel channel = open(false);
+        channel.read(ByteBuffer.allocate(1));
+        channel.close();
+
+        open(false).read(ByteBuffer.allocate(1));
+
+        verify(receiver, times(2)).notifySelfEvent(IN_ACCESS, FILE, REGULAR);
+        verify(receiver, times(1)).notifySelfEvent(IN_CLOSE_NOWRITE, FILE, REGULAR);
+    }
+
+    @Test
+    public void shouldDropEventsBeyondRateLimit() throws IOException
+    {
+        notification.setIoSuppression(Duration.ZERO);
+        notification.setIoRateLimit(0.001);
+        InotifyChannel channel = open(false);
+
+        for (int i = 0; i < 10; i++) {
+            channel.read(ByteBuffer.allocate(1));
+        }
+
+        verify(receiver, times(1)).notifySelfEvent(IN_ACCESS, FILE, REGULAR);
+        StringWriter info = new StringWriter();
+        notification.getInfo(new PrintWriter(info));
+        assertThat(info.toString(), containsString("Rate limited       : 9"));
+    }
+
+    @Test
+    public void shouldNotSuppressEventsAfterDroppedEvent() throws IOException
+    {
+        PnfsId other = new PnfsId("000000000000000000000000000000000002");
+        notification.setIoSuppression(Duration.ofHours(1));
+        notification.setIoRateLimit(0.001);
+        InotifyChannel channel = open(false);
+        InotifyChannel otherChannel = new InotifyChannel(mock(RepositoryChannel.class), notification, other, false);
+
+        channel.read(ByteBuffer.allocate(1));
+        otherChannel.read(ByteBuffer.allocate(1));
+        notification.setIoRateLimit(0);
+        otherChannel.read(ByteBuffer.allocate(1));
+
+        verify(receiver, times(1)).notifySelfEvent(IN_ACCESS, FILE, REGULAR);
+        verify(receiver, times(1)).notifySelfEvent(IN_ACCESS, other, REGULAR);
+    }
+}
@@ -0,0 +1,255 @@
+package org.dcache.pool.repository.meta.log;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.vehicles.GenericStorageInfo;
+
+import org.dcache.pool.repository.DuplicateEntryException;
+import org.dcache.pool.repository.FlatFileStore;
+import org.dcache.pool.repository.ReplicaRecord;
+import org.dcache.pool.repository.ReplicaState;
+import org.dcache.pool.repository.StickyRecord;
+import org.dcache.vehicles.FileAttributes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LogMetaDataRepositoryTest
+{
+    private static final PnfsId ID1 = new PnfsId("000000000000000000000000000000000001");
+    private static final PnfsId ID2 = new PnfsId("000000000000000000000000000000000002");
+
+    private Path _dir;
+    private FlatFileStore _fileStore;
+    private LogMetaDataRepository _store;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        _dir = Files.createTempDirectory("pool");
+        Files.createDirectory(_dir.resolve("data"));
+        _fileStore = new FlatFileStore(_dir);
+        _store = open();
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        _store.close();
+        try (Stream<Path> files = Files.walk(_dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private LogMetaDataRepository open() throws Exception
+    {
+        LogMetaDataRepository store = new LogMetaDataRepository(_fileStore, _dir, "pool");
+        store.setEnvironment(Collections.singletonMap("pool.plugins.meta.log.compaction-period", "0"));
+        store.init();
+        return store;
+    }
+
+    private LogMetaDataRepository reopen() throws Exception
+    {
+        _store.close();
+        _store = open();
+        return _store;
+    }
+
+    private List<Path> segments() throws IOException
+    {
+        try (Stream<Path> files = Files.list(_dir.resolve("meta-log"))) {
+            return files.filter(p -> p.toString().endsWith(".log")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private ReplicaRecord createPrecious(PnfsId id) throws CacheException
+    {
+        ReplicaRecord record = _store.create(id, EnumSet.of(StandardOpenOption.CREATE));
+        GenericStorageInfo info = new GenericStorageInfo("osm", "test:disk");
+        info.addLocation(java.net.URI.create("osm://osm/?store=test&bfid=1"));
+        info.setKey("flag-c", "1:1234");
+        FileAttributes attributes = FileAttributes.ofPnfsId(id);
+        attributes.setStorageInfo(info);
+        record.update("test", r -> {
+            r.setFileAttributes(attributes);
+            r.setSticky("system", StickyRecord.NON_EXPIRING, true);
+            return r.setState(ReplicaState.PRECIOUS);
+        });
+        return record;
+    }
+
+    @Test
+    public void shouldPersistRecords() throws Exception
+    {
+        createPrecious(ID1);
+
+        ReplicaRecord record = reopen().get(ID1);
+
+        assertEquals(ReplicaState.PRECIOUS, record.getState());
+        assertEquals(ImmutableSet.of(new StickyRecord("system", StickyRecord.NON_EXPIRING)),
+                     ImmutableSet.copyOf(record.stickyRecords()));
+        FileAttributes attributes = record.getFileAttributes();
+        assertEquals("osm", attributes.getStorageInfo().getHsm());
+        assertEquals("test:disk", attributes.getStorageInfo().getStorageClass());
+        assertEquals("1:1234", attributes.getStorageInfo().getKey("flag-c"));
+        assertEquals(1, attributes.getStorageInfo().locations().size());
+        assertEquals(ImmutableSet.of(ID1), _store.index(LogMetaDataRepository.IndexOption.META_ONLY));
+    }
+
+    @Test
+    public void shouldPersistLastAccessTime() throws Exception
+    {
+        createPrecious(ID1).setLastAccessTime(1234);
+
+        assertEquals(1234, reopen().get(ID1).getLastAccessTime());
+    }
+
+    @Test
+    public void shouldPersistGroupCommittedUpdates() throws Exception
+    {
+        ReplicaRecord first = createPrecious(ID1);
+        ReplicaRecord second = createPrecious(ID2);
+
+        _store.groupCommit(() -> {
+            first.setLastAccessTime(1234);
+            second.setLastAccessTime(5678);
+        });
+
+        reopen();
+        assertEquals(1234, _store.get(ID1).getLastAccessTime());
+        assertEquals(5678, _store.get(ID2).getLastAccessTime());
+    }
+
+    @Test
+    public void shouldNotPersistCreatedRecordsBeforeUpdate() throws Exception
+    {
+        _store.create(ID1, EnumSet.of(StandardOpenOption.CREATE));
+
+        assertTrue(reopen().index(LogMetaDataRepository.IndexOption.META_ONLY).isEmpty());
+        assertEquals(ReplicaState.BROKEN, _store.get(ID1).getState());
+    }
+
+    @Test(expected = DuplicateEntryException.class)
+    public void shouldRejectDuplicates() throws Exception
+    {
+        createPrecious(ID1);
+        _store.create(ID1, EnumSet.noneOf(StandardOpenOption.class));
+    }
+
+    @Test
+    public void shouldRemoveRecords() throws Exception
+    {
+        createPrecious(ID1);
+        createPrecious(ID2);
+
+        _store.remove(ID1);
+
+        assertNull(reopen().get(ID1));
+        assertEquals(ImmutableSet.of(ID2), _store.index(LogMetaDataRepository.IndexOption.META_ONLY));
+    }
+
+    @Test
+    public void shouldRemoveOrphanedRecordsOnRepair() throws Exception
+    {
+        createPrecious(ID1);
+        createPrecious(ID2);
+        _fileStore.remove(ID1);
+
+        assertEquals(ImmutableSet.of(ID2), _store.index(LogMetaDataRepository.IndexOption.ALLOW_REPAIR));
+        assertEquals(ImmutableSet.of(ID2), reopen().index(LogMetaDataRepository.IndexOption.META_ONLY));
+    }
+
+    @Test
+    public void shouldTruncateTornRecord() throws Exception
+    {
+        createPrecious(ID1);
+        createPrecious(ID2);
+        _store.close();
+
+        Path segment = segments().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        long size = Files.size(segment);
+
+        _store = open();
+        assertEquals(ReplicaState.PRECIOUS, _store.get(ID1).getState());
+        assertEquals(ImmutableSet.of(ID1), _store.index(LogMetaDataRepository.IndexOption.META_ONLY));
+        assertTrue(Files.size(segment) < size);
+
+        _fileStore.remove(ID2);
+        createPrecious(ID2);
+        assertEquals(ReplicaState.PRECIOUS, reopen().get(ID2).getState());
+    }
+
+    @Test
+    public void shouldCompactSegments() throws Exception
+    {
+        _store.close();
+        _store = new LogMetaDataRepository(_fileStore, _dir, "pool");
+        _store.setEnvironment(Collections.singletonMap("pool.plugins.meta.log.compaction-period", "0"));
+        _store.setSegmentSize(4096);
+        _store.init();
+
+        ReplicaRecord record = createPrecious(ID1);
+        createPrecious(ID2);
+        _store.remove(ID2);
+        for (int i = 0; i < 200; i++) {
+            record.setLastAccessTime(i);
+        }
+        int before = segments().size();
+        assertTrue(before > 2);
+
+        _store.compact();
+
+        assertTrue(segments().size() < before);
+        assertEquals(199, _store.get(ID1).getLastAccessTime());
+        assertEquals(199, reopen().get(ID1).getLastAccessTime());
+        assertNull(_store.get(ID2));
+        assertEquals(ImmutableSet.of(ID1), _store.index(LogMetaDataRepository.IndexOption.META_ONLY));
+    }
+
+    @Test
+    public void shouldNotResurrectRemovedRecordsAfterCompaction() throws Exception
+    {
+        _store.close();
+        _store = new LogMetaDataRepository(_fileStore, _dir, "pool");
+        _store.setEnvironment(Collections.singletonMap("pool.plugins.meta.log.compaction-period", "0"));
+        _store.setSegmentSize(4096);
+        _store.init();
+
+        createPrecious(ID2);
+        ReplicaRecord record = createPrecious(ID1);
+        for (int i = 0; i < 100; i++) {
+            record.setLastAccessTime(i);
+        }
+        _store.remove(ID2);
+        for (int i = 0; i < 100; i++) {
+            record.setLastAccessTime(i);
+        }
+
+        _store.compact();
+
+        assertFalse(reopen().index(LogMetaDataRepository.IndexOption.META_ONLY).contains(ID2));
+    }
+}
@@ -0,0 +1,210 @@
+package org.dcache.pool.repository.meta.log;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import diskCacheV111.util.PnfsId;
+
+import org.dcache.pool.repository.ReplicaState;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReplicaLogTest
+{
+    private static final PnfsId ID1 = new PnfsId("000000000000000000000000000000000001");
+    private static final PnfsId ID2 = new PnfsId("000000000000000000000000000000000002");
+    private static final PnfsId FILLER = new PnfsId("0000000000000000000000000000000000FF");
+
+    private Path _dir;
+    private ReplicaLog _log;
+    private int _files;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        _dir = Files.createTempDirectory("meta-log");
+        _log = new ReplicaLog(_dir, 512);
+        _log.open();
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        Thread.interrupted();
+        _log.close();
+        try (Stream<Path> files = Files.walk(_dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private static LogRecord record(PnfsId id, long lastAccessTime)
+    {
+        return new LogRecord(id, ReplicaState.CACHED, 0, lastAccessTime, 1024, ImmutableList.of(), null);
+    }
+
+    private void reopen() throws IOException
+    {
+        _log.close();
+        _log = new ReplicaLog(_dir, 512);
+        _log.open();
+    }
+
+    private List<Path> segments() throws IOException
+    {
+        try (Stream<Path> files = Files.list(_dir)) {
+            return files.sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Appends superseded records until the log rolls to a new segment.
+     */
+    private void fillSegment() throws IOException
+    {
+        int segments = segments().size();
+        for (long i = 0; segments().size() == segments; i++) {
+            _log.put(record(FILLER, i));
+        }
+    }
+
+    /**
+     * Appends records of new replicas until the log rolls to a new segment.
+     */
+    private void fillSegmentWithLiveRecords() throws IOException
+    {
+        int segments = segments().size();
+        while (segments().size() == segments) {
+            _log.put(record(new PnfsId(String.format("%036X", 0x1000 + ++_files)), 0));
+        }
+    }
+
+    private boolean hasTombstone(PnfsId id) throws IOException
+    {
+        byte[] raw = BaseEncoding.base16().decode(id.toString());
+        byte[] tombstone = Bytes.concat(new byte[] { ReplicaLog.REMOVE, (byte) raw.length }, raw);
+        for (Path segment : segments()) {
+            if (Bytes.indexOf(Files.readAllBytes(segment), tombstone) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void shouldDropTombstoneOnceNoOlderSegmentCanHoldItsKey() throws IOException
+    {
+        _log.put(record(ID1, 0));
+        _log.put(record(ID2, 0));
+        fillSegment();
+        _log.remove(ID2);
+        fillSegment();
+        fillSegmentWithLiveRecords();
+        fillSegment();
+
+        /* The tombstone is copied forward while the first segment remains. */
+        while (_log.compact(0.5)) {
+        }
+        assertTrue(hasTombstone(ID2));
+
+        /* Once its segment is compacted again, the segment of live records
+         * is older, but cannot hold records of the removed replica. */
+        fillSegment();
+        while (_log.compact(0.5)) {
+        }
+
+        assertFalse(hasTombstone(ID2));
+        reopen();
+        assertNull(_log.get(ID2));
+        assertEquals(0, _log.get(ID1).lastAccessTime);
+    }
+
+    @Test
+    public void shouldKeepTombstoneWhileOlderSegmentRemains() throws IOException
+    {
+        _log.put(record(ID2, 0));
+        fillSegmentWithLiveRecords();
+        _log.remove(ID2);
+        fillSegment();
+
+        while (_log.compact(0.5)) {
+        }
+
+        assertTrue(hasTombstone(ID2));
+        reopen();
+        assertNull(_log.get(ID2));
+    }
+
+    @Test
+    public void shouldFailReadWhenInterrupted() throws IOException
+    {
+        _log.put(record(ID1, 42));
+
+        Thread.currentThread().interrupt();
+        try {
+            _log.get(ID1);
+            fail("Read succeeded despite interrupt");
+        } catch (InterruptedIOException expected) {
+        }
+
+        assertTrue(Thread.interrupted());
+        assertEquals(42, _log.get(ID1).lastAccessTime);
+    }
+
+    @Test
+    public void shouldRecoverFromInterruptedWriter() throws IOException
+    {
+        _log.put(record(ID1, 1));
+
+        Thread.currentThread().interrupt();
+        try {
+            _log.put(record(ID1, 2));
+            fail("Write succeeded despite interrupt");
+        } catch (IOException expected) {
+        }
+        Thread.interrupted();
+
+        _log.put(record(ID2, 3));
+        assertEquals(3, _log.get(ID2).lastAccessTime);
+        reopen();
+        assertEquals(3, _log.get(ID2).lastAccessTime);
+        assertTrue(_log.contains(ID1));
+    }
+
+    @Test
+    public void shouldReadFromSegmentClosedByInterruptedThread() throws Exception
+    {
+        _log.put(record(ID1, 42));
+        List<Throwable> errors = new ArrayList<>();
+        Thread thread = new Thread(() -> {
+            Thread.currentThread().interrupt();
+            try {
+                _log.get(ID1);
+            } catch (IOException e) {
+                errors.add(e);
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertEquals(1, errors.size());
+        assertEquals(42, _log.get(ID1).lastAccessTime);
+    }
+}
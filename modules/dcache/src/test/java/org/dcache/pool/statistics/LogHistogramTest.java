@@ -0,0 +1,78 @@
+package org.dcache.pool.statistics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class LogHistogramTest
+{
+    private LogHistogram histogram;
+
+    @Before
+    public void setUp()
+    {
+        histogram = new LogHistogram();
+    }
+
+    @Test
+    public void shouldBeEmptyInitially()
+    {
+        assertThat(histogram.snapshot().length, is(0));
+        assertThat(LogHistogram.quantile(histogram.snapshot(), 0.5), is(-1L));
+        assertThat(LogHistogram.toString(histogram.snapshot()), is(""));
+    }
+
+    @Test
+    public void shouldCountValuesInPowerOfTwoBuckets()
+    {
+        histogram.record(0);
+        histogram.record(1);
+        histogram.record(2);
+        histogram.record(3);
+        histogram.record(1024);
+        histogram.record(2047);
+
+        assertArrayEquals(new long[] {1, 1, 2, 0, 0, 0, 0, 0, 0, 0, 0, 2}, histogram.snapshot());
+        assertThat(LogHistogram.toString(histogram.snapshot()), is("0:1,1:1,2:2,1024:2"));
+    }
+
+    @Test
+    public void shouldCountLargestValues()
+    {
+        histogram.record(Long.MAX_VALUE);
+
+        assertThat(histogram.snapshot().length, is(LogHistogram.BUCKETS));
+        assertThat(LogHistogram.quantile(histogram.snapshot(), 1), is(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void shouldProvideUpperBoundOfQuantiles()
+    {
+        for (int i = 0; i < 90; i++) {
+            histogram.record(100);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(5000);
+        }
+
+        long[] counts = histogram.snapshot();
+        assertThat(LogHistogram.quantile(counts, 0.5), is(128L));
+        assertThat(LogHistogram.quantile(counts, 0.9), is(128L));
+        assertThat(LogHistogram.quantile(counts, 0.99), is(8192L));
+    }
+
+    @Test
+    public void shouldAddSnapshots()
+    {
+        histogram.record(100);
+        LogHistogram other = new LogHistogram();
+        other.record(100);
+        other.record(5000);
+
+        histogram.add(other.snapshot());
+
+        assertThat(LogHistogram.toString(histogram.snapshot()), is("64:2,4096:1"));
+    }
+}
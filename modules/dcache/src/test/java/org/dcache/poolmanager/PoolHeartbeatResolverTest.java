@@ -0,0 +1,186 @@
+package org.dcache.poolmanager;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import diskCacheV111.pools.PoolCostInfo;
+import diskCacheV111.pools.PoolV2Mode;
+import diskCacheV111.vehicles.PoolManagerPoolUpMessage;
+
+import org.dcache.pool.classic.IoQueueManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PoolHeartbeatResolverTest
+{
+    private static final long SERIAL = 1234;
+
+    private PoolHeartbeatResolver resolver;
+
+    @Before
+    public void setUp()
+    {
+        resolver = new PoolHeartbeatResolver();
+    }
+
+    private static PoolCostInfo costInfo(long free)
+    {
+        PoolCostInfo info = new PoolCostInfo("pool", IoQueueManager.DEFAULT_QUEUE);
+        info.setSpaceUsage(1000, free, 0, 0);
+        info.setP2pClientQueueSizes(1, 10, 0);
+        return info;
+    }
+
+    private static PoolManagerPoolUpMessage full(long sequence, PoolCostInfo info)
+    {
+        PoolManagerPoolUpMessage message =
+                new PoolManagerPoolUpMessage("pool", SERIAL, new PoolV2Mode(PoolV2Mode.ENABLED), info);
+        message.setSequence(sequence);
+        message.setHostName("host");
+        message.setTagMap(ImmutableMap.of("rack", "a"));
+        return message;
+    }
+
+    private static PoolManagerPoolUpMessage delta(long serial, long sequence, long base, PoolCostInfo info)
+    {
+        PoolManagerPoolUpMessage message =
+                new PoolManagerPoolUpMessage("pool", serial, new PoolV2Mode(PoolV2Mode.ENABLED), info);
+        message.setSequence(sequence);
+        message.setDelta(base);
+        return message;
+    }
+
+    @Test
+    public void shouldPassFullHeartbeat()
+    {
+        PoolManagerPoolUpMessage message = full(1, costInfo(500));
+
+        assertEquals(Optional.of(message), resolver.resolve(message));
+    }
+
+    @Test
+    public void shouldFillUnchangedFieldsFromFullHeartbeat()
+    {
+        resolver.resolve(full(1, costInfo(500)));
+
+        PoolManagerPoolUpMessage resolved = resolver.resolve(delta(SERIAL, 2, 1, null)).get();
+
+        assertEquals(costInfo(500), resolved.getPoolCostInfo());
+        assertEquals("host", resolved.getHostName());
+        assertEquals(ImmutableMap.of("rack", "a"), resolved.getTagMap());
+        assertEquals(2, resolved.getSequence());
+        assertFalse(resolved.isDelta());
+    }
+
+    @Test
+    public void shouldUseChangedFieldsOfDelta()
+    {
+        resolver.resolve(full(1, costInfo(500)));
+
+        PoolManagerPoolUpMessage resolved = resolver.resolve(delta(SERIAL, 2, 1, costInfo(400))).get();
+
+        assertEquals(costInfo(400), resolved.getPoolCostInfo());
+    }
+
+    @Test
+    public void shouldApplyCostInfoDeltaToFullHeartbeat()
+    {
+        PoolCostInfo base = costInfo(500);
+        base.addExtendedMoverQueueSizes("regular", 1, 100, 0, 1, 0);
+        base.addExtendedMoverQueueSizes("wan", 2, 10, 0, 2, 0);
+        resolver.resolve(full(1, base));
+        PoolCostInfo current = costInfo(400);
+        current.addExtendedMoverQueueSizes("regular", 5, 100, 3, 4, 4);
+        current.addExtendedMoverQueueSizes("p2p", 1, 10, 0, 1, 0);
+        PoolManagerPoolUpMessage delta = delta(SERIAL, 2, 1, null);
+        delta.setPoolCostInfoDelta(current.deltaFrom(base));
+
+        PoolManagerPoolUpMessage resolved = resolver.resolve(delta).get();
+
+        assertEquals(current, resolved.getPoolCostInfo());
+    }
+
+    @Test
+    public void shouldOnlyIncludeChangedPartsInCostInfoDelta()
+    {
+        PoolCostInfo base = costInfo(500);
+        base.addExtendedMoverQueueSizes("regular", 1, 100, 0, 1, 0);
+        PoolCostInfo current = costInfo(400);
+        current.addExtendedMoverQueueSizes("regular", 1, 100, 0, 1, 0);
+        PoolCostInfo.Delta delta = current.deltaFrom(base);
+
+        /* Applying the delta to a cost info with different queues only
+         * changes the space info. */
+        PoolCostInfo other = costInfo(500);
+        other.setP2pClientQueueSizes(7, 10, 3);
+        other.addExtendedMoverQueueSizes("regular", 9, 100, 9, 9, 9);
+        PoolCostInfo expected = costInfo(400);
+        expected.setP2pClientQueueSizes(7, 10, 3);
+        expected.addExtendedMoverQueueSizes("regular", 9, 100, 9, 9, 9);
+
+        assertEquals(expected, new PoolCostInfo(other, delta));
+        assertTrue(costInfo(500).deltaFrom(costInfo(500)).isEmpty());
+    }
+
+    @Test
+    public void shouldUseCompleteCostInfoOfDeltaIfDifferenceCannotBeExpressed()
+    {
+        PoolCostInfo base = costInfo(500);
+        PoolCostInfo current = new PoolCostInfo("pool", "other-default");
+        current.setSpaceUsage(1000, 400, 0, 0);
+
+        assertNull(current.deltaFrom(base));
+    }
+
+    @Test
+    public void shouldNotShareCostInfoBetweenResolvedHeartbeats()
+    {
+        PoolManagerPoolUpMessage full = full(1, costInfo(500));
+        resolver.resolve(full);
+        full.getPoolCostInfo().getSpaceInfo().modifyPinnedSpace(100);
+
+        PoolManagerPoolUpMessage first = resolver.resolve(delta(SERIAL, 2, 1, null)).get();
+        first.getPoolCostInfo().getP2pClientQueue().modifyQueue(5);
+        PoolManagerPoolUpMessage second = resolver.resolve(delta(SERIAL, 3, 1, null)).get();
+
+        assertNotSame(first.getPoolCostInfo(), second.getPoolCostInfo());
+        assertEquals(costInfo(500), second.getPoolCostInfo());
+    }
+
+    @Test
+    public void shouldNotResolveDeltaWithoutFullHeartbeat()
+    {
+        assertFalse(resolver.resolve(delta(SERIAL, 2, 1, null)).isPresent());
+    }
+
+    @Test
+    public void shouldNotResolveDeltaOfOtherFullHeartbeat()
+    {
+        resolver.resolve(full(1, costInfo(500)));
+
+        assertFalse(resolver.resolve(delta(SERIAL, 12, 11, null)).isPresent());
+    }
+
+    @Test
+    public void shouldNotResolveDeltaOfRestartedPool()
+    {
+        resolver.resolve(full(1, costInfo(500)));
+
+        assertFalse(resolver.resolve(delta(SERIAL + 1, 2, 1, null)).isPresent());
+    }
+
+    @Test
+    public void shouldLimitRequestsForFullHeartbeats()
+    {
+        assertTrue(resolver.shouldRequestFull("pool"));
+        assertFalse(resolver.shouldRequestFull("pool"));
+        assertTrue(resolver.shouldRequestFull("other"));
+    }
+}
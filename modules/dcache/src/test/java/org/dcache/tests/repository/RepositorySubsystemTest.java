@@ -64,6 +64,7 @@ import org.dcache.util.ByteUnit;
 import org.dcache.vehicles.FileAttributes;
 import org.dcache.vehicles.PnfsSetFileAttributes;
 
+import static java.nio.charset.StandardCharsets.US_ASCII;
 import static java.nio.file.StandardOpenOption.APPEND;
 import static java.nio.file.StandardOpenOption.WRITE;
 
@@ -424,6 +425,45 @@ public class RepositorySubsystemTest
         assertSpaceRecord(repoSize, repoSize - 2048 - 1024, 1024, 1024);
     }
 
+    @Test
+    public void testCleanShutdownIsRecorded()
+        throws IOException, CacheException, InterruptedException, DatabaseException
+    {
+        Path state = metaRoot.resolve("inventory.state");
+        repository.setInventoryStateFile(state);
+        repository.init();
+        repository.load();
+        assertEquals("1 dirty", new String(Files.readAllBytes(state), US_ASCII));
+
+        sweeper.stop();
+        repository.shutdown();
+        replicaStore.close();
+        assertEquals("1 clean 3", new String(Files.readAllBytes(state), US_ASCII));
+
+        initRepository();
+        sweeper.setAccount(account);
+        sweeper.setRepository(repository);
+        sweeper.start();
+        repository.setInventoryStateFile(state);
+        repository.init();
+        repository.load();
+        assertEquals("2 dirty", new String(Files.readAllBytes(state), US_ASCII));
+        assertSpaceRecord(repoSize, repoSize - 2048 - 1024, 1024, 1024);
+    }
+
+    @Test
+    public void testInventoryIsReconciledIfCountDiffers()
+        throws IOException, CacheException, InterruptedException
+    {
+        Path state = metaRoot.resolve("inventory.state");
+        Files.write(state, "7 clean 2".getBytes(US_ASCII));
+        repository.setInventoryStateFile(state);
+        repository.init();
+        repository.load();
+        assertEquals("8 dirty", new String(Files.readAllBytes(state), US_ASCII));
+        assertSpaceRecord(repoSize, repoSize - 2048 - 1024, 1024, 1024);
+    }
+
     @Test
     public void testOpenEntryBeforeLoad()
         throws IOException, CacheException, InterruptedException
@@ -431,7 +431,7 @@ public class ChecksumsTests
     {
         String wantDigest = Checksums.buildGenericWantDigest();
 
-        assertThat(wantDigest, is(equalTo("md5,adler32;q=0.5")));
+        assertThat(wantDigest, is(equalTo("md5,adler32;q=0.7,crc32c;q=0.3")));
     }
 
     private Checksum newMd4Checksum(String value)
@@ -0,0 +1,60 @@
+#!/bin/sh
+#
+# Mock HSM helper for BatchScriptNearlineStorage.
+#
+# Completes each request after -delay seconds (default 0) with return code
+# -rc (default 0). A successful put reports a storage URI derived from the
+# PNFS ID. The helper exits when a request carries the -exit option.
+#
+TAB=$(printf '\t')
+
+option() # $1 = line, $2 = option
+{
+    echo "$1" | sed -n "s/.*${TAB}-$2=\([0-9.]*\).*/\1/p"
+}
+
+while IFS= read -r line; do
+    tag=${line%%"$TAB"*}
+    rest=${line#*"$TAB"}
+    op=${rest%%"$TAB"*}
+    args=${rest#*"$TAB"}
+    id=${args%%"$TAB"*}
+
+    delay=0
+    rc=0
+    case "$line" in
+        *"${TAB}-exit"*)
+            exit 1
+            ;;
+        *"${TAB}-delay="*)
+            delay=$(option "$line" delay)
+            ;;
+    esac
+    case "$line" in
+        *"${TAB}-rc="*)
+            rc=$(option "$line" rc)
+            ;;
+    esac
+
+    case "$op" in
+        cancel)
+            continue
+            ;;
+        put)
+            message="osm://osm/?store=test&bfid=$id"
+            ;;
+        *)
+            message=""
+            ;;
+    esac
+    if [ "$rc" -ne 0 ]; then
+        message="mock failure"
+    fi
+
+    if [ "$delay" = 0 ]; then
+        printf '%s\t%s\t%s\n' "$tag" "$rc" "$message"
+    else
+        (sleep "$delay"; printf '%s\t%s\t%s\n' "$tag" "$rc" "$message") &
+    fi
+done
+wait